@@ -1,7 +1,9 @@
 import java.io.InputStreamReader;
+import java.util.Arrays;
 
 import controller.ImageUtilController;
 import controller.ImageUtilControllerImpl;
+import controller.ImageUtilPipeController;
 import model.ImageUtilModel;
 import model.PPMUtilModel;
 import view.ImageUtilView;
@@ -11,15 +13,32 @@ import view.PPMUtilView;
 /**
  * Class that has the {@code main} method for the {@code ImageUtil class.} Creates the
  * controller and runs it.
+ *
+ * <p>Run with {@code -pipe} followed by a chain of steps, such as
+ * {@code -pipe "luma-component | brighten 10"}, it works as a Unix filter instead: PPM images
+ * are read from standard input, transformed, and written to standard output, and errors go to
+ * standard error.
  */
 public class ImageUtil {
   /**
    * Run file for {@code ImageUtil class.} Creates a {@code Readable} for the input, an
    * {@code Appendable} for the output, a model, a view, and a controller, and runs the controller.
+   * In pipe mode, exits with status 1 if the images couldn't be processed.
    *
    * @param args the user input/command line arguments.
    */
   public static void main(String[] args) {
+    if (args.length > 0 && args[0].equals("-pipe")) {
+      ImageUtilPipeController pipe = new ImageUtilPipeController(new PPMUtilModel(),
+          new PPMUtilView(System.err), System.in, System.out,
+          Arrays.copyOfRange(args, 1, args.length));
+      pipe.startEditor();
+      System.out.flush();
+      if (pipe.hasFailed()) {
+        System.exit(1);
+      }
+      return;
+    }
     Readable readable = new InputStreamReader(System.in);
     Appendable appendable = System.out;
     ImageUtilModel model = new PPMUtilModel();
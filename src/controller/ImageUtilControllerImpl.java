@@ -1,27 +1,54 @@
 package controller;
 
-import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Scanner;
+import java.util.Set;
 
 import model.ImageUtilModel;
 import view.ImageUtilView;
+import model.ImageUtilModel.ColorPreset;
 import model.ImageUtilModel.Grayscale;
+import model.ImageUtilModel.ResizeFilter;
+import model.ImageUtilModel.Sampling;
 
 
 /**
  * A class to implement the controller for the {@code ImageUtil}. Tells the model when to execute
  * the commands, and tells the view what to display when a command either succeeds or fails.
- * Currently, supports loading an image, saving an image, creating grayscale with the red,
- * green, blue, value, intensity, and luma components, flipping an image horizontally or
- * vertically, brightening or darkening an image, and reading a script from a txt file.
+ * Currently, supports loading an image, saving an image, creating grayscale with the red, green,
+ * blue, value, intensity, and luma components, flipping an image horizontally or vertically,
+ * turning it by quarter turns or any angle, transposing or warping it, mapping its colors through a
+ * color matrix, brightening or darkening an image, blurring or sharpening an image, finding edges,
+ * resizing, median filtering, eroding and dilating an image, box blurring, thresholding and
+ * measuring regions of an image with a summed-area table, showing the histogram and statistics of
+ * an image, stretching, equalizing and thresholding it by its histogram, saving in the background,
+ * exporting an image at several sizes, showing and limiting the memory used by images, storing
+ * images off the heap or as tiles, dropping and pinning images, streaming an image from one file to
+ * another a band of rows at a time, loading, editing and saving numbered sequences of frames, and
+ * reading a script from a txt file.
+ * While a script runs, the images of its upcoming {@code load} commands are prefetched by the
+ * model, prefetches that were never loaded are given up when the script is replaced or the editor
+ * stops, and with automatic drops on, every image the script creates is dropped right after its
+ * last use in the script.
  */
 public class ImageUtilControllerImpl implements ImageUtilController {
   private final ImageUtilModel model;
   private final ImageUtilView view;
   private final Readable readable;
+  private List<String> script;
+  private int scriptPosition;
+  private int prefetchPosition;
+  private Set<String> scriptWrites;
+  private boolean asyncSaves;
+  private boolean autoDrop;
+  private List<Set<String>> scriptDead;
 
   /**
    * Creates a controller for the {@code ImageUtil} application. Handles input from the user and
@@ -81,6 +108,11 @@ public class ImageUtilControllerImpl implements ImageUtilController {
       view.writeMessage("\"save-png filepath-on-disk reference-name\": Saves the image with the" +
               " name \"reference-name\" to your disk at the location \"filepath-on-disk\" as a " +
               "PNG file." + System.lineSeparator());
+      view.writeMessage("\"export-pyramid levels filepath-on-disk reference-name\": Saves " +
+              "the image with the name \"reference-name\" at \"levels\" sizes, each half " +
+              "the size of the one before, as both PPM and PNG files named " +
+              "\"filepath-on-disk\" followed by -1, -2, -4 and so on." +
+              System.lineSeparator());
       view.writeMessage("\"red-component reference-name new-reference-name\": Creates a " +
               "grayscale image with the red component of the image with the name " +
               "\"reference name\" and stores it with the name " +
@@ -111,18 +143,238 @@ public class ImageUtilControllerImpl implements ImageUtilController {
       view.writeMessage("\"vertical-flip reference-name new-reference-name\": Flips the " +
               "image with the name \"reference-name\" vertically and stores it with the " +
               "name \"new-reference-name\"." + System.lineSeparator());
+      view.writeMessage("\"rotate-90 reference-name new-reference-name\", \"rotate-180 ...\", " +
+              "\"rotate-270 ...\": Turns the image with the name \"reference-name\" " +
+              "clockwise by that many degrees and stores it with the name " +
+              "\"new-reference-name\"." + System.lineSeparator());
+      view.writeMessage("\"transpose reference-name new-reference-name\": Swaps the rows " +
+              "and columns of the image with the name \"reference-name\" and stores it with " +
+              "the name \"new-reference-name\"." + System.lineSeparator());
+      view.writeMessage("\"rotate sampling degrees reference-name new-reference-name\": " +
+              "Turns the image with the name \"reference-name\" clockwise by any number of " +
+              "degrees, sampling it with \"bilinear\" or \"bicubic\", into an image just large " +
+              "enough to hold it, and stores it with the name \"new-reference-name\"." +
+              System.lineSeparator());
+      view.writeMessage("\"affine sampling a b c d e f reference-name new-reference-name\": " +
+              "Moves every point (x, y) of the image with the name \"reference-name\" to " +
+              "(a x + b y + c, d x + e y + f), sampling it with \"bilinear\" or \"bicubic\", " +
+              "and stores it with the name \"new-reference-name\"." + System.lineSeparator());
+      view.writeMessage("\"color-matrix preset reference-name new-reference-name\", " +
+              "\"color-matrix r1 r2 r3 g1 g2 g3 b1 b2 b3 ...\": Makes every channel of " +
+              "the image with the name \"reference-name\" a weighted sum of its red, green " +
+              "and blue, given as nine weights, or twelve with an offset ending each row, or " +
+              "as the preset \"sepia\", \"red\", \"green\", \"blue\", \"intensity\", " +
+              "\"luma\", \"ycbcr\" or \"from-ycbcr\", and stores it with the name " +
+              "\"new-reference-name\"." + System.lineSeparator());
       view.writeMessage("\"brighten increment reference-name new-reference-name\": " +
               "Brightens the image with the name \"reference-name\" by \"increment\" and " +
               "stores it with the name \"new-reference-name\". Negative increments will darken " +
               "the image." + System.lineSeparator());
+      view.writeMessage("\"blur radius reference-name new-reference-name\": Blurs the " +
+              "image with the name \"reference-name\" with a Gaussian whose standard " +
+              "deviation is half of \"radius\" and stores it with the name " +
+              "\"new-reference-name\"." + System.lineSeparator());
+      view.writeMessage("\"sharpen radius reference-name new-reference-name\": Sharpens " +
+              "the image with the name \"reference-name\" against a blur of \"radius\" " +
+              "pixels and stores it with the name \"new-reference-name\"." +
+              System.lineSeparator());
+      view.writeMessage("\"edges reference-name new-reference-name\": Finds the edges in " +
+              "the luma of the image with the name \"reference-name\" and stores how strong " +
+              "they are as a gray image with the name \"new-reference-name\"." +
+              System.lineSeparator());
+      view.writeMessage("\"resize filter width height reference-name new-reference-name\": " +
+              "Resizes the image with the name \"reference-name\" to the given width and " +
+              "height with the filter \"box\", \"bilinear\" or \"lanczos\" and stores it " +
+              "with the name \"new-reference-name\"." + System.lineSeparator());
+      view.writeMessage("\"median radius reference-name new-reference-name\": Replaces " +
+              "every channel of every pixel of the image with the name \"reference-name\" " +
+              "with its median over the square reaching \"radius\" pixels around it, which " +
+              "removes specks, and stores it with the name \"new-reference-name\"." +
+              System.lineSeparator());
+      view.writeMessage("\"erode radius reference-name new-reference-name\": Takes the " +
+              "minimum of every channel over the square reaching \"radius\" pixels around " +
+              "every pixel of the image with the name \"reference-name\" and stores it with " +
+              "the name \"new-reference-name\"." + System.lineSeparator());
+      view.writeMessage("\"dilate radius reference-name new-reference-name\": Takes the " +
+              "maximum of every channel over the square reaching \"radius\" pixels around " +
+              "every pixel of the image with the name \"reference-name\" and stores it with " +
+              "the name \"new-reference-name\"." + System.lineSeparator());
+      view.writeMessage("\"box-blur radius reference-name new-reference-name\": Replaces " +
+              "every pixel of the image with the name \"reference-name\" with the mean of " +
+              "the square reaching \"radius\" pixels around it and stores it with the name " +
+              "\"new-reference-name\"." + System.lineSeparator());
+      view.writeMessage("\"adaptive-threshold radius offset reference-name " +
+              "new-reference-name\": Makes every pixel of the image with the name " +
+              "\"reference-name\" white if its luma is above the mean of the square reaching " +
+              "\"radius\" pixels around it less \"offset\", and black otherwise, and stores " +
+              "it with the name \"new-reference-name\"." + System.lineSeparator());
+      view.writeMessage("\"region-stats reference-name x y width height ...\": Shows the " +
+              "mean and standard deviation of the red, green and blue of each region of the " +
+              "image with the name \"reference-name\"." + System.lineSeparator());
+      view.writeMessage("\"histogram reference-name\": Shows how many pixels of the image " +
+              "with the name \"reference-name\" have each value of red, green, blue and " +
+              "luma, from 0 to 255." + System.lineSeparator());
+      view.writeMessage("\"stats reference-name\": Shows the minimum, maximum, mean and " +
+              "standard deviation of the red, green, blue and luma of the image with the " +
+              "name \"reference-name\"." + System.lineSeparator());
+      view.writeMessage("\"auto-levels reference-name new-reference-name\", \"equalize " +
+              "...\": Stretches the red, green and blue of the image with the name " +
+              "\"reference-name\" to run from 0 to 255, or spreads them to be used about " +
+              "equally often, and stores it with the name \"new-reference-name\"." +
+              System.lineSeparator());
+      view.writeMessage("\"threshold reference-name new-reference-name\": Makes every pixel " +
+              "of the image with the name \"reference-name\" white if its luma is above the " +
+              "level that best splits the image into dark and light, and black otherwise, " +
+              "and stores it with the name \"new-reference-name\"." + System.lineSeparator());
       view.writeMessage("\"read-script path-to-script\": Reads the txt file provided and " +
               "runs the commands inside of it." + System.lineSeparator());
+      view.writeMessage("\"async-saves on|off\": Turns saving in the background on or off. " +
+              "While it is on, saves return right away and the image is written while other " +
+              "commands run." + System.lineSeparator());
+      view.writeMessage("\"sync\": Waits for every save running in the background to finish " +
+              "and reports the ones that failed." + System.lineSeparator());
+      view.writeMessage("\"mem\": Shows how much memory every image uses, whether its " +
+              "pixels are in memory, spilled to disk, dropped until they are recomputed, or " +
+              "not read yet, and where it came from, along with how often pixel buffers were " +
+              "reused." + System.lineSeparator());
+      view.writeMessage("\"mem-budget megabytes\": Sets how much memory the images may use " +
+              "before the least recently used ones are spilled to disk or dropped." +
+              System.lineSeparator());
+      view.writeMessage("\"off-heap megabytes|off\": Stores the pixels of new images of at " +
+              "least this many megabytes outside of the Java heap, or turns that off." +
+              System.lineSeparator());
+      view.writeMessage("\"layout tiled|linear reference-name\": Stores the image with the " +
+              "name \"reference-name\" as 64 by 64 tiles, which keeps operations that read " +
+              "along columns fast on wide images, or row after row again." +
+              System.lineSeparator());
+      view.writeMessage("\"drop reference-name\": Removes the image with the name " +
+              "\"reference-name\" and frees its memory." + System.lineSeparator());
+      view.writeMessage("\"pin reference-name\": Keeps the image with the name " +
+              "\"reference-name\" in memory and out of automatic drops." +
+              System.lineSeparator());
+      view.writeMessage("\"unpin reference-name\": Undoes \"pin\"." + System.lineSeparator());
+      view.writeMessage("\"auto-drop on|off\": Turns automatic drops on or off. While it is " +
+              "on, scripts that are read drop every image they create right after its last " +
+              "use, unless it is pinned." + System.lineSeparator());
+      view.writeMessage("\"stream load filepath-on-disk | step | ... | save-ppm " +
+              "filepath-on-disk\": Applies the steps to the image on disk and saves the " +
+              "result, a band of rows at a time, without loading the whole image. Steps are " +
+              "the component commands, \"brighten increment\", \"horizontal-flip\" and " +
+              "\"vertical-flip\", without reference names." + System.lineSeparator());
+      view.writeMessage("\"load-sequence pattern sequence-name\": Loads every numbered " +
+              "frame that matches the pattern, such as frames/frame_#####.ppm, as one " +
+              "sequence. Every command that makes a new image from an image works on a " +
+              "sequence and gives a new sequence." + System.lineSeparator());
+      view.writeMessage("\"save-sequence pattern sequence-name\": Runs the commands on " +
+              "every frame of the sequence, several frames at a time, and saves each frame " +
+              "under its number in the pattern, as PNG if it ends in .png and PPM otherwise." +
+              System.lineSeparator());
     } catch (IOException e) {
       System.out.println(e.getMessage());
     }
   }
 
 
+  /**
+   * Looks ahead in the running script and asks the model to prefetch the images that upcoming
+   * {@code load} commands will read, so they are decoded while the current command runs. Stops
+   * when the model refuses a prefetch because its memory budget is used up, and tries again
+   * after the next command. Files that the script saves to are never prefetched, since they may
+   * not have been written yet.
+   */
+  private void prefetchUpcomingLoads() {
+    this.prefetchPosition = Math.max(this.prefetchPosition, this.scriptPosition);
+    while (this.prefetchPosition < this.script.size()) {
+      String[] command = this.script.get(this.prefetchPosition).split(" ");
+      if (command.length >= 2) {
+        switch (command[0]) {
+          case "load":
+            if (!this.scriptWrites.contains(normalizePath(command[1]))
+                    && !model.prefetchImage(command[1])) {
+              return;
+            }
+            break;
+          case "save-ppm":
+            this.scriptWrites.add(normalizePath(command[1] + ".ppm"));
+            break;
+          case "save-png":
+            this.scriptWrites.add(normalizePath(command[1] + ".png"));
+            break;
+          case "export-pyramid":
+            if (command.length >= 3) {
+              try {
+                int levels = Integer.parseInt(command[1]);
+                for (int level = 0; level < Math.min(levels, 32); level += 1) {
+                  String name = command[2] + "-" + (1L << level);
+                  this.scriptWrites.add(normalizePath(name + ".ppm"));
+                  this.scriptWrites.add(normalizePath(name + ".png"));
+                }
+              } catch (NumberFormatException e) {
+                // the command will fail without writing anything
+              }
+            }
+            break;
+          case "stream":
+            this.scriptWrites.add(normalizePath(command[command.length - 1] + ".ppm"));
+            break;
+          default:
+            break;
+        }
+      }
+      this.prefetchPosition += 1;
+    }
+  }
+
+  /**
+   * Turns a path into an absolute, normalized path so different spellings of it compare equal.
+   *
+   * @param path the path to normalize
+   * @return the normalized path
+   */
+  private static String normalizePath(String path) {
+    try {
+      return Paths.get(path).toAbsolutePath().normalize().toString();
+    } catch (IllegalArgumentException e) {
+      return path;
+    }
+  }
+
+  /**
+   * Drops the images a script no longer needs, skipping pinned ones and ones that no longer
+   * exist, for example because the command that would have created them failed.
+   *
+   * @param names the names of the images to drop
+   */
+  private void dropDead(Set<String> names) {
+    for (String name : names) {
+      try {
+        if (!model.isPinned(name)) {
+          model.dropImage(name);
+        }
+      } catch (IllegalArgumentException e) {
+        // nothing to drop
+      }
+    }
+  }
+
+  /**
+   * Waits for the saves the model is running in the background and writes a message for every
+   * one of them that failed.
+   *
+   * @return true if all of the saves succeeded
+   */
+  private boolean reportSaveErrors() {
+    List<String> errors = model.awaitSaves();
+    for (String error : errors) {
+      try {
+        view.writeMessage(error + System.lineSeparator());
+      } catch (IOException e) {
+        System.out.println(e.getMessage());
+      }
+    }
+    return errors.isEmpty();
+  }
+
   @Override
   public void startEditor() throws IllegalArgumentException {
     boolean quitEditor = false;
@@ -135,8 +387,15 @@ public class ImageUtilControllerImpl implements ImageUtilController {
       try {
         input = this.getUserInput(sc);
       } catch (IllegalStateException e) {
+        this.reportSaveErrors();
         break;
       }
+      if (this.script != null) {
+        this.scriptPosition += 1;
+        this.prefetchUpcomingLoads();
+      }
+      List<Set<String>> dead = this.scriptDead;
+      int line = this.scriptPosition - 1;
       try {
         switch (input[0]) {
           case "load":
@@ -186,7 +445,7 @@ public class ImageUtilControllerImpl implements ImageUtilController {
             } catch (IllegalArgumentException e) {
               try {
                 completedCommand = false;
-                view.writeMessage("That image hasn't been loaded yet.");
+                view.writeMessage(e.getMessage());
               } catch (IOException ex) {
                 System.out.println(ex.getMessage());
               }
@@ -201,7 +460,7 @@ public class ImageUtilControllerImpl implements ImageUtilController {
 
             if (completedCommand) {
               try {
-                view.writeMessage("Save successful");
+                view.writeMessage(this.asyncSaves ? "Save queued" : "Save successful");
               } catch (IOException e) {
                 System.out.println(e.getMessage());
               }
@@ -227,7 +486,62 @@ public class ImageUtilControllerImpl implements ImageUtilController {
             } catch (IllegalArgumentException e) {
               try {
                 completedCommand = false;
-                view.writeMessage("That image hasn't been loaded yet.");
+                view.writeMessage(e.getMessage());
+              } catch (IOException ex) {
+                System.out.println(ex.getMessage());
+              }
+            } catch (IllegalStateException e) {
+              try {
+                completedCommand = false;
+                view.writeMessage(e.getMessage());
+              } catch (IOException ex) {
+                System.out.println(ex.getMessage());
+              }
+            }
+
+            if (completedCommand) {
+              try {
+                view.writeMessage(this.asyncSaves ? "Save queued" : "Save successful");
+              } catch (IOException e) {
+                System.out.println(e.getMessage());
+              }
+            }
+            break;
+          case "export-pyramid":
+            int levels = 0;
+            try {
+              levels = Integer.parseInt(input[1]);
+              if (levels < 1) {
+                completedCommand = false;
+                view.writeMessage("Levels must be at least 1.");
+              } else {
+                levels = model.exportPyramid(levels, input[2], input[3]);
+              }
+            } catch (NumberFormatException e) {
+              try {
+                completedCommand = false;
+                view.writeMessage("Levels is not a number.");
+              } catch (IOException ex) {
+                System.out.println(ex.getMessage());
+              }
+            } catch (IndexOutOfBoundsException e) {
+              try {
+                completedCommand = false;
+                view.writeMessage("Not enough inputs.");
+              } catch (IOException ex) {
+                System.out.println(ex.getMessage());
+              }
+            } catch (IOException e) {
+              try {
+                completedCommand = false;
+                view.writeMessage("Filepath doesn't exist!");
+              } catch (IOException ex) {
+                System.out.println(ex.getMessage());
+              }
+            } catch (IllegalArgumentException e) {
+              try {
+                completedCommand = false;
+                view.writeMessage(e.getMessage());
               } catch (IOException ex) {
                 System.out.println(ex.getMessage());
               }
@@ -242,7 +556,7 @@ public class ImageUtilControllerImpl implements ImageUtilController {
 
             if (completedCommand) {
               try {
-                view.writeMessage("Save successful");
+                view.writeMessage("Exported " + levels + " levels");
               } catch (IOException e) {
                 System.out.println(e.getMessage());
               }
@@ -261,7 +575,7 @@ public class ImageUtilControllerImpl implements ImageUtilController {
             } catch (IllegalArgumentException e) {
               try {
                 completedCommand = false;
-                view.writeMessage("That image hasn't been loaded yet.");
+                view.writeMessage(e.getMessage());
               } catch (IOException ex) {
                 System.out.println(ex.getMessage());
               }
@@ -295,7 +609,7 @@ public class ImageUtilControllerImpl implements ImageUtilController {
             } catch (IllegalArgumentException e) {
               try {
                 completedCommand = false;
-                view.writeMessage("That image hasn't been loaded yet.");
+                view.writeMessage(e.getMessage());
               } catch (IOException ex) {
                 System.out.println(ex.getMessage());
               }
@@ -329,7 +643,7 @@ public class ImageUtilControllerImpl implements ImageUtilController {
             } catch (IllegalArgumentException e) {
               try {
                 completedCommand = false;
-                view.writeMessage("That image hasn't been loaded yet.");
+                view.writeMessage(e.getMessage());
               } catch (IOException ex) {
                 System.out.println(ex.getMessage());
               }
@@ -363,7 +677,7 @@ public class ImageUtilControllerImpl implements ImageUtilController {
             } catch (IllegalArgumentException e) {
               try {
                 completedCommand = false;
-                view.writeMessage("That image hasn't been loaded yet.");
+                view.writeMessage(e.getMessage());
               } catch (IOException ex) {
                 System.out.println(ex.getMessage());
               }
@@ -397,7 +711,7 @@ public class ImageUtilControllerImpl implements ImageUtilController {
             } catch (IllegalArgumentException e) {
               try {
                 completedCommand = false;
-                view.writeMessage("That image hasn't been loaded yet.");
+                view.writeMessage(e.getMessage());
               } catch (IOException ex) {
                 System.out.println(ex.getMessage());
               }
@@ -431,7 +745,7 @@ public class ImageUtilControllerImpl implements ImageUtilController {
             } catch (IllegalArgumentException e) {
               try {
                 completedCommand = false;
-                view.writeMessage("That image hasn't been loaded yet.");
+                view.writeMessage(e.getMessage());
               } catch (IOException ex) {
                 System.out.println(ex.getMessage());
               }
@@ -465,7 +779,7 @@ public class ImageUtilControllerImpl implements ImageUtilController {
             } catch (IllegalArgumentException e) {
               try {
                 completedCommand = false;
-                view.writeMessage("That image hasn't been loaded yet.");
+                view.writeMessage(e.getMessage());
               } catch (IOException ex) {
                 System.out.println(ex.getMessage());
               }
@@ -499,7 +813,7 @@ public class ImageUtilControllerImpl implements ImageUtilController {
             } catch (IllegalArgumentException e) {
               try {
                 completedCommand = false;
-                view.writeMessage("That image hasn't been loaded yet.");
+                view.writeMessage(e.getMessage());
               } catch (IOException ex) {
                 System.out.println(ex.getMessage());
               }
@@ -520,13 +834,83 @@ public class ImageUtilControllerImpl implements ImageUtilController {
               }
             }
             break;
-          case "brighten":
+          case "rotate-90":
+          case "rotate-180":
+          case "rotate-270":
+          case "transpose":
             try {
-              model.brighten(Integer.parseInt(input[1]), input[2], input[3]);
+              switch (input[0]) {
+                case "rotate-90":
+                  model.rotate90(input[1], input[2]);
+                  break;
+                case "rotate-180":
+                  model.rotate180(input[1], input[2]);
+                  break;
+                case "rotate-270":
+                  model.rotate270(input[1], input[2]);
+                  break;
+                default:
+                  model.transpose(input[1], input[2]);
+                  break;
+              }
+            } catch (IndexOutOfBoundsException e) {
+              try {
+                completedCommand = false;
+                view.writeMessage("Not enough inputs.");
+              } catch (IOException ex) {
+                System.out.println(ex.getMessage());
+              }
+            } catch (IllegalArgumentException e) {
+              try {
+                completedCommand = false;
+                view.writeMessage(e.getMessage());
+              } catch (IOException ex) {
+                System.out.println(ex.getMessage());
+              }
+            } catch (IllegalStateException e) {
+              try {
+                completedCommand = false;
+                view.writeMessage(e.getMessage());
+              } catch (IOException ex) {
+                System.out.println(ex.getMessage());
+              }
+            }
+
+            if (completedCommand) {
+              try {
+                if (input[0].equals("transpose")) {
+                  view.writeMessage("Transpose completed");
+                } else {
+                  view.writeMessage("Image rotated " + input[0].substring("rotate-".length())
+                      + " degrees");
+                }
+              } catch (IOException e) {
+                System.out.println(e.getMessage());
+              }
+            }
+            break;
+          case "rotate":
+            try {
+              Sampling sampling = null;
+              if (input[1].equals("bilinear")) {
+                sampling = Sampling.Bilinear;
+              } else if (input[1].equals("bicubic")) {
+                sampling = Sampling.Bicubic;
+              }
+              double degrees = Double.parseDouble(input[2]);
+              if (sampling == null) {
+                completedCommand = false;
+                view.writeMessage("Sampling has to be bilinear or bicubic.");
+              } else if (!Double.isFinite(degrees)) {
+                completedCommand = false;
+                view.writeMessage("Degrees is not a number.");
+              } else {
+                model.rotate(sampling, degrees, input[3], input[4]);
+              }
             } catch (NumberFormatException e) {
               try {
                 completedCommand = false;
-                view.writeMessage("Increment is not a number.");
+                view.writeMessage("Degrees is not a number.");
               } catch (IOException ex) {
                 System.out.println(ex.getMessage());
               }
@@ -540,7 +924,7 @@ public class ImageUtilControllerImpl implements ImageUtilController {
             } catch (IllegalArgumentException e) {
               try {
                 completedCommand = false;
-                view.writeMessage("That image hasn't been loaded yet.");
+                view.writeMessage(e.getMessage());
               } catch (IOException ex) {
                 System.out.println(ex.getMessage());
               }
@@ -551,20 +935,52 @@ public class ImageUtilControllerImpl implements ImageUtilController {
               } catch (IOException ex) {
                 System.out.println(ex.getMessage());
               }
+            } catch (IOException e) {
+              System.out.println(e.getMessage());
             }
 
             if (completedCommand) {
               try {
-                view.writeMessage("Image brightened by " + input[1]);
+                view.writeMessage("Image rotated " + input[2] + " degrees");
               } catch (IOException e) {
                 System.out.println(e.getMessage());
               }
             }
             break;
-          case "read-script":
+          case "affine":
             try {
-              File file = new File(input[1]);
-              sc = new Scanner(file);
+              Sampling sampling = null;
+              if (input[1].equals("bilinear")) {
+                sampling = Sampling.Bilinear;
+              } else if (input[1].equals("bicubic")) {
+                sampling = Sampling.Bicubic;
+              }
+              double[] matrix = new double[6];
+              boolean finite = true;
+              for (int i = 0; i < matrix.length; i += 1) {
+                matrix[i] = Double.parseDouble(input[2 + i]);
+                finite = finite && Double.isFinite(matrix[i]);
+              }
+              double determinant = matrix[0] * matrix[4] - matrix[1] * matrix[3];
+              if (sampling == null) {
+                completedCommand = false;
+                view.writeMessage("Sampling has to be bilinear or bicubic.");
+              } else if (!finite) {
+                completedCommand = false;
+                view.writeMessage("Matrix entries have to be numbers.");
+              } else if (determinant == 0 || !Double.isFinite(1 / determinant)) {
+                completedCommand = false;
+                view.writeMessage("The matrix can't be inverted.");
+              } else {
+                model.affine(sampling, matrix, input[8], input[9]);
+              }
+            } catch (NumberFormatException e) {
+              try {
+                completedCommand = false;
+                view.writeMessage("Matrix entries have to be numbers.");
+              } catch (IOException ex) {
+                System.out.println(ex.getMessage());
+              }
             } catch (IndexOutOfBoundsException e) {
               try {
                 completedCommand = false;
@@ -572,45 +988,1094 @@ public class ImageUtilControllerImpl implements ImageUtilController {
               } catch (IOException ex) {
                 System.out.println(ex.getMessage());
               }
-            } catch (FileNotFoundException e) {
+            } catch (IllegalArgumentException e) {
               try {
                 completedCommand = false;
-                view.writeMessage("Filepath doesn't exist!");
+                view.writeMessage(e.getMessage());
               } catch (IOException ex) {
                 System.out.println(ex.getMessage());
               }
             } catch (IllegalStateException e) {
-              completedCommand = true;
-              sc = new Scanner(readable);
+              try {
+                completedCommand = false;
+                view.writeMessage(e.getMessage());
+              } catch (IOException ex) {
+                System.out.println(ex.getMessage());
+              }
+            } catch (IOException e) {
+              System.out.println(e.getMessage());
             }
 
             if (completedCommand) {
               try {
-                view.writeMessage("Script file loaded");
+                view.writeMessage("Affine warp completed");
               } catch (IOException e) {
                 System.out.println(e.getMessage());
               }
             }
             break;
-          case "q":
-            quitEditor = true;
+          case "color-matrix":
             try {
-              view.writeMessage("Quitting.");
+              if (input.length <= 4) {
+                ColorPreset preset = null;
+                switch (input[1]) {
+                  case "sepia":
+                    preset = ColorPreset.Sepia;
+                    break;
+                  case "red":
+                    preset = ColorPreset.Red;
+                    break;
+                  case "green":
+                    preset = ColorPreset.Green;
+                    break;
+                  case "blue":
+                    preset = ColorPreset.Blue;
+                    break;
+                  case "intensity":
+                    preset = ColorPreset.Intensity;
+                    break;
+                  case "luma":
+                    preset = ColorPreset.Luma;
+                    break;
+                  case "ycbcr":
+                    preset = ColorPreset.YCbCr;
+                    break;
+                  case "from-ycbcr":
+                    preset = ColorPreset.FromYCbCr;
+                    break;
+                  default:
+                    break;
+                }
+                if (preset == null) {
+                  completedCommand = false;
+                  view.writeMessage("Preset has to be sepia, red, green, blue, intensity, luma, "
+                      + "ycbcr or from-ycbcr.");
+                } else {
+                  model.colorMatrix(preset, input[2], input[3]);
+                }
+              } else {
+                double[] matrix = new double[input.length - 3];
+                boolean inRange = true;
+                for (int i = 0; i < matrix.length; i += 1) {
+                  matrix[i] = Double.parseDouble(input[1 + i]);
+                  inRange = inRange && Math.abs(matrix[i]) <= 4096;
+                }
+                if (matrix.length != 9 && matrix.length != 12) {
+                  completedCommand = false;
+                  view.writeMessage("A color matrix has 9 or 12 entries.");
+                } else if (!inRange) {
+                  completedCommand = false;
+                  view.writeMessage("Matrix entries have to be between -4096 and 4096.");
+                } else {
+                  model.colorMatrix(matrix, input[input.length - 2], input[input.length - 1]);
+                }
+              }
+            } catch (NumberFormatException e) {
+              try {
+                completedCommand = false;
+                view.writeMessage("Matrix entries have to be numbers.");
+              } catch (IOException ex) {
+                System.out.println(ex.getMessage());
+              }
+            } catch (IndexOutOfBoundsException e) {
+              try {
+                completedCommand = false;
+                view.writeMessage("Not enough inputs.");
+              } catch (IOException ex) {
+                System.out.println(ex.getMessage());
+              }
+            } catch (IllegalArgumentException e) {
+              try {
+                completedCommand = false;
+                view.writeMessage(e.getMessage());
+              } catch (IOException ex) {
+                System.out.println(ex.getMessage());
+              }
+            } catch (IllegalStateException e) {
+              try {
+                completedCommand = false;
+                view.writeMessage(e.getMessage());
+              } catch (IOException ex) {
+                System.out.println(ex.getMessage());
+              }
             } catch (IOException e) {
               System.out.println(e.getMessage());
             }
+
+            if (completedCommand) {
+              try {
+                view.writeMessage("Color matrix applied");
+              } catch (IOException e) {
+                System.out.println(e.getMessage());
+              }
+            }
             break;
-          default:
+          case "brighten":
             try {
-              view.writeMessage("Invalid input, try again.");
-            } catch (IOException e) {
-              System.out.println(e.getMessage());
+              model.brighten(Integer.parseInt(input[1]), input[2], input[3]);
+            } catch (NumberFormatException e) {
+              try {
+                completedCommand = false;
+                view.writeMessage("Increment is not a number.");
+              } catch (IOException ex) {
+                System.out.println(ex.getMessage());
+              }
+            } catch (IndexOutOfBoundsException e) {
+              try {
+                completedCommand = false;
+                view.writeMessage("Not enough inputs.");
+              } catch (IOException ex) {
+                System.out.println(ex.getMessage());
+              }
+            } catch (IllegalArgumentException e) {
+              try {
+                completedCommand = false;
+                view.writeMessage(e.getMessage());
+              } catch (IOException ex) {
+                System.out.println(ex.getMessage());
+              }
+            } catch (IllegalStateException e) {
+              try {
+                completedCommand = false;
+                view.writeMessage(e.getMessage());
+              } catch (IOException ex) {
+                System.out.println(ex.getMessage());
+              }
             }
-            break;
-        }
-      } catch (IndexOutOfBoundsException e) {
-        System.out.println(e.getMessage());
+
+            if (completedCommand) {
+              try {
+                view.writeMessage("Image brightened by " + input[1]);
+              } catch (IOException e) {
+                System.out.println(e.getMessage());
+              }
+            }
+            break;
+          case "blur":
+          case "sharpen":
+            try {
+              int radius = Integer.parseInt(input[1]);
+              if (radius < 1) {
+                completedCommand = false;
+                view.writeMessage("Radius must be at least 1.");
+              } else if (input[0].equals("blur")) {
+                model.blur(radius, input[2], input[3]);
+              } else {
+                model.sharpen(radius, input[2], input[3]);
+              }
+            } catch (NumberFormatException e) {
+              try {
+                completedCommand = false;
+                view.writeMessage("Radius is not a number.");
+              } catch (IOException ex) {
+                System.out.println(ex.getMessage());
+              }
+            } catch (IndexOutOfBoundsException e) {
+              try {
+                completedCommand = false;
+                view.writeMessage("Not enough inputs.");
+              } catch (IOException ex) {
+                System.out.println(ex.getMessage());
+              }
+            } catch (IllegalArgumentException e) {
+              try {
+                completedCommand = false;
+                view.writeMessage(e.getMessage());
+              } catch (IOException ex) {
+                System.out.println(ex.getMessage());
+              }
+            } catch (IllegalStateException e) {
+              try {
+                completedCommand = false;
+                view.writeMessage(e.getMessage());
+              } catch (IOException ex) {
+                System.out.println(ex.getMessage());
+              }
+            } catch (IOException e) {
+              System.out.println(e.getMessage());
+            }
+
+            if (completedCommand) {
+              try {
+                view.writeMessage((input[0].equals("blur") ? "Image blurred" : "Image sharpened")
+                        + " with radius " + input[1]);
+              } catch (IOException e) {
+                System.out.println(e.getMessage());
+              }
+            }
+            break;
+          case "box-blur":
+            try {
+              int radius = Integer.parseInt(input[1]);
+              if (radius < 1) {
+                completedCommand = false;
+                view.writeMessage("Radius must be at least 1.");
+              } else {
+                model.boxBlur(radius, input[2], input[3]);
+              }
+            } catch (NumberFormatException e) {
+              try {
+                completedCommand = false;
+                view.writeMessage("Radius is not a number.");
+              } catch (IOException ex) {
+                System.out.println(ex.getMessage());
+              }
+            } catch (IndexOutOfBoundsException e) {
+              try {
+                completedCommand = false;
+                view.writeMessage("Not enough inputs.");
+              } catch (IOException ex) {
+                System.out.println(ex.getMessage());
+              }
+            } catch (IllegalArgumentException e) {
+              try {
+                completedCommand = false;
+                view.writeMessage(e.getMessage());
+              } catch (IOException ex) {
+                System.out.println(ex.getMessage());
+              }
+            } catch (IllegalStateException e) {
+              try {
+                completedCommand = false;
+                view.writeMessage(e.getMessage());
+              } catch (IOException ex) {
+                System.out.println(ex.getMessage());
+              }
+            } catch (IOException e) {
+              System.out.println(e.getMessage());
+            }
+
+            if (completedCommand) {
+              try {
+                view.writeMessage("Image box blurred with radius " + input[1]);
+              } catch (IOException e) {
+                System.out.println(e.getMessage());
+              }
+            }
+            break;
+          case "edges":
+            try {
+              model.edges(input[1], input[2]);
+            } catch (IndexOutOfBoundsException e) {
+              try {
+                completedCommand = false;
+                view.writeMessage("Not enough inputs.");
+              } catch (IOException ex) {
+                System.out.println(ex.getMessage());
+              }
+            } catch (IllegalArgumentException e) {
+              try {
+                completedCommand = false;
+                view.writeMessage(e.getMessage());
+              } catch (IOException ex) {
+                System.out.println(ex.getMessage());
+              }
+            } catch (IllegalStateException e) {
+              try {
+                completedCommand = false;
+                view.writeMessage(e.getMessage());
+              } catch (IOException ex) {
+                System.out.println(ex.getMessage());
+              }
+            }
+
+            if (completedCommand) {
+              try {
+                view.writeMessage("Edge detection completed");
+              } catch (IOException e) {
+                System.out.println(e.getMessage());
+              }
+            }
+            break;
+          case "resize":
+            try {
+              ResizeFilter filter = null;
+              switch (input[1]) {
+                case "box":
+                  filter = ResizeFilter.Box;
+                  break;
+                case "bilinear":
+                  filter = ResizeFilter.Bilinear;
+                  break;
+                case "lanczos":
+                  filter = ResizeFilter.Lanczos;
+                  break;
+                default:
+                  break;
+              }
+              int width = Integer.parseInt(input[2]);
+              int height = Integer.parseInt(input[3]);
+              if (filter == null) {
+                completedCommand = false;
+                view.writeMessage("Filter has to be box, bilinear or lanczos.");
+              } else if (width < 1 || height < 1) {
+                completedCommand = false;
+                view.writeMessage("Width and height have to be at least 1.");
+              } else if ((long) width * height > Integer.MAX_VALUE) {
+                completedCommand = false;
+                view.writeMessage("The size is too large.");
+              } else {
+                model.resize(filter, width, height, input[4], input[5]);
+              }
+            } catch (NumberFormatException e) {
+              try {
+                completedCommand = false;
+                view.writeMessage("Width and height have to be numbers.");
+              } catch (IOException ex) {
+                System.out.println(ex.getMessage());
+              }
+            } catch (IndexOutOfBoundsException e) {
+              try {
+                completedCommand = false;
+                view.writeMessage("Not enough inputs.");
+              } catch (IOException ex) {
+                System.out.println(ex.getMessage());
+              }
+            } catch (IllegalArgumentException e) {
+              try {
+                completedCommand = false;
+                view.writeMessage(e.getMessage());
+              } catch (IOException ex) {
+                System.out.println(ex.getMessage());
+              }
+            } catch (IllegalStateException e) {
+              try {
+                completedCommand = false;
+                view.writeMessage(e.getMessage());
+              } catch (IOException ex) {
+                System.out.println(ex.getMessage());
+              }
+            } catch (IOException e) {
+              System.out.println(e.getMessage());
+            }
+
+            if (completedCommand) {
+              try {
+                view.writeMessage("Image resized to " + input[2] + "x" + input[3]);
+              } catch (IOException e) {
+                System.out.println(e.getMessage());
+              }
+            }
+            break;
+          case "median":
+          case "erode":
+          case "dilate":
+            try {
+              int radius = Integer.parseInt(input[1]);
+              if (radius < 1) {
+                completedCommand = false;
+                view.writeMessage("Radius must be at least 1.");
+              } else if (input[0].equals("median")) {
+                model.median(radius, input[2], input[3]);
+              } else if (input[0].equals("erode")) {
+                model.erode(radius, input[2], input[3]);
+              } else {
+                model.dilate(radius, input[2], input[3]);
+              }
+            } catch (NumberFormatException e) {
+              try {
+                completedCommand = false;
+                view.writeMessage("Radius is not a number.");
+              } catch (IOException ex) {
+                System.out.println(ex.getMessage());
+              }
+            } catch (IndexOutOfBoundsException e) {
+              try {
+                completedCommand = false;
+                view.writeMessage("Not enough inputs.");
+              } catch (IOException ex) {
+                System.out.println(ex.getMessage());
+              }
+            } catch (IllegalArgumentException e) {
+              try {
+                completedCommand = false;
+                view.writeMessage(e.getMessage());
+              } catch (IOException ex) {
+                System.out.println(ex.getMessage());
+              }
+            } catch (IllegalStateException e) {
+              try {
+                completedCommand = false;
+                view.writeMessage(e.getMessage());
+              } catch (IOException ex) {
+                System.out.println(ex.getMessage());
+              }
+            } catch (IOException e) {
+              System.out.println(e.getMessage());
+            }
+
+            if (completedCommand) {
+              try {
+                if (input[0].equals("median")) {
+                  view.writeMessage("Median filter completed with radius " + input[1]);
+                } else if (input[0].equals("erode")) {
+                  view.writeMessage("Image eroded with radius " + input[1]);
+                } else {
+                  view.writeMessage("Image dilated with radius " + input[1]);
+                }
+              } catch (IOException e) {
+                System.out.println(e.getMessage());
+              }
+            }
+            break;
+          case "adaptive-threshold":
+            try {
+              int radius = Integer.parseInt(input[1]);
+              int offset = Integer.parseInt(input[2]);
+              if (radius < 1) {
+                completedCommand = false;
+                view.writeMessage("Radius must be at least 1.");
+              } else {
+                model.adaptiveThreshold(radius, offset, input[3], input[4]);
+              }
+            } catch (NumberFormatException e) {
+              try {
+                completedCommand = false;
+                view.writeMessage("Radius and offset have to be numbers.");
+              } catch (IOException ex) {
+                System.out.println(ex.getMessage());
+              }
+            } catch (IndexOutOfBoundsException e) {
+              try {
+                completedCommand = false;
+                view.writeMessage("Not enough inputs.");
+              } catch (IOException ex) {
+                System.out.println(ex.getMessage());
+              }
+            } catch (IllegalArgumentException e) {
+              try {
+                completedCommand = false;
+                view.writeMessage(e.getMessage());
+              } catch (IOException ex) {
+                System.out.println(ex.getMessage());
+              }
+            } catch (IllegalStateException e) {
+              try {
+                completedCommand = false;
+                view.writeMessage(e.getMessage());
+              } catch (IOException ex) {
+                System.out.println(ex.getMessage());
+              }
+            } catch (IOException e) {
+              System.out.println(e.getMessage());
+            }
+
+            if (completedCommand) {
+              try {
+                view.writeMessage("Adaptive threshold completed");
+              } catch (IOException e) {
+                System.out.println(e.getMessage());
+              }
+            }
+            break;
+          case "region-stats":
+            double[][] stats = null;
+            try {
+              if (input.length < 6 || (input.length - 2) % 4 != 0) {
+                throw new IndexOutOfBoundsException();
+              }
+              int[][] regions = new int[(input.length - 2) / 4][4];
+              for (int i = 0; i < regions.length; i += 1) {
+                for (int j = 0; j < 4; j += 1) {
+                  regions[i][j] = Integer.parseInt(input[2 + 4 * i + j]);
+                }
+              }
+              stats = model.regionStats(input[1], regions);
+            } catch (NumberFormatException e) {
+              try {
+                completedCommand = false;
+                view.writeMessage("Regions have to be numbers.");
+              } catch (IOException ex) {
+                System.out.println(ex.getMessage());
+              }
+            } catch (IndexOutOfBoundsException e) {
+              try {
+                completedCommand = false;
+                view.writeMessage("Not enough inputs.");
+              } catch (IOException ex) {
+                System.out.println(ex.getMessage());
+              }
+            } catch (IllegalArgumentException | IllegalStateException e) {
+              try {
+                completedCommand = false;
+                view.writeMessage(e.getMessage());
+              } catch (IOException ex) {
+                System.out.println(ex.getMessage());
+              }
+            }
+
+            if (completedCommand) {
+              try {
+                for (int i = 0; i < stats.length; i += 1) {
+                  double[] region = stats[i];
+                  view.writeMessage(String.format("%s %s %s %s: mean %.1f %.1f %.1f, "
+                          + "deviation %.1f %.1f %.1f", input[2 + 4 * i], input[3 + 4 * i],
+                          input[4 + 4 * i], input[5 + 4 * i], region[0], region[1], region[2],
+                          region[3], region[4], region[5])
+                          + (i < stats.length - 1 ? System.lineSeparator() : ""));
+                }
+              } catch (IOException e) {
+                System.out.println(e.getMessage());
+              }
+            }
+            break;
+          case "histogram":
+          case "stats":
+            int[][] histograms = null;
+            double[][] channelStats = null;
+            try {
+              if (input[0].equals("histogram")) {
+                histograms = model.histogram(input[1]);
+              } else {
+                channelStats = model.stats(input[1]);
+              }
+            } catch (IndexOutOfBoundsException e) {
+              try {
+                completedCommand = false;
+                view.writeMessage("Not enough inputs.");
+              } catch (IOException ex) {
+                System.out.println(ex.getMessage());
+              }
+            } catch (IllegalArgumentException e) {
+              try {
+                completedCommand = false;
+                view.writeMessage(e.getMessage());
+              } catch (IOException ex) {
+                System.out.println(ex.getMessage());
+              }
+            } catch (IllegalStateException e) {
+              try {
+                completedCommand = false;
+                view.writeMessage(e.getMessage());
+              } catch (IOException ex) {
+                System.out.println(ex.getMessage());
+              }
+            }
+
+            if (completedCommand) {
+              try {
+                String[] channels = {"red", "green", "blue", "luma"};
+                for (int c = 0; c < channels.length; c += 1) {
+                  StringBuilder channelLine = new StringBuilder(channels[c] + ":");
+                  if (histograms != null) {
+                    for (int count : histograms[c]) {
+                      channelLine.append(" ").append(count);
+                    }
+                  } else {
+                    channelLine.append(String.format(" min %.0f, max %.0f, mean %.1f, "
+                        + "deviation %.1f", channelStats[c][0], channelStats[c][1],
+                        channelStats[c][2], channelStats[c][3]));
+                  }
+                  view.writeMessage(channelLine
+                      + (c < channels.length - 1 ? System.lineSeparator() : ""));
+                }
+              } catch (IOException e) {
+                System.out.println(e.getMessage());
+              }
+            }
+            break;
+          case "auto-levels":
+          case "equalize":
+          case "threshold":
+            try {
+              switch (input[0]) {
+                case "auto-levels":
+                  model.autoLevels(input[1], input[2]);
+                  break;
+                case "equalize":
+                  model.equalize(input[1], input[2]);
+                  break;
+                default:
+                  model.threshold(input[1], input[2]);
+                  break;
+              }
+            } catch (IndexOutOfBoundsException e) {
+              try {
+                completedCommand = false;
+                view.writeMessage("Not enough inputs.");
+              } catch (IOException ex) {
+                System.out.println(ex.getMessage());
+              }
+            } catch (IllegalArgumentException e) {
+              try {
+                completedCommand = false;
+                view.writeMessage(e.getMessage());
+              } catch (IOException ex) {
+                System.out.println(ex.getMessage());
+              }
+            } catch (IllegalStateException e) {
+              try {
+                completedCommand = false;
+                view.writeMessage(e.getMessage());
+              } catch (IOException ex) {
+                System.out.println(ex.getMessage());
+              }
+            }
+
+            if (completedCommand) {
+              try {
+                switch (input[0]) {
+                  case "auto-levels":
+                    view.writeMessage("Auto levels completed");
+                    break;
+                  case "equalize":
+                    view.writeMessage("Equalization completed");
+                    break;
+                  default:
+                    view.writeMessage("Threshold completed");
+                    break;
+                }
+              } catch (IOException e) {
+                System.out.println(e.getMessage());
+              }
+            }
+            break;
+          case "read-script":
+            try {
+              List<String> lines = Files.readAllLines(Paths.get(input[1]));
+              model.cancelPrefetches();
+              sc = new Scanner(String.join("\n", lines));
+              this.script = lines;
+              this.scriptPosition = 0;
+              this.prefetchPosition = 0;
+              this.scriptWrites = new HashSet<>();
+              this.scriptDead = this.autoDrop ? ScriptLiveness.deadAfter(lines) : null;
+              this.prefetchUpcomingLoads();
+            } catch (IndexOutOfBoundsException e) {
+              try {
+                completedCommand = false;
+                view.writeMessage("Not enough inputs.");
+              } catch (IOException ex) {
+                System.out.println(ex.getMessage());
+              }
+            } catch (IOException | InvalidPathException e) {
+              try {
+                completedCommand = false;
+                view.writeMessage("Filepath doesn't exist!");
+              } catch (IOException ex) {
+                System.out.println(ex.getMessage());
+              }
+            } catch (IllegalStateException e) {
+              completedCommand = true;
+              sc = new Scanner(readable);
+            }
+
+            if (completedCommand) {
+              try {
+                view.writeMessage("Script file loaded");
+              } catch (IOException e) {
+                System.out.println(e.getMessage());
+              }
+            }
+            break;
+          case "async-saves":
+            try {
+              switch (input[1]) {
+                case "on":
+                  model.setAsyncSaves(true);
+                  this.asyncSaves = true;
+                  break;
+                case "off":
+                  model.setAsyncSaves(false);
+                  this.asyncSaves = false;
+                  break;
+                default:
+                  completedCommand = false;
+                  view.writeMessage("Expected \"on\" or \"off\".");
+                  break;
+              }
+            } catch (IndexOutOfBoundsException e) {
+              try {
+                completedCommand = false;
+                view.writeMessage("Not enough inputs.");
+              } catch (IOException ex) {
+                System.out.println(ex.getMessage());
+              }
+            } catch (IOException e) {
+              System.out.println(e.getMessage());
+            }
+
+            if (completedCommand) {
+              try {
+                view.writeMessage("Background saves turned " + input[1]);
+              } catch (IOException e) {
+                System.out.println(e.getMessage());
+              }
+            }
+            break;
+          case "sync":
+            if (this.reportSaveErrors()) {
+              try {
+                view.writeMessage("All saves finished");
+              } catch (IOException e) {
+                System.out.println(e.getMessage());
+              }
+            }
+            break;
+          case "mem":
+            try {
+              long total = 0;
+              for (String name : model.getReferenceNames()) {
+                long footprint = model.getFootprint(name);
+                total += footprint;
+                view.writeMessage(name + ": " + model.getWidth(name) + "x"
+                        + model.getHeight(name) + ", " + footprint + " bytes, "
+                        + model.getResidency(name) + (model.isPinned(name) ? ", pinned" : "")
+                        + (model.isOffHeap(name) ? ", off-heap" : "")
+                        + (model.isTiled(name) ? ", tiled" : "")
+                        + (model.isPalette(name) ? ", palette" : "")
+                        + ", " + model.getOrigin(name)
+                        + System.lineSeparator());
+              }
+              view.writeMessage("Total: " + total + " of " + model.getMemoryBudget()
+                      + " bytes" + System.lineSeparator());
+              view.writeMessage("Buffer pool: " + model.getPoolHits() + " hits, "
+                      + model.getPoolMisses() + " misses, " + model.getPooledBytes()
+                      + " bytes held");
+            } catch (IllegalArgumentException e) {
+              try {
+                view.writeMessage("An image was removed while listing memory use.");
+              } catch (IOException ex) {
+                System.out.println(ex.getMessage());
+              }
+            } catch (IOException e) {
+              System.out.println(e.getMessage());
+            }
+            break;
+          case "mem-budget":
+            try {
+              model.setMemoryBudget(Long.parseLong(input[1]) * 1024 * 1024);
+            } catch (NumberFormatException e) {
+              try {
+                completedCommand = false;
+                view.writeMessage("Budget is not a number.");
+              } catch (IOException ex) {
+                System.out.println(ex.getMessage());
+              }
+            } catch (IndexOutOfBoundsException e) {
+              try {
+                completedCommand = false;
+                view.writeMessage("Not enough inputs.");
+              } catch (IOException ex) {
+                System.out.println(ex.getMessage());
+              }
+            } catch (IllegalArgumentException e) {
+              try {
+                completedCommand = false;
+                view.writeMessage(e.getMessage());
+              } catch (IOException ex) {
+                System.out.println(ex.getMessage());
+              }
+            }
+
+            if (completedCommand) {
+              try {
+                view.writeMessage("Memory budget set to " + input[1] + " MB");
+              } catch (IOException e) {
+                System.out.println(e.getMessage());
+              }
+            }
+            break;
+          case "off-heap":
+            try {
+              if (input[1].equals("off")) {
+                model.setOffHeapThreshold(Long.MAX_VALUE);
+              } else {
+                model.setOffHeapThreshold(Long.parseLong(input[1]) * 1024 * 1024);
+              }
+            } catch (NumberFormatException e) {
+              try {
+                completedCommand = false;
+                view.writeMessage("Size is not a number.");
+              } catch (IOException ex) {
+                System.out.println(ex.getMessage());
+              }
+            } catch (IndexOutOfBoundsException e) {
+              try {
+                completedCommand = false;
+                view.writeMessage("Not enough inputs.");
+              } catch (IOException ex) {
+                System.out.println(ex.getMessage());
+              }
+            } catch (IllegalArgumentException e) {
+              try {
+                completedCommand = false;
+                view.writeMessage(e.getMessage());
+              } catch (IOException ex) {
+                System.out.println(ex.getMessage());
+              }
+            }
+
+            if (completedCommand) {
+              try {
+                if (input[1].equals("off")) {
+                  view.writeMessage("New images are stored on the heap");
+                } else {
+                  view.writeMessage("New images of at least " + input[1]
+                          + " MB are stored off the heap");
+                }
+              } catch (IOException e) {
+                System.out.println(e.getMessage());
+              }
+            }
+            break;
+          case "layout":
+            try {
+              switch (input[1]) {
+                case "tiled":
+                  model.setTiled(input[2], true);
+                  break;
+                case "linear":
+                  model.setTiled(input[2], false);
+                  break;
+                default:
+                  completedCommand = false;
+                  view.writeMessage("Expected \"tiled\" or \"linear\".");
+                  break;
+              }
+            } catch (IndexOutOfBoundsException e) {
+              try {
+                completedCommand = false;
+                view.writeMessage("Not enough inputs.");
+              } catch (IOException ex) {
+                System.out.println(ex.getMessage());
+              }
+            } catch (IllegalArgumentException e) {
+              try {
+                completedCommand = false;
+                view.writeMessage(e.getMessage());
+              } catch (IOException ex) {
+                System.out.println(ex.getMessage());
+              }
+            } catch (IllegalStateException e) {
+              try {
+                completedCommand = false;
+                view.writeMessage(e.getMessage());
+              } catch (IOException ex) {
+                System.out.println(ex.getMessage());
+              }
+            } catch (IOException e) {
+              System.out.println(e.getMessage());
+            }
+
+            if (completedCommand) {
+              try {
+                view.writeMessage("Layout of \"" + input[2] + "\" set to " + input[1]);
+              } catch (IOException e) {
+                System.out.println(e.getMessage());
+              }
+            }
+            break;
+          case "drop":
+            try {
+              model.dropImage(input[1]);
+            } catch (IndexOutOfBoundsException e) {
+              try {
+                completedCommand = false;
+                view.writeMessage("Not enough inputs.");
+              } catch (IOException ex) {
+                System.out.println(ex.getMessage());
+              }
+            } catch (IllegalArgumentException e) {
+              try {
+                completedCommand = false;
+                view.writeMessage(e.getMessage());
+              } catch (IOException ex) {
+                System.out.println(ex.getMessage());
+              }
+            }
+
+            if (completedCommand) {
+              try {
+                view.writeMessage("Dropped \"" + input[1] + "\"");
+              } catch (IOException e) {
+                System.out.println(e.getMessage());
+              }
+            }
+            break;
+          case "pin":
+          case "unpin":
+            try {
+              model.setPinned(input[1], input[0].equals("pin"));
+            } catch (IndexOutOfBoundsException e) {
+              try {
+                completedCommand = false;
+                view.writeMessage("Not enough inputs.");
+              } catch (IOException ex) {
+                System.out.println(ex.getMessage());
+              }
+            } catch (IllegalArgumentException e) {
+              try {
+                completedCommand = false;
+                view.writeMessage(e.getMessage());
+              } catch (IOException ex) {
+                System.out.println(ex.getMessage());
+              }
+            }
+
+            if (completedCommand) {
+              try {
+                view.writeMessage((input[0].equals("pin") ? "Pinned \"" : "Unpinned \"")
+                        + input[1] + "\"");
+              } catch (IOException e) {
+                System.out.println(e.getMessage());
+              }
+            }
+            break;
+          case "auto-drop":
+            try {
+              switch (input[1]) {
+                case "on":
+                  this.autoDrop = true;
+                  break;
+                case "off":
+                  this.autoDrop = false;
+                  break;
+                default:
+                  completedCommand = false;
+                  view.writeMessage("Expected \"on\" or \"off\".");
+                  break;
+              }
+            } catch (IndexOutOfBoundsException e) {
+              try {
+                completedCommand = false;
+                view.writeMessage("Not enough inputs.");
+              } catch (IOException ex) {
+                System.out.println(ex.getMessage());
+              }
+            } catch (IOException e) {
+              System.out.println(e.getMessage());
+            }
+
+            if (completedCommand) {
+              try {
+                view.writeMessage("Automatic drops turned " + input[1]);
+              } catch (IOException e) {
+                System.out.println(e.getMessage());
+              }
+            }
+            break;
+          case "stream":
+            try {
+              List<List<String>> segments = StreamSteps.split(input, 1);
+              List<String> first = segments.get(0);
+              List<String> last = segments.get(segments.size() - 1);
+              if (segments.size() < 2 || !first.get(0).equals("load")
+                      || !last.get(0).equals("save-ppm")) {
+                throw new IllegalArgumentException("A stream has to start with \"load\" and "
+                        + "end with \"save-ppm\".");
+              }
+              model.streamImage(first.get(1), StreamSteps.parse(segments.subList(1,
+                      segments.size() - 1)), last.get(1));
+            } catch (NumberFormatException e) {
+              try {
+                completedCommand = false;
+                view.writeMessage("Increment is not a number.");
+              } catch (IOException ex) {
+                System.out.println(ex.getMessage());
+              }
+            } catch (IndexOutOfBoundsException e) {
+              try {
+                completedCommand = false;
+                view.writeMessage("Not enough inputs.");
+              } catch (IOException ex) {
+                System.out.println(ex.getMessage());
+              }
+            } catch (FileNotFoundException | IllegalArgumentException
+                     | IllegalStateException e) {
+              try {
+                completedCommand = false;
+                view.writeMessage(e.getMessage());
+              } catch (IOException ex) {
+                System.out.println(ex.getMessage());
+              }
+            } catch (IOException e) {
+              try {
+                completedCommand = false;
+                view.writeMessage("Filepath doesn't exist!");
+              } catch (IOException ex) {
+                System.out.println(ex.getMessage());
+              }
+            }
+
+            if (completedCommand) {
+              try {
+                view.writeMessage("Streamed to " + input[input.length - 1] + ".ppm");
+              } catch (IOException e) {
+                System.out.println(e.getMessage());
+              }
+            }
+            break;
+          case "load-sequence":
+          case "save-sequence":
+            int frames = 0;
+            try {
+              if (input[0].equals("load-sequence")) {
+                frames = model.loadSequence(input[1], input[2]);
+              } else {
+                frames = model.saveSequence(input[1], input[2]);
+              }
+            } catch (IndexOutOfBoundsException e) {
+              try {
+                completedCommand = false;
+                view.writeMessage("Not enough inputs.");
+              } catch (IOException ex) {
+                System.out.println(ex.getMessage());
+              }
+            } catch (FileNotFoundException | IllegalArgumentException
+                     | IllegalStateException e) {
+              try {
+                completedCommand = false;
+                view.writeMessage(e.getMessage());
+              } catch (IOException ex) {
+                System.out.println(ex.getMessage());
+              }
+            } catch (IOException e) {
+              try {
+                completedCommand = false;
+                view.writeMessage("Filepath doesn't exist!");
+              } catch (IOException ex) {
+                System.out.println(ex.getMessage());
+              }
+            }
+
+            if (completedCommand) {
+              try {
+                if (input[0].equals("load-sequence")) {
+                  view.writeMessage("Loaded " + frames + " frames as \"" + input[2] + "\"");
+                } else {
+                  view.writeMessage("Saved " + frames + " frames");
+                }
+              } catch (IOException e) {
+                System.out.println(e.getMessage());
+              }
+            }
+            break;
+          case "q":
+            quitEditor = true;
+            this.reportSaveErrors();
+            try {
+              view.writeMessage("Quitting.");
+            } catch (IOException e) {
+              System.out.println(e.getMessage());
+            }
+            break;
+          default:
+            try {
+              view.writeMessage("Invalid input, try again.");
+            } catch (IOException e) {
+              System.out.println(e.getMessage());
+            }
+            break;
+        }
+      } catch (IndexOutOfBoundsException e) {
+        System.out.println(e.getMessage());
+      }
+      if (dead != null && line >= 0 && line < dead.size()) {
+        this.dropDead(dead.get(line));
       }
     }
+    // whatever the script prefetched but never loaded is no longer wanted
+    model.cancelPrefetches();
   }
 }
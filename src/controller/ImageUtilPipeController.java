@@ -0,0 +1,93 @@
+package controller;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+
+import model.ImageUtilModel;
+import model.StreamStep;
+import view.ImageUtilView;
+
+/**
+ * A controller that runs {@code ImageUtil} as a Unix filter: it reads PPM images from an input
+ * stream, applies a chain of steps given on the command line to each of them, and writes the
+ * results to an output stream. The steps are written like the middle of a {@code stream}
+ * command, such as {@code luma-component | brighten 10 | horizontal-flip}, either as one
+ * argument or as several. The view only gets error messages, so the output stream holds
+ * nothing but images.
+ */
+public class ImageUtilPipeController implements ImageUtilController {
+  private final ImageUtilModel model;
+  private final ImageUtilView view;
+  private final InputStream in;
+  private final OutputStream out;
+  private final String[] chain;
+  private boolean failed;
+
+  /**
+   * Creates a controller for the pipe mode of {@code ImageUtil}.
+   *
+   * @param model the model that transforms the images
+   * @param view  the view that displays error messages
+   * @param in    the stream to read images from
+   * @param out   the stream to write images to
+   * @param chain the words of the chain of steps
+   * @throws IllegalArgumentException if any of the arguments is null
+   */
+  public ImageUtilPipeController(ImageUtilModel model, ImageUtilView view, InputStream in,
+                                 OutputStream out, String[] chain)
+          throws IllegalArgumentException {
+    if (model == null || view == null || in == null || out == null || chain == null) {
+      throw new IllegalArgumentException("The model, view, streams nor the chain can be null.");
+    }
+    this.model = model;
+    this.view = view;
+    this.in = in;
+    this.out = out;
+    this.chain = chain;
+  }
+
+  @Override
+  public void startEditor() throws IllegalArgumentException {
+    this.failed = true;
+    try {
+      String joined = String.join(" ", this.chain).trim();
+      List<StreamStep> steps = StreamSteps.parse(joined.isEmpty()
+              ? List.of() : StreamSteps.split(joined.split(" "), 0));
+      this.model.pipeImages(this.in, steps, this.out);
+      this.failed = false;
+    } catch (NumberFormatException e) {
+      this.report("Increment is not a number.");
+    } catch (IndexOutOfBoundsException e) {
+      this.report("Not enough inputs.");
+    } catch (IllegalArgumentException | IllegalStateException e) {
+      this.report(e.getMessage());
+    } catch (IOException e) {
+      this.report("Unable to write the output: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Checks whether the last run stopped because of an error.
+   *
+   * @return true if an error was reported
+   */
+  public boolean hasFailed() {
+    return this.failed;
+  }
+
+  /**
+   * Writes an error message through the view.
+   *
+   * @param message the message to write
+   */
+  private void report(String message) {
+    try {
+      this.view.writeMessage(message + System.lineSeparator());
+    } catch (IOException e) {
+      // standard output carries the images, so the message goes to standard error instead
+      System.err.println(e.getMessage());
+    }
+  }
+}
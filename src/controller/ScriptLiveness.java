@@ -0,0 +1,202 @@
+package controller;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Works out, for every line of a script, which reference names are no longer needed once that
+ * line has run. A name is needed after a line if a later line reads it before anything stores a
+ * new image under it. Only names that the script itself stores images under are ever reported,
+ * so images that existed before the script started are left alone unless the script replaces
+ * them.
+ */
+final class ScriptLiveness {
+
+  /**
+   * Creates nothing; this class only has static methods.
+   */
+  private ScriptLiveness() {
+  }
+
+  /**
+   * Finds the names that can be dropped after each line of the script.
+   *
+   * @param lines the lines of the script
+   * @return for each line, the names that are dead once it has run
+   */
+  static List<Set<String>> deadAfter(List<String> lines) {
+    List<Set<String>> reads = new ArrayList<>();
+    List<Set<String>> writes = new ArrayList<>();
+    Set<String> stored = new HashSet<>();
+    for (String line : lines) {
+      Set<String> lineReads = new HashSet<>();
+      Set<String> lineWrites = new HashSet<>();
+      uses(line.split(" "), lineReads, lineWrites);
+      reads.add(lineReads);
+      writes.add(lineWrites);
+      stored.addAll(lineWrites);
+    }
+
+    List<Set<String>> dead = new ArrayList<>(Collections.nCopies(lines.size(),
+        Collections.<String>emptySet()));
+    Set<String> live = new HashSet<>();
+    for (int i = lines.size() - 1; i >= 0; i -= 1) {
+      Set<String> lineDead = new HashSet<>();
+      for (String name : reads.get(i)) {
+        if (stored.contains(name) && !live.contains(name)) {
+          lineDead.add(name);
+        }
+      }
+      for (String name : writes.get(i)) {
+        if (!live.contains(name) && !isDrop(lines.get(i))) {
+          lineDead.add(name);
+        }
+      }
+      dead.set(i, lineDead);
+      live.removeAll(writes.get(i));
+      live.addAll(reads.get(i));
+    }
+    return dead;
+  }
+
+  /**
+   * Checks whether a line drops a reference itself.
+   *
+   * @param line the line of the script
+   * @return true if the line is a {@code drop} command
+   */
+  private static boolean isDrop(String line) {
+    return line.startsWith("drop ");
+  }
+
+  /**
+   * Collects the names a command reads and the names it stores a new image under. Commands with
+   * too few arguments use nothing.
+   *
+   * @param command the words of the command
+   * @param reads   collects the names read
+   * @param writes  collects the names written
+   */
+  private static void uses(String[] command, Set<String> reads, Set<String> writes) {
+    switch (command[0]) {
+      case "load":
+        if (command.length >= 3) {
+          writes.add(command[2]);
+        }
+        break;
+      case "save-ppm":
+      case "save-png":
+        if (command.length >= 3) {
+          reads.add(command[2]);
+        }
+        break;
+      case "export-pyramid":
+        if (command.length >= 4) {
+          reads.add(command[3]);
+        }
+        break;
+      case "red-component":
+      case "green-component":
+      case "blue-component":
+      case "value-component":
+      case "intensity-component":
+      case "luma-component":
+      case "horizontal-flip":
+      case "vertical-flip":
+      case "rotate-90":
+      case "rotate-180":
+      case "rotate-270":
+      case "transpose":
+      case "edges":
+      case "auto-levels":
+      case "equalize":
+      case "threshold":
+        if (command.length >= 3) {
+          reads.add(command[1]);
+          writes.add(command[2]);
+        }
+        break;
+      case "brighten":
+      case "blur":
+      case "sharpen":
+      case "box-blur":
+      case "median":
+      case "erode":
+      case "dilate":
+        if (command.length >= 4) {
+          reads.add(command[2]);
+          writes.add(command[3]);
+        }
+        break;
+      case "rotate":
+        if (command.length >= 5) {
+          reads.add(command[3]);
+          writes.add(command[4]);
+        }
+        break;
+      case "affine":
+        if (command.length >= 10) {
+          reads.add(command[8]);
+          writes.add(command[9]);
+        }
+        break;
+      case "color-matrix":
+        if (command.length >= 4) {
+          reads.add(command[command.length - 2]);
+          writes.add(command[command.length - 1]);
+        }
+        break;
+      case "resize":
+        if (command.length >= 6) {
+          reads.add(command[4]);
+          writes.add(command[5]);
+        }
+        break;
+      case "load-sequence":
+        if (command.length >= 3) {
+          writes.add(command[2]);
+        }
+        break;
+      case "save-sequence":
+        if (command.length >= 3) {
+          reads.add(command[2]);
+        }
+        break;
+      case "adaptive-threshold":
+        if (command.length >= 5) {
+          reads.add(command[3]);
+          writes.add(command[4]);
+        }
+        break;
+      case "region-stats":
+      case "histogram":
+      case "stats":
+        if (command.length >= 2) {
+          reads.add(command[1]);
+        }
+        break;
+      case "drop":
+        if (command.length >= 2) {
+          writes.add(command[1]);
+        }
+        break;
+      case "pin":
+      case "unpin":
+        if (command.length >= 2) {
+          reads.add(command[1]);
+        }
+        break;
+      case "layout":
+        if (command.length >= 3) {
+          reads.add(command[2]);
+          writes.add(command[2]);
+        }
+        break;
+      default:
+        break;
+    }
+  }
+}
@@ -0,0 +1,90 @@
+package controller;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import model.ImageUtilModel.Grayscale;
+import model.StreamStep;
+
+/**
+ * Parses chains of streamed steps, which are written as the names of the commands without
+ * reference names and separated by {@code |}, such as {@code luma-component | brighten 10}. Used
+ * by the {@code stream} command and by the pipe mode of {@code ImageUtil}.
+ */
+final class StreamSteps {
+
+  /**
+   * Creates nothing; this class only has static methods.
+   */
+  private StreamSteps() {
+  }
+
+  /**
+   * Splits words into the parts of a chain, which are separated by {@code |}. Empty words are
+   * skipped.
+   *
+   * @param words the words to split
+   * @param from  the index of the first word that belongs to the chain
+   * @return the words of every part, in order
+   */
+  static List<List<String>> split(String[] words, int from) {
+    List<List<String>> segments = new ArrayList<>();
+    segments.add(new ArrayList<>());
+    for (int i = from; i < words.length; i += 1) {
+      if (words[i].equals("|")) {
+        segments.add(new ArrayList<>());
+      } else if (!words[i].isEmpty()) {
+        segments.get(segments.size() - 1).add(words[i]);
+      }
+    }
+    return segments;
+  }
+
+  /**
+   * Turns parts of a chain into the steps the model streams.
+   *
+   * @param segments the words of every step
+   * @return the steps, in order
+   * @throws IllegalArgumentException  if a step can't be streamed
+   * @throws NumberFormatException     if an increment is not a number
+   * @throws IndexOutOfBoundsException if a step is missing its increment or is empty
+   */
+  static List<StreamStep> parse(List<List<String>> segments)
+          throws IllegalArgumentException, IndexOutOfBoundsException {
+    List<StreamStep> steps = new ArrayList<>();
+    for (List<String> segment : segments) {
+      switch (segment.get(0)) {
+        case "red-component":
+          steps.add(StreamStep.grayscale(Grayscale.Red));
+          break;
+        case "green-component":
+          steps.add(StreamStep.grayscale(Grayscale.Green));
+          break;
+        case "blue-component":
+          steps.add(StreamStep.grayscale(Grayscale.Blue));
+          break;
+        case "value-component":
+          steps.add(StreamStep.grayscale(Grayscale.Value));
+          break;
+        case "intensity-component":
+          steps.add(StreamStep.grayscale(Grayscale.Intensity));
+          break;
+        case "luma-component":
+          steps.add(StreamStep.grayscale(Grayscale.Luma));
+          break;
+        case "brighten":
+          steps.add(StreamStep.brighten(Integer.parseInt(segment.get(1))));
+          break;
+        case "horizontal-flip":
+          steps.add(StreamStep.flipHorizontal());
+          break;
+        case "vertical-flip":
+          steps.add(StreamStep.flipVertical());
+          break;
+        default:
+          throw new IllegalArgumentException("\"" + segment.get(0) + "\" can't be streamed.");
+      }
+    }
+    return steps;
+  }
+}
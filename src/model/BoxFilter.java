@@ -0,0 +1,92 @@
+package model;
+
+import model.ImageUtilModel.Grayscale;
+
+/**
+ * Filters that work on the mean of a square window around every pixel, found from a
+ * {@link SummedAreaTable} with four lookups per channel. The cost of a pixel is the same for a
+ * window of any size. Windows that reach past an edge of the image are cut off at the edge, and
+ * the mean is taken over the pixels that are left.
+ */
+final class BoxFilter {
+  private static final int MIN_ROWS = 16;
+
+  private BoxFilter() {
+  }
+
+  /**
+   * Replaces every pixel with the mean of the square around it.
+   *
+   * @param source the pixels to blur
+   * @param into   the raster to write the blurred pixels to, as long as the source
+   * @param width  the width of the image
+   * @param height the height of the image
+   * @param radius the number of pixels the square reaches on either side of its center
+   */
+  static void blur(Raster source, Raster into, int width, int height, int radius) {
+    SummedAreaTable table = new SummedAreaTable(source, width, height, false,
+        PPMUtilModel::red, PPMUtilModel::green, PPMUtilModel::blue);
+    ParallelBands.run(height, MIN_ROWS, (from, to) -> {
+      int[] row = new int[width];
+      for (int y = from; y < to; y += 1) {
+        int y0 = Math.max(0, y - radius);
+        int y1 = Math.min(height, y + radius + 1);
+        for (int x = 0; x < width; x += 1) {
+          int x0 = Math.max(0, x - radius);
+          int x1 = Math.min(width, x + radius + 1);
+          long count = (long) (x1 - x0) * (y1 - y0);
+          row[x] = PPMUtilModel.pack(mean(table.sum(0, x0, y0, x1, y1), count),
+              mean(table.sum(1, x0, y0, x1, y1), count),
+              mean(table.sum(2, x0, y0, x1, y1), count));
+        }
+        into.set(y * width, row, 0, width);
+      }
+    });
+  }
+
+  /**
+   * Turns every pixel white if its luma is above the mean luma of the square around it, less
+   * the given offset, and black otherwise. This separates dark marks from their background even
+   * where the lighting changes across the image.
+   *
+   * @param source the pixels to threshold
+   * @param into   the raster to write the black and white pixels to, as long as the source
+   * @param width  the width of the image
+   * @param height the height of the image
+   * @param radius the number of pixels the square reaches on either side of its center
+   * @param offset how far below the local mean a pixel may be and still be white
+   */
+  static void threshold(Raster source, Raster into, int width, int height, int radius,
+                        int offset) {
+    SummedAreaTable table = new SummedAreaTable(source, width, height, false,
+        rgb -> PPMUtilModel.grayValue(Grayscale.Luma, rgb));
+    ParallelBands.run(height, MIN_ROWS, (from, to) -> {
+      int[] row = new int[width];
+      for (int y = from; y < to; y += 1) {
+        source.get(y * width, row, 0, width);
+        int y0 = Math.max(0, y - radius);
+        int y1 = Math.min(height, y + radius + 1);
+        for (int x = 0; x < width; x += 1) {
+          int x0 = Math.max(0, x - radius);
+          int x1 = Math.min(width, x + radius + 1);
+          long count = (long) (x1 - x0) * (y1 - y0);
+          long luma = PPMUtilModel.grayValue(Grayscale.Luma, row[x]);
+          boolean white = luma * count > table.sum(0, x0, y0, x1, y1) - offset * count;
+          row[x] = white ? 0xFFFFFF : 0;
+        }
+        into.set(y * width, row, 0, width);
+      }
+    });
+  }
+
+  /**
+   * Divides a sum by a count, rounding to nearest.
+   *
+   * @param sum   the sum of a channel
+   * @param count the number of pixels summed, at least 1
+   * @return the mean of the channel
+   */
+  private static int mean(long sum, long count) {
+    return (int) ((2 * sum + count) / (2 * count));
+  }
+}
@@ -0,0 +1,270 @@
+package model;
+
+import java.util.function.IntUnaryOperator;
+
+import model.ImageUtilModel.ColorPreset;
+import model.ImageUtilModel.Grayscale;
+
+/**
+ * A linear map of colors: every channel of the result is a weighted sum of the red, green and
+ * blue of a pixel, plus an offset, rounded and clamped to 0 to 255.
+ *
+ * <p>Every one of the nine products of a weight and a channel is worked out for all 256 values
+ * of the channel when the map is created, as fixed point numbers, with the offset and the half
+ * for rounding folded into the tables of the red channel. Mapping a pixel then takes nine table
+ * lookups and six adds, with no multiplies and no floating point. The tables take 9 KB, so
+ * they stay in the cache however large the image is. The number of bits of fraction is chosen
+ * from the largest sum the weights can give, so no sum overflows an {@code int}.
+ *
+ * <p>Two maps run one after the other are a single map, so {@link #then} folds them together
+ * and the image is only read once. The folded map skips the rounding and clamping of the
+ * image in between, so its result can differ slightly from running the two maps one by one.
+ *
+ * <p>The presets of the gray components give exactly the images of the grayscale commands,
+ * which truncate their weighted sums instead of rounding them. Luma is truncated from a sum in
+ * double precision, which falls just short of a whole number for some colors whose exact sum is
+ * whole, and no fixed point table reproduces that, so these presets map each pixel with the
+ * gray function of the grayscale commands instead of the tables. Folded into another map, they
+ * are taken to be their weights.
+ */
+final class ColorMatrix implements IntUnaryOperator {
+  static final double LIMIT = 4096;
+  private static final int MAX_BITS = 16;
+  private static final int SUM_BITS = 30;
+  private static final int MIN_ROWS = 64;
+
+  private final double[] entries;
+  private final int[] tables;
+  private final int bits;
+  private final Grayscale component;
+
+  /**
+   * Creates a map from its weights and offsets. The entries are three rows of four, one row
+   * for each channel of the result: the weights of red, green and blue, then the offset.
+   *
+   * @param entries the twelve entries of the map, row by row
+   * @throws IllegalArgumentException if there aren't twelve entries, or one of them isn't a
+   *                                  number from {@code -LIMIT} to {@code LIMIT}
+   */
+  ColorMatrix(double[] entries) throws IllegalArgumentException {
+    this(entries, null);
+  }
+
+  /**
+   * Creates a map from its weights and offsets, which maps each pixel with the gray function of
+   * a grayscale component if one is given.
+   *
+   * @param entries   the twelve entries of the map, row by row
+   * @param component the component whose gray function maps each pixel, or null to map with
+   *                  the tables
+   * @throws IllegalArgumentException if there aren't twelve entries, or one of them isn't a
+   *                                  number from {@code -LIMIT} to {@code LIMIT}
+   */
+  private ColorMatrix(double[] entries, Grayscale component) throws IllegalArgumentException {
+    if (entries.length != 12) {
+      throw new IllegalArgumentException("A color matrix has twelve entries.");
+    }
+    if (!fits(entries)) {
+      throw new IllegalArgumentException("Matrix entries have to be between -4096 and 4096.");
+    }
+    this.entries = entries.clone();
+    this.component = component;
+
+    double largest = 0;
+    for (int row = 0; row < 3; row += 1) {
+      double sum = Math.abs(entries[4 * row + 3]);
+      for (int column = 0; column < 3; column += 1) {
+        sum += 255 * Math.abs(entries[4 * row + column]);
+      }
+      largest = Math.max(largest, sum);
+    }
+    int bits = MAX_BITS;
+    while (bits > 0 && (largest + 1) * (1L << bits) >= (1L << SUM_BITS)) {
+      bits -= 1;
+    }
+    this.bits = bits;
+
+    // table 3 * row + column holds the part of channel row of the result from channel column
+    this.tables = new int[9 * 256];
+    double scale = 1L << bits;
+    int half = bits == 0 ? 0 : 1 << (bits - 1);
+    for (int row = 0; row < 3; row += 1) {
+      for (int column = 0; column < 3; column += 1) {
+        double weight = entries[4 * row + column];
+        double offset = column == 0 ? entries[4 * row + 3] : 0;
+        int base = (3 * row + column) * 256;
+        for (int value = 0; value < 256; value += 1) {
+          this.tables[base + value] = (int) Math.round((weight * value + offset) * scale)
+              + (column == 0 ? half : 0);
+        }
+      }
+    }
+  }
+
+  /**
+   * Creates a map with no offsets from its nine weights.
+   *
+   * @param weights the weights of red, green and blue for each channel of the result, row by
+   *                row
+   * @return the map
+   * @throws IllegalArgumentException if there aren't nine weights, or one of them isn't a
+   *                                  number from {@code -LIMIT} to {@code LIMIT}
+   */
+  static ColorMatrix ofWeights(double[] weights) throws IllegalArgumentException {
+    if (weights.length != 9) {
+      throw new IllegalArgumentException("A color matrix has nine weights.");
+    }
+    double[] entries = new double[12];
+    for (int row = 0; row < 3; row += 1) {
+      System.arraycopy(weights, 3 * row, entries, 4 * row, 3);
+    }
+    return new ColorMatrix(entries);
+  }
+
+  /**
+   * Creates the map of a preset.
+   *
+   * @param preset the preset
+   * @return the map
+   */
+  static ColorMatrix of(ColorPreset preset) {
+    switch (preset) {
+      case Sepia:
+        return ofWeights(new double[] {
+            0.393, 0.769, 0.189,
+            0.349, 0.686, 0.168,
+            0.272, 0.534, 0.131});
+      case Red:
+        return gray(Grayscale.Red, 1, 0, 0);
+      case Green:
+        return gray(Grayscale.Green, 0, 1, 0);
+      case Blue:
+        return gray(Grayscale.Blue, 0, 0, 1);
+      case Intensity:
+        return gray(Grayscale.Intensity, 1.0 / 3, 1.0 / 3, 1.0 / 3);
+      case Luma:
+        return gray(Grayscale.Luma, 0.2126, 0.7152, 0.0722);
+      case YCbCr:
+        return new ColorMatrix(new double[] {
+            0.299, 0.587, 0.114, 0,
+            -0.168736, -0.331264, 0.5, 128,
+            0.5, -0.418688, -0.081312, 128});
+      case FromYCbCr:
+        return new ColorMatrix(new double[] {
+            1, 0, 1.402, -1.402 * 128,
+            1, -0.344136, -0.714136, (0.344136 + 0.714136) * 128,
+            1, 1.772, 0, -1.772 * 128});
+      default:
+        throw new IllegalArgumentException("Unknown preset.");
+    }
+  }
+
+  /**
+   * Creates a map that gives the same weighted sum in every channel, which makes an image
+   * gray, mapping each pixel the way the grayscale command of the component does.
+   *
+   * @param component the component the weights are the sum of
+   * @param red       the weight of red
+   * @param green     the weight of green
+   * @param blue      the weight of blue
+   * @return the map
+   */
+  private static ColorMatrix gray(Grayscale component, double red, double green,
+                                  double blue) {
+    return new ColorMatrix(new double[] {red, green, blue, 0, red, green, blue, 0, red, green,
+        blue, 0}, component);
+  }
+
+  /**
+   * Says whether the entries of a map are all numbers from {@code -LIMIT} to {@code LIMIT}.
+   *
+   * @param entries the entries
+   * @return true if every entry is in range
+   */
+  static boolean fits(double[] entries) {
+    for (double entry : entries) {
+      if (!(Math.abs(entry) <= LIMIT)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Folds this map and the map run after it into one map.
+   *
+   * @param next the map run on the result of this one
+   * @return the single map, or null if its entries are out of range
+   */
+  ColorMatrix then(ColorMatrix next) {
+    double[] a = next.entries;
+    double[] b = this.entries;
+    double[] folded = new double[12];
+    for (int row = 0; row < 3; row += 1) {
+      for (int column = 0; column < 4; column += 1) {
+        double sum = column == 3 ? a[4 * row + 3] : 0;
+        for (int k = 0; k < 3; k += 1) {
+          sum += a[4 * row + k] * b[4 * k + column];
+        }
+        folded[4 * row + column] = sum;
+      }
+    }
+    return fits(folded) ? new ColorMatrix(folded) : null;
+  }
+
+  /**
+   * Gets the entries of the map.
+   *
+   * @return the twelve entries, row by row
+   */
+  double[] entries() {
+    return this.entries.clone();
+  }
+
+  @Override
+  public int applyAsInt(int rgb) {
+    if (this.component != null) {
+      int gray = PPMUtilModel.grayValue(this.component, rgb);
+      return PPMUtilModel.pack(gray, gray, gray);
+    }
+    int[] t = this.tables;
+    int r = PPMUtilModel.red(rgb);
+    int g = 256 + PPMUtilModel.green(rgb);
+    int b = 512 + PPMUtilModel.blue(rgb);
+    return PPMUtilModel.pack(
+        this.clamp(t[r] + t[g] + t[b]),
+        this.clamp(t[768 + r] + t[768 + g] + t[768 + b]),
+        this.clamp(t[1536 + r] + t[1536 + g] + t[1536 + b]));
+  }
+
+  /**
+   * Maps every pixel of an image. Rows are split into bands that run in parallel.
+   *
+   * @param source the pixels of the image, packed as {@code 0xRRGGBB}
+   * @param width  the width of the image
+   * @param height the height of the image
+   * @param into   the raster to write the mapped image to, as long as the source
+   */
+  void apply(Raster source, int width, int height, Raster into) {
+    ParallelBands.run(height, MIN_ROWS, (from, to) -> {
+      int[] row = new int[width];
+      for (int y = from; y < to; y += 1) {
+        source.get(y * width, row, 0, width);
+        for (int x = 0; x < width; x += 1) {
+          row[x] = this.applyAsInt(row[x]);
+        }
+        into.set(y * width, row, 0, width);
+      }
+    });
+  }
+
+  /**
+   * Takes a channel out of fixed point and clamps it to a valid value.
+   *
+   * @param sum the channel, with the rounding half already added
+   * @return the channel, from 0 to 255
+   */
+  private int clamp(int sum) {
+    return Math.max(0, Math.min(255, sum >> this.bits));
+  }
+}
@@ -0,0 +1,484 @@
+package model;
+
+import java.util.Arrays;
+
+/**
+ * Blurs and sharpens images with separable kernels. A Gaussian kernel is applied as a pass along
+ * the rows followed by a pass down the columns, which costs two short kernels per pixel instead
+ * of one square one. Weights are fixed point, summing to {@code 1 << 14}, and the row pass keeps
+ * 8 bits of fraction for the column pass so rounding only happens once. Pixels past an edge of
+ * the image are taken to be copies of the nearest edge pixel.
+ *
+ * <p>Rows are split into one band per core. Each band keeps the row pass of the last few rows in
+ * a ring of scratch rows of its own, just enough to cover the kernel, so the row pass of a row
+ * is done once per band and no full size intermediate image is needed.
+ *
+ * <p>A kernel this way costs time in proportion to its radius, so a radius over
+ * {@value #BOX_RADIUS} is approximated by {@value #BOX_PASSES} box blurs in a row, which come
+ * within a few percent of the Gaussian and are computed with running sums whose cost doesn't
+ * depend on the radius. The box blurs run on the same bands of rows, each pass down the columns
+ * keeping a ring of just the rows its box covers, so no plane the size of the image is needed.
+ */
+final class Convolution {
+  static final int BOX_RADIUS = 8;
+  static final int BOX_PASSES = 3;
+  private static final int BITS = 14;
+  private static final int MIN_ROWS = 16;
+
+  private Convolution() {
+  }
+
+  /**
+   * Gets the standard deviation of the Gaussian a blur of the given radius uses.
+   *
+   * @param radius the radius of the blur
+   * @return the standard deviation
+   */
+  static double sigma(int radius) {
+    return radius / 2.0;
+  }
+
+  /**
+   * Computes the weights of a Gaussian kernel in fixed point. The kernel reaches three standard
+   * deviations out, past which the weights round to almost nothing.
+   *
+   * @param radius the radius of the blur
+   * @return the weights, an odd number of them, which sum to exactly {@code 1 << 14}
+   */
+  static int[] gaussianKernel(int radius) {
+    double sigma = sigma(radius);
+    int reach = (int) Math.ceil(3 * sigma);
+    double[] exact = new double[2 * reach + 1];
+    double total = 0;
+    for (int i = 0; i < exact.length; i += 1) {
+      int d = i - reach;
+      exact[i] = Math.exp(-(d * d) / (2 * sigma * sigma));
+      total += exact[i];
+    }
+    int[] kernel = new int[exact.length];
+    int sum = 0;
+    for (int i = 0; i < kernel.length; i += 1) {
+      kernel[i] = (int) Math.round(exact[i] / total * (1 << BITS));
+      sum += kernel[i];
+    }
+    // whatever rounding lost or gained goes to the center
+    kernel[reach] += (1 << BITS) - sum;
+    return kernel;
+  }
+
+  /**
+   * Computes the radii of the box blurs that together approximate a Gaussian.
+   *
+   * @param sigma  the standard deviation of the Gaussian
+   * @param passes the number of box blurs
+   * @return the radius of each box blur
+   */
+  static int[] boxRadii(double sigma, int passes) {
+    double ideal = Math.sqrt(12 * sigma * sigma / passes + 1);
+    int lower = (int) Math.floor(ideal);
+    if (lower % 2 == 0) {
+      lower -= 1;
+    }
+    int upper = lower + 2;
+    double smaller = (12 * sigma * sigma - passes * lower * lower - 4 * passes * lower
+        - 3 * passes) / (-4.0 * lower - 4);
+    int[] radii = new int[passes];
+    for (int i = 0; i < passes; i += 1) {
+      radii[i] = ((i < Math.round(smaller) ? lower : upper) - 1) / 2;
+    }
+    return radii;
+  }
+
+  /**
+   * Blurs an image with a Gaussian of the given radius.
+   *
+   * @param source the pixels to blur
+   * @param into   the raster to write the blurred pixels to, as long as the source
+   * @param width  the width of the image
+   * @param height the height of the image
+   * @param radius the radius of the blur, at least 1
+   */
+  static void blur(Raster source, Raster into, int width, int height, int radius) {
+    if (radius > BOX_RADIUS) {
+      boxBlur(source, into, width, height, boxRadii(sigma(radius), BOX_PASSES));
+    } else {
+      separable(source, into, width, height, gaussianKernel(radius));
+    }
+  }
+
+  /**
+   * Sharpens an image with an unsharp mask: every channel moves away from its blurred value by
+   * as much as it differs from it.
+   *
+   * @param source the pixels to sharpen
+   * @param into   the raster to write the sharpened pixels to, as long as the source
+   * @param width  the width of the image
+   * @param height the height of the image
+   * @param radius the radius of the blur the image is compared to, at least 1
+   */
+  static void sharpen(Raster source, Raster into, int width, int height, int radius) {
+    blur(source, into, width, height, radius);
+    ParallelBands.run(height, MIN_ROWS, (from, to) -> {
+      int[] sharp = new int[width];
+      int[] blurred = new int[width];
+      for (int y = from; y < to; y += 1) {
+        source.get(y * width, sharp, 0, width);
+        into.get(y * width, blurred, 0, width);
+        for (int x = 0; x < width; x += 1) {
+          int s = sharp[x];
+          int b = blurred[x];
+          sharp[x] = PPMUtilModel.pack(
+              clamp(2 * PPMUtilModel.red(s) - PPMUtilModel.red(b)),
+              clamp(2 * PPMUtilModel.green(s) - PPMUtilModel.green(b)),
+              clamp(2 * PPMUtilModel.blue(s) - PPMUtilModel.blue(b)));
+        }
+        into.set(y * width, sharp, 0, width);
+      }
+    });
+  }
+
+  /**
+   * Applies a kernel along the rows and then down the columns.
+   *
+   * @param source the pixels to filter
+   * @param into   the raster to write the result to
+   * @param width  the width of the image
+   * @param height the height of the image
+   * @param kernel the fixed point weights, an odd number of them
+   */
+  static void separable(Raster source, Raster into, int width, int height, int[] kernel) {
+    int radius = kernel.length / 2;
+    ParallelBands.run(height, MIN_ROWS, (from, to) -> {
+      int[] row = new int[width];
+      int[][] ring = new int[kernel.length][3 * width];
+      int[] sums = new int[3 * width];
+      int[] out = new int[width];
+
+      for (int v = from - radius; v < from + radius; v += 1) {
+        source.get(clampIndex(v, height) * width, row, 0, width);
+        horizontal(row, ring[Math.floorMod(v, kernel.length)], width, kernel);
+      }
+      for (int y = from; y < to; y += 1) {
+        int v = y + radius;
+        source.get(clampIndex(v, height) * width, row, 0, width);
+        horizontal(row, ring[Math.floorMod(v, kernel.length)], width, kernel);
+
+        Arrays.fill(sums, 0);
+        for (int i = 0; i < kernel.length; i += 1) {
+          int weight = kernel[i];
+          int[] filtered = ring[Math.floorMod(y + i - radius, kernel.length)];
+          for (int j = 0; j < sums.length; j += 1) {
+            sums[j] += weight * filtered[j];
+          }
+        }
+        int half = 1 << (BITS + 7);
+        for (int x = 0; x < width; x += 1) {
+          out[x] = PPMUtilModel.pack(
+              clamp((sums[3 * x] + half) >> (BITS + 8)),
+              clamp((sums[3 * x + 1] + half) >> (BITS + 8)),
+              clamp((sums[3 * x + 2] + half) >> (BITS + 8)));
+        }
+        into.set(y * width, out, 0, width);
+      }
+    });
+  }
+
+  /**
+   * Applies a kernel along one row.
+   *
+   * @param row    the pixels of the row, packed as {@code 0xRRGGBB}
+   * @param out    gets the red, green and blue of every filtered pixel, with 8 bits of fraction
+   * @param width  the width of the row
+   * @param kernel the fixed point weights
+   */
+  private static void horizontal(int[] row, int[] out, int width, int[] kernel) {
+    int radius = kernel.length / 2;
+    int half = 1 << (BITS - 9);
+    for (int x = 0; x < width; x += 1) {
+      int r = 0;
+      int g = 0;
+      int b = 0;
+      if (x >= radius && x + radius < width) {
+        int start = x - radius;
+        for (int i = 0; i < kernel.length; i += 1) {
+          int rgb = row[start + i];
+          int weight = kernel[i];
+          r += weight * ((rgb >> 16) & 0xFF);
+          g += weight * ((rgb >> 8) & 0xFF);
+          b += weight * (rgb & 0xFF);
+        }
+      } else {
+        for (int i = 0; i < kernel.length; i += 1) {
+          int rgb = row[clampIndex(x + i - radius, width)];
+          int weight = kernel[i];
+          r += weight * ((rgb >> 16) & 0xFF);
+          g += weight * ((rgb >> 8) & 0xFF);
+          b += weight * (rgb & 0xFF);
+        }
+      }
+      out[3 * x] = (r + half) >> (BITS - 8);
+      out[3 * x + 1] = (g + half) >> (BITS - 8);
+      out[3 * x + 2] = (b + half) >> (BITS - 8);
+    }
+  }
+
+  /**
+   * Applies box blurs of the given radii one after another. Each band of rows runs the row passes
+   * on every row it needs and streams the rows through one {@link BoxColumns} per pass, so a
+   * band reads the rows the boxes reach past its edges again instead of sharing a plane with
+   * the other bands. Bands are kept at least twice as tall as that reach.
+   *
+   * @param source the pixels to blur
+   * @param into   the raster to write the blurred pixels to
+   * @param width  the width of the image
+   * @param height the height of the image
+   * @param radii  the radius of each box blur
+   */
+  private static void boxBlur(Raster source, Raster into, int width, int height, int[] radii) {
+    int reach = 0;
+    for (int radius : radii) {
+      reach += radius;
+    }
+    ParallelBands.run(height, Math.max(MIN_ROWS, 2 * reach), (from, to) -> {
+      // the rows each pass has to give for the passes after it to cover the band
+      int[] starts = new int[radii.length + 1];
+      int[] ends = new int[radii.length + 1];
+      starts[radii.length] = from;
+      ends[radii.length] = to;
+      for (int k = radii.length - 1; k >= 0; k -= 1) {
+        starts[k] = Math.max(0, starts[k + 1] - radii[k]);
+        ends[k] = Math.min(height, ends[k + 1] + radii[k]);
+      }
+      RowSource rows = new BoxRows(source, width, radii, starts[0]);
+      for (int k = 0; k < radii.length; k += 1) {
+        rows = new BoxColumns(rows, 3 * width, height, starts[k + 1], ends[k + 1], radii[k]);
+      }
+      int[] pixels = new int[width];
+      for (int y = from; y < to; y += 1) {
+        int[] blurred = rows.next();
+        for (int x = 0; x < width; x += 1) {
+          pixels[x] = PPMUtilModel.pack(clamp((blurred[3 * x] + 128) >> 8),
+              clamp((blurred[3 * x + 1] + 128) >> 8), clamp((blurred[3 * x + 2] + 128) >> 8));
+        }
+        into.set(y * width, pixels, 0, width);
+      }
+    });
+  }
+
+  /**
+   * Gives the rows of a plane of channels one at a time, from top to bottom.
+   */
+  private interface RowSource {
+    /**
+     * Gets the next row.
+     *
+     * @return the red, green and blue of every pixel of the row, with 8 bits of fraction, which
+     *         may change on the next call
+     */
+    int[] next();
+  }
+
+  /**
+   * Reads the rows of an image and runs the box blurs along each of them.
+   */
+  private static final class BoxRows implements RowSource {
+    private final Raster source;
+    private final int width;
+    private final int[] radii;
+    private final int[] row;
+    private int[] a;
+    private int[] b;
+    private int y;
+
+    /**
+     * Creates the rows.
+     *
+     * @param source the pixels to blur
+     * @param width  the width of the image
+     * @param radii  the radius of each box blur
+     * @param first  the first row to give
+     */
+    BoxRows(Raster source, int width, int[] radii, int first) {
+      this.source = source;
+      this.width = width;
+      this.radii = radii;
+      this.row = new int[width];
+      this.a = new int[3 * width];
+      this.b = new int[3 * width];
+      this.y = first;
+    }
+
+    @Override
+    public int[] next() {
+      this.source.get(this.y * this.width, this.row, 0, this.width);
+      for (int x = 0; x < this.width; x += 1) {
+        this.a[3 * x] = PPMUtilModel.red(this.row[x]) << 8;
+        this.a[3 * x + 1] = PPMUtilModel.green(this.row[x]) << 8;
+        this.a[3 * x + 2] = PPMUtilModel.blue(this.row[x]) << 8;
+      }
+      for (int radius : this.radii) {
+        boxRow(this.a, this.b, this.width, radius);
+        int[] swap = this.a;
+        this.a = this.b;
+        this.b = swap;
+      }
+      this.y += 1;
+      return this.a;
+    }
+  }
+
+  /**
+   * Runs a box blur down the columns of the rows it is given, for a range of rows. It keeps the
+   * rows its box covers in a ring, with a running sum for every column, so each row of the
+   * result costs an add and a subtract per channel whatever the radius.
+   */
+  private static final class BoxColumns implements RowSource {
+    private final RowSource input;
+    private final int stride;
+    private final int height;
+    private final int from;
+    private final int to;
+    private final int radius;
+    private final long reciprocal;
+    private final int[][] ring;
+    private final long[] sums;
+    private final int[] out;
+    private int fetched;
+    private int y;
+
+    /**
+     * Creates the pass. The input has to start at the first row the box of the first row of the
+     * range reaches.
+     *
+     * @param input  the rows to blur
+     * @param stride the number of values in a row
+     * @param height the height of the image
+     * @param from   the first row to give
+     * @param to     one past the last row to give
+     * @param radius the radius of the box
+     */
+    BoxColumns(RowSource input, int stride, int height, int from, int to, int radius) {
+      this.input = input;
+      this.stride = stride;
+      this.height = height;
+      this.from = from;
+      this.to = to;
+      this.radius = radius;
+      this.reciprocal = reciprocal(2 * radius + 1);
+      this.ring = new int[2 * radius + 2][];
+      this.sums = new long[stride];
+      this.out = new int[stride];
+      this.fetched = Math.max(0, from - radius) - 1;
+      this.y = from;
+    }
+
+    /**
+     * Gets a row of the input, reading the input up to it first. Rows past the top or bottom of
+     * the image are taken to be copies of the edge row.
+     *
+     * @param index the row, which may be past an edge
+     * @return the row
+     */
+    private int[] row(int index) {
+      int clamped = clampIndex(index, this.height);
+      while (this.fetched < clamped) {
+        this.fetched += 1;
+        int slot = this.fetched % this.ring.length;
+        if (this.ring[slot] == null) {
+          this.ring[slot] = new int[this.stride];
+        }
+        System.arraycopy(this.input.next(), 0, this.ring[slot], 0, this.stride);
+      }
+      return this.ring[clamped % this.ring.length];
+    }
+
+    @Override
+    public int[] next() {
+      if (this.y == this.from) {
+        for (int i = -this.radius; i <= this.radius; i += 1) {
+          int[] in = this.row(this.y + i);
+          for (int k = 0; k < this.stride; k += 1) {
+            this.sums[k] += in[k];
+          }
+        }
+      }
+      for (int k = 0; k < this.stride; k += 1) {
+        this.out[k] = scale(this.sums[k], this.reciprocal);
+      }
+      if (this.y + 1 < this.to) {
+        int[] add = this.row(this.y + this.radius + 1);
+        int[] remove = this.row(this.y - this.radius);
+        for (int k = 0; k < this.stride; k += 1) {
+          this.sums[k] += add[k] - remove[k];
+        }
+      }
+      this.y += 1;
+      return this.out;
+    }
+  }
+
+  /**
+   * Applies a box blur along one row of channels.
+   *
+   * @param in     the red, green and blue of every pixel
+   * @param out    gets the blurred channels
+   * @param width  the number of pixels in the row
+   * @param radius the radius of the box
+   */
+  private static void boxRow(int[] in, int[] out, int width, int radius) {
+    long reciprocal = reciprocal(2 * radius + 1);
+    for (int c = 0; c < 3; c += 1) {
+      long sum = 0;
+      for (int i = -radius; i <= radius; i += 1) {
+        sum += in[3 * clampIndex(i, width) + c];
+      }
+      for (int x = 0; x < width; x += 1) {
+        out[3 * x + c] = scale(sum, reciprocal);
+        sum += in[3 * clampIndex(x + radius + 1, width) + c]
+            - in[3 * clampIndex(x - radius, width) + c];
+      }
+    }
+  }
+
+  /**
+   * Computes the fixed point reciprocal of a divisor, with 24 bits of fraction.
+   *
+   * @param divisor the number to divide by
+   * @return the reciprocal
+   */
+  private static long reciprocal(int divisor) {
+    return ((1L << 24) + divisor / 2) / divisor;
+  }
+
+  /**
+   * Divides a sum by multiplying it with a fixed point reciprocal, rounding to nearest.
+   *
+   * @param sum        the sum to divide
+   * @param reciprocal the reciprocal of the divisor, with 24 bits of fraction
+   * @return the quotient
+   */
+  private static int scale(long sum, long reciprocal) {
+    return (int) ((sum * reciprocal + (1L << 23)) >> 24);
+  }
+
+  /**
+   * Moves an index past either end of a range to the nearest end.
+   *
+   * @param index  the index
+   * @param length the length of the range
+   * @return the index in the range
+   */
+  private static int clampIndex(int index, int length) {
+    return Math.max(0, Math.min(length - 1, index));
+  }
+
+  /**
+   * Caps a channel to be between 0 and 255.
+   *
+   * @param value the channel
+   * @return the capped channel
+   */
+  private static int clamp(int value) {
+    return Math.max(0, Math.min(255, value));
+  }
+}
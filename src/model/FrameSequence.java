@@ -0,0 +1,177 @@
+package model;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.function.UnaryOperator;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A numbered sequence of PPM files, such as {@code frame_00001.ppm}, {@code frame_00002.ppm},
+ * and so on, along with the operations to run on every frame. The frames are never held all
+ * at once: operations on a sequence only add to the list of operations, which is run on each
+ * frame in turn when the sequence is saved.
+ *
+ * <p>Sequences are named by a pattern: a file name with a run of {@code #} where the frame
+ * number goes, such as {@code frames/frame_#####.ppm}. The number of {@code #} is the least
+ * number of digits, padded with zeros.
+ */
+final class FrameSequence {
+  private final List<Path> frames;
+  private final List<Integer> numbers;
+  private final List<UnaryOperator<ImageRecord>> operations;
+
+  /**
+   * Creates a sequence.
+   *
+   * @param frames     the files of the frames, in order
+   * @param numbers    the number of every frame
+   * @param operations the operations to run on every frame, in order
+   */
+  private FrameSequence(List<Path> frames, List<Integer> numbers,
+                        List<UnaryOperator<ImageRecord>> operations) {
+    this.frames = frames;
+    this.numbers = numbers;
+    this.operations = operations;
+  }
+
+  /**
+   * Finds the files that match a pattern, ordered by frame number.
+   *
+   * @param pattern the pattern of the file names
+   * @return the sequence of the files, with no operations
+   * @throws FileNotFoundException    if no file matches the pattern
+   * @throws IllegalArgumentException if the pattern has no run of {@code #}
+   */
+  static FrameSequence find(String pattern)
+          throws FileNotFoundException, IllegalArgumentException {
+    File file = new File(pattern);
+    String name = file.getName();
+    Matcher run = run(name);
+    File directory = file.getAbsoluteFile().getParentFile();
+    Pattern names = Pattern.compile(Pattern.quote(name.substring(0, run.start()))
+        + "(\\d{" + (run.end() - run.start()) + ",})" + Pattern.quote(name.substring(run.end())));
+
+    TreeMap<Integer, Path> found = new TreeMap<>();
+    String[] listing = directory.list();
+    if (listing != null) {
+      for (String candidate : listing) {
+        Matcher match = names.matcher(candidate);
+        if (match.matches() && match.group(1).length() < 10) {
+          found.put(Integer.parseInt(match.group(1)),
+              new File(directory, candidate).toPath().normalize());
+        }
+      }
+    }
+    if (found.isEmpty()) {
+      throw new FileNotFoundException("No frames match " + pattern + "!");
+    }
+    return new FrameSequence(new ArrayList<>(found.values()), new ArrayList<>(found.keySet()),
+        Collections.emptyList());
+  }
+
+  /**
+   * Gets the path a frame is saved to.
+   *
+   * @param pattern the pattern of the file names
+   * @param number  the number of the frame
+   * @return the path of the file of that frame
+   * @throws IllegalArgumentException if the pattern has no run of {@code #}
+   */
+  static Path target(String pattern, int number) throws IllegalArgumentException {
+    File file = new File(pattern);
+    String name = file.getName();
+    Matcher run = run(name);
+    String digits = String.format("%0" + (run.end() - run.start()) + "d", number);
+    String frame = name.substring(0, run.start()) + digits + name.substring(run.end());
+    return Paths.get(file.getAbsoluteFile().getParent(), frame).normalize();
+  }
+
+  /**
+   * Finds the run of {@code #} in a file name.
+   *
+   * @param name the file name of a pattern
+   * @return the match of the run
+   * @throws IllegalArgumentException if the name has no run of {@code #}
+   */
+  private static Matcher run(String name) throws IllegalArgumentException {
+    Matcher run = Pattern.compile("#+").matcher(name);
+    if (!run.find()) {
+      throw new IllegalArgumentException("The pattern needs a run of # where the frame number "
+          + "goes.");
+    }
+    return run;
+  }
+
+  /**
+   * Creates a sequence with the same frames and one more operation.
+   *
+   * @param operation the operation to run on every frame after the ones before it
+   * @return the new sequence
+   */
+  FrameSequence then(UnaryOperator<ImageRecord> operation) {
+    List<UnaryOperator<ImageRecord>> longer = new ArrayList<>(this.operations);
+    longer.add(operation);
+    return new FrameSequence(this.frames, this.numbers, Collections.unmodifiableList(longer));
+  }
+
+  /**
+   * Creates a sequence with the same frames and the last operation replaced.
+   *
+   * @param operation the operation to run on every frame in place of the last one
+   * @return the new sequence
+   * @throws IllegalStateException if the sequence has no operations
+   */
+  FrameSequence replaceLast(UnaryOperator<ImageRecord> operation) throws IllegalStateException {
+    if (this.operations.isEmpty()) {
+      throw new IllegalStateException("The sequence has no operations.");
+    }
+    List<UnaryOperator<ImageRecord>> replaced = new ArrayList<>(this.operations);
+    replaced.set(replaced.size() - 1, operation);
+    return new FrameSequence(this.frames, this.numbers, Collections.unmodifiableList(replaced));
+  }
+
+  /**
+   * Gets the number of frames.
+   *
+   * @return the number of frames
+   */
+  int size() {
+    return this.frames.size();
+  }
+
+  /**
+   * Gets the file of a frame.
+   *
+   * @param index the position of the frame in the sequence
+   * @return the path of the file
+   */
+  Path frame(int index) {
+    return this.frames.get(index);
+  }
+
+  /**
+   * Gets the number of a frame, which is also the number it is saved under.
+   *
+   * @param index the position of the frame in the sequence
+   * @return the number in the file name of the frame
+   */
+  int number(int index) {
+    return this.numbers.get(index);
+  }
+
+  /**
+   * Gets the operations to run on every frame.
+   *
+   * @return the operations, in order
+   */
+  List<UnaryOperator<ImageRecord>> operations() {
+    return this.operations;
+  }
+}
@@ -0,0 +1,197 @@
+package model;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Decodes PPM files on a background pool before they are loaded. Each prefetch reserves the
+ * decoded size of its image from a fixed memory budget, and the reservation is released when
+ * the image is claimed by {@code loadImage}, or when the caller gives up on its prefetches with
+ * {@link #cancelAll()}. A prefetch that would go over the budget is refused, which bounds how
+ * far ahead a caller can read. The pixels of a prefetch that is never used go back to the pool.
+ *
+ * <p>A prefetched image is only handed out if the file still has the size and modification time
+ * it had when the prefetch started, so a file that was rewritten in the meantime is decoded
+ * again.
+ */
+final class ImagePrefetcher {
+  private final long budget;
+  private final RasterPool pool;
+  private final ExecutorService executor;
+  private final Map<String, Prefetch> pending;
+  private long reserved;
+
+  /**
+   * Creates a prefetcher.
+   *
+   * @param budget  the most bytes of decoded pixels that may be held for unclaimed prefetches
+   * @param threads the number of background threads to decode on
+   * @param pool    the pool to take the rasters for decoded pixels from
+   */
+  ImagePrefetcher(long budget, int threads, RasterPool pool) {
+    this.budget = budget;
+    this.pool = pool;
+    this.executor = Executors.newFixedThreadPool(threads, task -> {
+      Thread thread = new Thread(task, "ppm-prefetch");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.pending = new ConcurrentHashMap<>();
+    this.reserved = 0;
+  }
+
+  /**
+   * Starts decoding the file at the given path in the background.
+   *
+   * @param filename the path of the file
+   * @return false if the file doesn't fit in the budget right now, true otherwise; a file that
+   *         isn't a readable PPM file, or that is bigger than the whole budget, is not
+   *         prefetched and is left for {@code loadImage}
+   */
+  boolean prefetch(String filename) {
+    String key = key(filename);
+    if (this.pending.containsKey(key)) {
+      return true;
+    }
+
+    PPMFile file;
+    try {
+      file = PPMFile.open(filename);
+    } catch (FileNotFoundException | IllegalStateException e) {
+      return true;
+    }
+    long bytes = 4L * file.getWidth() * file.getHeight();
+    if (bytes > this.budget) {
+      return true;
+    }
+
+    synchronized (this) {
+      if (this.pending.containsKey(key)) {
+        return true;
+      }
+      if (this.reserved + bytes > this.budget) {
+        return false;
+      }
+      this.reserved += bytes;
+      File onDisk = new File(filename);
+      Prefetch prefetch = new Prefetch(file, bytes, onDisk.length(), onDisk.lastModified(),
+          CompletableFuture.supplyAsync(() -> RasterCompression.compress(
+              file.readPixels(this.pool, this.pool.isOffHeap(file.getWidth() * file.getHeight())),
+              file.getWidth(), file.getHeight(), this.pool), this.executor));
+      this.pending.put(key, prefetch);
+    }
+    return true;
+  }
+
+  /**
+   * Takes the prefetch of the given file, if there is one and it still matches the file and
+   * header on disk. The reservation of a taken prefetch is released whether or not it matches.
+   *
+   * @param filename the path of the file
+   * @param header   the header of the file as it was just read
+   * @return the decoding of the pixels, or null if the file has to be decoded again
+   */
+  CompletableFuture<Raster> claim(String filename, PPMFile header) {
+    Prefetch prefetch;
+    synchronized (this) {
+      prefetch = this.pending.remove(key(filename));
+      if (prefetch == null) {
+        return null;
+      }
+      this.reserved -= prefetch.bytes;
+    }
+
+    File onDisk = new File(filename);
+    if (onDisk.length() != prefetch.length || onDisk.lastModified() != prefetch.lastModified
+            || header.getWidth() != prefetch.file.getWidth()
+            || header.getHeight() != prefetch.file.getHeight()
+            || header.getMaxValue() != prefetch.file.getMaxValue()) {
+      this.release(prefetch);
+      return null;
+    }
+    return prefetch.pixels;
+  }
+
+  /**
+   * Gives up on every prefetch that hasn't been claimed, releasing its reservation and giving
+   * its pixels back to the pool once they are decoded.
+   */
+  void cancelAll() {
+    List<Prefetch> cancelled;
+    synchronized (this) {
+      cancelled = new ArrayList<>(this.pending.values());
+      this.pending.clear();
+      for (Prefetch prefetch : cancelled) {
+        this.reserved -= prefetch.bytes;
+      }
+    }
+    for (Prefetch prefetch : cancelled) {
+      this.release(prefetch);
+    }
+  }
+
+  /**
+   * Gives the pixels of a prefetch that won't be used back to the pool once they are decoded.
+   *
+   * @param prefetch the prefetch, no longer pending
+   */
+  private void release(Prefetch prefetch) {
+    prefetch.pixels.thenAccept(this.pool::give);
+  }
+
+  /**
+   * Gets the number of bytes currently reserved by unclaimed prefetches.
+   *
+   * @return the reserved bytes
+   */
+  synchronized long getReserved() {
+    return this.reserved;
+  }
+
+  /**
+   * Turns a path into the key its prefetch is stored under, so different spellings of the same
+   * path share a prefetch.
+   *
+   * @param filename the path of the file
+   * @return the absolute, normalized path
+   */
+  private static String key(String filename) {
+    return new File(filename).toPath().toAbsolutePath().normalize().toString();
+  }
+
+  /**
+   * A started prefetch.
+   */
+  private static final class Prefetch {
+    private final PPMFile file;
+    private final long bytes;
+    private final long length;
+    private final long lastModified;
+    private final CompletableFuture<Raster> pixels;
+
+    /**
+     * Creates a record of a started prefetch.
+     *
+     * @param file         the header of the file when the prefetch started
+     * @param bytes        the bytes reserved for it
+     * @param length       the length of the file when the prefetch started
+     * @param lastModified the modification time of the file when the prefetch started
+     * @param pixels       the decoding of the pixels
+     */
+    Prefetch(PPMFile file, long bytes, long length, long lastModified,
+             CompletableFuture<Raster> pixels) {
+      this.file = file;
+      this.bytes = bytes;
+      this.length = length;
+      this.lastModified = lastModified;
+      this.pixels = pixels;
+    }
+  }
+}
@@ -0,0 +1,555 @@
+package model;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.Supplier;
+
+import model.ImageUtilModel.Residency;
+
+/**
+ * Everything the model knows about one image reference: its dimensions, depth, max value, and
+ * pixel storage, plus statistics that are computed on demand and cached. A reference is updated
+ * by storing a new record in place of the old one, so a single map lookup gives a consistent
+ * view of all of these values.
+ *
+ * <p>Pixels are stored row-major in one {@link Raster}, on or off the heap, each packed as
+ * {@code 0xRRGGBB}. A record can be created before its pixels exist, from just the dimensions
+ * and a loader; the loader runs the first time the pixels are needed.
+ *
+ * <p>To stay inside the memory budget of the model, a record can be evicted: its pixels are
+ * written to a spill file and dropped from the heap, and read back from that file the next time
+ * they are needed. A record computed from another one by an operation can instead remember its
+ * {@link Lineage} and simply drop its pixels, computing them again when they are needed, if that
+ * is estimated to be faster than writing and reading a spill file.
+ */
+final class ImageRecord {
+  private final int width;
+  private final int height;
+  private final int depth;
+  private final int maxValue;
+  private volatile Raster pixels;
+  private final Supplier<Raster> loader;
+  private final String source;
+  private volatile ImageStats stats;
+  private volatile boolean shared;
+  private Path spillFile;
+  private volatile boolean spilled;
+  private volatile String origin;
+  private volatile Lineage lineage;
+  private volatile boolean dropped;
+  private int holds;
+  private boolean discarded;
+  private RasterPool recycler;
+  private volatile boolean exposed;
+  private volatile boolean pinned;
+  private volatile boolean offHeap;
+  private volatile boolean tiled;
+  private volatile boolean palette;
+
+  /**
+   * Creates a record for a three channel image.
+   *
+   * @param width    the width of the image in pixels
+   * @param height   the height of the image in pixels
+   * @param maxValue the max value of a channel
+   * @param pixels   the packed pixels, row-major, {@code width * height} long
+   * @throws IllegalArgumentException if the raster doesn't match the dimensions
+   */
+  ImageRecord(int width, int height, int maxValue, Raster pixels)
+          throws IllegalArgumentException {
+    if (width < 0 || height < 0 || pixels.length() != width * height) {
+      throw new IllegalArgumentException("Pixel data does not match the image dimensions.");
+    }
+    this.width = width;
+    this.height = height;
+    this.depth = 3;
+    this.maxValue = maxValue;
+    this.pixels = pixels;
+    this.offHeap = pixels.isOffHeap();
+    this.tiled = pixels.isTiled();
+    this.palette = pixels.isPalette();
+    this.loader = null;
+    this.source = null;
+  }
+
+  /**
+   * Creates a record for a three channel image whose pixels are produced on first use.
+   *
+   * @param width    the width of the image in pixels
+   * @param height   the height of the image in pixels
+   * @param maxValue the max value of a channel
+   * @param loader   produces the packed pixels, row-major, {@code width * height} long
+   * @param source   the absolute path of the file the loader reads, or null if it doesn't read
+   *                 a file
+   * @param offHeap  whether the loader stores the pixels outside of the heap
+   * @throws IllegalArgumentException if the dimensions are negative
+   */
+  ImageRecord(int width, int height, int maxValue, Supplier<Raster> loader, String source,
+              boolean offHeap) throws IllegalArgumentException {
+    if (width < 0 || height < 0) {
+      throw new IllegalArgumentException("Image dimensions can't be negative.");
+    }
+    this.width = width;
+    this.height = height;
+    this.depth = 3;
+    this.maxValue = maxValue;
+    this.pixels = null;
+    this.offHeap = offHeap;
+    this.loader = loader;
+    this.source = source;
+  }
+
+  /**
+   * Gets the width of the image.
+   *
+   * @return the width of the image in pixels
+   */
+  int getWidth() {
+    return this.width;
+  }
+
+  /**
+   * Gets the height of the image.
+   *
+   * @return the height of the image in pixels
+   */
+  int getHeight() {
+    return this.height;
+  }
+
+  /**
+   * Gets the number of channels of each pixel.
+   *
+   * @return the depth of the image
+   */
+  int getDepth() {
+    return this.depth;
+  }
+
+  /**
+   * Gets the max value of a channel of this image.
+   *
+   * @return the max value of the image
+   */
+  int getMaxValue() {
+    return this.maxValue;
+  }
+
+  /**
+   * Gets the packed pixels of the image, running the loader if they haven't been produced yet.
+   * Callers must not modify the raster, except through {@link #setRGB(int, int, int)}.
+   *
+   * @return the pixels of the image, row-major
+   * @throws IllegalStateException if the pixels can't be loaded
+   */
+  Raster getPixels() throws IllegalStateException {
+    Raster result = this.pixels;
+    if (result == null) {
+      synchronized (this) {
+        result = this.pixels;
+        if (result == null) {
+          if (this.spilled) {
+            result = this.readSpillFile();
+          } else if (this.dropped) {
+            result = this.lineage.recompute();
+          } else if (this.loader != null) {
+            result = this.loader.get();
+          } else {
+            throw new IllegalStateException("The image has been released.");
+          }
+          if (result.length() != this.width * this.height) {
+            throw new IllegalStateException("Pixel data does not match the image dimensions.");
+          }
+          this.pixels = result;
+          this.offHeap = result.isOffHeap();
+          this.tiled = result.isTiled();
+          this.palette = result.isPalette();
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Gets the file the pixels of this image will be read from.
+   *
+   * @return the absolute path of the file, or null if the pixels are not read from a file or
+   *         have already been read
+   */
+  String getSource() {
+    return this.isLoaded() || this.spilled || this.dropped ? null : this.source;
+  }
+
+  /**
+   * Checks whether the pixels of the image have been produced yet.
+   *
+   * @return true if the pixels are in memory
+   */
+  boolean isLoaded() {
+    return this.pixels != null;
+  }
+
+  /**
+   * Checks whether the pixels of the image are stored outside of the heap, or were the last
+   * time they were in memory.
+   *
+   * @return true for off-heap storage
+   */
+  boolean isOffHeap() {
+    return this.offHeap;
+  }
+
+  /**
+   * Checks whether the pixels of the image are stored as tiles, or were the last time they were
+   * in memory.
+   *
+   * @return true for the tiled layout
+   */
+  boolean isTiled() {
+    return this.tiled;
+  }
+
+  /**
+   * Checks whether the pixels of the image are stored with a palette, or were the last time
+   * they were in memory.
+   *
+   * @return true for palette storage
+   */
+  boolean isPalette() {
+    return this.palette;
+  }
+
+  /**
+   * Gets where the pixels of the image are right now.
+   *
+   * @return whether the pixels are in memory, spilled to disk, dropped until they are computed
+   *         again, or not read yet
+   */
+  Residency getResidency() {
+    if (this.isLoaded()) {
+      return Residency.Resident;
+    }
+    if (this.spilled) {
+      return Residency.Spilled;
+    }
+    return this.dropped ? Residency.Recomputable : Residency.Unloaded;
+  }
+
+  /**
+   * Gets a description of where the image came from, such as the file it was loaded from or
+   * the operation that produced it.
+   *
+   * @return the description, or an empty string if there is none
+   */
+  String getOrigin() {
+    return this.origin == null ? "" : this.origin;
+  }
+
+  /**
+   * Sets the description of where the image came from.
+   *
+   * @param origin the description
+   */
+  void setOrigin(String origin) {
+    this.origin = origin;
+  }
+
+  /**
+   * Checks whether the record is stored under a pinned reference name, in which case its
+   * pixels are never released to stay inside the memory budget.
+   *
+   * @return true if the record is pinned
+   */
+  boolean isPinned() {
+    return this.pinned;
+  }
+
+  /**
+   * Pins or unpins the record.
+   *
+   * @param pinned whether the record is pinned
+   */
+  void setPinned(boolean pinned) {
+    this.pinned = pinned;
+  }
+
+  /**
+   * Gets how the pixels of this image can be computed again.
+   *
+   * @return the lineage, or null if the pixels can't be computed again
+   */
+  Lineage getLineage() {
+    return this.lineage;
+  }
+
+  /**
+   * Remembers how the pixels of this image were computed, so they can be dropped and computed
+   * again later.
+   *
+   * @param lineage the lineage of the pixels
+   */
+  void setLineage(Lineage lineage) {
+    this.lineage = lineage;
+  }
+
+  /**
+   * Forgets the lineage of this image, so it no longer depends on its parent. If the pixels
+   * were dropped and are still going to be used, they are computed first.
+   *
+   * @param keepPixels whether the pixels are still going to be used
+   * @throws IllegalStateException if the pixels have to be computed and can't be
+   */
+  synchronized void detachLineage(boolean keepPixels) throws IllegalStateException {
+    if (this.dropped && (keepPixels || this.holds > 0)) {
+      this.getPixels();
+    }
+    this.dropped = false;
+    this.lineage = null;
+  }
+
+  /**
+   * Estimates how long getting the pixels back into memory would take.
+   *
+   * @return the estimated time in nanoseconds, 0 if the pixels are in memory
+   */
+  long reloadCost() {
+    if (this.isLoaded()) {
+      return 0;
+    }
+    if (this.spilled) {
+      return SpillFile.estimateRead((long) this.width * this.height);
+    }
+    Lineage current = this.lineage;
+    if (this.dropped && current != null) {
+      return current.recomputeCost();
+    }
+    return Long.MAX_VALUE / 4;
+  }
+
+  /**
+   * Estimates how long spilling the pixels and reading them back would take.
+   *
+   * @return the estimated time in nanoseconds
+   */
+  long spillCost() {
+    long count = (long) this.width * this.height;
+    long read = SpillFile.estimateRead(count);
+    return this.spilled ? read : read + SpillFile.estimateWrite(count);
+  }
+
+  /**
+   * Drops the pixels from memory without writing them anywhere, so they are computed again from
+   * the lineage the next time they are needed.
+   *
+   * @return the number of bytes of heap released, 0 if the pixels weren't in memory or can't be
+   *         computed again
+   */
+  synchronized long drop() {
+    Raster resident = this.pixels;
+    if (resident == null || this.lineage == null) {
+      return 0;
+    }
+    this.dropped = true;
+    this.pixels = null;
+    return resident.bytes();
+  }
+
+  /**
+   * Gets the number of bytes of heap the pixels take up right now.
+   *
+   * @return the size of the pixels if they are in memory, 0 otherwise
+   */
+  long getFootprint() {
+    Raster resident = this.pixels;
+    return resident == null ? 0 : resident.bytes();
+  }
+
+  /**
+   * Moves the pixels out of memory. They are written to a spill file in the given directory,
+   * unless an up to date spill file already exists.
+   *
+   * @param directory the directory to create the spill file in
+   * @return the number of bytes of heap released, 0 if the pixels weren't in memory, couldn't
+   *         be written, or belong to a record that was discarded while it was being released
+   */
+  synchronized long evict(Path directory) {
+    Raster resident = this.pixels;
+    if (resident == null || this.discarded) {
+      return 0;
+    }
+    if (!this.spilled) {
+      try {
+        if (this.spillFile == null) {
+          this.spillFile = Files.createTempFile(directory, "image", ".spill");
+          this.spillFile.toFile().deleteOnExit();
+        }
+        SpillFile.write(this.spillFile, resident);
+      } catch (IOException e) {
+        return 0;
+      }
+      this.spilled = true;
+    }
+    this.pixels = null;
+    return resident.bytes();
+  }
+
+  /**
+   * Keeps the spill file of this record until {@link #release()} is called, for a background
+   * task that may still read the pixels after the record is discarded.
+   */
+  synchronized void hold() {
+    this.holds += 1;
+  }
+
+  /**
+   * Releases a hold taken with {@link #hold()}, finishing the discard if the record was
+   * discarded in the meantime.
+   */
+  synchronized void release() {
+    this.holds -= 1;
+    if (this.holds == 0 && this.discarded) {
+      this.discard(this.recycler);
+    }
+  }
+
+  /**
+   * Checks whether the record has been discarded, in which case its pixels may be gone.
+   *
+   * @return true if the record is no longer stored under any reference
+   */
+  synchronized boolean isDiscarded() {
+    return this.discarded;
+  }
+
+  /**
+   * Marks the record as visible through a view from {@code getImage}. Its pixels are never given
+   * back to a pool, since the view may still read them after the record is discarded.
+   */
+  void expose() {
+    this.exposed = true;
+  }
+
+  /**
+   * Deletes the spill file of this record, if it has one, and gives its pixels to the pool.
+   * Called once the record is no longer stored under any reference; while the record is held,
+   * both are kept until it is released.
+   *
+   * @param pool the pool to give the pixels to, or null to leave them to the garbage collector
+   */
+  synchronized void discard(RasterPool pool) {
+    this.discarded = true;
+    this.recycler = pool;
+    if (this.holds > 0) {
+      return;
+    }
+    Raster resident = this.pixels;
+    if (pool != null && resident != null && !this.exposed) {
+      this.pixels = null;
+      pool.give(resident);
+    }
+    if (this.spillFile != null) {
+      try {
+        Files.deleteIfExists(this.spillFile);
+      } catch (IOException e) {
+        // the file is deleted on exit instead
+      }
+      this.spillFile = null;
+      this.spilled = false;
+    }
+  }
+
+  /**
+   * Reads the pixels back from the spill file, compressing them again the way they were
+   * compressed before.
+   *
+   * @return the pixels of the image
+   * @throws IllegalStateException if the spill file can't be read
+   */
+  private Raster readSpillFile() throws IllegalStateException {
+    try {
+      Raster into = this.tiled ? new TiledRaster(this.width, this.height)
+          : Raster.allocate(this.width * this.height, this.offHeap);
+      SpillFile.read(this.spillFile, into);
+      if (this.tiled || this.palette) {
+        return RasterCompression.compress(into, this.width, this.height, null);
+      }
+      return into;
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to read spilled image: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Gets the packed color of one pixel.
+   *
+   * @param row the row of the pixel
+   * @param col the column of the pixel
+   * @return the pixel packed as {@code 0xRRGGBB}
+   */
+  int getRGB(int row, int col) {
+    return this.getPixels().get(row * this.width + col);
+  }
+
+  /**
+   * Marks the record as shared with something that expects it to never change, such as a save
+   * running in the background. The pixels of a shared record are never set again; see
+   * {@link #isShared()}.
+   */
+  void share() {
+    this.shared = true;
+  }
+
+  /**
+   * Checks whether the record has been shared. A shared record has to be copied before a pixel
+   * of it is set.
+   *
+   * @return true if the record has been shared
+   */
+  boolean isShared() {
+    return this.shared;
+  }
+
+  /**
+   * Creates an unshared copy of this record with its own pixels.
+   *
+   * @return the copy
+   * @throws IllegalStateException if the pixels can't be loaded
+   */
+  ImageRecord copy() throws IllegalStateException {
+    ImageRecord copy = new ImageRecord(this.width, this.height, this.maxValue,
+        this.getPixels().copy());
+    copy.setOrigin(this.getOrigin().isEmpty() ? "edited" : this.getOrigin() + ", edited");
+    return copy;
+  }
+
+  /**
+   * Overwrites one pixel and drops the cached statistics. Only used by the list view returned
+   * from {@code getImage}, on unshared records, while holding the write lock of the reference.
+   *
+   * @param row the row of the pixel
+   * @param col the column of the pixel
+   * @param rgb the new color packed as {@code 0xRRGGBB}
+   */
+  synchronized void setRGB(int row, int col, int rgb) {
+    this.getPixels().set(row * this.width + col, rgb & 0xFFFFFF);
+    this.spilled = false;
+    this.dropped = false;
+    this.lineage = null;
+    this.stats = null;
+  }
+
+  /**
+   * Gets the statistics of the image, computing them the first time they are asked for.
+   *
+   * @return the statistics of the image
+   */
+  ImageStats getStats() {
+    ImageStats result = this.stats;
+    if (result == null) {
+      result = new ImageStats(this.getPixels());
+      this.stats = result;
+    }
+    return result;
+  }
+}
@@ -0,0 +1,325 @@
+package model;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Encodes images and writes them to disk. Every file is written to a temporary file in the same
+ * directory first and then renamed over the target, so a reader never sees a half written file.
+ *
+ * <p>Saves can also run in the background. Each background save works on the record it was given,
+ * which is marked as shared so later edits copy it instead of changing it, and held so its spill
+ * file outlives the reference it was stored under. Saves to the same file run in the order they
+ * were made; failures are collected until {@link #awaitAll()} is called.
+ */
+final class ImageSaver {
+  /**
+   * The file formats images can be saved as.
+   */
+  enum Format { PPM, PNG }
+
+  /**
+   * Writes the contents of a file.
+   */
+  interface Encoder {
+    /**
+     * Writes the contents to the given file.
+     *
+     * @param file the file to write
+     * @throws IOException if the file can't be written
+     */
+    void encode(Path file) throws IOException;
+  }
+
+  private static final SecureRandom RANDOM = new SecureRandom();
+
+  private final ExecutorService pool;
+  private final Map<Path, CompletableFuture<Void>> lastWrites;
+  private final List<String> errors;
+
+  /**
+   * Creates a saver whose background saves run on the given number of threads.
+   *
+   * @param threads the number of background threads
+   */
+  ImageSaver(int threads) {
+    this.pool = Executors.newFixedThreadPool(threads, task -> {
+      Thread thread = new Thread(task, "ppm-save");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.lastWrites = new ConcurrentHashMap<>();
+    this.errors = new ArrayList<>();
+  }
+
+  /**
+   * Gets the path a save to the given filepath writes to.
+   *
+   * @param format   the format of the file
+   * @param filepath the filepath without an extension
+   * @return the path of the file, with the extension of the format
+   */
+  static Path target(Format format, String filepath) {
+    String extension = format == Format.PPM ? ".ppm" : ".png";
+    return Paths.get(filepath + extension).toAbsolutePath().normalize();
+  }
+
+  /**
+   * Encodes the image and writes it to the target file, replacing it atomically.
+   *
+   * @param format the format to save as
+   * @param target the file to write
+   * @param record the image to save
+   * @throws IOException if the file can't be written
+   */
+  static void write(Format format, Path target, ImageRecord record) throws IOException {
+    replace(target, temp -> {
+      if (format == Format.PPM) {
+        writePPM(temp, record);
+      } else {
+        writePNG(temp, record);
+      }
+    });
+  }
+
+  /**
+   * Writes a file with the given encoder to a temporary file next to the target, then renames
+   * it over the target. The temporary file is created like any other file, so it gets the
+   * permissions the umask allows, unless the target already exists, in which case it takes the
+   * permissions of the target.
+   *
+   * @param target  the file to write
+   * @param encoder writes the contents to the temporary file
+   * @throws IOException if the file can't be written
+   */
+  static void replace(Path target, Encoder encoder) throws IOException {
+    Path temp = createSibling(target);
+    try {
+      encoder.encode(temp);
+      copyPermissions(target, temp);
+      try {
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE,
+            StandardCopyOption.REPLACE_EXISTING);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+      }
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  /**
+   * Creates an empty file with a name no other file has, in the same directory as the target.
+   *
+   * @param target the file the new file will replace
+   * @return the new file
+   * @throws IOException if the file can't be created
+   */
+  private static Path createSibling(Path target) throws IOException {
+    while (true) {
+      Path temp = target.resolveSibling("." + target.getFileName() + "."
+          + Long.toHexString(RANDOM.nextLong()) + ".tmp");
+      try {
+        Files.newOutputStream(temp, StandardOpenOption.CREATE_NEW).close();
+        return temp;
+      } catch (FileAlreadyExistsException e) {
+        // taken, so try another name
+      }
+    }
+  }
+
+  /**
+   * Gives a file the permissions of the file it replaces, if there is one and the file system
+   * has POSIX permissions.
+   *
+   * @param target the file being replaced
+   * @param temp   the file replacing it
+   * @throws IOException if the permissions can't be read or set
+   */
+  private static void copyPermissions(Path target, Path temp) throws IOException {
+    try {
+      Files.setPosixFilePermissions(temp, Files.getPosixFilePermissions(target));
+    } catch (NoSuchFileException | UnsupportedOperationException e) {
+      // nothing to copy
+    }
+  }
+
+  /**
+   * Writes the image as a plain PPM file.
+   *
+   * @param file   the file to write
+   * @param record the image to write
+   * @throws IOException if the file can't be written
+   */
+  private static void writePPM(Path file, ImageRecord record) throws IOException {
+    int height = record.getHeight();
+    int width = record.getWidth();
+    Raster pixels = record.getPixels();
+
+    try (Writer saver = Files.newBufferedWriter(file, StandardCharsets.US_ASCII)) {
+      // adds PPM file signature, then the width, height, and max value
+      saver.write("P3\n");
+      saver.write(width + " " + height + " " + record.getMaxValue() + "\n");
+
+      // adds the RGB values of every pixel
+      StringBuilder row = new StringBuilder(width * 12 + 1);
+      int[] values = new int[width];
+      for (int h = 0; h < height; h += 1) {
+        pixels.get(h * width, values, 0, width);
+        appendPPMRow(row, values, 0, width);
+        saver.append(row);
+      }
+    }
+  }
+
+  /**
+   * Formats one row of pixels the way a plain PPM file stores them, replacing the contents of
+   * the builder.
+   *
+   * @param row    the builder to put the row in
+   * @param values the pixels, each packed as {@code 0xRRGGBB}
+   * @param offset where in the array the row starts
+   * @param width  the number of pixels in the row
+   */
+  static void appendPPMRow(StringBuilder row, int[] values, int offset, int width) {
+    row.setLength(0);
+    for (int w = offset; w < offset + width; w += 1) {
+      int rgb = values[w];
+      row.append(PPMUtilModel.red(rgb)).append(' ');
+      row.append(PPMUtilModel.green(rgb)).append(' ');
+      row.append(PPMUtilModel.blue(rgb)).append(' ');
+    }
+    row.append('\n');
+  }
+
+  /**
+   * Writes the image as a PNG file.
+   *
+   * @param file   the file to write
+   * @param record the image to write
+   * @throws IOException if the file can't be written
+   */
+  private static void writePNG(Path file, ImageRecord record) throws IOException {
+    int height = record.getHeight();
+    int width = record.getWidth();
+    BufferedImage im = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    Raster pixels = record.getPixels();
+    int[] row = new int[width];
+    for (int h = 0; h < height; h += 1) {
+      pixels.get(h * width, row, 0, width);
+      im.setRGB(0, h, width, 1, row, 0, width);
+    }
+    if (!ImageIO.write(im, "png", file.toFile())) {
+      throw new IOException("No PNG writer is available.");
+    }
+  }
+
+  /**
+   * Saves the image in the background. The save starts after any earlier save to the same file
+   * has finished.
+   *
+   * @param format the format to save as
+   * @param target the file to write
+   * @param record the image to save
+   */
+  void writeLater(Format format, Path target, ImageRecord record) {
+    record.share();
+    record.hold();
+    this.lastWrites.compute(target, (path, previous) -> {
+      Runnable save = () -> {
+        try {
+          write(format, path, record);
+        } catch (IOException | RuntimeException e) {
+          String reason = e.getMessage();
+          if (e instanceof NoSuchFileException) {
+            reason = "the directory doesn't exist";
+          }
+          synchronized (this.errors) {
+            this.errors.add("Unable to save " + path + ": " + reason);
+          }
+        } finally {
+          record.release();
+        }
+      };
+      if (previous == null) {
+        return CompletableFuture.runAsync(save, this.pool);
+      }
+      return previous.thenRunAsync(save, this.pool);
+    });
+  }
+
+  /**
+   * Waits for the background saves to the given file to finish.
+   *
+   * @param target the file being written
+   */
+  void await(Path target) {
+    CompletableFuture<Void> pending = this.lastWrites.get(target);
+    if (pending != null) {
+      join(pending);
+      this.lastWrites.remove(target, pending);
+    }
+  }
+
+  /**
+   * Checks whether a background save to the given file hasn't finished yet.
+   *
+   * @param target the file to check
+   * @return true if the file is still being written
+   */
+  boolean isPending(Path target) {
+    CompletableFuture<Void> pending = this.lastWrites.get(target);
+    return pending != null && !pending.isDone();
+  }
+
+  /**
+   * Waits for every background save to finish.
+   *
+   * @return the messages of the saves that failed since the last call, in the order they failed
+   */
+  List<String> awaitAll() {
+    for (Map.Entry<Path, CompletableFuture<Void>> entry : this.lastWrites.entrySet()) {
+      join(entry.getValue());
+      this.lastWrites.remove(entry.getKey(), entry.getValue());
+    }
+    synchronized (this.errors) {
+      List<String> failures = new ArrayList<>(this.errors);
+      this.errors.clear();
+      return failures;
+    }
+  }
+
+  /**
+   * Waits for a save to finish. Save failures are recorded by the save itself.
+   *
+   * @param save the save to wait for
+   */
+  private static void join(CompletableFuture<Void> save) {
+    try {
+      save.join();
+    } catch (CompletionException e) {
+      // already recorded as an error by the save
+    }
+  }
+}
@@ -0,0 +1,228 @@
+package model;
+
+import model.ImageUtilModel.Grayscale;
+
+/**
+ * Summary statistics of an image: the histogram of each of its red, green, and blue channels
+ * and of its luma, and the minimum, maximum, mean and standard deviation of each, which are
+ * worked out from the histograms. Instances are immutable and are cached on the
+ * {@code ImageRecord} they were computed from, so everything that needs the histogram of an
+ * image reads its pixels only once.
+ *
+ * <p>The histograms are counted in parallel: every band counts into histograms of its own,
+ * which are added together once it is done, so the bands never write to the same memory. A
+ * palette image only has its indices counted, and a uniform tile of a tiled image is counted
+ * all at once.
+ */
+final class ImageStats {
+  static final int CHANNELS = 4;
+  static final int LUMA = 3;
+  private static final int RUN = 4096;
+  private static final int MIN_RUNS = 16;
+  private static final int MIN_TILES = 4;
+
+  private final int[] histograms;
+  private final long count;
+  private final int[] min;
+  private final int[] max;
+  private final double[] mean;
+  private final double[] deviation;
+
+  /**
+   * Computes the statistics of the given packed RGB pixels.
+   *
+   * @param pixels the pixels to summarize, each packed as {@code 0xRRGGBB}
+   */
+  ImageStats(Raster pixels) {
+    this.histograms = new int[CHANNELS * 256];
+    this.count = pixels.length();
+    if (pixels.isPalette()) {
+      countPalette((PaletteRaster) pixels, this.histograms);
+    } else if (pixels.isTiled()) {
+      countTiles((TiledRaster) pixels, this.histograms);
+    } else {
+      countRuns(pixels, this.histograms);
+    }
+
+    this.min = new int[CHANNELS];
+    this.max = new int[CHANNELS];
+    this.mean = new double[CHANNELS];
+    this.deviation = new double[CHANNELS];
+    for (int c = 0; c < CHANNELS; c += 1) {
+      int base = c * 256;
+      long sum = 0;
+      long sumOfSquares = 0;
+      this.min[c] = 255;
+      for (int value = 0; value < 256; value += 1) {
+        long n = this.histograms[base + value];
+        if (n > 0) {
+          this.min[c] = Math.min(this.min[c], value);
+          this.max[c] = value;
+        }
+        sum += n * value;
+        sumOfSquares += n * value * value;
+      }
+      if (this.count > 0) {
+        this.mean[c] = (double) sum / this.count;
+        double meanOfSquares = (double) sumOfSquares / this.count;
+        this.deviation[c] = Math.sqrt(Math.max(0, meanOfSquares - this.mean[c] * this.mean[c]));
+      }
+    }
+  }
+
+  /**
+   * Counts the pixels of a plain raster, in runs read in bulk.
+   *
+   * @param pixels     the pixels
+   * @param histograms the histograms to add the counts to
+   */
+  private static void countRuns(Raster pixels, int[] histograms) {
+    int length = pixels.length();
+    int runs = (length + RUN - 1) / RUN;
+    ParallelBands.run(runs, MIN_RUNS, (from, to) -> {
+      int[] local = new int[CHANNELS * 256];
+      int[] run = new int[RUN];
+      for (int r = from; r < to; r += 1) {
+        int start = r * RUN;
+        int n = Math.min(RUN, length - start);
+        pixels.get(start, run, 0, n);
+        for (int i = 0; i < n; i += 1) {
+          add(local, run[i], 1);
+        }
+      }
+      merge(local, histograms);
+    });
+  }
+
+  /**
+   * Counts the pixels of a tiled raster a tile at a time.
+   *
+   * @param tiles      the pixels
+   * @param histograms the histograms to add the counts to
+   */
+  private static void countTiles(TiledRaster tiles, int[] histograms) {
+    ParallelBands.run(tiles.tileCount(), MIN_TILES, (from, to) -> {
+      int[] local = new int[CHANNELS * 256];
+      for (int t = from; t < to; t += 1) {
+        if (tiles.isUniform(t)) {
+          add(local, tiles.uniformColor(t), tiles.tileWidth(t) * tiles.tileHeight(t));
+        } else {
+          for (int rgb : tiles.tile(t)) {
+            add(local, rgb, 1);
+          }
+        }
+      }
+      merge(local, histograms);
+    });
+  }
+
+  /**
+   * Counts the pixels of a palette raster by counting how often each index is used.
+   *
+   * @param palette    the pixels
+   * @param histograms the histograms to add the counts to
+   */
+  private static void countPalette(PaletteRaster palette, int[] histograms) {
+    byte[] indices = palette.indices();
+    int[] uses = new int[PaletteRaster.COLORS];
+    ParallelBands.run(indices.length, MIN_RUNS * RUN, (from, to) -> {
+      int[] local = new int[PaletteRaster.COLORS];
+      for (int i = from; i < to; i += 1) {
+        local[indices[i] & 0xFF] += 1;
+      }
+      merge(local, uses);
+    });
+    for (int c = 0; c < palette.colors(); c += 1) {
+      add(histograms, palette.color(c), uses[c]);
+    }
+  }
+
+  /**
+   * Adds a pixel to the histograms.
+   *
+   * @param histograms the histograms
+   * @param rgb        the pixel packed as {@code 0xRRGGBB}
+   * @param times      how many pixels of that color to add
+   */
+  private static void add(int[] histograms, int rgb, int times) {
+    histograms[PPMUtilModel.red(rgb)] += times;
+    histograms[256 + PPMUtilModel.green(rgb)] += times;
+    histograms[512 + PPMUtilModel.blue(rgb)] += times;
+    histograms[768 + PPMUtilModel.grayValue(Grayscale.Luma, rgb)] += times;
+  }
+
+  /**
+   * Adds the counts of one band to the totals.
+   *
+   * @param local  the counts of the band
+   * @param totals the counts of every band so far
+   */
+  private static void merge(int[] local, int[] totals) {
+    synchronized (totals) {
+      for (int i = 0; i < local.length; i += 1) {
+        totals[i] += local[i];
+      }
+    }
+  }
+
+  /**
+   * Gets the histogram of the given channel.
+   *
+   * @param channel 0 for red, 1 for green, 2 for blue, {@value #LUMA} for luma
+   * @return the number of pixels with each value of that channel, from 0 to 255
+   */
+  int[] getHistogram(int channel) {
+    int[] histogram = new int[256];
+    System.arraycopy(this.histograms, channel * 256, histogram, 0, 256);
+    return histogram;
+  }
+
+  /**
+   * Gets the number of pixels of the image.
+   *
+   * @return the number of pixels
+   */
+  long getCount() {
+    return this.count;
+  }
+
+  /**
+   * Gets the smallest value of the given channel.
+   *
+   * @param channel 0 for red, 1 for green, 2 for blue, {@value #LUMA} for luma
+   * @return the smallest value of that channel
+   */
+  int getMin(int channel) {
+    return this.min[channel];
+  }
+
+  /**
+   * Gets the largest value of the given channel.
+   *
+   * @param channel 0 for red, 1 for green, 2 for blue, {@value #LUMA} for luma
+   * @return the largest value of that channel
+   */
+  int getMax(int channel) {
+    return this.max[channel];
+  }
+
+  /**
+   * Gets the mean value of the given channel.
+   *
+   * @param channel 0 for red, 1 for green, 2 for blue, {@value #LUMA} for luma
+   * @return the mean value of that channel, or 0 for an empty image
+   */
+  double getMean(int channel) {
+    return this.mean[channel];
+  }
+
+  /**
+   * Gets the standard deviation of the given channel.
+   *
+   * @param channel 0 for red, 1 for green, 2 for blue, {@value #LUMA} for luma
+   * @return the standard deviation of that channel, or 0 for an empty image
+   */
+  double getDeviation(int channel) {
+    return this.deviation[channel];
+  }
+}
@@ -0,0 +1,216 @@
+package model;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Streams an image from a PPM file or stream to another a band of rows at a time, so only a few
+ * rows are ever in memory no matter how tall the image is. Every band is read, has a function
+ * applied to each of its pixels, is optionally mirrored, and is written out before the next one
+ * is read. A vertical flip reads the rows of a file from the bottom up instead; an image read
+ * from a stream can't be read that way, so it is held in memory whole to flip it.
+ */
+final class ImageStreamer {
+  private static final long BAND_BYTES = 1 << 20;
+
+  /**
+   * This class only has static methods.
+   */
+  private ImageStreamer() {
+  }
+
+  /**
+   * Gets the number of rows in a band of an image of the given width.
+   *
+   * @param width the width of the image in pixels
+   * @return the number of rows that fit in a band, at least 1
+   */
+  static int bandRows(int width) {
+    return (int) Math.max(1, BAND_BYTES / Math.max(1, 4L * width));
+  }
+
+  /**
+   * Streams the source file into a plain PPM file, replacing the target atomically.
+   *
+   * @param source the file to read
+   * @param target the file to write
+   * @param chain  what to do to the image
+   * @throws IOException           if the target can't be written
+   * @throws IllegalStateException if the source can't be read or its pixel data is invalid
+   */
+  static void stream(PPMFile source, Path target, Chain chain)
+          throws IOException, IllegalStateException {
+    ImageSaver.replace(target, temp -> {
+      try (OutputStream out = Files.newOutputStream(temp)) {
+        stream(source, out, false, chain);
+      }
+    });
+  }
+
+  /**
+   * Streams the source image to an output stream. The output stream is flushed but not closed.
+   *
+   * @param source the image to read
+   * @param out    the stream to write the image to
+   * @param raw    whether to write a raw ({@code P6}) image rather than a plain one
+   * @param chain  what to do to the image
+   * @throws IOException           if the output can't be written
+   * @throws IllegalStateException if the source can't be read or its pixel data is invalid
+   */
+  static void stream(PPMFile source, OutputStream out, boolean raw, Chain chain)
+          throws IOException, IllegalStateException {
+    boolean reverse = chain.reverse;
+    int width = source.getWidth();
+    int height = source.getHeight();
+    boolean whole = reverse && !source.isSeekable();
+    int rows = whole ? height : Math.min(bandRows(width), height);
+    int[] band = new int[Math.max(1, rows) * width];
+
+    RowWriter writer = new RowWriter(out, raw, width);
+    writer.header(height, source.getMaxValue());
+    try (PPMFile.Rows in = source.rows(reverse && !whole)) {
+      for (int top = 0; top < height; top += rows) {
+        int count = Math.min(rows, height - top);
+        for (int r = 0; r < count; r += 1) {
+          in.next(band, r * width);
+        }
+        transform(band, count * width, width, chain.mirror, chain.pixel);
+        for (int r = 0; r < count; r += 1) {
+          writer.row(band, (whole ? count - 1 - r : r) * width);
+        }
+      }
+    }
+    writer.flush();
+  }
+
+  /**
+   * Applies the pixel function and the horizontal flip to a band.
+   *
+   * @param band   the rows of the band, one after another
+   * @param length the number of pixels in the band
+   * @param width  the width of a row
+   * @param mirror whether to reverse every row
+   * @param pixel  computes the new pixel from the old one, or null to keep the pixels
+   */
+  private static void transform(int[] band, int length, int width, boolean mirror,
+                                IntUnaryOperator pixel) {
+    if (pixel != null) {
+      for (int i = 0; i < length; i += 1) {
+        band[i] = pixel.applyAsInt(band[i]);
+      }
+    }
+    if (mirror) {
+      for (int start = 0; start < length; start += width) {
+        for (int left = start, right = start + width - 1; left < right; left += 1, right -= 1) {
+          int swap = band[left];
+          band[left] = band[right];
+          band[right] = swap;
+        }
+      }
+    }
+  }
+
+  /**
+   * What a streamed chain of steps does to an image: which way to flip it, and what to do to
+   * each pixel.
+   */
+  static final class Chain {
+    private final boolean reverse;
+    private final boolean mirror;
+    private final IntUnaryOperator pixel;
+
+    /**
+     * Creates a chain.
+     *
+     * @param reverse whether to flip the image vertically
+     * @param mirror  whether to flip the image horizontally
+     * @param pixel   computes the new pixel from the old one, both packed as
+     *                {@code 0xRRGGBB}, or null to keep the pixels
+     */
+    Chain(boolean reverse, boolean mirror, IntUnaryOperator pixel) {
+      this.reverse = reverse;
+      this.mirror = mirror;
+      this.pixel = pixel;
+    }
+  }
+
+  /**
+   * Writes the header and rows of a plain or raw PPM image.
+   */
+  private static final class RowWriter {
+    private final boolean raw;
+    private final int width;
+    private final OutputStream bytes;
+    private final Writer text;
+    private final StringBuilder line;
+    private final byte[] row;
+
+    /**
+     * Creates a writer for an image of the given width.
+     *
+     * @param out   the stream to write to
+     * @param raw   whether to write a raw image
+     * @param width the width of the image in pixels
+     */
+    RowWriter(OutputStream out, boolean raw, int width) {
+      this.raw = raw;
+      this.width = width;
+      this.bytes = new BufferedOutputStream(out, 1 << 16);
+      this.text = new OutputStreamWriter(this.bytes, StandardCharsets.US_ASCII);
+      this.line = new StringBuilder(width * 12 + 1);
+      this.row = raw ? new byte[3 * width] : null;
+    }
+
+    /**
+     * Writes the header.
+     *
+     * @param height   the height of the image in pixels
+     * @param maxValue the max value of a channel
+     * @throws IOException if the stream can't be written
+     */
+    void header(int height, int maxValue) throws IOException {
+      this.text.write((this.raw ? "P6" : "P3") + "\n");
+      this.text.write(this.width + " " + height + " " + maxValue + "\n");
+      this.text.flush();
+    }
+
+    /**
+     * Writes one row.
+     *
+     * @param pixels the pixels, each packed as {@code 0xRRGGBB}
+     * @param offset where in the array the row starts
+     * @throws IOException if the stream can't be written
+     */
+    void row(int[] pixels, int offset) throws IOException {
+      if (this.raw) {
+        for (int w = 0; w < this.width; w += 1) {
+          int rgb = pixels[offset + w];
+          this.row[3 * w] = (byte) PPMUtilModel.red(rgb);
+          this.row[3 * w + 1] = (byte) PPMUtilModel.green(rgb);
+          this.row[3 * w + 2] = (byte) PPMUtilModel.blue(rgb);
+        }
+        this.bytes.write(this.row);
+      } else {
+        ImageSaver.appendPPMRow(this.line, pixels, offset, this.width);
+        this.text.append(this.line);
+      }
+    }
+
+    /**
+     * Writes out everything that is buffered.
+     *
+     * @throws IOException if the stream can't be written
+     */
+    void flush() throws IOException {
+      this.text.flush();
+      this.bytes.flush();
+    }
+  }
+}
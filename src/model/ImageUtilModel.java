@@ -3,6 +3,8 @@ package model;
 import java.awt.Color;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.List;
 
 /**
@@ -17,12 +19,72 @@ public interface ImageUtilModel {
    */
   enum Grayscale { Red, Green, Blue, Value, Intensity, Luma }
 
+  /**
+   * An enumeration of the filters an image can be resized with: the mean of the pixels under
+   * each new pixel, a straight line between neighboring pixels, or the sharper three lobe
+   * Lanczos filter.
+   */
+  enum ResizeFilter { Box, Bilinear, Lanczos }
+
+  /**
+   * An enumeration of the ways an image can be sampled between its pixels when it is turned or
+   * warped: from the 2 by 2 pixels around a point, or with a cubic over the 4 by 4 pixels
+   * around it, which keeps edges sharper.
+   */
+  enum Sampling { Bilinear, Bicubic }
+
+  /**
+   * An enumeration of the ready made color matrices: a warm brown sepia tone, the gray
+   * components that are weighted sums of red, green and blue, and the conversions from RGB to
+   * full range YCbCr, as used by JPEG, and back. {@code Value} is the largest of the three
+   * channels rather than a weighted sum, so it has no matrix.
+   */
+  enum ColorPreset { Sepia, Red, Green, Blue, Intensity, Luma, YCbCr, FromYCbCr }
+
+  /**
+   * An enumeration of where the pixels of an image are: in memory, moved to a file on disk to
+   * save memory, dropped to save memory until they are computed again from the image they were
+   * made from, or not read from their image file yet.
+   */
+  enum Residency { Resident, Spilled, Recomputable, Unloaded }
+
   /**
    * Loads an image from the given path and assigns it the given destination file name.
+   * Implementations may read only the header here and decode the pixels when they are first
+   * used, in which case a problem with the pixel data is reported as an
+   * {@code IllegalStateException} by the command that first uses them.
    *
    * @throws FileNotFoundException if the filename is not found
+   * @throws IllegalStateException if the file is not a valid image
    */
-  void loadImage(String filename, String destFilename) throws FileNotFoundException;
+  void loadImage(String filename, String destFilename)
+          throws FileNotFoundException, IllegalStateException;
+
+  /**
+   * Hints that the image at the given path is about to be loaded, so it can be decoded in the
+   * background ahead of time. A later {@code loadImage} of the same path uses the prefetched
+   * pixels if the file hasn't changed since. Prefetching is bounded by a memory budget.
+   *
+   * @param filename the path of the image that will be loaded
+   * @return false if the prefetch was refused because the budget is used up for now, true
+   *         otherwise (a file that can't be read is not prefetched, and is left for
+   *         {@code loadImage} to report)
+   */
+  boolean prefetchImage(String filename);
+
+  /**
+   * Gives up on every prefetched image that hasn't been loaded yet, freeing the memory it holds
+   * and its share of the prefetch budget.
+   */
+  void cancelPrefetches();
+
+  /**
+   * Gets the bytes of the prefetch budget held by prefetched images that haven't been loaded
+   * yet.
+   *
+   * @return the reserved bytes
+   */
+  long getPrefetchReserved();
 
   /**
    * Saves a PNG image to the provided path.
@@ -42,6 +104,24 @@ public interface ImageUtilModel {
    */
   void savePPMImage(String filepath, String filenameReference) throws IOException;
 
+  /**
+   * Chooses whether saves run in the background. In asynchronous mode {@code savePNGImage} and
+   * {@code savePPMImage} only check that the reference exists and return right away; the image
+   * is encoded and written later, as it was when the save was requested. Failures are reported
+   * by {@link #awaitSaves()}.
+   *
+   * @param async true to save in the background, false to save before returning
+   */
+  void setAsyncSaves(boolean async);
+
+  /**
+   * Waits for every save running in the background to finish.
+   *
+   * @return the error messages of the background saves that failed since the last call, empty if
+   *         all of them succeeded
+   */
+  List<String> awaitSaves();
+
   /**
    * Displays only the given color component of an image. Sets the RGB value of each pixel to only
    * the value of the given component.
@@ -74,6 +154,109 @@ public interface ImageUtilModel {
   void flipVertical(String filenameReference, String newReferenceName)
           throws IllegalArgumentException;
 
+  /**
+   * Turns an image a quarter turn clockwise and loads it with a new reference name.
+   *
+   * @param filenameReference the reference name of the image to turn
+   * @param newReferenceName  the name to reference the new image as
+   * @throws IllegalArgumentException if the filenameReference is not already loaded
+   */
+  void rotate90(String filenameReference, String newReferenceName)
+          throws IllegalArgumentException;
+
+  /**
+   * Turns an image a half turn and loads it with a new reference name.
+   *
+   * @param filenameReference the reference name of the image to turn
+   * @param newReferenceName  the name to reference the new image as
+   * @throws IllegalArgumentException if the filenameReference is not already loaded
+   */
+  void rotate180(String filenameReference, String newReferenceName)
+          throws IllegalArgumentException;
+
+  /**
+   * Turns an image a quarter turn counterclockwise, which is three quarter turns clockwise, and
+   * loads it with a new reference name.
+   *
+   * @param filenameReference the reference name of the image to turn
+   * @param newReferenceName  the name to reference the new image as
+   * @throws IllegalArgumentException if the filenameReference is not already loaded
+   */
+  void rotate270(String filenameReference, String newReferenceName)
+          throws IllegalArgumentException;
+
+  /**
+   * Transposes an image, swapping its rows and columns, and loads it with a new reference name.
+   *
+   * @param filenameReference the reference name of the image to transpose
+   * @param newReferenceName  the name to reference the new image as
+   * @throws IllegalArgumentException if the filenameReference is not already loaded
+   */
+  void transpose(String filenameReference, String newReferenceName)
+          throws IllegalArgumentException;
+
+  /**
+   * Turns an image clockwise by any angle about its center and loads it with a new reference
+   * name. The result is just large enough to hold the whole turned image, and its corners
+   * outside the image are black.
+   *
+   * @param sampling          how to sample the image between its pixels
+   * @param degrees           the angle to turn by, clockwise
+   * @param filenameReference the reference name of the image to turn
+   * @param newReferenceName  the name to reference the new image as
+   * @throws IllegalArgumentException if the filenameReference is not already loaded, or the
+   *                                  angle is not a finite number or makes the result too large
+   */
+  void rotate(Sampling sampling, double degrees, String filenameReference,
+              String newReferenceName) throws IllegalArgumentException;
+
+  /**
+   * Warps an image by an affine map and loads it with a new reference name. The map takes the
+   * point {@code (x, y)} of the image to {@code (a x + b y + c, d x + e y + f)} of the result,
+   * where points are measured in pixels from the top left corner. The result is the same size
+   * as the image, and its parts that come from outside the image are black.
+   *
+   * @param sampling          how to sample the image between its pixels
+   * @param matrix            the map, as {@code {a, b, c, d, e, f}}
+   * @param filenameReference the reference name of the image to warp
+   * @param newReferenceName  the name to reference the new image as
+   * @throws IllegalArgumentException if the filenameReference is not already loaded, or the
+   *                                  map can't be inverted
+   */
+  void affine(Sampling sampling, double[] matrix, String filenameReference,
+              String newReferenceName) throws IllegalArgumentException;
+
+  /**
+   * Runs every pixel of an image through a ready made color matrix and loads it with a new
+   * reference name.
+   *
+   * @param preset            the color matrix to use
+   * @param filenameReference the reference name of the image to map
+   * @param newReferenceName  the name to reference the new image as
+   * @throws IllegalArgumentException if the filenameReference is not already loaded
+   */
+  void colorMatrix(ColorPreset preset, String filenameReference, String newReferenceName)
+          throws IllegalArgumentException;
+
+  /**
+   * Runs every pixel of an image through a color matrix and loads it with a new reference
+   * name. Every channel of the result is a weighted sum of the red, green and blue of the
+   * pixel plus an offset, rounded and clamped to 0 to 255. The matrix is given as nine weights,
+   * the weights of red, green and blue for each of red, green and blue of the result in turn,
+   * or as twelve entries, where each of the three rows ends with its offset. If the image was
+   * itself made by a color matrix, the two matrices are folded into one and applied to the
+   * image before it, so rounding and clamping happen only once.
+   *
+   * @param matrix            the nine weights or twelve entries of the matrix, row by row
+   * @param filenameReference the reference name of the image to map
+   * @param newReferenceName  the name to reference the new image as
+   * @throws IllegalArgumentException if the filenameReference is not already loaded, or the
+   *                                  matrix doesn't have nine or twelve entries from -4096 to
+   *                                  4096
+   */
+  void colorMatrix(double[] matrix, String filenameReference, String newReferenceName)
+          throws IllegalArgumentException;
+
   /**
    * Brightens or darkens an image by the given increment and loads it with a new reference name.
    *
@@ -86,6 +269,308 @@ public interface ImageUtilModel {
   void brighten(int increment, String filenameReference, String newReferenceName)
           throws IllegalArgumentException;
 
+  /**
+   * Blurs an image with a Gaussian and loads it with a new reference name. The standard
+   * deviation of the Gaussian is half the radius, and blurs with a large radius take about as
+   * long as small ones.
+   *
+   * @param radius            the radius of the blur, at least 1
+   * @param filenameReference the reference name of the image to blur
+   * @param newReferenceName  the name to reference the new image as
+   * @throws IllegalArgumentException if the radius is less than 1 or the filenameReference is
+   *                                  not already loaded
+   */
+  void blur(int radius, String filenameReference, String newReferenceName)
+          throws IllegalArgumentException;
+
+  /**
+   * Sharpens an image and loads it with a new reference name. Every channel is pushed away from
+   * its value in a blur of the image with the given radius by as much as it differs from it.
+   *
+   * @param radius            the radius of the blur to compare with, at least 1
+   * @param filenameReference the reference name of the image to sharpen
+   * @param newReferenceName  the name to reference the new image as
+   * @throws IllegalArgumentException if the radius is less than 1 or the filenameReference is
+   *                                  not already loaded
+   */
+  void sharpen(int radius, String filenameReference, String newReferenceName)
+          throws IllegalArgumentException;
+
+  /**
+   * Replaces every pixel of an image with the mean of the square of pixels around it and loads
+   * it with a new reference name. Squares are cut off at the edges of the image. The means come
+   * from a summed-area table, so the square can be of any size at no extra cost.
+   *
+   * @param radius            the number of pixels the square reaches on either side of the
+   *                          pixel, at least 1
+   * @param filenameReference the reference name of the image to blur
+   * @param newReferenceName  the name to reference the new image as
+   * @throws IllegalArgumentException if the radius is less than 1 or the filenameReference is
+   *                                  not already loaded
+   */
+  void boxBlur(int radius, String filenameReference, String newReferenceName)
+          throws IllegalArgumentException;
+
+  /**
+   * Turns an image black and white by comparing the luma of every pixel with the mean luma of
+   * the square around it, and loads it with a new reference name. A pixel is white if its luma
+   * is above the local mean less the offset, and black otherwise.
+   *
+   * @param radius            the number of pixels the square reaches on either side of the
+   *                          pixel, at least 1
+   * @param offset            how far below the local mean a pixel may be and still be white
+   * @param filenameReference the reference name of the image to threshold
+   * @param newReferenceName  the name to reference the new image as
+   * @throws IllegalArgumentException if the radius is less than 1 or the filenameReference is
+   *                                  not already loaded
+   */
+  void adaptiveThreshold(int radius, int offset, String filenameReference,
+                         String newReferenceName) throws IllegalArgumentException;
+
+  /**
+   * Finds the edges of an image and loads the result with a new reference name. Every pixel of
+   * the result is gray, as bright as the gradient of the luma of the image there, found with the
+   * Sobel operator and capped at 255. The luma is computed while the image is read, so no gray
+   * copy of the image is made, and the result stores one byte per pixel.
+   *
+   * @param filenameReference the reference name of the image
+   * @param newReferenceName  the name to reference the new image as
+   * @throws IllegalArgumentException if the filenameReference is not already loaded
+   */
+  void edges(String filenameReference, String newReferenceName)
+          throws IllegalArgumentException;
+
+  /**
+   * Resizes an image to the given width and height with the given filter and loads the result
+   * with a new reference name. An image that shrinks a lot is first shrunk by a whole factor
+   * with a plain average of each block of pixels, which gives much the same result in much less
+   * time.
+   *
+   * @param filter            the filter to resize with
+   * @param width             the width to resize to
+   * @param height            the height to resize to
+   * @param filenameReference the reference name of the image
+   * @param newReferenceName  the name to reference the new image as
+   * @throws IllegalArgumentException if the filenameReference is not already loaded, or the
+   *                                  width or height is less than 1
+   */
+  void resize(ResizeFilter filter, int width, int height, String filenameReference,
+              String newReferenceName) throws IllegalArgumentException;
+
+  /**
+   * Replaces every channel of every pixel of an image with its median over the square around
+   * it, which removes specks and scanner noise while keeping edges sharp, and loads it with a
+   * new reference name. Squares that reach past the edges see copies of the edge pixels. The
+   * time a pixel takes doesn't depend on the radius.
+   *
+   * @param radius            the number of pixels the square reaches on either side of the
+   *                          pixel, at least 1
+   * @param filenameReference the reference name of the image to filter
+   * @param newReferenceName  the name to reference the new image as
+   * @throws IllegalArgumentException if the radius is less than 1 or the filenameReference is
+   *                                  not already loaded
+   */
+  void median(int radius, String filenameReference, String newReferenceName)
+          throws IllegalArgumentException;
+
+  /**
+   * Replaces every channel of every pixel of an image with its minimum over the square around
+   * it, which shrinks light areas and grows dark ones, and loads it with a new reference name.
+   * The time a pixel takes doesn't depend on the radius.
+   *
+   * @param radius            the number of pixels the square reaches on either side of the
+   *                          pixel, at least 1
+   * @param filenameReference the reference name of the image to erode
+   * @param newReferenceName  the name to reference the new image as
+   * @throws IllegalArgumentException if the radius is less than 1 or the filenameReference is
+   *                                  not already loaded
+   */
+  void erode(int radius, String filenameReference, String newReferenceName)
+          throws IllegalArgumentException;
+
+  /**
+   * Replaces every channel of every pixel of an image with its maximum over the square around
+   * it, which grows light areas and shrinks dark ones, and loads it with a new reference name.
+   * The time a pixel takes doesn't depend on the radius.
+   *
+   * @param radius            the number of pixels the square reaches on either side of the
+   *                          pixel, at least 1
+   * @param filenameReference the reference name of the image to dilate
+   * @param newReferenceName  the name to reference the new image as
+   * @throws IllegalArgumentException if the radius is less than 1 or the filenameReference is
+   *                                  not already loaded
+   */
+  void dilate(int radius, String filenameReference, String newReferenceName)
+          throws IllegalArgumentException;
+
+  /**
+   * Computes the mean and standard deviation of the red, green and blue of regions of an
+   * image. The image is summed once, after which every region takes the same short time
+   * however large it is.
+   *
+   * @param referenceName the reference name of the image
+   * @param regions       the regions, each the column and row of its top left corner followed
+   *                      by its width and height
+   * @return for every region, the means of red, green and blue followed by their standard
+   *         deviations
+   * @throws IllegalArgumentException if the referenceName is not already loaded, or a region
+   *                                  is empty or not inside the image
+   */
+  double[][] regionStats(String referenceName, int[][] regions)
+          throws IllegalArgumentException;
+
+  /**
+   * Counts how many pixels of an image have each value of red, green, blue and luma. The
+   * counts are kept with the image until it changes, and the statistics, auto levels,
+   * equalization and thresholding of the image use them instead of reading the pixels again.
+   *
+   * @param referenceName the reference name of the image
+   * @return the histograms of red, green, blue and luma, in that order, each with the number of
+   *         pixels with every value from 0 to 255
+   * @throws IllegalArgumentException if the referenceName is not already loaded
+   */
+  int[][] histogram(String referenceName) throws IllegalArgumentException;
+
+  /**
+   * Gets the minimum, maximum, mean and standard deviation of the red, green, blue and luma of
+   * an image, worked out from its histograms.
+   *
+   * @param referenceName the reference name of the image
+   * @return the statistics of red, green, blue and luma, in that order, each as its minimum,
+   *         maximum, mean and standard deviation
+   * @throws IllegalArgumentException if the referenceName is not already loaded
+   */
+  double[][] stats(String referenceName) throws IllegalArgumentException;
+
+  /**
+   * Stretches each of the red, green and blue of an image so that its smallest value becomes 0
+   * and its largest 255, and loads the result with a new reference name. A channel with a
+   * single value is left as it is.
+   *
+   * @param filenameReference the reference name of the image to stretch
+   * @param newReferenceName  the name to reference the new image as
+   * @throws IllegalArgumentException if the filenameReference is not already loaded
+   */
+  void autoLevels(String filenameReference, String newReferenceName)
+          throws IllegalArgumentException;
+
+  /**
+   * Equalizes the histogram of each of the red, green and blue of an image, spreading the
+   * values of each channel so that they are used about equally often, and loads the result
+   * with a new reference name. Each channel is equalized on its own, which can shift colors.
+   *
+   * @param filenameReference the reference name of the image to equalize
+   * @param newReferenceName  the name to reference the new image as
+   * @throws IllegalArgumentException if the filenameReference is not already loaded
+   */
+  void equalize(String filenameReference, String newReferenceName)
+          throws IllegalArgumentException;
+
+  /**
+   * Makes every pixel of an image white if its luma is above a level and black otherwise, and
+   * loads the result with a new reference name. The level is chosen from the histogram of the
+   * luma by Otsu's method, to best split the pixels into a dark and a light group.
+   *
+   * @param filenameReference the reference name of the image to threshold
+   * @param newReferenceName  the name to reference the new image as
+   * @throws IllegalArgumentException if the filenameReference is not already loaded
+   */
+  void threshold(String filenameReference, String newReferenceName)
+          throws IllegalArgumentException;
+
+  /**
+   * Loads a sequence of numbered frames, such as {@code frame_00001.ppm},
+   * {@code frame_00002.ppm}, and so on, under one reference name. The pattern is the path of a
+   * frame with a run of {@code #} where the number goes, such as {@code frames/frame_#####.ppm};
+   * every file in that directory that matches it is a frame, in order of its number.
+   *
+   * <p>No frame is read yet. The component, flip and brighten operations accept the name of a
+   * sequence as their source, and then only record the operation under the new name, to be run
+   * on every frame when the sequence is saved.
+   *
+   * @param pattern      the pattern of the file names of the frames
+   * @param sequenceName the name to reference the sequence as
+   * @return the number of frames found
+   * @throws FileNotFoundException    if no file matches the pattern
+   * @throws IllegalArgumentException if the pattern has no run of {@code #}
+   */
+  int loadSequence(String pattern, String sequenceName)
+          throws FileNotFoundException, IllegalArgumentException;
+
+  /**
+   * Saves every frame of a sequence after running the operations recorded for it. Frames are
+   * read, transformed and saved on several threads at once, each with its own pixels, and only
+   * a few frames beyond the oldest unfinished one are read ahead, so the whole sequence is
+   * never in memory. Each frame is saved under its own number in the given pattern, as a PNG
+   * file if the pattern ends in {@code .png} and as a PPM file otherwise.
+   *
+   * @param pattern      the pattern of the file names to save to, with a run of {@code #}
+   * @param sequenceName the name of the sequence
+   * @return the number of frames saved
+   * @throws IOException              if a frame can't be written
+   * @throws IllegalArgumentException if the sequenceName is not a loaded sequence, or the
+   *                                  pattern has no run of {@code #}
+   * @throws IllegalStateException    if a frame can't be read
+   */
+  int saveSequence(String pattern, String sequenceName)
+          throws IOException, IllegalArgumentException, IllegalStateException;
+
+  /**
+   * Saves an image at several sizes, each half the width and height of the one before, as both
+   * a PPM and a PNG file. Level {@code n} is saved to the filepath followed by {@code -} and
+   * {@code 2} to the power of {@code n}, so the full size is {@code filepath-1} and the next
+   * ones are {@code filepath-2}, {@code filepath-4} and so on. Each level is made from the one
+   * before by averaging every 2 by 2 block of pixels, so the image is read only once, and every
+   * level is written on its own thread while the next one is made. There are fewer levels than
+   * asked for if the image gets down to a single pixel first. Returns once every file is
+   * written.
+   *
+   * @param levels            the number of sizes to save, the full size included
+   * @param filepath          the filepath to save the levels to, without a suffix or extension
+   * @param filenameReference the reference name of the image
+   * @return the number of levels saved
+   * @throws IOException              if a file can't be written
+   * @throws IllegalArgumentException if the filenameReference is not already loaded, or levels
+   *                                  is less than 1
+   * @throws IllegalStateException    if the image can't be read
+   */
+  int exportPyramid(int levels, String filepath, String filenameReference)
+          throws IOException, IllegalArgumentException, IllegalStateException;
+
+  /**
+   * Applies a chain of steps to a PPM file and saves the result as a plain PPM file, without
+   * loading the whole image. The source is read, transformed and written a band of rows at a
+   * time, so memory use depends on the width of the image but not on its height. Vertical
+   * flips read the rows of the source from the bottom up.
+   *
+   * @param filename the path of the PPM file to read, plain or raw
+   * @param steps    the steps to apply, in order
+   * @param filepath the filepath to save the result to, without an extension
+   * @throws FileNotFoundException if the source can't be opened
+   * @throws IOException           if the result can't be written
+   * @throws IllegalStateException if the source is not a valid PPM file
+   */
+  void streamImage(String filename, List<StreamStep> steps, String filepath)
+          throws FileNotFoundException, IOException, IllegalStateException;
+
+  /**
+   * Applies a chain of steps to every image of a PPM stream, such as standard input, and
+   * writes the results to another stream, like a Unix filter. The stream may hold any number of
+   * plain or raw images one after another; each is read, transformed and written a band of
+   * rows at a time before the next one is read, and is written in the format it was read in.
+   * An image is only held whole when it is flipped vertically, since a stream can't be read
+   * from the bottom up.
+   *
+   * @param in    the stream to read the images from
+   * @param steps the steps to apply, in order
+   * @param out   the stream to write the results to, which is flushed but not closed
+   * @return the number of images written
+   * @throws IOException           if the output can't be written
+   * @throws IllegalStateException if the input is not a valid PPM stream
+   */
+  int pipeImages(InputStream in, List<StreamStep> steps, OutputStream out)
+          throws IOException, IllegalStateException;
+
   /**
    * Returns the image that the reference name refers to as a {@code List} of {@code List} of
    * {@code Color}s.
@@ -122,4 +607,167 @@ public interface ImageUtilModel {
    * @throws IllegalArgumentException if the referenceName is not already loaded
    */
   public int getMaxValue(String referenceName) throws IllegalArgumentException;
+
+  /**
+   * Sets how many bytes of memory the pixels of all images together may use. When they use more,
+   * the least recently used images are moved to disk until they fit, and read back the next time
+   * they are used.
+   *
+   * @param bytes the memory budget in bytes
+   * @throws IllegalArgumentException if the budget is negative
+   */
+  void setMemoryBudget(long bytes) throws IllegalArgumentException;
+
+  /**
+   * Gets how many bytes of memory the pixels of all images together may use.
+   *
+   * @return the memory budget in bytes
+   */
+  long getMemoryBudget();
+
+  /**
+   * Gets the names of all loaded images.
+   *
+   * @return the reference names, sorted
+   */
+  List<String> getReferenceNames();
+
+  /**
+   * Gets how many bytes of memory the pixels of an image use right now.
+   *
+   * @param referenceName the name of the image
+   * @return the bytes used, 0 if the pixels are not in memory
+   * @throws IllegalArgumentException if the referenceName is not already loaded
+   */
+  long getFootprint(String referenceName) throws IllegalArgumentException;
+
+  /**
+   * Gets where the pixels of an image are right now.
+   *
+   * @param referenceName the name of the image
+   * @return the residency of the image
+   * @throws IllegalArgumentException if the referenceName is not already loaded
+   */
+  Residency getResidency(String referenceName) throws IllegalArgumentException;
+
+  /**
+   * Gets a description of where an image came from, such as the file it was loaded from or the
+   * operation and image it was computed from.
+   *
+   * @param referenceName the name of the image
+   * @return the description of the image
+   * @throws IllegalArgumentException if the referenceName is not already loaded
+   */
+  String getOrigin(String referenceName) throws IllegalArgumentException;
+
+  /**
+   * Removes an image, releasing the memory and spill file its pixels use. Images computed from
+   * it keep their pixels.
+   *
+   * @param referenceName the name of the image
+   * @throws IllegalArgumentException if the referenceName is not already loaded
+   */
+  void dropImage(String referenceName) throws IllegalArgumentException;
+
+  /**
+   * Pins or unpins a reference name. The pixels of a pinned image are never moved out of memory
+   * to stay inside the memory budget once they are in memory, and the name stays pinned when a
+   * new image is stored under it. Dropping the image unpins the name.
+   *
+   * @param referenceName the name of the image
+   * @param pinned        whether the image should be pinned
+   * @throws IllegalArgumentException if the referenceName is not already loaded
+   */
+  void setPinned(String referenceName, boolean pinned) throws IllegalArgumentException;
+
+  /**
+   * Checks whether a reference name is pinned.
+   *
+   * @param referenceName the name of the image
+   * @return true if the name is pinned
+   * @throws IllegalArgumentException if the referenceName is not already loaded
+   */
+  boolean isPinned(String referenceName) throws IllegalArgumentException;
+
+  /**
+   * Gets how many operations reused a pixel buffer of an image that was dropped or replaced
+   * instead of allocating a new one.
+   *
+   * @return the number of buffer pool hits
+   */
+  long getPoolHits();
+
+  /**
+   * Gets how many operations had to allocate a new pixel buffer.
+   *
+   * @return the number of buffer pool misses
+   */
+  long getPoolMisses();
+
+  /**
+   * Gets how many bytes of pixel buffers are waiting in the pool to be reused.
+   *
+   * @return the bytes held by the buffer pool
+   */
+  long getPooledBytes();
+
+  /**
+   * Sets how big an image has to be for its pixels to be stored outside of the Java heap, where
+   * the garbage collector never scans or moves them. Images that already exist keep their
+   * storage.
+   *
+   * @param bytes the smallest size in bytes of an off-heap image, or {@code Long.MAX_VALUE} to
+   *              keep every image on the heap
+   * @throws IllegalArgumentException if the threshold is negative
+   */
+  void setOffHeapThreshold(long bytes) throws IllegalArgumentException;
+
+  /**
+   * Gets how big an image has to be for its pixels to be stored outside of the Java heap.
+   *
+   * @return the smallest size in bytes of an off-heap image, {@code Long.MAX_VALUE} if every
+   *         image is kept on the heap
+   */
+  long getOffHeapThreshold();
+
+  /**
+   * Checks whether the pixels of an image are stored outside of the Java heap.
+   *
+   * @param referenceName the name of the image
+   * @return true if the pixels are stored off the heap
+   * @throws IllegalArgumentException if the referenceName is not already loaded
+   */
+  boolean isOffHeap(String referenceName) throws IllegalArgumentException;
+
+  /**
+   * Converts an image to the tiled layout, where its pixels are stored as 64 by 64 tiles, or
+   * back to the linear layout, where they are stored row after row. Operations on a tiled image
+   * work one tile at a time and give tiled images, which keeps column and neighborhood access
+   * in cache on wide images.
+   *
+   * @param referenceName the name of the image
+   * @param tiled         true for the tiled layout, false for the linear one
+   * @throws IllegalArgumentException if the referenceName is not already loaded
+   */
+  void setTiled(String referenceName, boolean tiled) throws IllegalArgumentException;
+
+  /**
+   * Checks whether an image uses the tiled layout.
+   *
+   * @param referenceName the name of the image
+   * @return true if the pixels are stored as tiles
+   * @throws IllegalArgumentException if the referenceName is not already loaded
+   */
+  boolean isTiled(String referenceName) throws IllegalArgumentException;
+
+  /**
+   * Checks whether an image is stored as a palette of at most 256 colors and one byte per
+   * pixel. Images with few enough colors are stored this way automatically when they are
+   * loaded.
+   *
+   * @param referenceName the name of the image
+   * @return true if the pixels are stored with a palette
+   * @throws IllegalArgumentException if the referenceName is not already loaded
+   */
+  boolean isPalette(String referenceName) throws IllegalArgumentException;
 }
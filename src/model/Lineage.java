@@ -0,0 +1,68 @@
+package model;
+
+import java.util.function.UnaryOperator;
+
+/**
+ * How the pixels of a derived image were produced: the record they were computed from, the
+ * operation that computed them, and how long that took. This is enough to compute the pixels
+ * again instead of keeping them in memory or on disk.
+ *
+ * <p>The parent record is shared, so its pixels never change while a lineage points at it.
+ */
+final class Lineage {
+  private final ImageRecord parent;
+  private final UnaryOperator<ImageRecord> operation;
+  private final long nanos;
+
+  /**
+   * Creates a lineage.
+   *
+   * @param parent    the record the image was computed from
+   * @param operation the operation that computed it
+   * @param nanos     how long the operation took, in nanoseconds
+   */
+  Lineage(ImageRecord parent, UnaryOperator<ImageRecord> operation, long nanos) {
+    this.parent = parent;
+    this.operation = operation;
+    this.nanos = nanos;
+    parent.share();
+  }
+
+  /**
+   * Gets the record the image was computed from.
+   *
+   * @return the parent record
+   */
+  ImageRecord getParent() {
+    return this.parent;
+  }
+
+  /**
+   * Gets the operation that computed the image.
+   *
+   * @return the operation
+   */
+  UnaryOperator<ImageRecord> getOperation() {
+    return this.operation;
+  }
+
+  /**
+   * Estimates how long computing the pixels again would take, including getting the pixels of
+   * the parent back into memory.
+   *
+   * @return the estimated time in nanoseconds
+   */
+  long recomputeCost() {
+    return this.nanos + this.parent.reloadCost();
+  }
+
+  /**
+   * Computes the pixels again.
+   *
+   * @return the pixels of the image
+   * @throws IllegalStateException if the pixels of the parent can't be loaded
+   */
+  Raster recompute() throws IllegalStateException {
+    return this.operation.apply(this.parent).getPixels();
+  }
+}
@@ -0,0 +1,216 @@
+package model;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps the pixels held in memory by the records of a model under a budget. The model tells the
+ * budget whenever a record is used or stored; when the records in memory add up to more than the
+ * budget, the least recently used ones are released until they fit again.
+ *
+ * <p>A record is released either by evicting it to a spill file or, if it has a lineage, by
+ * dropping its pixels to be computed again later, whichever is estimated to be cheaper. The
+ * estimate compares the measured time of the operation that computed the record, plus the time to
+ * bring its parent back into memory, with the measured time of writing and reading spill files.
+ * Pinned records are never released.
+ *
+ * <p>The budget only holds its lock to pick the records to release, which it marks as being
+ * released so no other thread picks them too. Spill files are written, and the records that
+ * depend on a forgotten record are computed, after the lock is let go, so a thread using a
+ * record never waits behind the disk or an operation run for another one.
+ */
+final class MemoryBudget {
+  private long budget;
+  private final RasterPool pool;
+  private final Map<ImageRecord, Boolean> records;
+  private final Set<ImageRecord> releasing;
+  private Path spillDirectory;
+
+  /**
+   * Creates a budget.
+   *
+   * @param budget the most bytes of pixels to keep in memory
+   * @param pool   the pool the pixels of forgotten records are given to
+   */
+  MemoryBudget(long budget, RasterPool pool) {
+    this.budget = budget;
+    this.pool = pool;
+    this.records = new LinkedHashMap<>(16, 0.75f, true);
+    this.releasing = new HashSet<>();
+  }
+
+  /**
+   * Changes the budget, evicting records right away if they no longer fit.
+   *
+   * @param budget the most bytes of pixels to keep in memory
+   */
+  void setBudget(long budget) {
+    List<ImageRecord> victims;
+    synchronized (this) {
+      this.budget = budget;
+      victims = this.pickVictims(null);
+    }
+    this.releaseAll(victims);
+  }
+
+  /**
+   * Gets the budget.
+   *
+   * @return the most bytes of pixels kept in memory
+   */
+  synchronized long getBudget() {
+    return this.budget;
+  }
+
+  /**
+   * Marks the record as the most recently used one, and evicts other records if the records in
+   * memory no longer fit in the budget.
+   *
+   * @param record the record that is being used
+   */
+  void touch(ImageRecord record) {
+    List<ImageRecord> victims;
+    synchronized (this) {
+      this.records.put(record, Boolean.TRUE);
+      victims = this.pickVictims(record);
+    }
+    this.releaseAll(victims);
+  }
+
+  /**
+   * Stops tracking a record that is no longer stored under any reference, deletes its spill
+   * file, and gives its pixels to the pool. Tracked records computed from it no longer depend
+   * on it; the ones that dropped their pixels compute them now, while it can still be read.
+   *
+   * @param record the record to forget
+   */
+  void forget(ImageRecord record) {
+    List<ImageRecord> children = new ArrayList<>();
+    synchronized (this) {
+      this.records.remove(record);
+      for (ImageRecord child : this.records.keySet()) {
+        Lineage lineage = child.getLineage();
+        if (lineage != null && lineage.getParent() == record) {
+          children.add(child);
+        }
+      }
+    }
+    for (ImageRecord child : children) {
+      try {
+        child.detachLineage(true);
+      } catch (IllegalStateException e) {
+        // the command that uses the image will report that it can't be read
+      }
+    }
+    record.detachLineage(false);
+    record.discard(this.pool);
+  }
+
+  /**
+   * Gets the bytes of pixels in memory for all tracked records.
+   *
+   * @return the total footprint of the tracked records
+   */
+  synchronized long getFootprint() {
+    long total = 0;
+    for (ImageRecord record : this.records.keySet()) {
+      total += record.getFootprint();
+    }
+    return total;
+  }
+
+  /**
+   * Picks the least recently used records to release until the records left in memory fit in
+   * the budget, and marks them as being released. Records another thread is already releasing
+   * are counted as gone. The caller must hold the lock of the budget.
+   *
+   * @param keep a record that must stay in memory, or null
+   * @return the records to release, oldest first
+   */
+  private List<ImageRecord> pickVictims(ImageRecord keep) {
+    List<ImageRecord> victims = new ArrayList<>();
+    long footprint = 0;
+    for (ImageRecord record : this.records.keySet()) {
+      if (!this.releasing.contains(record)) {
+        footprint += record.getFootprint();
+      }
+    }
+    for (ImageRecord record : this.records.keySet()) {
+      if (footprint <= this.budget) {
+        break;
+      }
+      if (record != keep && record.isLoaded() && !record.isPinned()
+          && this.releasing.add(record)) {
+        footprint -= record.getFootprint();
+        victims.add(record);
+      }
+    }
+    return victims;
+  }
+
+  /**
+   * Releases the records picked by {@link #pickVictims}, without holding the lock of the
+   * budget, and then unmarks them.
+   *
+   * @param victims the records to release
+   */
+  private void releaseAll(List<ImageRecord> victims) {
+    for (ImageRecord record : victims) {
+      try {
+        this.release(record);
+      } finally {
+        synchronized (this) {
+          this.releasing.remove(record);
+        }
+      }
+    }
+  }
+
+  /**
+   * Takes the pixels of a record out of memory, by dropping them if computing them again is
+   * estimated to be cheaper than spilling them, and by spilling them otherwise.
+   *
+   * @param record the record to release
+   * @return the number of bytes of heap released
+   */
+  private long release(ImageRecord record) {
+    Lineage lineage = record.getLineage();
+    if (lineage != null && lineage.getParent().isDiscarded()) {
+      // the parent was replaced before this record was stored
+      record.detachLineage(true);
+      lineage = null;
+    }
+    if (lineage != null && lineage.recomputeCost() < record.spillCost()) {
+      long released = record.drop();
+      if (released > 0) {
+        return released;
+      }
+    }
+    Path directory = this.spillDirectory();
+    return directory == null ? 0 : record.evict(directory);
+  }
+
+  /**
+   * Gets the directory spill files are created in, creating it the first time.
+   *
+   * @return the spill directory, or null if it can't be created
+   */
+  private synchronized Path spillDirectory() {
+    if (this.spillDirectory == null) {
+      try {
+        this.spillDirectory = Files.createTempDirectory("imageutil-spill");
+        this.spillDirectory.toFile().deleteOnExit();
+      } catch (IOException e) {
+        return null;
+      }
+    }
+    return this.spillDirectory;
+  }
+}
@@ -0,0 +1,661 @@
+package model;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+
+/**
+ * A PPM file on disk. Opening one reads only the header (the magic number, width, height, and
+ * max value) and remembers where the pixel data starts, so the dimensions of an image are known
+ * without decoding any pixels. The pixels are decoded later, either all at once with
+ * {@link #readPixels(RasterPool, boolean)} or a row at a time with {@link #rows(boolean)}.
+ *
+ * <p>Both plain ({@code P3}) files, where every channel is a decimal number, and raw
+ * ({@code P6}) files, where every channel is one byte, can be read. Comments, which start with
+ * {@code #} and run to the end of the line, are allowed anywhere in the header, and anywhere in
+ * the pixel data of a plain file.
+ *
+ * <p>Images can also be read from a stream such as standard input with {@link #frames(InputStream,
+ * String)}, which reads any number of images written one after another. Those can only be read
+ * once, from the top down.
+ */
+final class PPMFile {
+  private final String filename;
+  private final String magic;
+  private final int width;
+  private final int height;
+  private final int maxValue;
+  private final long dataOffset;
+  private final Tokenizer stream;
+
+  /**
+   * Creates a {@code PPMFile} from an already parsed header.
+   */
+  private PPMFile(String filename, String magic, int width, int height, int maxValue,
+                  long dataOffset, Tokenizer stream) {
+    this.filename = filename;
+    this.magic = magic;
+    this.width = width;
+    this.height = height;
+    this.maxValue = maxValue;
+    this.dataOffset = dataOffset;
+    this.stream = stream;
+  }
+
+  /**
+   * Reads the header of the PPM file at the given path.
+   *
+   * @param filename the path of the file
+   * @return the file with its header parsed
+   * @throws FileNotFoundException if the file can't be opened
+   * @throws IllegalStateException if the file doesn't start with a valid plain PPM header
+   */
+  static PPMFile open(String filename) throws FileNotFoundException, IllegalStateException {
+    InputStream in;
+    try {
+      in = new BufferedInputStream(new FileInputStream(filename));
+    } catch (FileNotFoundException e) {
+      throw new FileNotFoundException("File " + filename + " not found!");
+    }
+
+    try (Tokenizer tokens = new Tokenizer(in)) {
+      return readHeader(filename, tokens, null);
+    } catch (IOException e) {
+      throw new IllegalStateException("Invalid PPM file: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Reads the images written one after another to a stream. Every image has to be read in full
+   * before the next one is asked for.
+   *
+   * @param in   the stream to read, which is closed along with the frames
+   * @param name the name of the stream, used in error messages
+   * @return the images of the stream
+   */
+  static Frames frames(InputStream in, String name) {
+    return new Frames(new Tokenizer(in), name);
+  }
+
+  /**
+   * Parses a header.
+   *
+   * @param filename the path or name of what is read
+   * @param tokens   the tokens, positioned at the magic number
+   * @param stream   the tokens to read the pixels from afterwards, or null to open the file again
+   * @return the header
+   * @throws IOException           if the header ends early
+   * @throws IllegalStateException if the header isn't valid
+   */
+  private static PPMFile readHeader(String filename, Tokenizer tokens, Tokenizer stream)
+          throws IOException, IllegalStateException {
+    String magic = tokens.nextWord();
+    if (!magic.equals("P3") && !magic.equals("P6")) {
+      throw new IllegalStateException("Invalid PPM file: plain RAW file should begin with P3");
+    }
+    int width = tokens.nextInt();
+    int height = tokens.nextInt();
+    int maxValue = tokens.nextInt();
+    if (width < 0 || height < 0 || (long) width * height > Integer.MAX_VALUE) {
+      throw new IllegalStateException("Invalid PPM file: bad image dimensions.");
+    }
+    if (maxValue <= 0 || maxValue > 255) {
+      throw new IllegalStateException("Invalid PPM file: max value must be between 1 and "
+              + "255.");
+    }
+    return new PPMFile(filename, magic, width, height, maxValue, tokens.position(), stream);
+  }
+
+  /**
+   * Gets the path of the file.
+   *
+   * @return the path the file was opened from
+   */
+  String getFilename() {
+    return this.filename;
+  }
+
+  /**
+   * Gets the magic number the file starts with.
+   *
+   * @return the magic number, {@code P3} or {@code P6}
+   */
+  String getMagic() {
+    return this.magic;
+  }
+
+  /**
+   * Checks whether the rows can be read from the bottom up, which images read from a stream
+   * can't.
+   *
+   * @return true for an image in a file
+   */
+  boolean isSeekable() {
+    return this.stream == null;
+  }
+
+  /**
+   * Checks whether the pixel data is stored as bytes rather than as text.
+   *
+   * @return true for a {@code P6} file
+   */
+  boolean isRaw() {
+    return this.magic.equals("P6");
+  }
+
+  /**
+   * Gets the width from the header.
+   *
+   * @return the width of the image in pixels
+   */
+  int getWidth() {
+    return this.width;
+  }
+
+  /**
+   * Gets the height from the header.
+   *
+   * @return the height of the image in pixels
+   */
+  int getHeight() {
+    return this.height;
+  }
+
+  /**
+   * Gets the max value from the header.
+   *
+   * @return the max value of a channel
+   */
+  int getMaxValue() {
+    return this.maxValue;
+  }
+
+  /**
+   * Decodes the pixels of the file. The file is opened again and read from where the header
+   * ended; an image from a stream is read from the stream instead.
+   *
+   * @param pool    the pool to take the raster for the pixels from
+   * @param offHeap whether to store the pixels outside of the heap
+   * @return the pixels, row-major, each packed as {@code 0xRRGGBB}
+   * @throws IllegalStateException if the file can no longer be read or its pixel data is invalid
+   */
+  Raster readPixels(RasterPool pool, boolean offHeap) throws IllegalStateException {
+    Raster pixels = pool.take(this.width * this.height, offHeap);
+    try (Rows rows = this.rows(false)) {
+      int[] row = new int[this.width];
+      for (int h = 0; h < this.height; h += 1) {
+        rows.next(row, 0);
+        pixels.set(h * this.width, row, 0, this.width);
+      }
+    }
+    return pixels;
+  }
+
+  /**
+   * Opens the pixel data for reading one row at a time. Rows can be read from the top down or
+   * from the bottom up; reading from the bottom up seeks to each row, which for a plain file
+   * needs one pass over the file first to find where every row starts.
+   *
+   * @param reverse whether to read the last row first
+   * @return the rows of the file, which must be closed
+   * @throws IllegalStateException if the file can no longer be read, or if the image is from a
+   *                               stream and is asked to be read from the bottom up
+   */
+  Rows rows(boolean reverse) throws IllegalStateException {
+    if (this.stream != null) {
+      if (reverse) {
+        throw new IllegalStateException("Unable to read " + this.filename
+            + " from the bottom up.");
+      }
+      return new ForwardRows(this.stream, false);
+    }
+    try {
+      if (reverse) {
+        return new ReverseRows();
+      }
+      Tokenizer tokens = new Tokenizer(
+          new BufferedInputStream(new FileInputStream(this.filename)));
+      tokens.skip(this.dataOffset);
+      return new ForwardRows(tokens, true);
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to read " + this.filename + ": " + e.getMessage());
+    }
+  }
+
+  /**
+   * Reads the channels of one pixel of a plain file.
+   *
+   * @param tokens the tokens of the pixel data
+   * @return the pixel packed as {@code 0xRRGGBB}
+   * @throws IOException           if the file ends first
+   * @throws IllegalStateException if a channel is not a number or is above the max value
+   */
+  private int nextPixel(Tokenizer tokens) throws IOException, IllegalStateException {
+    int red = tokens.nextInt();
+    int green = tokens.nextInt();
+    int blue = tokens.nextInt();
+    return this.checkedPixel(red, green, blue);
+  }
+
+  /**
+   * Packs the channels of one pixel after checking them against the max value.
+   *
+   * @param red   the red channel
+   * @param green the green channel
+   * @param blue  the blue channel
+   * @return the pixel packed as {@code 0xRRGGBB}
+   * @throws IllegalStateException if a channel is above the max value
+   */
+  private int checkedPixel(int red, int green, int blue) throws IllegalStateException {
+    if (red > this.maxValue || green > this.maxValue || blue > this.maxValue) {
+      throw new IllegalStateException("Invalid PPM file: color values must be between 0 "
+              + "and " + this.maxValue + ".");
+    }
+    return PPMUtilModel.pack(red, green, blue);
+  }
+
+  /**
+   * Unpacks one row of a raw file.
+   *
+   * @param bytes  the three bytes of every pixel of the row
+   * @param into   the array to store the pixels in
+   * @param offset where in the array the row starts
+   * @throws IllegalStateException if a channel is above the max value
+   */
+  private void unpackRow(byte[] bytes, int[] into, int offset) throws IllegalStateException {
+    for (int w = 0; w < this.width; w += 1) {
+      into[offset + w] = this.checkedPixel(bytes[3 * w] & 0xFF, bytes[3 * w + 1] & 0xFF,
+          bytes[3 * w + 2] & 0xFF);
+    }
+  }
+
+  /**
+   * The rows of a file, read one at a time.
+   */
+  abstract static class Rows implements AutoCloseable {
+    /**
+     * Reads the next row.
+     *
+     * @param into   the array to store the pixels in, each packed as {@code 0xRRGGBB}
+     * @param offset where in the array the row starts
+     * @throws IllegalStateException if the file can't be read or its pixel data is invalid
+     */
+    abstract void next(int[] into, int offset) throws IllegalStateException;
+
+    @Override
+    public abstract void close();
+  }
+
+  /**
+   * Reads the rows of this image from the top down, in one pass.
+   */
+  private final class ForwardRows extends Rows {
+    private final Tokenizer tokens;
+    private final boolean owned;
+    private final byte[] bytes;
+
+    /**
+     * Reads the rows from the given tokens.
+     *
+     * @param tokens the tokens, positioned where the pixel data starts
+     * @param owned  whether closing the rows closes the tokens
+     */
+    ForwardRows(Tokenizer tokens, boolean owned) {
+      this.tokens = tokens;
+      this.owned = owned;
+      this.bytes = PPMFile.this.isRaw() ? new byte[3 * PPMFile.this.width] : null;
+    }
+
+    @Override
+    void next(int[] into, int offset) throws IllegalStateException {
+      try {
+        if (this.bytes != null) {
+          this.tokens.readFully(this.bytes);
+          PPMFile.this.unpackRow(this.bytes, into, offset);
+        } else {
+          for (int w = 0; w < PPMFile.this.width; w += 1) {
+            into[offset + w] = PPMFile.this.nextPixel(this.tokens);
+          }
+        }
+      } catch (EOFException e) {
+        throw new IllegalStateException("Unable to read " + PPMFile.this.filename
+            + ": unexpected end of file");
+      } catch (IOException e) {
+        throw new IllegalStateException("Unable to read " + PPMFile.this.filename + ": "
+            + e.getMessage());
+      }
+    }
+
+    @Override
+    public void close() {
+      if (this.owned) {
+        try {
+          this.tokens.close();
+        } catch (IOException e) {
+          // nothing was written, so there is nothing to lose
+        }
+      }
+    }
+  }
+
+  /**
+   * Reads the rows of this file from the bottom up, seeking to each one. Rows of a raw file are
+   * all the same length, so where each starts is computed; for a plain file the start of every
+   * row is found by one pass over the file when the rows are opened.
+   */
+  private final class ReverseRows extends Rows {
+    private final RandomAccessFile file;
+    private final long[] starts;
+    private byte[] bytes;
+    private int row;
+
+    /**
+     * Opens the file and, for a plain file, finds where every row starts.
+     *
+     * @throws IOException if the file can't be read
+     */
+    ReverseRows() throws IOException {
+      this.row = PPMFile.this.height;
+      if (PPMFile.this.isRaw()) {
+        this.starts = null;
+        this.bytes = new byte[3 * PPMFile.this.width];
+      } else {
+        this.starts = new long[PPMFile.this.height + 1];
+        try (Tokenizer tokens = new Tokenizer(
+                new BufferedInputStream(new FileInputStream(PPMFile.this.filename)))) {
+          tokens.skip(PPMFile.this.dataOffset);
+          for (int h = 0; h < PPMFile.this.height; h += 1) {
+            this.starts[h] = tokens.position();
+            for (int w = 0; w < PPMFile.this.width; w += 1) {
+              PPMFile.this.nextPixel(tokens);
+            }
+          }
+          this.starts[PPMFile.this.height] = tokens.position();
+        }
+        this.bytes = new byte[0];
+      }
+      this.file = new RandomAccessFile(PPMFile.this.filename, "r");
+    }
+
+    @Override
+    void next(int[] into, int offset) throws IllegalStateException {
+      this.row -= 1;
+      try {
+        if (this.starts == null) {
+          this.file.seek(PPMFile.this.dataOffset + 3L * PPMFile.this.width * this.row);
+          this.file.readFully(this.bytes);
+          PPMFile.this.unpackRow(this.bytes, into, offset);
+        } else {
+          int length = (int) (this.starts[this.row + 1] - this.starts[this.row]);
+          if (this.bytes.length < length) {
+            this.bytes = new byte[length];
+          }
+          this.file.seek(this.starts[this.row]);
+          this.file.readFully(this.bytes, 0, length);
+          Tokenizer tokens = new Tokenizer(new ByteArrayInputStream(this.bytes, 0, length));
+          for (int w = 0; w < PPMFile.this.width; w += 1) {
+            into[offset + w] = PPMFile.this.nextPixel(tokens);
+          }
+        }
+      } catch (EOFException e) {
+        throw new IllegalStateException("Unable to read " + PPMFile.this.filename
+            + ": unexpected end of file");
+      } catch (IOException e) {
+        throw new IllegalStateException("Unable to read " + PPMFile.this.filename + ": "
+            + e.getMessage());
+      }
+    }
+
+    @Override
+    public void close() {
+      try {
+        this.file.close();
+      } catch (IOException e) {
+        // nothing was written, so there is nothing to lose
+      }
+    }
+  }
+
+  /**
+   * The images of a stream, read one after another.
+   */
+  static final class Frames implements AutoCloseable {
+    private final Tokenizer tokens;
+    private final String name;
+
+    /**
+     * Creates the frames of a stream.
+     *
+     * @param tokens the tokens of the stream
+     * @param name   the name of the stream, used in error messages
+     */
+    private Frames(Tokenizer tokens, String name) {
+      this.tokens = tokens;
+      this.name = name;
+    }
+
+    /**
+     * Reads the header of the next image. The pixels of the image before it must have been
+     * read in full.
+     *
+     * @return the next image, or null if the stream has ended
+     * @throws IllegalStateException if the stream can't be read or the header isn't valid
+     */
+    PPMFile next() throws IllegalStateException {
+      try {
+        if (!this.tokens.hasMore()) {
+          return null;
+        }
+        return readHeader(this.name, this.tokens, this.tokens);
+      } catch (IOException e) {
+        throw new IllegalStateException("Invalid PPM file: " + e.getMessage());
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      this.tokens.close();
+    }
+  }
+
+  /**
+   * Splits the text of a plain PPM file into whitespace separated tokens, skipping comments.
+   * The bytes of raw pixel data can be read through it too.
+   */
+  private static final class Tokenizer implements AutoCloseable {
+    private final InputStream in;
+    private long position;
+    private int pushed;
+
+    /**
+     * Creates a tokenizer over the given stream.
+     *
+     * @param in the stream to read, which is closed along with the tokenizer
+     */
+    Tokenizer(InputStream in) {
+      this.in = in;
+      this.position = 0;
+      this.pushed = -1;
+    }
+
+    /**
+     * Skips whitespace and comments and checks whether anything is left.
+     *
+     * @return false if the stream ended first
+     * @throws IOException if the stream can't be read
+     */
+    boolean hasMore() throws IOException {
+      int c = this.read();
+      while (c >= 0 && (Character.isWhitespace(c) || c == '#')) {
+        if (c == '#') {
+          this.skipComment();
+        }
+        c = this.read();
+      }
+      if (c < 0) {
+        return false;
+      }
+      this.pushed = c;
+      this.position -= 1;
+      return true;
+    }
+
+    /**
+     * Reads bytes until the array is full.
+     *
+     * @param bytes the array to fill
+     * @throws IOException if the stream ends first
+     */
+    void readFully(byte[] bytes) throws IOException {
+      int filled = 0;
+      if (this.pushed >= 0 && bytes.length > 0) {
+        bytes[0] = (byte) this.pushed;
+        this.pushed = -1;
+        filled = 1;
+      }
+      while (filled < bytes.length) {
+        int count = this.in.read(bytes, filled, bytes.length - filled);
+        if (count < 0) {
+          throw new EOFException();
+        }
+        filled += count;
+      }
+      this.position += bytes.length;
+    }
+
+    /**
+     * Gets the number of bytes consumed so far.
+     *
+     * @return the offset just past the last token read
+     */
+    long position() {
+      return this.position;
+    }
+
+    /**
+     * Skips the given number of bytes.
+     *
+     * @param count the number of bytes to skip
+     * @throws IOException if the stream ends first
+     */
+    void skip(long count) throws IOException {
+      long remaining = count;
+      while (remaining > 0) {
+        long skipped = this.in.skip(remaining);
+        if (skipped <= 0) {
+          if (this.in.read() < 0) {
+            throw new IOException("file is shorter than its header");
+          }
+          skipped = 1;
+        }
+        remaining -= skipped;
+      }
+      this.position += count;
+    }
+
+    /**
+     * Reads the next token as a word.
+     *
+     * @return the next token
+     * @throws IOException if the stream ends before a token is found
+     */
+    String nextWord() throws IOException {
+      int c = this.skipSeparators();
+      StringBuilder word = new StringBuilder();
+      while (c >= 0 && !Character.isWhitespace(c) && c != '#') {
+        word.append((char) c);
+        c = this.read();
+      }
+      return word.toString();
+    }
+
+    /**
+     * Reads the next token as a non-negative integer.
+     *
+     * @return the value of the next token
+     * @throws IOException           if the stream ends before a token is found
+     * @throws IllegalStateException if the token is not a number
+     */
+    int nextInt() throws IOException, IllegalStateException {
+      int c = this.skipSeparators();
+      int value = 0;
+      int digits = 0;
+      while (c >= '0' && c <= '9') {
+        value = value * 10 + (c - '0');
+        digits += 1;
+        if (value > 0xFFFFFF) {
+          throw new IllegalStateException("Invalid PPM file: number is too large.");
+        }
+        c = this.read();
+      }
+      if (digits == 0 || (c >= 0 && !Character.isWhitespace(c) && c != '#')) {
+        throw new IllegalStateException("Invalid PPM file: expected a number.");
+      }
+      if (c == '#') {
+        this.skipComment();
+      }
+      return value;
+    }
+
+    /**
+     * Skips whitespace and comments.
+     *
+     * @return the first character of the next token
+     * @throws IOException if the stream ends before a token is found
+     */
+    private int skipSeparators() throws IOException {
+      int c = this.read();
+      while (c >= 0 && (Character.isWhitespace(c) || c == '#')) {
+        if (c == '#') {
+          this.skipComment();
+        }
+        c = this.read();
+      }
+      if (c < 0) {
+        throw new IOException("unexpected end of file");
+      }
+      return c;
+    }
+
+    /**
+     * Skips the rest of a comment line.
+     *
+     * @throws IOException if the stream can't be read
+     */
+    private void skipComment() throws IOException {
+      int c = this.read();
+      while (c >= 0 && c != '\n' && c != '\r') {
+        c = this.read();
+      }
+    }
+
+    /**
+     * Reads one byte and counts it.
+     *
+     * @return the byte, or -1 at the end of the stream
+     * @throws IOException if the stream can't be read
+     */
+    private int read() throws IOException {
+      int c = this.pushed;
+      if (c >= 0) {
+        this.pushed = -1;
+      } else {
+        c = this.in.read();
+      }
+      if (c >= 0) {
+        this.position += 1;
+      }
+      return c;
+    }
+
+    @Override
+    public void close() throws IOException {
+      this.in.close();
+    }
+  }
+}
@@ -1,291 +1,1614 @@
 package model;
 
 import java.awt.Color;
-import java.awt.image.BufferedImage;
-import java.io.File;
-import java.io.FileInputStream;
+import java.io.BufferedInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.List;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
-import java.util.Scanner;
-
-import javax.imageio.ImageIO;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntBinaryOperator;
+import java.util.function.IntUnaryOperator;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
 
 /**
  * Model implementation for PPM images. Supports performing commands such as load, save, and
  * others on PPM images that are read using {@code readPPM()}.
+ *
+ * <p>Each reference name maps to a single {@code ImageRecord} holding the dimensions, max value,
+ * and pixels of the image, so every command needs one map lookup per reference. A reference is
+ * updated by swapping in a new record.
+ *
+ * <p>Saves write a temporary file and rename it over the target. With
+ * {@link #setAsyncSaves(boolean)} they run in the background on the image as it was when the
+ * save was requested; {@link #awaitSaves()} waits for them.
+ *
+ * <p>The pixels kept in memory are limited by a budget. When the images use more than the
+ * budget, the least recently used ones are written to spill files in a temporary directory and
+ * read back the next time they are used. Images can be dropped to release their memory right
+ * away, and pinned so they are never moved out of memory. The pixel arrays of images that are
+ * dropped or replaced go to a pool, and operations take the arrays for their results from it.
+ * Images at least as big as the off-heap threshold keep their pixels outside of the heap.
+ * Images can be converted to a tiled layout; operations on a tiled image walk it one tile at a
+ * time and give tiled results.
+ *
+ * <p>A reference name can also stand for a sequence of numbered frames. Operations on a
+ * sequence are only recorded, and run on every frame, several frames at once, when the
+ * sequence is saved.
+ *
+ * <p>The model is safe to use from several threads at once. Each reference name is guarded by
+ * one of a fixed set of read/write locks, picked by the hash of the name: any number of threads
+ * may read or save a reference while others create or replace different references, and a
+ * reference is only ever replaced as a whole, so readers never see half of an update. The set
+ * of locks doesn't grow with the names used, and no method holds the locks of two names.
  */
 public class PPMUtilModel implements ImageUtilModel {
-  Map<String, List<List<Color>>> imageReferences;
-  Map<String, Integer> maxValues;
+  private static final int LOCK_STRIPES = 64;
+
+  final Map<String, ImageRecord> imageReferences;
+  private final Map<String, FrameSequence> sequences;
+  private final ReadWriteLock[] referenceLocks;
+  private final Set<String> pinnedNames;
+  private final ImagePrefetcher prefetcher;
+  private final ImageSaver saver;
+  private final RasterPool pool;
+  private final MemoryBudget memory;
+  private volatile boolean asyncSaves;
 
   /**
-   * Creates a {@code PPMUtilModel}. Initializes the fields {@code imageReferences} and {@code
-   * maxValues} to be both be an empty {@code HashMap}
+   * Creates a {@code PPMUtilModel} whose images may use up to half of the maximum heap size.
+   * Initializes the field {@code imageReferences} to be an empty {@code ConcurrentHashMap}.
+   * Prefetched images may hold up to a quarter of the maximum heap size until they are loaded.
    */
   public PPMUtilModel() {
-    this.imageReferences = new HashMap<>();
-    this.maxValues = new HashMap<>();
+    this(Runtime.getRuntime().maxMemory() / 2);
+  }
+
+  /**
+   * Creates a {@code PPMUtilModel} whose images may use up to the given number of bytes of heap.
+   * When they use more, the least recently used images are spilled to temporary files until they
+   * fit again.
+   *
+   * @param memoryBudget the most bytes of pixels to keep in memory
+   * @throws IllegalArgumentException if the budget is negative
+   */
+  public PPMUtilModel(long memoryBudget) throws IllegalArgumentException {
+    if (memoryBudget < 0) {
+      throw new IllegalArgumentException("The memory budget can't be negative.");
+    }
+    this.pool = new RasterPool(Runtime.getRuntime().maxMemory() / 8);
+    this.memory = new MemoryBudget(memoryBudget, this.pool);
+    this.imageReferences = new ConcurrentHashMap<>();
+    this.sequences = new ConcurrentHashMap<>();
+    this.referenceLocks = new ReadWriteLock[LOCK_STRIPES];
+    for (int i = 0; i < LOCK_STRIPES; i += 1) {
+      this.referenceLocks[i] = new ReentrantReadWriteLock();
+    }
+    this.pinnedNames = ConcurrentHashMap.newKeySet();
+    this.prefetcher = new ImagePrefetcher(Runtime.getRuntime().maxMemory() / 4,
+        Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1)), this.pool);
+    this.saver = new ImageSaver(2);
+    this.asyncSaves = false;
   }
 
   @Override
   public int getHeight(String referenceName) {
-    return this.imageReferences.get(referenceName).size();
+    return this.loadedRecord(referenceName).getHeight();
   }
 
   @Override
   public int getWidth(String referenceName) {
-    return this.imageReferences.get(referenceName).get(0).size();
+    return this.loadedRecord(referenceName).getWidth();
   }
 
   @Override
   public int getMaxValue(String referenceName) {
-    return this.maxValues.get(referenceName);
+    return this.loadedRecord(referenceName).getMaxValue();
   }
 
+  /**
+   * Returns the image that the reference name refers to. The returned list is a view of the
+   * image stored in the model, so pixels set through it are visible to later commands on the
+   * same reference.
+   */
   @Override
   public List<List<Color>> getImage(String referenceName) {
-    return this.imageReferences.get(referenceName);
+    return new PixelListView(this, referenceName,
+        this.usedRecord(referenceName), this.lockFor(referenceName));
   }
 
   /**
-   * Read an image file in the PPM format and print the colors.
+   * Returns the lock guarding the given reference name. Names share the locks by the hash of the
+   * name, so a name always gets the same lock.
    *
-   * @param filename the path of the file.
+   * @param referenceName the name of the reference
+   * @return the read/write lock for that name
    */
-  private List<List<Color>> readPPM(String filename, String destFilename)
-          throws FileNotFoundException {
-    Scanner sc;
+  private ReadWriteLock lockFor(String referenceName) {
+    int hash = referenceName.hashCode();
+    return this.referenceLocks[(hash ^ (hash >>> 16)) & (LOCK_STRIPES - 1)];
+  }
+
+  /**
+   * Gets the record stored under the given reference name and marks it as recently used.
+   *
+   * @param referenceName the name of the reference
+   * @return the record of the image
+   * @throws IllegalArgumentException if the referenceName is not already loaded
+   */
+  private ImageRecord usedRecord(String referenceName) throws IllegalArgumentException {
+    ImageRecord record = this.loadedRecord(referenceName);
+    this.memory.touch(record);
+    return record;
+  }
+
+  /**
+   * Gets the record stored under the given reference name.
+   *
+   * @param referenceName the name of the reference
+   * @return the record of the image
+   * @throws IllegalArgumentException if the referenceName is not already loaded
+   */
+  private ImageRecord loadedRecord(String referenceName) throws IllegalArgumentException {
+    ImageRecord record = this.imageReferences.get(referenceName);
+    if (record == null) {
+      throw new IllegalArgumentException("That image hasn't been loaded yet.");
+    }
+    return record;
+  }
 
+  /**
+   * Stores the record under the given reference name, replacing whatever was there before. A
+   * record computed from the one it replaces forgets its lineage, since that one is discarded.
+   *
+   * @param referenceName the name to store the image as
+   * @param record        the image to store
+   */
+  private void storeRecord(String referenceName, ImageRecord record) {
+    ImageRecord previous;
+    ReadWriteLock lock = this.lockFor(referenceName);
+    lock.writeLock().lock();
     try {
-      sc = new Scanner(new FileInputStream(filename));
-    } catch (FileNotFoundException e) {
-      throw new FileNotFoundException("File " + filename + " not found!");
+      record.setPinned(this.pinnedNames.contains(referenceName));
+      previous = this.imageReferences.put(referenceName, record);
+      this.sequences.remove(referenceName);
+    } finally {
+      lock.writeLock().unlock();
+    }
+    if (previous != null && previous != record) {
+      Lineage lineage = record.getLineage();
+      if (lineage != null && lineage.getParent() == previous) {
+        record.detachLineage(true);
+      }
+      this.memory.forget(previous);
+    }
+    this.memory.touch(record);
+  }
+
+  /**
+   * Replaces the record stored under the given reference name, if it is still the expected one.
+   * The caller must hold the write lock of the reference.
+   *
+   * @param referenceName the name of the reference
+   * @param expected      the record that should be stored under it now
+   * @param replacement   the record to store in its place
+   */
+  void replaceRecord(String referenceName, ImageRecord expected, ImageRecord replacement) {
+    replacement.setPinned(expected.isPinned());
+    if (this.imageReferences.replace(referenceName, expected, replacement)) {
+      this.memory.forget(expected);
+      this.memory.touch(replacement);
     }
-    StringBuilder builder = new StringBuilder();
+  }
 
-    //read the file line by line, and populate a string. This will throw away any comment lines
-    while (sc.hasNextLine()) {
-      String s = sc.nextLine();
-      if (s.charAt(0) != '#') {
-        builder.append(s).append(System.lineSeparator());
+  /**
+   * Runs an operation on the image stored under one reference name and stores the result under
+   * another. The source is read while holding its read lock, so pixels set through a view from
+   * {@code getImage} can't change it halfway through.
+   *
+   * <p>The result remembers the source and the operation along with how long the operation
+   * took, so its pixels can be dropped under memory pressure and computed again later. The
+   * source is shared from then on, so it never changes under the result.
+   *
+   * <p>The pixels of the source are loaded before the operation is timed, unless the
+   * operation is a color matrix that folds into the one that made the source, and so never
+   * reads them.
+   *
+   * <p>If the source is a sequence, the operation is only added to the operations of the
+   * sequence, and the longer sequence is stored under the new name.
+   *
+   * @param filenameReference the reference name of the source image
+   * @param newReferenceName  the name to reference the result as
+   * @param description       a short description of the operation, such as "brighten by 10"
+   * @param operation         the operation that creates the result from the source
+   * @throws IllegalArgumentException if the filenameReference is not already loaded
+   */
+  private void transform(String filenameReference, String newReferenceName, String description,
+                         UnaryOperator<ImageRecord> operation) throws IllegalArgumentException {
+    FrameSequence sequence = this.sequences.get(filenameReference);
+    if (sequence != null) {
+      this.storeSequence(newReferenceName, sequence.then(operation));
+      return;
+    }
+    ImageRecord result;
+    ReadWriteLock lock = this.lockFor(filenameReference);
+    lock.readLock().lock();
+    try {
+      ImageRecord source = this.usedRecord(filenameReference);
+      if (!(operation instanceof MatrixOperation)
+          || !((MatrixOperation) operation).folds(source)) {
+        source.getPixels();
       }
+      long start = System.nanoTime();
+      result = operation.apply(source);
+      result.setLineage(new Lineage(source, operation, System.nanoTime() - start));
+      result.setOrigin(description + " of " + filenameReference);
+    } finally {
+      lock.readLock().unlock();
     }
+    this.storeRecord(newReferenceName, result);
+  }
 
-    //now set up the scanner to read from the string we just built
-    sc = new Scanner(builder.toString());
+  /**
+   * Reads the header of a PPM file and creates a record whose pixels are decoded from the file
+   * the first time they are used.
+   *
+   * @param filename the path of the file.
+   * @return the record of the image
+   * @throws FileNotFoundException if the file can't be opened
+   * @throws IllegalStateException if the file doesn't start with a valid PPM header
+   */
+  private ImageRecord readPPM(String filename)
+          throws FileNotFoundException, IllegalStateException {
+    Path path = Paths.get(filename).toAbsolutePath().normalize();
+    this.saver.await(path);
+    PPMFile file = PPMFile.open(filename);
+    CompletableFuture<Raster> prefetched = this.prefetcher.claim(filename, file);
+    boolean offHeap = this.pool.isOffHeap(file.getWidth() * file.getHeight());
+    Supplier<Raster> loader;
+    if (prefetched == null) {
+      loader = () -> RasterCompression.compress(file.readPixels(this.pool, offHeap),
+          file.getWidth(), file.getHeight(), this.pool);
+    } else {
+      loader = () -> awaitPixels(prefetched);
+    }
+    ImageRecord record = new ImageRecord(file.getWidth(), file.getHeight(), file.getMaxValue(),
+        loader, path.toString(), offHeap);
+    record.setOrigin("loaded from " + filename);
+    return record;
+  }
 
-    String token;
+  /**
+   * Waits for pixels that are being decoded in the background.
+   *
+   * @param pixels the decoding of the pixels
+   * @return the decoded pixels
+   * @throws IllegalStateException if the decoding failed
+   */
+  private static Raster awaitPixels(CompletableFuture<Raster> pixels)
+          throws IllegalStateException {
+    try {
+      return pixels.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof IllegalStateException) {
+        throw (IllegalStateException) e.getCause();
+      }
+      throw new IllegalStateException("Unable to decode image: " + e.getCause().getMessage());
+    }
+  }
 
-    token = sc.next();
-    if (!token.equals("P3")) {
-      System.out.println("Invalid PPM file: plain RAW file should begin with P3");
+  @Override
+  public boolean prefetchImage(String filename) {
+    if (this.saver.isPending(Paths.get(filename).toAbsolutePath().normalize())) {
+      return true;
     }
+    return this.prefetcher.prefetch(filename);
+  }
+
+  @Override
+  public void cancelPrefetches() {
+    this.prefetcher.cancelAll();
+  }
+
+  @Override
+  public long getPrefetchReserved() {
+    return this.prefetcher.getReserved();
+  }
 
-    int width = sc.nextInt();
-    int height = sc.nextInt();
-    Integer maxValue = sc.nextInt();
+  /**
+   * Loads an image from the given path and assigns it the given destination file name. Only the
+   * header is read here; the pixels are decoded the first time a command needs them, so
+   * {@code getWidth}, {@code getHeight}, and {@code getMaxValue} never touch the pixel data.
+   */
+  @Override
+  public void loadImage(String filename, String destFilename)
+          throws FileNotFoundException, IllegalStateException {
+    this.storeRecord(destFilename, this.readPPM(filename));
+  }
+
+  @Override
+  public void savePNGImage(String filepath, String filenameReference) throws IOException {
+    this.save(ImageSaver.Format.PNG, filepath, filenameReference);
+  }
 
-    this.maxValues.put(destFilename, maxValue);
+  @Override
+  public void savePPMImage(String filepath, String filenameReference) throws IOException {
+    this.save(ImageSaver.Format.PPM, filepath, filenameReference);
+  }
 
-    List<List<Color>> imagePixels = new ArrayList<List<Color>>();
+  /**
+   * Saves the image stored under the reference name. Images that are still waiting to be read
+   * from the file being replaced are read first. In asynchronous mode the image is written in
+   * the background and this returns right away.
+   *
+   * @param format            the format to save as
+   * @param filepath          the filepath to save the image to, without an extension
+   * @param filenameReference the name that was previously given to reference the image
+   * @throws IOException              if the file can't be written
+   * @throws IllegalArgumentException if the filenameReference is not already loaded
+   */
+  private void save(ImageSaver.Format format, String filepath, String filenameReference)
+          throws IOException, IllegalArgumentException {
+    Path target = ImageSaver.target(format, filepath);
+    this.loadReadersOf(target);
 
-    for (int h = 0; h < height; h += 1) {
-      imagePixels.add(new ArrayList<Color>());
+    ReadWriteLock lock = this.lockFor(filenameReference);
+    lock.readLock().lock();
+    try {
+      ImageRecord record = this.usedRecord(filenameReference);
+      if (this.asyncSaves) {
+        this.saver.writeLater(format, target, record);
+      } else {
+        this.saver.await(target);
+        ImageSaver.write(format, target, record);
+      }
+    } finally {
+      lock.readLock().unlock();
     }
+  }
 
-    for (int i = 0; i < height; i++) {
-      for (int j = 0; j < width; j++) {
-        int red = sc.nextInt();
-        int green = sc.nextInt();
-        int blue = sc.nextInt();
-        Color pixel = new Color(red, green, blue);
-        imagePixels.get(i).add(pixel);
+  /**
+   * Reads the pixels of every image that hasn't been read yet from the given file, so replacing
+   * the file doesn't change them.
+   *
+   * @param file the file about to be replaced
+   */
+  private void loadReadersOf(Path file) {
+    String path = file.toString();
+    for (ImageRecord record : this.imageReferences.values()) {
+      if (path.equals(record.getSource())) {
+        try {
+          record.getPixels();
+        } catch (IllegalStateException e) {
+          // the command that uses the image will report that it can't be read
+        }
       }
     }
-    return imagePixels;
   }
 
   @Override
-  public void loadImage(String filename, String destFilename) throws FileNotFoundException {
-    List<List<Color>> imagePixels = this.readPPM(filename, destFilename);
-    this.imageReferences.put(destFilename, imagePixels);
+  public void setMemoryBudget(long bytes) throws IllegalArgumentException {
+    if (bytes < 0) {
+      throw new IllegalArgumentException("The memory budget can't be negative.");
+    }
+    this.memory.setBudget(bytes);
   }
 
   @Override
-  public void savePNGImage(String filepath, String filenameReference) throws IOException {
-    if (!this.imageReferences.containsKey(filenameReference)) {
-      throw new IllegalArgumentException("Reference name has not been loaded yet.");
+  public long getMemoryBudget() {
+    return this.memory.getBudget();
+  }
+
+  @Override
+  public List<String> getReferenceNames() {
+    List<String> names = new ArrayList<>(this.imageReferences.keySet());
+    Collections.sort(names);
+    return names;
+  }
+
+  @Override
+  public long getFootprint(String referenceName) throws IllegalArgumentException {
+    return this.loadedRecord(referenceName).getFootprint();
+  }
+
+  @Override
+  public Residency getResidency(String referenceName) throws IllegalArgumentException {
+    return this.loadedRecord(referenceName).getResidency();
+  }
+
+  @Override
+  public String getOrigin(String referenceName) throws IllegalArgumentException {
+    return this.loadedRecord(referenceName).getOrigin();
+  }
+
+  @Override
+  public void dropImage(String referenceName) throws IllegalArgumentException {
+    if (this.sequences.remove(referenceName) != null) {
+      return;
+    }
+    ImageRecord record;
+    ReadWriteLock lock = this.lockFor(referenceName);
+    lock.writeLock().lock();
+    try {
+      record = this.imageReferences.remove(referenceName);
+      this.pinnedNames.remove(referenceName);
+    } finally {
+      lock.writeLock().unlock();
+    }
+    if (record == null) {
+      throw new IllegalArgumentException("That image hasn't been loaded yet.");
     }
+    this.memory.forget(record);
+  }
 
-    int height = this.imageReferences.get(filenameReference).size();
-    int width = this.imageReferences.get(filenameReference).get(0).size();
-    List<List<Color>> pixels = this.imageReferences.get(filenameReference);
-    BufferedImage im = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-    for (int h = 0; h < height; h += 1) {
-      for (int w = 0; w < width; w += 1) {
-        im.setRGB(w, h, pixels.get(h).get(w).getRGB());
+  @Override
+  public void setPinned(String referenceName, boolean pinned) throws IllegalArgumentException {
+    ReadWriteLock lock = this.lockFor(referenceName);
+    lock.writeLock().lock();
+    try {
+      ImageRecord record = this.loadedRecord(referenceName);
+      if (pinned) {
+        this.pinnedNames.add(referenceName);
+      } else {
+        this.pinnedNames.remove(referenceName);
       }
+      record.setPinned(pinned);
+    } finally {
+      lock.writeLock().unlock();
     }
+  }
 
-    File output = new File(filepath + ".png");
-    ImageIO.write(im, "png", output);
-
+  @Override
+  public boolean isPinned(String referenceName) throws IllegalArgumentException {
+    return this.loadedRecord(referenceName).isPinned();
   }
 
   @Override
-  public void savePPMImage(String filepath, String filenameReference) throws IOException {
-    if (!this.imageReferences.containsKey(filenameReference)) {
-      throw new IllegalArgumentException("Reference name has not been loaded yet.");
+  public void setOffHeapThreshold(long bytes) throws IllegalArgumentException {
+    if (bytes < 0) {
+      throw new IllegalArgumentException("The off-heap threshold can't be negative.");
     }
+    this.pool.setOffHeapThreshold(bytes);
+  }
 
-    int height = this.getHeight(filenameReference);
-    int width = this.getWidth(filenameReference);
-    int maxVal = this.getMaxValue(filenameReference);
-
-    List<List<Color>> saveImage = this.imageReferences.get(filenameReference);
+  @Override
+  public long getOffHeapThreshold() {
+    return this.pool.getOffHeapThreshold();
+  }
 
-    StringBuilder saveMe = new StringBuilder();
-    // adds PPM file signature
-    saveMe.append("P3\n");
-    // formats integer height/width/maxVal into Strings and adds them
-    saveMe.append(String.format("%d %d %d\n", width, height, maxVal));
+  @Override
+  public boolean isOffHeap(String referenceName) throws IllegalArgumentException {
+    return this.loadedRecord(referenceName).isOffHeap();
+  }
 
-    // formats the RGB values into integers and adds them
-    for (int h = 0; h < height; h += 1) {
-      for (int w = 0; w < width; w += 1) {
-        saveMe.append(String.format("%d ", saveImage.get(h).get(w).getRed()));
-        saveMe.append(String.format("%d ", saveImage.get(h).get(w).getGreen()));
-        saveMe.append(String.format("%d ", saveImage.get(h).get(w).getBlue()));
+  @Override
+  public void setTiled(String referenceName, boolean tiled) throws IllegalArgumentException {
+    ImageRecord converted;
+    ReadWriteLock lock = this.lockFor(referenceName);
+    lock.readLock().lock();
+    try {
+      ImageRecord record = this.usedRecord(referenceName);
+      if (record.isTiled() == tiled) {
+        return;
+      }
+      Raster pixels = record.getPixels();
+      int width = record.getWidth();
+      int height = record.getHeight();
+      if (tiled) {
+        pixels = TiledRaster.fromLinear(pixels, width, height);
+      } else {
+        pixels = ((TiledRaster) pixels).toLinear(this.pool.take(width * height));
       }
-      saveMe.append("\n");
+      converted = new ImageRecord(width, height, record.getMaxValue(), pixels);
+      converted.setOrigin(record.getOrigin());
+    } finally {
+      lock.readLock().unlock();
     }
+    this.storeRecord(referenceName, converted);
+  }
+
+  @Override
+  public boolean isTiled(String referenceName) throws IllegalArgumentException {
+    return this.loadedRecord(referenceName).isTiled();
+  }
+
+  @Override
+  public boolean isPalette(String referenceName) throws IllegalArgumentException {
+    return this.loadedRecord(referenceName).isPalette();
+  }
 
-    // writes to file
-    FileWriter saver = new FileWriter(filepath + ".ppm");
-    saver.write(saveMe.toString());
-    saver.flush(); // saves file instantly (flushes cache)
-    saver.close();
+  @Override
+  public long getPoolHits() {
+    return this.pool.getHits();
+  }
+
+  @Override
+  public long getPoolMisses() {
+    return this.pool.getMisses();
+  }
+
+  @Override
+  public long getPooledBytes() {
+    return this.pool.getHeld();
+  }
+
+  @Override
+  public void setAsyncSaves(boolean async) {
+    this.asyncSaves = async;
+  }
+
+  @Override
+  public List<String> awaitSaves() {
+    return this.saver.awaitAll();
   }
 
 
   @Override
   public void grayscale(Grayscale g, String filename, String destFile) {
-    if (!this.imageReferences.containsKey(filename)) {
-      throw new IllegalArgumentException("Reference name has not been loaded yet.");
-    }
-
-    List<List<Color>> imagePixels = this.imageReferences.get(filename);
-    for (List<Color> imagePixel : imagePixels) {
-      for (int i = 0; i < imagePixel.size(); i += 1) {
-        int colorValue;
-        int redValue = imagePixel.get(i).getRed();
-        int greenValue = imagePixel.get(i).getGreen();
-        int blueValue = imagePixel.get(i).getBlue();
-        switch (g) {
-          case Red:
-            colorValue = redValue;
-            break;
-          case Green:
-            colorValue = greenValue;
-            break;
-          case Blue:
-            colorValue = blueValue;
-            break;
-          case Value:
-            if (redValue >= greenValue && redValue >= blueValue) {
-              colorValue = redValue;
-            } else if (greenValue >= redValue && greenValue >= blueValue) {
-              colorValue = greenValue;
-            } else {
-              colorValue = blueValue;
-            }
-            break;
-          case Intensity:
-            colorValue = (redValue + greenValue + blueValue) / 3;
-            break;
-          case Luma:
-            colorValue = (int) ((redValue * 0.2126) + (greenValue * 0.7152) + (blueValue * 0.0722));
-            break;
-          default:
-            throw new IllegalArgumentException("Invalid component");
+    this.transform(filename, destFile, g + " grayscale", source -> {
+      Raster newPixels = this.mapPixels(source, grayFunction(g));
+      return new ImageRecord(source.getWidth(), source.getHeight(), source.getMaxValue(),
+              newPixels);
+    });
+  }
+
+  /**
+   * Gets the function that turns a pixel into its gray level for the given component.
+   *
+   * @param g the component to use
+   * @return computes the gray pixel from a pixel, both packed as {@code 0xRRGGBB}
+   */
+  private static IntUnaryOperator grayFunction(Grayscale g) {
+    return rgb -> {
+      int colorValue = grayValue(g, rgb);
+      return pack(colorValue, colorValue, colorValue);
+    };
+  }
+
+  /**
+   * Computes the gray level of a pixel for the given grayscale component.
+   *
+   * @param g   the component to use
+   * @param rgb the pixel packed as {@code 0xRRGGBB}
+   * @return the gray level of the pixel
+   */
+  static int grayValue(Grayscale g, int rgb) {
+    int redValue = red(rgb);
+    int greenValue = green(rgb);
+    int blueValue = blue(rgb);
+    switch (g) {
+      case Red:
+        return redValue;
+      case Green:
+        return greenValue;
+      case Blue:
+        return blueValue;
+      case Value:
+        return Math.max(redValue, Math.max(greenValue, blueValue));
+      case Intensity:
+        return (redValue + greenValue + blueValue) / 3;
+      case Luma:
+        return (int) ((redValue * 0.2126) + (greenValue * 0.7152) + (blueValue * 0.0722));
+      default:
+        throw new IllegalArgumentException("Invalid component");
+    }
+  }
+
+
+  @Override
+  public void flipHorizontal(String filenameReference, String newReferenceName) {
+    this.transform(filenameReference, newReferenceName, "horizontal flip", source -> {
+      int height = source.getHeight();
+      int width = source.getWidth();
+      Raster pixels = source.getPixels();
+      if (pixels.isTiled()) {
+        TiledRaster tiles = (TiledRaster) pixels;
+        return new ImageRecord(width, height, source.getMaxValue(),
+            remapTiles(tiles, (x, y) -> tiles.get(width - 1 - x, y)));
+      }
+      if (pixels.isPalette()) {
+        PaletteRaster palette = (PaletteRaster) pixels;
+        byte[] indices = palette.indices();
+        byte[] flipped = new byte[indices.length];
+        for (int h = 0; h < height; h += 1) {
+          int rowStart = h * width;
+          int rowEnd = rowStart + width - 1;
+          for (int w = 0; w < width; w += 1) {
+            flipped[rowStart + w] = indices[rowEnd - w];
+          }
         }
-        imagePixel.set(i, new Color(colorValue, colorValue, colorValue));
+        return new ImageRecord(width, height, source.getMaxValue(),
+            palette.withIndices(flipped));
       }
+      Raster newPixels = this.pool.take(pixels.length());
+
+      for (int h = 0; h < height; h += 1) {
+        int rowStart = h * width;
+        int rowEnd = rowStart + width - 1;
+        for (int w = 0; w < width; w += 1) {
+          newPixels.set(rowStart + w, pixels.get(rowEnd - w));
+        }
+      }
+      return new ImageRecord(width, height, source.getMaxValue(), newPixels);
+    });
+  }
+
+  @Override
+  public void flipVertical(String filenameReference, String newReferenceName) {
+    this.transform(filenameReference, newReferenceName, "vertical flip", source -> {
+      int height = source.getHeight();
+      int width = source.getWidth();
+      Raster pixels = source.getPixels();
+      if (pixels.isTiled()) {
+        TiledRaster tiles = (TiledRaster) pixels;
+        return new ImageRecord(width, height, source.getMaxValue(),
+            remapTiles(tiles, (x, y) -> tiles.get(x, height - 1 - y)));
+      }
+      if (pixels.isPalette()) {
+        PaletteRaster palette = (PaletteRaster) pixels;
+        byte[] indices = palette.indices();
+        byte[] flipped = new byte[indices.length];
+        for (int h = 0; h < height; h += 1) {
+          System.arraycopy(indices, (height - 1 - h) * width, flipped, h * width, width);
+        }
+        return new ImageRecord(width, height, source.getMaxValue(),
+            palette.withIndices(flipped));
+      }
+      Raster newPixels = this.pool.take(pixels.length());
+
+      for (int h = 0; h < height; h += 1) {
+        pixels.copyTo((height - 1 - h) * width, newPixels, h * width, width);
+      }
+      return new ImageRecord(width, height, source.getMaxValue(), newPixels);
+    });
+  }
+
+  @Override
+  public void rotate90(String filenameReference, String newReferenceName) {
+    this.turn(filenameReference, newReferenceName, "rotate 90", Rotation.Turn.Clockwise);
+  }
+
+  @Override
+  public void rotate180(String filenameReference, String newReferenceName) {
+    this.turn(filenameReference, newReferenceName, "rotate 180", Rotation.Turn.Half);
+  }
+
+  @Override
+  public void rotate270(String filenameReference, String newReferenceName) {
+    this.turn(filenameReference, newReferenceName, "rotate 270",
+        Rotation.Turn.Counterclockwise);
+  }
+
+  @Override
+  public void transpose(String filenameReference, String newReferenceName) {
+    this.turn(filenameReference, newReferenceName, "transpose", Rotation.Turn.Transpose);
+  }
+
+  /**
+   * Turns an image and stores the result under a new reference name. Palette images stay
+   * palette images and tiled images stay tiled.
+   *
+   * @param filenameReference the reference name of the image to turn
+   * @param newReferenceName  the name to reference the new image as
+   * @param description       what the turn is, for the origin of the result
+   * @param turn              the way to turn the image
+   * @throws IllegalArgumentException if the filenameReference is not already loaded
+   */
+  private void turn(String filenameReference, String newReferenceName, String description,
+                    Rotation.Turn turn) throws IllegalArgumentException {
+    this.transform(filenameReference, newReferenceName, description, source -> {
+      int width = source.getWidth();
+      int height = source.getHeight();
+      int newWidth = turn.swapsSides() ? height : width;
+      int newHeight = turn.swapsSides() ? width : height;
+      Raster pixels = source.getPixels();
+      if (pixels.isPalette()) {
+        PaletteRaster palette = (PaletteRaster) pixels;
+        return new ImageRecord(newWidth, newHeight, source.getMaxValue(),
+            palette.withIndices(Rotation.turn(palette.indices(), width, height, turn)));
+      }
+      Raster newPixels = this.pool.take(pixels.length());
+      Rotation.turn(pixels, width, height, newPixels, turn);
+      if (pixels.isTiled()) {
+        TiledRaster tiles = TiledRaster.fromLinear(newPixels, newWidth, newHeight);
+        this.pool.give(newPixels);
+        tiles.compactUniform();
+        newPixels = tiles;
+      }
+      return new ImageRecord(newWidth, newHeight, source.getMaxValue(), newPixels);
+    });
+  }
+
+  @Override
+  public void rotate(Sampling sampling, double degrees, String filenameReference,
+                     String newReferenceName) throws IllegalArgumentException {
+    if (!Double.isFinite(degrees)) {
+      throw new IllegalArgumentException("The angle has to be a number.");
     }
-    this.imageReferences.put(destFile, imagePixels);
-    this.maxValues.put(destFile, this.getMaxValue(filename));
+    this.warp(filenameReference, newReferenceName, "rotate " + degrees + " with " + sampling,
+        sampling, (width, height) -> Warp.Plan.turn(degrees, width, height));
+  }
+
+  @Override
+  public void affine(Sampling sampling, double[] matrix, String filenameReference,
+                     String newReferenceName) throws IllegalArgumentException {
+    double[] inverse = Warp.invert(matrix);
+    this.warp(filenameReference, newReferenceName,
+        "affine " + Arrays.toString(matrix) + " with " + sampling, sampling,
+        (width, height) -> new Warp.Plan(width, height, inverse));
   }
 
+  /**
+   * Warps an image by an affine map and stores the result under a new reference name. The
+   * size of the result and the map are planned from the size of the source once its pixels are
+   * read. Tiled images stay tiled.
+   *
+   * @param filenameReference the reference name of the image to warp
+   * @param newReferenceName  the name to reference the new image as
+   * @param description       what the warp is, for the origin of the result
+   * @param sampling          how to sample the source between its pixels
+   * @param planner           plans the warp for the size of the source
+   * @throws IllegalArgumentException if the filenameReference is not already loaded
+   */
+  private void warp(String filenameReference, String newReferenceName, String description,
+                    Sampling sampling, WarpPlanner planner) throws IllegalArgumentException {
+    this.transform(filenameReference, newReferenceName, description, source -> {
+      int width = source.getWidth();
+      int height = source.getHeight();
+      Warp.Plan plan = planner.plan(width, height);
+      Raster pixels = source.getPixels();
+      Raster newPixels = this.pool.take(plan.width * plan.height);
+      Warp.warp(pixels, width, height, newPixels, plan, sampling);
+      if (pixels.isTiled()) {
+        TiledRaster tiles = TiledRaster.fromLinear(newPixels, plan.width, plan.height);
+        this.pool.give(newPixels);
+        tiles.compactUniform();
+        newPixels = tiles;
+      }
+      return new ImageRecord(plan.width, plan.height, source.getMaxValue(), newPixels);
+    });
+  }
 
   @Override
-  public void flipHorizontal(String filenameReference, String newReferenceName) {
-    if (!this.imageReferences.containsKey(filenameReference)) {
-      throw new IllegalArgumentException("Reference name has not been loaded yet.");
+  public int loadSequence(String pattern, String sequenceName)
+          throws FileNotFoundException, IllegalArgumentException {
+    FrameSequence sequence = FrameSequence.find(pattern);
+    this.storeSequence(sequenceName, sequence);
+    return sequence.size();
+  }
+
+  /**
+   * Stores a sequence under the given reference name, replacing whatever was there before.
+   *
+   * @param referenceName the name to store the sequence as
+   * @param sequence      the sequence to store
+   */
+  private void storeSequence(String referenceName, FrameSequence sequence) {
+    ImageRecord previous;
+    ReadWriteLock lock = this.lockFor(referenceName);
+    lock.writeLock().lock();
+    try {
+      previous = this.imageReferences.remove(referenceName);
+      this.sequences.put(referenceName, sequence);
+    } finally {
+      lock.writeLock().unlock();
+    }
+    if (previous != null) {
+      this.memory.forget(previous);
+    }
+  }
+
+  @Override
+  public int saveSequence(String pattern, String sequenceName)
+          throws IOException, IllegalArgumentException, IllegalStateException {
+    FrameSequence sequence = this.sequences.get(sequenceName);
+    if (sequence == null) {
+      throw new IllegalArgumentException("That image hasn't been loaded yet.");
+    }
+    FrameSequence.target(pattern, 0);
+    ImageSaver.Format format = pattern.toLowerCase().endsWith(".png")
+        ? ImageSaver.Format.PNG : ImageSaver.Format.PPM;
+
+    // each frame in flight holds its source and its result; allow as many as fit in the budget
+    PPMFile first = PPMFile.open(sequence.frame(0).toString());
+    long frameBytes = Math.max(1, 8L * first.getWidth() * first.getHeight());
+    int threads = Runtime.getRuntime().availableProcessors();
+    int window = (int) Math.max(1, Math.min(2L * threads, this.getMemoryBudget() / frameBytes));
+    Semaphore slots = new Semaphore(window);
+    ExecutorService workers = Executors.newFixedThreadPool(Math.min(threads, window), task -> {
+      Thread thread = new Thread(task, "ppm-sequence");
+      thread.setDaemon(true);
+      return thread;
+    });
+
+    List<Future<Void>> frames = new ArrayList<>();
+    AtomicBoolean failed = new AtomicBoolean(false);
+    try {
+      for (int i = 0; i < sequence.size() && !failed.get(); i += 1) {
+        slots.acquireUninterruptibly();
+        int index = i;
+        frames.add(workers.submit(() -> {
+          try {
+            this.saveFrame(sequence, index, pattern, format);
+            return null;
+          } catch (IOException | RuntimeException e) {
+            failed.set(true);
+            throw e;
+          } finally {
+            slots.release();
+          }
+        }));
+      }
+      for (Future<Void> frame : frames) {
+        awaitSave(frame, "sequence");
+      }
+    } finally {
+      workers.shutdownNow();
     }
+    return sequence.size();
+  }
 
-    int height = this.imageReferences.get(filenameReference).size();
-    int width = this.imageReferences.get(filenameReference).get(0).size();
-    List<List<Color>> imagePixels = this.imageReferences.get(filenameReference);
-    List<List<Color>> newImage = this.createEmptyImage(height);
+  /**
+   * Reads one frame of a sequence, runs the operations of the sequence on it, and saves it.
+   * Every image but the saved one goes back to the pool as soon as the next one is made.
+   *
+   * @param sequence the sequence
+   * @param index    the position of the frame in the sequence
+   * @param pattern  the pattern of the files to save to
+   * @param format   the format to save as
+   * @throws IOException           if the frame can't be saved
+   * @throws IllegalStateException if the frame can't be read
+   */
+  private void saveFrame(FrameSequence sequence, int index, String pattern,
+                         ImageSaver.Format format) throws IOException, IllegalStateException {
+    ImageRecord frame = this.readPPM(sequence.frame(index).toString());
+    for (UnaryOperator<ImageRecord> operation : sequence.operations()) {
+      frame.getPixels();
+      ImageRecord next = operation.apply(frame);
+      frame.discard(this.pool);
+      frame = next;
+    }
+    Path target = FrameSequence.target(pattern, sequence.number(index));
+    this.loadReadersOf(target);
+    this.saver.await(target);
+    ImageSaver.write(format, target, frame);
+    frame.discard(this.pool);
+  }
 
-    for (int h = 0; h < height; h += 1) {
-      for (int w = width - 1; w >= 0; w -= 1) {
-        newImage.get(h).add(imagePixels.get(h).get(w));
+  /**
+   * Waits for a file written in the background to be saved.
+   *
+   * @param save the task saving the file
+   * @param what what the file is part of, for error messages
+   * @throws IOException           if the file couldn't be saved
+   * @throws IllegalStateException if the image couldn't be read
+   */
+  private static void awaitSave(Future<Void> save, String what)
+          throws IOException, IllegalStateException {
+    try {
+      save.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while saving the " + what + ".");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
       }
+      throw new IllegalStateException("Unable to save the " + what + ": " + cause.getMessage());
     }
-    this.imageReferences.put(newReferenceName, newImage);
-    this.maxValues.put(newReferenceName, this.getMaxValue(filenameReference));
   }
 
   @Override
-  public void flipVertical(String filenameReference, String newReferenceName) {
-    if (!this.imageReferences.containsKey(filenameReference)) {
-      throw new IllegalArgumentException("Reference name has not been loaded yet.");
+  public int exportPyramid(int levels, String filepath, String filenameReference)
+          throws IOException, IllegalArgumentException, IllegalStateException {
+    if (levels < 1) {
+      throw new IllegalArgumentException("Levels must be at least 1.");
+    }
+    List<Raster> made = new ArrayList<>();
+    int threads = Runtime.getRuntime().availableProcessors();
+    ExecutorService workers = Executors.newFixedThreadPool(threads, task -> {
+      Thread thread = new Thread(task, "ppm-pyramid");
+      thread.setDaemon(true);
+      return thread;
+    });
+    List<Future<Void>> saves = new ArrayList<>();
+    int written = 0;
+    ReadWriteLock lock = this.lockFor(filenameReference);
+    lock.readLock().lock();
+    try {
+      ImageRecord level = this.usedRecord(filenameReference);
+      for (int divisor = 1; written < levels; divisor *= 2) {
+        // every level is written in both formats while the next one is made from it
+        for (ImageSaver.Format format : ImageSaver.Format.values()) {
+          Path target = ImageSaver.target(format, filepath + "-" + divisor);
+          this.loadReadersOf(target);
+          this.saver.await(target);
+          ImageRecord image = level;
+          saves.add(workers.submit(() -> {
+            ImageSaver.write(format, target, image);
+            return null;
+          }));
+        }
+        written += 1;
+        int width = level.getWidth();
+        int height = level.getHeight();
+        if (width == 1 && height == 1) {
+          break;
+        }
+        if (written < levels) {
+          int halfWidth = (width + 1) / 2;
+          int halfHeight = (height + 1) / 2;
+          Raster half = this.pool.take(halfWidth * halfHeight);
+          made.add(half);
+          Resampler.reduce(level.getPixels(), width, height, half, 2, 2);
+          level = new ImageRecord(halfWidth, halfHeight, level.getMaxValue(), half);
+        }
+      }
+      for (Future<Void> save : saves) {
+        awaitSave(save, "pyramid");
+      }
+    } finally {
+      workers.shutdownNow();
+      lock.readLock().unlock();
+    }
+    for (Raster raster : made) {
+      this.pool.give(raster);
     }
+    return written;
+  }
 
-    int height = this.imageReferences.get(filenameReference).size();
-    int width = this.imageReferences.get(filenameReference).get(0).size();
-    List<List<Color>> imagePixels = this.getImage(filenameReference);
-    List<List<Color>> newImage = this.createEmptyImage(height);
+  @Override
+  public void streamImage(String filename, List<StreamStep> steps, String filepath)
+          throws FileNotFoundException, IOException, IllegalStateException {
+    ImageStreamer.Chain chain = chainOf(steps);
+    this.saver.await(Paths.get(filename).toAbsolutePath().normalize());
+    PPMFile file = PPMFile.open(filename);
+    Path target = ImageSaver.target(ImageSaver.Format.PPM, filepath);
+    this.loadReadersOf(target);
+    this.saver.await(target);
+    ImageStreamer.stream(file, target, chain);
+  }
 
-    int rowNum = 0;
-    while (rowNum < height) {
-      for (int h = height - 1; h >= 0; h -= 1) {
-        for (int w = 0; w < width; w += 1) {
-          newImage.get(rowNum).add(imagePixels.get(h).get(w));
+  @Override
+  public int pipeImages(InputStream in, List<StreamStep> steps, OutputStream out)
+          throws IOException, IllegalStateException {
+    ImageStreamer.Chain chain = chainOf(steps);
+    int frames = 0;
+    PPMFile.Frames images = PPMFile.frames(new BufferedInputStream(in), "standard input");
+    PPMFile frame = images.next();
+    while (frame != null) {
+      ImageStreamer.stream(frame, out, frame.isRaw(), chain);
+      frames += 1;
+      frame = images.next();
+    }
+    return frames;
+  }
+
+  /**
+   * Turns the steps of a streamed chain into what the streamer does to every image. Every step
+   * either maps each pixel on its own or only moves pixels, so the flips can be done after all
+   * of the pixel functions.
+   *
+   * @param steps the steps, in order
+   * @return the chain the steps add up to
+   */
+  private static ImageStreamer.Chain chainOf(List<StreamStep> steps) {
+    boolean reverse = false;
+    boolean mirror = false;
+    IntUnaryOperator pixel = null;
+    for (StreamStep step : steps) {
+      IntUnaryOperator function = null;
+      switch (step.getKind()) {
+        case Grayscale:
+          function = grayFunction(step.getComponent());
+          break;
+        case Brighten:
+          function = brightenFunction(step.getIncrement());
+          break;
+        case FlipHorizontal:
+          mirror = !mirror;
+          break;
+        case FlipVertical:
+          reverse = !reverse;
+          break;
+        default:
+          throw new IllegalArgumentException("Invalid step");
+      }
+      if (function != null) {
+        pixel = pixel == null ? function : pixel.andThen(function);
+      }
+    }
+    return new ImageStreamer.Chain(reverse, mirror, pixel);
+  }
+
+  @Override
+  public void colorMatrix(ColorPreset preset, String filenameReference,
+                          String newReferenceName) throws IllegalArgumentException {
+    this.colorMatrix(ColorMatrix.of(preset), "color matrix " + preset, filenameReference,
+        newReferenceName);
+  }
+
+  @Override
+  public void colorMatrix(double[] matrix, String filenameReference, String newReferenceName)
+          throws IllegalArgumentException {
+    ColorMatrix map = matrix.length == 9 ? ColorMatrix.ofWeights(matrix)
+        : new ColorMatrix(matrix);
+    this.colorMatrix(map, "color matrix " + Arrays.toString(matrix), filenameReference,
+        newReferenceName);
+  }
+
+  /**
+   * Maps the colors of an image and stores the result under a new reference name. If the
+   * source is a sequence whose last operation is a color matrix, that operation is replaced by
+   * the two matrices folded together, so every frame is still only mapped once.
+   *
+   * @param matrix            the map of colors
+   * @param description       what the map is, for the origin of the result
+   * @param filenameReference the reference name of the image to map
+   * @param newReferenceName  the name to reference the new image as
+   * @throws IllegalArgumentException if the filenameReference is not already loaded
+   */
+  private void colorMatrix(ColorMatrix matrix, String description, String filenameReference,
+                           String newReferenceName) throws IllegalArgumentException {
+    FrameSequence sequence = this.sequences.get(filenameReference);
+    if (sequence != null && !sequence.operations().isEmpty()) {
+      List<UnaryOperator<ImageRecord>> operations = sequence.operations();
+      UnaryOperator<ImageRecord> last = operations.get(operations.size() - 1);
+      if (last instanceof MatrixOperation) {
+        ColorMatrix folded = ((MatrixOperation) last).matrix.then(matrix);
+        if (folded != null) {
+          this.storeSequence(newReferenceName, sequence.replaceLast(new MatrixOperation(folded)));
+          return;
         }
-        rowNum += 1;
       }
     }
-    this.imageReferences.put(newReferenceName, newImage);
-    this.maxValues.put(newReferenceName, this.getMaxValue(filenameReference));
+    this.transform(filenameReference, newReferenceName, description,
+        new MatrixOperation(matrix));
   }
 
   @Override
   public void brighten(int increment, String filenameReference, String newReferenceName)
           throws IllegalArgumentException {
-    if (!this.imageReferences.containsKey(filenameReference)) {
-      throw new IllegalArgumentException("Reference name has not been loaded yet.");
+    this.transform(filenameReference, newReferenceName, "brighten by " + increment, source -> {
+      Raster newPixels = this.mapPixels(source, brightenFunction(increment));
+      return new ImageRecord(source.getWidth(), source.getHeight(), source.getMaxValue(),
+              newPixels);
+    });
+  }
+
+  @Override
+  public void blur(int radius, String filenameReference, String newReferenceName)
+          throws IllegalArgumentException {
+    checkRadius(radius);
+    this.filter(filenameReference, newReferenceName, "blur with radius " + radius,
+        (pixels, into, width, height) -> Convolution.blur(pixels, into, width, height, radius));
+  }
+
+  @Override
+  public void sharpen(int radius, String filenameReference, String newReferenceName)
+          throws IllegalArgumentException {
+    checkRadius(radius);
+    this.filter(filenameReference, newReferenceName, "sharpen with radius " + radius,
+        (pixels, into, width, height) -> Convolution.sharpen(pixels, into, width, height,
+            radius));
+  }
+
+  @Override
+  public void boxBlur(int radius, String filenameReference, String newReferenceName)
+          throws IllegalArgumentException {
+    checkRadius(radius);
+    this.filter(filenameReference, newReferenceName, "box blur with radius " + radius,
+        (pixels, into, width, height) -> BoxFilter.blur(pixels, into, width, height, radius));
+  }
+
+  @Override
+  public void adaptiveThreshold(int radius, int offset, String filenameReference,
+                                String newReferenceName) throws IllegalArgumentException {
+    checkRadius(radius);
+    this.filter(filenameReference, newReferenceName,
+        "adaptive threshold with radius " + radius + " and offset " + offset,
+        (pixels, into, width, height) -> BoxFilter.threshold(pixels, into, width, height,
+            radius, offset));
+  }
+
+  @Override
+  public void edges(String filenameReference, String newReferenceName)
+          throws IllegalArgumentException {
+    this.transform(filenameReference, newReferenceName, "edges", source -> {
+      int width = source.getWidth();
+      int height = source.getHeight();
+      byte[] levels = Sobel.magnitudes(source.getPixels(), width, height);
+      return new ImageRecord(width, height, source.getMaxValue(), PaletteRaster.gray(levels));
+    });
+  }
+
+  @Override
+  public void resize(ResizeFilter filter, int width, int height, String filenameReference,
+                     String newReferenceName) throws IllegalArgumentException {
+    if (width < 1 || height < 1) {
+      throw new IllegalArgumentException("The size has to be at least 1 by 1.");
     }
+    if ((long) width * height > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("The size is too large.");
+    }
+    this.transform(filenameReference, newReferenceName,
+        "resize with " + filter + " to " + width + "x" + height, source -> {
+          Raster pixels = source.getPixels();
+          Raster newPixels = this.pool.take(width * height);
+          Resampler.resize(pixels, source.getWidth(), source.getHeight(), newPixels, width,
+              height, filter);
+          if (pixels.isTiled()) {
+            TiledRaster tiles = TiledRaster.fromLinear(newPixels, width, height);
+            this.pool.give(newPixels);
+            tiles.compactUniform();
+            newPixels = tiles;
+          }
+          return new ImageRecord(width, height, source.getMaxValue(), newPixels);
+        });
+  }
 
-    List<List<Color>> imagePixels = this.imageReferences.get(filenameReference);
+  @Override
+  public void median(int radius, String filenameReference, String newReferenceName)
+          throws IllegalArgumentException {
+    checkRadius(radius);
+    this.filter(filenameReference, newReferenceName, "median with radius " + radius,
+        (pixels, into, width, height) -> RankFilter.median(pixels, into, width, height, radius));
+  }
 
-    for (int h = 0; h < this.getHeight(filenameReference); h += 1) {
-      for (int w = 0; w < this.getWidth(filenameReference); w += 1) {
-        int redValue = rgbCap(imagePixels.get(h).get(w).getRed() + increment);
-        int greenValue = rgbCap(imagePixels.get(h).get(w).getGreen() + increment);
-        int blueValue = rgbCap(imagePixels.get(h).get(w).getBlue() + increment);
+  @Override
+  public void erode(int radius, String filenameReference, String newReferenceName)
+          throws IllegalArgumentException {
+    checkRadius(radius);
+    this.filter(filenameReference, newReferenceName, "erode with radius " + radius,
+        (pixels, into, width, height) -> RankFilter.erode(pixels, into, width, height, radius));
+  }
 
-        imagePixels.get(h).set(w, new Color(redValue, greenValue, blueValue));
+  @Override
+  public void dilate(int radius, String filenameReference, String newReferenceName)
+          throws IllegalArgumentException {
+    checkRadius(radius);
+    this.filter(filenameReference, newReferenceName, "dilate with radius " + radius,
+        (pixels, into, width, height) -> RankFilter.dilate(pixels, into, width, height, radius));
+  }
+
+  @Override
+  public double[][] regionStats(String referenceName, int[][] regions)
+          throws IllegalArgumentException {
+    SummedAreaTable table;
+    ReadWriteLock lock = this.lockFor(referenceName);
+    lock.readLock().lock();
+    try {
+      ImageRecord record = this.usedRecord(referenceName);
+      for (int[] region : regions) {
+        if (region.length != 4 || region[0] < 0 || region[1] < 0 || region[2] < 1
+                || region[3] < 1 || region[0] + region[2] > record.getWidth()
+                || region[1] + region[3] > record.getHeight()) {
+          throw new IllegalArgumentException("The region is not inside the image.");
+        }
+      }
+      table = new SummedAreaTable(record.getPixels(), record.getWidth(), record.getHeight(),
+          true, PPMUtilModel::red, PPMUtilModel::green, PPMUtilModel::blue);
+    } finally {
+      lock.readLock().unlock();
+    }
+
+    double[][] stats = new double[regions.length][6];
+    for (int i = 0; i < regions.length; i += 1) {
+      int x0 = regions[i][0];
+      int y0 = regions[i][1];
+      int x1 = x0 + regions[i][2];
+      int y1 = y0 + regions[i][3];
+      double count = (double) regions[i][2] * regions[i][3];
+      for (int c = 0; c < 3; c += 1) {
+        double mean = table.sum(c, x0, y0, x1, y1) / count;
+        double meanOfSquares = table.sumOfSquares(c, x0, y0, x1, y1) / count;
+        stats[i][c] = mean;
+        stats[i][3 + c] = Math.sqrt(Math.max(0, meanOfSquares - mean * mean));
       }
     }
-    this.imageReferences.put(newReferenceName, imagePixels);
-    this.maxValues.put(newReferenceName, this.getMaxValue(filenameReference));
+    return stats;
+  }
+
+  @Override
+  public int[][] histogram(String referenceName) throws IllegalArgumentException {
+    ImageStats stats = this.statsOf(referenceName);
+    int[][] histograms = new int[ImageStats.CHANNELS][];
+    for (int c = 0; c < ImageStats.CHANNELS; c += 1) {
+      histograms[c] = stats.getHistogram(c);
+    }
+    return histograms;
+  }
+
+  @Override
+  public double[][] stats(String referenceName) throws IllegalArgumentException {
+    ImageStats stats = this.statsOf(referenceName);
+    double[][] result = new double[ImageStats.CHANNELS][];
+    for (int c = 0; c < ImageStats.CHANNELS; c += 1) {
+      result[c] = new double[]{stats.getMin(c), stats.getMax(c), stats.getMean(c),
+          stats.getDeviation(c)};
+    }
+    return result;
+  }
+
+  /**
+   * Gets the statistics of the image stored under the given reference name, computing them if
+   * they aren't cached on it yet.
+   *
+   * @param referenceName the reference name of the image
+   * @return the statistics of the image
+   * @throws IllegalArgumentException if the referenceName is not already loaded
+   */
+  private ImageStats statsOf(String referenceName) throws IllegalArgumentException {
+    ReadWriteLock lock = this.lockFor(referenceName);
+    lock.readLock().lock();
+    try {
+      return this.usedRecord(referenceName).getStats();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public void autoLevels(String filenameReference, String newReferenceName)
+          throws IllegalArgumentException {
+    this.levels(filenameReference, newReferenceName, "auto levels", stats -> {
+      int[][] tables = new int[3][256];
+      for (int c = 0; c < 3; c += 1) {
+        int low = stats.getMin(c);
+        int high = stats.getMax(c);
+        for (int value = 0; value < 256; value += 1) {
+          tables[c][value] = high <= low ? value
+              : rgbCap((int) Math.round((value - low) * 255.0 / (high - low)));
+        }
+      }
+      return channelFunction(tables);
+    });
+  }
+
+  @Override
+  public void equalize(String filenameReference, String newReferenceName)
+          throws IllegalArgumentException {
+    this.levels(filenameReference, newReferenceName, "equalize", stats -> {
+      int[][] tables = new int[3][256];
+      for (int c = 0; c < 3; c += 1) {
+        int[] histogram = stats.getHistogram(c);
+        long below = histogram[stats.getMin(c)];
+        long rest = stats.getCount() - below;
+        long cumulative = 0;
+        for (int value = 0; value < 256; value += 1) {
+          cumulative += histogram[value];
+          tables[c][value] = rest == 0 ? value
+              : rgbCap((int) Math.round((cumulative - below) * 255.0 / rest));
+        }
+      }
+      return channelFunction(tables);
+    });
+  }
+
+  @Override
+  public void threshold(String filenameReference, String newReferenceName)
+          throws IllegalArgumentException {
+    this.levels(filenameReference, newReferenceName, "threshold", stats -> {
+      int level = otsuLevel(stats.getHistogram(ImageStats.LUMA), stats.getCount());
+      return rgb -> grayValue(Grayscale.Luma, rgb) > level ? 0xFFFFFF : 0;
+    });
+  }
+
+  /**
+   * Finds the level that best splits a histogram into a dark and a light group, by Otsu's
+   * method: the level where the variance between the means of the two groups, weighted by
+   * their sizes, is largest.
+   *
+   * @param histogram the number of pixels with every value from 0 to 255
+   * @param count     the number of pixels
+   * @return the largest value of the dark group
+   */
+  private static int otsuLevel(int[] histogram, long count) {
+    double sum = 0;
+    for (int value = 0; value < 256; value += 1) {
+      sum += (double) value * histogram[value];
+    }
+    long dark = 0;
+    double darkSum = 0;
+    double best = -1;
+    int level = 0;
+    for (int value = 0; value < 255; value += 1) {
+      dark += histogram[value];
+      darkSum += (double) value * histogram[value];
+      long light = count - dark;
+      if (dark == 0 || light == 0) {
+        continue;
+      }
+      double difference = darkSum / dark - (sum - darkSum) / light;
+      double between = (double) dark * light * difference * difference;
+      if (between > best) {
+        best = between;
+        level = value;
+      }
+    }
+    return level;
+  }
+
+  /**
+   * Maps the colors of an image through a function planned from the statistics of the image,
+   * and stores the result under a new reference name. The statistics are cached on the image,
+   * so they are only computed if nothing has asked for them since the image last changed.
+   *
+   * @param filenameReference the reference name of the image to map
+   * @param newReferenceName  the name to reference the new image as
+   * @param description       what the map is, for the origin of the result
+   * @param planner           plans the map from the statistics of the image
+   * @throws IllegalArgumentException if the filenameReference is not already loaded
+   */
+  private void levels(String filenameReference, String newReferenceName, String description,
+                      LevelsPlanner planner) throws IllegalArgumentException {
+    this.transform(filenameReference, newReferenceName, description, source -> {
+      Raster newPixels = this.mapPixels(source, planner.plan(source.getStats()));
+      return new ImageRecord(source.getWidth(), source.getHeight(), source.getMaxValue(),
+          newPixels);
+    });
+  }
+
+  /**
+   * Checks the radius of a neighborhood operation.
+   *
+   * @param radius the radius
+   * @throws IllegalArgumentException if the radius is less than 1
+   */
+  private static void checkRadius(int radius) throws IllegalArgumentException {
+    if (radius < 1) {
+      throw new IllegalArgumentException("Radius must be at least 1.");
+    }
+  }
+
+  /**
+   * Computes the pixels of a new image from the whole of the source image, rather than from
+   * one pixel at a time. The filter writes a plain raster; the result of a tiled source is
+   * tiled afterwards.
+   *
+   * @param filenameReference the reference name of the image
+   * @param newReferenceName  the name to reference the new image as
+   * @param description       what the operation is, for the origin of the result
+   * @param filter            writes the new pixels
+   * @throws IllegalArgumentException if the filenameReference is not already loaded
+   */
+  private void filter(String filenameReference, String newReferenceName, String description,
+                      RasterFilter filter) throws IllegalArgumentException {
+    this.transform(filenameReference, newReferenceName, description, source -> {
+      int width = source.getWidth();
+      int height = source.getHeight();
+      Raster pixels = source.getPixels();
+      Raster newPixels = this.pool.take(pixels.length());
+      filter.apply(pixels, newPixels, width, height);
+      if (pixels.isTiled()) {
+        TiledRaster tiles = TiledRaster.fromLinear(newPixels, width, height);
+        this.pool.give(newPixels);
+        tiles.compactUniform();
+        newPixels = tiles;
+      }
+      return new ImageRecord(width, height, source.getMaxValue(), newPixels);
+    });
+  }
+
+  /**
+   * Computes the pixels of an image from the pixels of another of the same size.
+   */
+  private interface RasterFilter {
+    /**
+     * Writes the new pixels.
+     *
+     * @param pixels the pixels of the source
+     * @param into   the raster to write the new pixels to, as long as the source
+     * @param width  the width of the image
+     * @param height the height of the image
+     */
+    void apply(Raster pixels, Raster into, int width, int height);
+  }
+
+  /**
+   * Plans a warp for a source of a given size.
+   */
+  private interface WarpPlanner {
+    /**
+     * Plans the warp.
+     *
+     * @param width  the width of the source
+     * @param height the height of the source
+     * @return the size of the result and the map from its points to those of the source
+     * @throws IllegalArgumentException if the result would be too large
+     */
+    Warp.Plan plan(int width, int height) throws IllegalArgumentException;
+  }
+
+  /**
+   * Maps the colors of an image with a color matrix. If the image was itself made by a color
+   * matrix from an image that is still known, the two matrices are folded into one and the
+   * earlier image is mapped instead, skipping the rounding and clamping of the image in
+   * between. Setting a pixel of an image forgets how it was made, so an image that was edited
+   * is never skipped. Palette images only have their palette mapped, and tiled images stay
+   * tiled.
+   */
+  private final class MatrixOperation implements UnaryOperator<ImageRecord> {
+    private final ColorMatrix matrix;
+
+    /**
+     * Creates the operation.
+     *
+     * @param matrix the map of colors
+     */
+    MatrixOperation(ColorMatrix matrix) {
+      this.matrix = matrix;
+    }
+
+    /**
+     * Says whether this operation skips the given source, mapping the image before it instead.
+     *
+     * @param source the image to map
+     * @return true if the pixels of the source aren't read
+     */
+    boolean folds(ImageRecord source) {
+      return this.foldedWith(source.getLineage()) != null;
+    }
+
+    /**
+     * Folds the color matrix that made an image into this one.
+     *
+     * @param lineage how the image was made, or null if it can't be made again
+     * @return the folded matrix, or null if the image wasn't made by a color matrix, the image
+     *         it was made from has been discarded, or the folded matrix is out of range
+     */
+    private ColorMatrix foldedWith(Lineage lineage) {
+      if (lineage == null || !(lineage.getOperation() instanceof MatrixOperation)
+          || lineage.getParent().isDiscarded()) {
+        return null;
+      }
+      return ((MatrixOperation) lineage.getOperation()).matrix.then(this.matrix);
+    }
+
+    @Override
+    public ImageRecord apply(ImageRecord source) {
+      Lineage lineage = source.getLineage();
+      ColorMatrix folded = this.foldedWith(lineage);
+      if (folded != null) {
+        return new MatrixOperation(folded).apply(lineage.getParent());
+      }
+      int width = source.getWidth();
+      int height = source.getHeight();
+      Raster pixels = source.getPixels();
+      Raster newPixels;
+      if (pixels.isPalette() || pixels.isTiled()) {
+        newPixels = PPMUtilModel.this.mapPixels(source, this.matrix);
+      } else {
+        newPixels = PPMUtilModel.this.pool.take(pixels.length());
+        this.matrix.apply(pixels, width, height, newPixels);
+      }
+      return new ImageRecord(width, height, source.getMaxValue(), newPixels);
+    }
+  }
+
+  /**
+   * Plans a map of colors from the statistics of an image.
+   */
+  private interface LevelsPlanner {
+    /**
+     * Plans the map.
+     *
+     * @param stats the statistics of the image
+     * @return computes a new pixel from an old one, both packed as {@code 0xRRGGBB}
+     */
+    IntUnaryOperator plan(ImageStats stats);
+  }
+
+  /**
+   * Gets the function that brightens a pixel by the given increment.
+   *
+   * @param increment the amount to add to every channel, negative to darken
+   * @return computes the brightened pixel from a pixel, both packed as {@code 0xRRGGBB}
+   */
+  private static IntUnaryOperator brightenFunction(int increment) {
+    return rgb -> {
+      int redValue = rgbCap(red(rgb) + increment);
+      int greenValue = rgbCap(green(rgb) + increment);
+      int blueValue = rgbCap(blue(rgb) + increment);
+      return pack(redValue, greenValue, blueValue);
+    };
+  }
+
+  /**
+   * Gets the function that looks up each channel of a pixel in a table of its own.
+   *
+   * @param tables the new value of every value of red, green and blue, in that order
+   * @return computes the new pixel from a pixel, both packed as {@code 0xRRGGBB}
+   */
+  private static IntUnaryOperator channelFunction(int[][] tables) {
+    return rgb -> pack(tables[0][red(rgb)], tables[1][green(rgb)], tables[2][blue(rgb)]);
+  }
+
+  /**
+   * Applies a function to every pixel of an image. A palette source only has its palette
+   * mapped. A tiled source is walked one tile at a time and gives a tiled result, with the
+   * function applied once for each uniform tile; a linear one gives a linear result taken from
+   * the pool.
+   *
+   * @param source   the image to read
+   * @param function computes a new pixel from an old one, both packed as {@code 0xRRGGBB}
+   * @return the new pixels
+   */
+  private Raster mapPixels(ImageRecord source, IntUnaryOperator function) {
+    Raster pixels = source.getPixels();
+    if (pixels.isPalette()) {
+      return ((PaletteRaster) pixels).mapPalette(function);
+    }
+    if (pixels.isTiled()) {
+      TiledRaster tiles = (TiledRaster) pixels;
+      TiledRaster result = new TiledRaster(source.getWidth(), source.getHeight());
+      for (int t = 0; t < tiles.tileCount(); t += 1) {
+        if (tiles.isUniform(t)) {
+          result.setUniform(t, function.applyAsInt(tiles.uniformColor(t)));
+        } else {
+          int[] in = tiles.tile(t);
+          int[] out = result.writableTile(t);
+          for (int i = 0; i < in.length; i += 1) {
+            out[i] = function.applyAsInt(in[i]);
+          }
+        }
+      }
+      return result;
+    }
+    Raster result = this.pool.take(pixels.length());
+    for (int i = 0; i < pixels.length(); i += 1) {
+      result.set(i, function.applyAsInt(pixels.get(i)));
+    }
+    return result;
+  }
+
+  /**
+   * Creates a tiled image of the same size as the given one, filling it one tile at a time.
+   * Tiles of the result that come out as a single color are stored as just that color.
+   *
+   * @param like  the tiled image whose size to use
+   * @param pixel gives the pixel at the given column and row of the new image
+   * @return the new pixels
+   */
+  private static TiledRaster remapTiles(TiledRaster like, IntBinaryOperator pixel) {
+    TiledRaster result = new TiledRaster(like.width(), like.height());
+    for (int t = 0; t < result.tileCount(); t += 1) {
+      int x0 = result.tileX(t);
+      int y0 = result.tileY(t);
+      int w = result.tileWidth(t);
+      int h = result.tileHeight(t);
+      int[] out = result.writableTile(t);
+      for (int y = 0; y < h; y += 1) {
+        for (int x = 0; x < w; x += 1) {
+          out[y * w + x] = pixel.applyAsInt(x0 + x, y0 + y);
+        }
+      }
+    }
+    result.compactUniform();
+    return result;
   }
 
   /**
@@ -294,7 +1617,7 @@ public class PPMUtilModel implements ImageUtilModel {
    * @param value the value to cap between 0 and 255
    * @return the capped value
    */
-  private int rgbCap(int value) {
+  private static int rgbCap(int value) {
     if (value > 255) {
       return 255;
     } else {
@@ -303,17 +1626,44 @@ public class PPMUtilModel implements ImageUtilModel {
   }
 
   /**
-   * Creates an empty image to populate with modified image.
+   * Packs the three channels of a pixel into one {@code int}.
    *
-   * @param height the height of the image
-   * @return the empty image
+   * @param red   the red value, between 0 and 255
+   * @param green the green value, between 0 and 255
+   * @param blue  the blue value, between 0 and 255
+   * @return the pixel packed as {@code 0xRRGGBB}
    */
-  private List<List<Color>> createEmptyImage(int height) {
-    List<List<Color>> newImage = new ArrayList<List<Color>>();
+  static int pack(int red, int green, int blue) {
+    return (red << 16) | (green << 8) | blue;
+  }
 
-    for (int i = 0; i < height; i += 1) {
-      newImage.add(new ArrayList<Color>());
-    }
-    return newImage;
+  /**
+   * Gets the red value of a packed pixel.
+   *
+   * @param rgb the pixel packed as {@code 0xRRGGBB}
+   * @return the red value
+   */
+  static int red(int rgb) {
+    return (rgb >> 16) & 0xFF;
+  }
+
+  /**
+   * Gets the green value of a packed pixel.
+   *
+   * @param rgb the pixel packed as {@code 0xRRGGBB}
+   * @return the green value
+   */
+  static int green(int rgb) {
+    return (rgb >> 8) & 0xFF;
+  }
+
+  /**
+   * Gets the blue value of a packed pixel.
+   *
+   * @param rgb the pixel packed as {@code 0xRRGGBB}
+   * @return the blue value
+   */
+  static int blue(int rgb) {
+    return rgb & 0xFF;
   }
 }
@@ -0,0 +1,294 @@
+package model;
+
+import java.util.function.IntUnaryOperator;
+
+/**
+ * A raster of an image with few colors, stored as a palette of up to {@value #COLORS} colors and
+ * one byte per pixel that picks a color from it. This takes a quarter of the memory of a plain
+ * raster, and an operation that computes each pixel from its own color only has to be applied
+ * to the palette.
+ *
+ * <p>The indices are shared between a raster and its copies and between a raster and the
+ * rasters made from it by {@link #mapPalette(IntUnaryOperator)}; either side copies them the
+ * first time it sets a pixel. Setting a pixel to a color that is not in a full palette expands
+ * the raster to one int per pixel, after which it is no longer a palette raster.
+ */
+final class PaletteRaster extends Raster {
+  static final int COLORS = 256;
+
+  private byte[] indices;
+  private boolean shared;
+  private final int[] palette;
+  private int colors;
+  private int[] expanded;
+
+  /**
+   * Creates a palette raster.
+   *
+   * @param indices the index into the palette of every pixel, row-major
+   * @param palette the colors, packed as {@code 0xRRGGBB}, with room for {@value #COLORS}
+   * @param colors  the number of colors in use
+   */
+  private PaletteRaster(byte[] indices, int[] palette, int colors) {
+    this.indices = indices;
+    this.shared = false;
+    this.palette = palette;
+    this.colors = colors;
+    this.expanded = null;
+  }
+
+  /**
+   * Stores the given pixels with a palette, if they have few enough colors. The colors are
+   * counted with a small hash table, and the count stops as soon as there are too many.
+   *
+   * @param pixels the pixels to store
+   * @return a palette raster with the same pixels, or null if there are more than
+   *         {@value #COLORS} colors
+   */
+  static PaletteRaster of(Raster pixels) {
+    int[] keys = new int[4 * COLORS];
+    byte[] slots = new byte[keys.length];
+    boolean[] used = new boolean[keys.length];
+    int[] palette = new int[COLORS];
+    int colors = 0;
+
+    int[] run = new int[Math.min(pixels.length(), 4096)];
+    for (int start = 0; start < pixels.length(); start += run.length) {
+      int count = Math.min(run.length, pixels.length() - start);
+      pixels.get(start, run, 0, count);
+      for (int i = 0; i < count; i += 1) {
+        int slot = find(keys, used, run[i]);
+        if (!used[slot]) {
+          if (colors == COLORS) {
+            return null;
+          }
+          used[slot] = true;
+          keys[slot] = run[i];
+          slots[slot] = (byte) colors;
+          palette[colors] = run[i];
+          colors += 1;
+        }
+      }
+    }
+
+    byte[] indices = new byte[pixels.length()];
+    for (int start = 0; start < pixels.length(); start += run.length) {
+      int count = Math.min(run.length, pixels.length() - start);
+      pixels.get(start, run, 0, count);
+      for (int i = 0; i < count; i += 1) {
+        indices[start + i] = slots[find(keys, used, run[i])];
+      }
+    }
+    return new PaletteRaster(indices, palette, colors);
+  }
+
+  /**
+   * Creates a single channel raster: a palette of every gray level, with one byte per pixel
+   * that is its level.
+   *
+   * @param levels the gray level of every pixel, row-major, which the raster takes ownership of
+   * @return the raster
+   */
+  static PaletteRaster gray(byte[] levels) {
+    int[] palette = new int[COLORS];
+    for (int level = 0; level < COLORS; level += 1) {
+      palette[level] = PPMUtilModel.pack(level, level, level);
+    }
+    return new PaletteRaster(levels, palette, COLORS);
+  }
+
+  /**
+   * Finds the slot of a color in an open addressing hash table, or the empty slot it would go
+   * in.
+   *
+   * @param keys the colors in the table
+   * @param used which slots hold a color
+   * @param rgb  the color to look for
+   * @return the index of the slot
+   */
+  private static int find(int[] keys, boolean[] used, int rgb) {
+    int mask = keys.length - 1;
+    int slot = (rgb * 0x9E3779B1 >>> 16) & mask;
+    while (used[slot] && keys[slot] != rgb) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  /**
+   * Creates a raster with the same indices as this one and every color of the palette passed
+   * through the given function.
+   *
+   * @param function computes a new color from an old one, both packed as {@code 0xRRGGBB}
+   * @return the new raster, which shares its indices with this one
+   * @throws IllegalStateException if this raster has been expanded
+   */
+  PaletteRaster mapPalette(IntUnaryOperator function) throws IllegalStateException {
+    if (this.expanded != null) {
+      throw new IllegalStateException("The raster no longer has a palette.");
+    }
+    int[] mapped = new int[COLORS];
+    for (int c = 0; c < this.colors; c += 1) {
+      mapped[c] = function.applyAsInt(this.palette[c]);
+    }
+    PaletteRaster result = new PaletteRaster(this.indices, mapped, this.colors);
+    this.shared = true;
+    result.shared = true;
+    return result;
+  }
+
+  /**
+   * Creates a raster with the same palette as this one and the given indices.
+   *
+   * @param indices the index into the palette of every pixel, row-major, which the new raster
+   *                takes ownership of
+   * @return the new raster
+   */
+  PaletteRaster withIndices(byte[] indices) {
+    return new PaletteRaster(indices, this.palette.clone(), this.colors);
+  }
+
+  /**
+   * Gets the index into the palette of every pixel. The array must not be modified.
+   *
+   * @return the indices, row-major
+   * @throws IllegalStateException if this raster has been expanded
+   */
+  byte[] indices() throws IllegalStateException {
+    if (this.expanded != null) {
+      throw new IllegalStateException("The raster no longer has a palette.");
+    }
+    return this.indices;
+  }
+
+  /**
+   * Gets the number of colors in the palette.
+   *
+   * @return the number of colors, or 0 if this raster has been expanded
+   */
+  int colors() {
+    return this.expanded == null ? this.colors : 0;
+  }
+
+  /**
+   * Gets a color of the palette.
+   *
+   * @param c the index of the color, less than {@link #colors()}
+   * @return the color packed as {@code 0xRRGGBB}
+   */
+  int color(int c) {
+    return this.palette[c];
+  }
+
+  @Override
+  int length() {
+    return this.expanded == null ? this.indices.length : this.expanded.length;
+  }
+
+  @Override
+  boolean isOffHeap() {
+    return false;
+  }
+
+  @Override
+  boolean isPalette() {
+    return this.expanded == null;
+  }
+
+  @Override
+  long bytes() {
+    if (this.expanded != null) {
+      return 4L * this.expanded.length;
+    }
+    return this.indices.length + 4L * this.palette.length;
+  }
+
+  @Override
+  int get(int index) {
+    if (this.expanded != null) {
+      return this.expanded[index];
+    }
+    return this.palette[this.indices[index] & 0xFF];
+  }
+
+  @Override
+  void set(int index, int rgb) {
+    if (this.expanded == null) {
+      int c = 0;
+      while (c < this.colors && this.palette[c] != rgb) {
+        c += 1;
+      }
+      if (c < COLORS) {
+        if (c == this.colors) {
+          this.palette[c] = rgb;
+          this.colors += 1;
+        }
+        if (this.shared) {
+          this.indices = this.indices.clone();
+          this.shared = false;
+        }
+        this.indices[index] = (byte) c;
+        return;
+      }
+      this.expand();
+    }
+    this.expanded[index] = rgb;
+  }
+
+  @Override
+  void get(int index, int[] dest, int offset, int count) {
+    if (this.expanded != null) {
+      System.arraycopy(this.expanded, index, dest, offset, count);
+      return;
+    }
+    for (int i = 0; i < count; i += 1) {
+      dest[offset + i] = this.palette[this.indices[index + i] & 0xFF];
+    }
+  }
+
+  @Override
+  void set(int index, int[] src, int offset, int count) {
+    for (int i = 0; i < count; i += 1) {
+      this.set(index + i, src[offset + i]);
+    }
+  }
+
+  @Override
+  void copyTo(int index, Raster dest, int destIndex, int count) {
+    int[] run = new int[Math.min(count, 4096)];
+    while (count > 0) {
+      int length = Math.min(count, run.length);
+      this.get(index, run, 0, length);
+      dest.set(destIndex, run, 0, length);
+      index += length;
+      destIndex += length;
+      count -= length;
+    }
+  }
+
+  /**
+   * Creates a copy that shares the indices with this raster until one of them sets a pixel.
+   *
+   * @return the copy
+   */
+  @Override
+  Raster copy() {
+    if (this.expanded != null) {
+      return Raster.wrap(this.expanded.clone());
+    }
+    PaletteRaster copy = new PaletteRaster(this.indices, this.palette.clone(), this.colors);
+    this.shared = true;
+    copy.shared = true;
+    return copy;
+  }
+
+  /**
+   * Replaces the palette and indices with one int per pixel.
+   */
+  private void expand() {
+    int[] pixels = new int[this.indices.length];
+    this.get(0, pixels, 0, pixels.length);
+    this.expanded = pixels;
+    this.indices = null;
+  }
+}
@@ -0,0 +1,118 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs work over a range of rows, or of any other index, split into one band per core. The
+ * bands run on a shared pool of daemon threads, with the calling thread running the first band
+ * itself. A band that starts more bands runs them all on its own thread, so nested calls can't
+ * run out of threads.
+ *
+ * <p>Each band is one task, so a band can allocate its scratch space once, at its start, and
+ * that space belongs to one thread for the whole band.
+ */
+final class ParallelBands {
+  /**
+   * Works on one band.
+   */
+  interface Band {
+    /**
+     * Works on the indices of a band.
+     *
+     * @param from the first index of the band
+     * @param to   one past the last index of the band
+     */
+    void run(int from, int to);
+  }
+
+  private static final int THREADS = Runtime.getRuntime().availableProcessors();
+  private static final ExecutorService POOL = Executors.newFixedThreadPool(THREADS, task -> {
+    Thread thread = new Thread(task, "ppm-bands");
+    thread.setDaemon(true);
+    return thread;
+  });
+  private static final ThreadLocal<Boolean> INSIDE = ThreadLocal.withInitial(() -> false);
+
+  private ParallelBands() {
+  }
+
+  /**
+   * Gets the most bands a range is split into.
+   *
+   * @return the number of cores
+   */
+  static int threads() {
+    return THREADS;
+  }
+
+  /**
+   * Splits the indices from 0 to count into bands of at least the given size and runs them in
+   * parallel, returning once every band is done.
+   *
+   * @param count      the number of indices
+   * @param minPerBand the fewest indices worth a band of their own
+   * @param band       the work on one band
+   * @throws IllegalStateException if the wait is interrupted
+   */
+  static void run(int count, int minPerBand, Band band) throws IllegalStateException {
+    int bands = Math.max(1, Math.min(THREADS, count / Math.max(1, minPerBand)));
+    if (bands == 1 || INSIDE.get()) {
+      if (count > 0) {
+        band.run(0, count);
+      }
+      return;
+    }
+
+    List<Future<?>> started = new ArrayList<>();
+    for (int b = 1; b < bands; b += 1) {
+      int from = (int) ((long) count * b / bands);
+      int to = (int) ((long) count * (b + 1) / bands);
+      started.add(POOL.submit(() -> {
+        INSIDE.set(true);
+        try {
+          band.run(from, to);
+        } finally {
+          INSIDE.set(false);
+        }
+      }));
+    }
+    INSIDE.set(true);
+    try {
+      band.run(0, count / bands);
+    } finally {
+      INSIDE.set(false);
+      await(started);
+    }
+  }
+
+  /**
+   * Waits for the started bands, passing on the first failure.
+   *
+   * @param started the bands running on the pool
+   * @throws IllegalStateException if the wait is interrupted
+   */
+  private static void await(List<Future<?>> started) throws IllegalStateException {
+    for (Future<?> band : started) {
+      try {
+        band.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while waiting for the image.");
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException) {
+          throw (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+          throw (Error) cause;
+        }
+        throw new IllegalStateException(cause.getMessage());
+      }
+    }
+  }
+}
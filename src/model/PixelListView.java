@@ -0,0 +1,109 @@
+package model;
+
+import java.awt.Color;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+
+/**
+ * A {@code List} of rows of {@code Color}s backed by an {@code ImageRecord}. This is how
+ * {@code getImage} hands out an image without copying it: reads go straight to the record, and
+ * setting a pixel writes it into the record while holding the write lock of the reference.
+ *
+ * <p>If the record has been shared, for example with a save running in the background, the
+ * first pixel set copies it and stores the copy under the reference in its place.
+ */
+final class PixelListView extends AbstractList<List<Color>> {
+  private final PPMUtilModel model;
+  private final String referenceName;
+  private final ReadWriteLock lock;
+  private ImageRecord record;
+
+  /**
+   * Creates a view of the record stored under the given reference name.
+   *
+   * @param model         the model the record is stored in
+   * @param referenceName the name the record is stored under
+   * @param record        the record to view
+   * @param lock          the lock of the reference
+   */
+  PixelListView(PPMUtilModel model, String referenceName, ImageRecord record,
+                ReadWriteLock lock) {
+    this.model = model;
+    this.referenceName = referenceName;
+    this.record = record;
+    this.lock = lock;
+    record.expose();
+  }
+
+  @Override
+  public List<Color> get(int row) {
+    if (row < 0 || row >= this.record.getHeight()) {
+      throw new IndexOutOfBoundsException("Row " + row + " is outside of the image.");
+    }
+    return new Row(row);
+  }
+
+  @Override
+  public int size() {
+    return this.record.getHeight();
+  }
+
+  /**
+   * One row of the image.
+   */
+  private final class Row extends AbstractList<Color> {
+    private final int row;
+
+    /**
+     * Creates a view of the given row.
+     *
+     * @param row the index of the row
+     */
+    Row(int row) {
+      this.row = row;
+    }
+
+    @Override
+    public Color get(int col) {
+      this.checkColumn(col);
+      return new Color(record.getRGB(this.row, col));
+    }
+
+    @Override
+    public Color set(int col, Color color) {
+      this.checkColumn(col);
+      lock.writeLock().lock();
+      try {
+        if (record.isShared()) {
+          ImageRecord copy = record.copy();
+          copy.expose();
+          model.replaceRecord(referenceName, record, copy);
+          record = copy;
+        }
+        Color previous = new Color(record.getRGB(this.row, col));
+        record.setRGB(this.row, col, color.getRGB());
+        return previous;
+      } finally {
+        lock.writeLock().unlock();
+      }
+    }
+
+    @Override
+    public int size() {
+      return record.getWidth();
+    }
+
+    /**
+     * Makes sure the column is inside the image.
+     *
+     * @param col the column to check
+     * @throws IndexOutOfBoundsException if the column is outside of the image
+     */
+    private void checkColumn(int col) throws IndexOutOfBoundsException {
+      if (col < 0 || col >= record.getWidth()) {
+        throw new IndexOutOfBoundsException("Column " + col + " is outside of the image.");
+      }
+    }
+  }
+}
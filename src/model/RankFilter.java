@@ -0,0 +1,345 @@
+package model;
+
+import java.util.Arrays;
+
+/**
+ * Filters that pick a value out of the square around every pixel rather than averaging it: the
+ * median, for removing speckles from scans, and the minimum and maximum, for eroding and
+ * dilating. Each channel is filtered on its own. Squares that reach past an edge of the image
+ * see copies of the nearest edge pixel. The time a pixel takes doesn't depend on the radius.
+ *
+ * <p>The median uses the algorithm of Perreault and Hebert. Every column keeps a histogram of
+ * the values in the rows around the current row, which moves down a row by adding one value and
+ * removing another, and the square keeps a histogram that moves across a pixel by adding one
+ * column histogram and subtracting another. Histograms have 16 coarse bins of 16 values each
+ * over 256 fine bins; the coarse bins of the square are kept up to date and say which group of
+ * fine bins holds the median, and only that group is brought up to date, from where it was last
+ * used.
+ *
+ * <p>The minimum and maximum use the algorithm of van Herk, Gil and Werman, one pass along the
+ * rows and one down the columns. A line is cut into blocks as long as the square, and running
+ * maximums forward and backward within each block give the maximum of any square from two of
+ * them, whatever its size.
+ */
+final class RankFilter {
+  private static final int MIN_ROWS = 16;
+  private static final int GROUP = 16;
+  private static final int MAX_MEDIAN_RADIUS = 20000;
+
+  private RankFilter() {
+  }
+
+  /**
+   * Replaces every channel of every pixel with its median over the square around it.
+   *
+   * @param source the pixels to filter
+   * @param into   the raster to write the filtered pixels to, as long as the source
+   * @param width  the width of the image
+   * @param height the height of the image
+   * @param radius the number of pixels the square reaches on either side of its center; radii
+   *               past the size of the image, or past {@value #MAX_MEDIAN_RADIUS}, count as
+   *               that
+   */
+  static void median(Raster source, Raster into, int width, int height, int radius) {
+    int r = Math.min(radius, Math.min(MAX_MEDIAN_RADIUS, Math.max(width, height)));
+    ParallelBands.run(height, MIN_ROWS, (from, to) -> {
+      MedianBand band = new MedianBand(source, width, height, r);
+      for (int channel = 0; channel < 3; channel += 1) {
+        band.run(into, from, to, channel);
+      }
+    });
+  }
+
+  /**
+   * Replaces every channel of every pixel with its minimum over the square around it, which
+   * shrinks light areas.
+   *
+   * @param source the pixels to filter
+   * @param into   the raster to write the filtered pixels to, as long as the source
+   * @param width  the width of the image
+   * @param height the height of the image
+   * @param radius the number of pixels the square reaches on either side of its center
+   */
+  static void erode(Raster source, Raster into, int width, int height, int radius) {
+    morph(source, into, width, height, radius, false);
+  }
+
+  /**
+   * Replaces every channel of every pixel with its maximum over the square around it, which
+   * grows light areas.
+   *
+   * @param source the pixels to filter
+   * @param into   the raster to write the filtered pixels to, as long as the source
+   * @param width  the width of the image
+   * @param height the height of the image
+   * @param radius the number of pixels the square reaches on either side of its center
+   */
+  static void dilate(Raster source, Raster into, int width, int height, int radius) {
+    morph(source, into, width, height, radius, true);
+  }
+
+  /**
+   * Takes the minimum or maximum over squares, a pass along the rows into the target and then
+   * a pass down the columns of the target. The column pass works on groups of
+   * {@value #GROUP} neighboring columns, so it reads whole runs of a row at a time.
+   *
+   * @param source the pixels to filter
+   * @param into   the raster to write the filtered pixels to
+   * @param width  the width of the image
+   * @param height the height of the image
+   * @param radius the number of pixels the square reaches on either side of its center
+   * @param max    true for the maximum, false for the minimum
+   */
+  private static void morph(Raster source, Raster into, int width, int height, int radius,
+                            boolean max) {
+    int r = Math.min(radius, Math.max(width, height));
+    ParallelBands.run(height, MIN_ROWS, (from, to) -> {
+      int[] row = new int[width];
+      int[] forward = new int[width + 2 * r];
+      int[] backward = new int[width + 2 * r];
+      for (int y = from; y < to; y += 1) {
+        source.get(y * width, row, 0, width);
+        extremes(row, width, r, max, forward, backward);
+        into.set(y * width, row, 0, width);
+      }
+    });
+
+    ParallelBands.run((width + GROUP - 1) / GROUP, 1, (from, to) -> {
+      int[] block = new int[height * GROUP];
+      int[] column = new int[height];
+      int[] forward = new int[height + 2 * r];
+      int[] backward = new int[height + 2 * r];
+      for (int group = from; group < to; group += 1) {
+        int x0 = group * GROUP;
+        int columns = Math.min(GROUP, width - x0);
+        for (int y = 0; y < height; y += 1) {
+          into.get(y * width + x0, block, y * GROUP, columns);
+        }
+        for (int j = 0; j < columns; j += 1) {
+          for (int y = 0; y < height; y += 1) {
+            column[y] = block[y * GROUP + j];
+          }
+          extremes(column, height, r, max, forward, backward);
+          for (int y = 0; y < height; y += 1) {
+            block[y * GROUP + j] = column[y];
+          }
+        }
+        for (int y = 0; y < height; y += 1) {
+          into.set(y * width + x0, block, y * GROUP, columns);
+        }
+      }
+    });
+  }
+
+  /**
+   * Replaces every value of a line with the minimum or maximum of the values around it, in
+   * place. The line is padded with copies of its ends and cut into blocks of
+   * {@code 2 * radius + 1} values; the window of a value covers the end of one block and the
+   * start of the next.
+   *
+   * @param line     the pixels of the line, packed as {@code 0xRRGGBB}
+   * @param length   the number of pixels in the line
+   * @param radius   the number of pixels the window reaches on either side of its center
+   * @param max      true for the maximum, false for the minimum
+   * @param forward  scratch for the running extremes from the start of each block
+   * @param backward scratch for the running extremes from the end of each block
+   */
+  private static void extremes(int[] line, int length, int radius, boolean max, int[] forward,
+                               int[] backward) {
+    int window = 2 * radius + 1;
+    int padded = length + 2 * radius;
+    for (int i = 0; i < padded; i += 1) {
+      int value = line[Math.max(0, Math.min(length - 1, i - radius))];
+      forward[i] = i % window == 0 ? value : pick(forward[i - 1], value, max);
+    }
+    for (int i = padded - 1; i >= 0; i -= 1) {
+      int value = line[Math.max(0, Math.min(length - 1, i - radius))];
+      backward[i] = i == padded - 1 || (i + 1) % window == 0
+          ? value : pick(backward[i + 1], value, max);
+    }
+    for (int x = 0; x < length; x += 1) {
+      line[x] = pick(backward[x], forward[x + 2 * radius], max);
+    }
+  }
+
+  /**
+   * Takes the minimum or maximum of two pixels, channel by channel.
+   *
+   * @param a   a pixel packed as {@code 0xRRGGBB}
+   * @param b   another pixel packed the same way
+   * @param max true for the maximum, false for the minimum
+   * @return the pixel of the minimum or maximum of each channel
+   */
+  private static int pick(int a, int b, boolean max) {
+    if (max) {
+      return Math.max(a & 0xFF0000, b & 0xFF0000) | Math.max(a & 0xFF00, b & 0xFF00)
+          | Math.max(a & 0xFF, b & 0xFF);
+    }
+    return Math.min(a & 0xFF0000, b & 0xFF0000) | Math.min(a & 0xFF00, b & 0xFF00)
+        | Math.min(a & 0xFF, b & 0xFF);
+  }
+
+  /**
+   * The histograms and scratch rows one band of the median filter works with. A band filters
+   * one channel at a time, reusing the same histograms.
+   */
+  private static final class MedianBand {
+    private final Raster source;
+    private final int width;
+    private final int height;
+    private final int radius;
+    private final int[] columnCoarse;
+    private final int[] columnFine;
+    private final int[] coarse;
+    private final int[] fine;
+    private final int[] nextColumn;
+    private final int[] row;
+    private final int[] out;
+
+    /**
+     * Creates the scratch space for a band.
+     *
+     * @param source the pixels to filter
+     * @param width  the width of the image
+     * @param height the height of the image
+     * @param radius the number of pixels the square reaches on either side of its center
+     */
+    MedianBand(Raster source, int width, int height, int radius) {
+      this.source = source;
+      this.width = width;
+      this.height = height;
+      this.radius = radius;
+      this.columnCoarse = new int[width * 16];
+      this.columnFine = new int[width * 256];
+      this.coarse = new int[16];
+      this.fine = new int[256];
+      this.nextColumn = new int[16];
+      this.row = new int[width];
+      this.out = new int[width];
+    }
+
+    /**
+     * Filters one channel of the rows of the band, adding it to the pixels already written.
+     *
+     * @param into    the raster to write to
+     * @param from    the first row of the band
+     * @param to      one past the last row of the band
+     * @param channel 0 for red, 1 for green, 2 for blue
+     */
+    void run(Raster into, int from, int to, int channel) {
+      int shift = 16 - 8 * channel;
+      int half = (2 * this.radius + 1) * (2 * this.radius + 1) / 2;
+      Arrays.fill(this.columnCoarse, 0);
+      Arrays.fill(this.columnFine, 0);
+      for (int v = from - this.radius; v <= from + this.radius; v += 1) {
+        this.addRow(v, shift, 1);
+      }
+
+      for (int y = from; y < to; y += 1) {
+        if (y > from) {
+          this.addRow(y + this.radius, shift, 1);
+          this.addRow(y - this.radius - 1, shift, -1);
+        }
+        Arrays.fill(this.coarse, 0);
+        Arrays.fill(this.nextColumn, Integer.MIN_VALUE);
+        for (int c = -this.radius; c <= this.radius; c += 1) {
+          this.addCoarse(c, 1);
+        }
+        if (channel == 0) {
+          Arrays.fill(this.out, 0);
+        } else {
+          into.get(y * this.width, this.out, 0, this.width);
+        }
+
+        for (int x = 0; x < this.width; x += 1) {
+          if (x > 0) {
+            this.addCoarse(x + this.radius, 1);
+            this.addCoarse(x - this.radius - 1, -1);
+          }
+          int seen = 0;
+          int k = 0;
+          while (seen + this.coarse[k] <= half) {
+            seen += this.coarse[k];
+            k += 1;
+          }
+          this.updateFine(k, x);
+          int value = 16 * k;
+          while (seen + this.fine[value] <= half) {
+            seen += this.fine[value];
+            value += 1;
+          }
+          this.out[x] |= value << shift;
+        }
+        into.set(y * this.width, this.out, 0, this.width);
+      }
+    }
+
+    /**
+     * Adds a row of the source to the column histograms, or removes it.
+     *
+     * @param v     the row, which is moved to the nearest row of the image
+     * @param shift where the channel is in a packed pixel
+     * @param delta 1 to add the row, -1 to remove it
+     */
+    private void addRow(int v, int shift, int delta) {
+      int y = Math.max(0, Math.min(this.height - 1, v));
+      this.source.get(y * this.width, this.row, 0, this.width);
+      for (int x = 0; x < this.width; x += 1) {
+        int value = (this.row[x] >> shift) & 0xFF;
+        this.columnFine[x * 256 + value] += delta;
+        this.columnCoarse[x * 16 + (value >> 4)] += delta;
+      }
+    }
+
+    /**
+     * Adds the coarse histogram of a column to that of the square, or subtracts it.
+     *
+     * @param c     the column, which is moved to the nearest column of the image
+     * @param delta 1 to add the column, -1 to subtract it
+     */
+    private void addCoarse(int c, int delta) {
+      int base = Math.max(0, Math.min(this.width - 1, c)) * 16;
+      for (int k = 0; k < 16; k += 1) {
+        this.coarse[k] += delta * this.columnCoarse[base + k];
+      }
+    }
+
+    /**
+     * Adds one group of fine bins of a column to those of the square, or subtracts it.
+     *
+     * @param c     the column, which is moved to the nearest column of the image
+     * @param k     the coarse bin whose fine bins to add
+     * @param delta 1 to add the column, -1 to subtract it
+     */
+    private void addFine(int c, int k, int delta) {
+      int base = Math.max(0, Math.min(this.width - 1, c)) * 256 + 16 * k;
+      for (int i = 0; i < 16; i += 1) {
+        this.fine[16 * k + i] += delta * this.columnFine[base + i];
+      }
+    }
+
+    /**
+     * Brings one group of fine bins of the square up to date for the square centered on the
+     * given column. A group that was last used nearby is moved across from there; one that
+     * wasn't is summed again.
+     *
+     * @param k the coarse bin whose fine bins to update
+     * @param x the column the square is centered on
+     */
+    private void updateFine(int k, int x) {
+      int next = this.nextColumn[k];
+      if (next <= x - this.radius) {
+        Arrays.fill(this.fine, 16 * k, 16 * k + 16, 0);
+        for (int c = x - this.radius; c <= x + this.radius; c += 1) {
+          this.addFine(c, k, 1);
+        }
+      } else {
+        for (int c = next; c <= x + this.radius; c += 1) {
+          this.addFine(c, k, 1);
+          this.addFine(c - 2 * this.radius - 1, k, -1);
+        }
+      }
+      this.nextColumn[k] = x + this.radius + 1;
+    }
+  }
+}
@@ -0,0 +1,271 @@
+package model;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+/**
+ * The pixel storage of an image: a fixed number of pixels, row-major, each packed as
+ * {@code 0xRRGGBB}. A raster either wraps an {@code int} array on the heap or a direct buffer
+ * outside of it. Off-heap rasters are not scanned or copied by the garbage collector, so
+ * keeping many large images in memory doesn't make collections slower.
+ *
+ * <p>Operations, savers, and spill files only use the methods here, so they work the same on
+ * either kind of storage, and on rasters in the {@link TiledRaster tiled} layout, which address
+ * pixels through the same row-major indexes.
+ */
+abstract class Raster {
+
+  /**
+   * Creates a raster with the given number of pixels, all black.
+   *
+   * @param length  the number of pixels
+   * @param offHeap whether to store the pixels outside of the heap
+   * @return the new raster
+   */
+  static Raster allocate(int length, boolean offHeap) {
+    if (offHeap) {
+      return new DirectRaster(length);
+    }
+    return new HeapRaster(new int[length]);
+  }
+
+  /**
+   * Creates a heap raster that uses the given array as its storage.
+   *
+   * @param pixels the pixels, each packed as {@code 0xRRGGBB}
+   * @return a raster backed by the array
+   */
+  static Raster wrap(int[] pixels) {
+    return new HeapRaster(pixels);
+  }
+
+  /**
+   * Gets the number of pixels.
+   *
+   * @return the number of pixels in the raster
+   */
+  abstract int length();
+
+  /**
+   * Checks whether the pixels are stored outside of the heap.
+   *
+   * @return true for off-heap storage
+   */
+  abstract boolean isOffHeap();
+
+  /**
+   * Gets the number of bytes the pixels take up.
+   *
+   * @return the size of the storage in bytes
+   */
+  long bytes() {
+    return 4L * this.length();
+  }
+
+  /**
+   * Checks whether the raster is a plain array or buffer of pixels that can be reused for any
+   * image of the same size.
+   *
+   * @return true if the raster can be given to a {@link RasterPool}
+   */
+  boolean isPoolable() {
+    return false;
+  }
+
+  /**
+   * Checks whether the pixels are stored as indices into a palette of colors.
+   *
+   * @return true for a {@link PaletteRaster} that has not been expanded
+   */
+  boolean isPalette() {
+    return false;
+  }
+
+  /**
+   * Checks whether the pixels are stored as tiles rather than row after row.
+   *
+   * @return true for a {@link TiledRaster}
+   */
+  boolean isTiled() {
+    return false;
+  }
+
+  /**
+   * Gets one pixel.
+   *
+   * @param index the index of the pixel
+   * @return the pixel packed as {@code 0xRRGGBB}
+   */
+  abstract int get(int index);
+
+  /**
+   * Sets one pixel.
+   *
+   * @param index the index of the pixel
+   * @param rgb   the pixel packed as {@code 0xRRGGBB}
+   */
+  abstract void set(int index, int rgb);
+
+  /**
+   * Copies a run of pixels into an array.
+   *
+   * @param index  the index of the first pixel
+   * @param dest   the array to copy into
+   * @param offset where in the array to start
+   * @param count  the number of pixels
+   */
+  abstract void get(int index, int[] dest, int offset, int count);
+
+  /**
+   * Copies a run of pixels from an array.
+   *
+   * @param index  the index of the first pixel to set
+   * @param src    the array to copy from
+   * @param offset where in the array to start
+   * @param count  the number of pixels
+   */
+  abstract void set(int index, int[] src, int offset, int count);
+
+  /**
+   * Copies a run of pixels into another raster.
+   *
+   * @param index     the index of the first pixel to copy
+   * @param dest      the raster to copy into
+   * @param destIndex the index of the first pixel to set in the other raster
+   * @param count     the number of pixels
+   */
+  abstract void copyTo(int index, Raster dest, int destIndex, int count);
+
+  /**
+   * Creates a copy of this raster with the same kind of storage.
+   *
+   * @return the copy
+   */
+  Raster copy() {
+    Raster copy = allocate(this.length(), this.isOffHeap());
+    this.copyTo(0, copy, 0, this.length());
+    return copy;
+  }
+
+  /**
+   * Pixels stored in an {@code int} array.
+   */
+  private static final class HeapRaster extends Raster {
+    private final int[] pixels;
+
+    /**
+     * Creates a raster over the given array.
+     *
+     * @param pixels the array to store the pixels in
+     */
+    HeapRaster(int[] pixels) {
+      this.pixels = pixels;
+    }
+
+    @Override
+    int length() {
+      return this.pixels.length;
+    }
+
+    @Override
+    boolean isOffHeap() {
+      return false;
+    }
+
+    @Override
+    boolean isPoolable() {
+      return true;
+    }
+
+    @Override
+    int get(int index) {
+      return this.pixels[index];
+    }
+
+    @Override
+    void set(int index, int rgb) {
+      this.pixels[index] = rgb;
+    }
+
+    @Override
+    void get(int index, int[] dest, int offset, int count) {
+      System.arraycopy(this.pixels, index, dest, offset, count);
+    }
+
+    @Override
+    void set(int index, int[] src, int offset, int count) {
+      System.arraycopy(src, offset, this.pixels, index, count);
+    }
+
+    @Override
+    void copyTo(int index, Raster dest, int destIndex, int count) {
+      dest.set(destIndex, this.pixels, index, count);
+    }
+  }
+
+  /**
+   * Pixels stored in a direct buffer, in the native byte order.
+   */
+  private static final class DirectRaster extends Raster {
+    private final IntBuffer pixels;
+
+    /**
+     * Allocates a direct buffer for the given number of pixels.
+     *
+     * @param length the number of pixels
+     */
+    DirectRaster(int length) {
+      this.pixels = ByteBuffer.allocateDirect(4 * length).order(ByteOrder.nativeOrder())
+          .asIntBuffer();
+    }
+
+    @Override
+    int length() {
+      return this.pixels.capacity();
+    }
+
+    @Override
+    boolean isOffHeap() {
+      return true;
+    }
+
+    @Override
+    boolean isPoolable() {
+      return true;
+    }
+
+    @Override
+    int get(int index) {
+      return this.pixels.get(index);
+    }
+
+    @Override
+    void set(int index, int rgb) {
+      this.pixels.put(index, rgb);
+    }
+
+    @Override
+    void get(int index, int[] dest, int offset, int count) {
+      this.pixels.get(index, dest, offset, count);
+    }
+
+    @Override
+    void set(int index, int[] src, int offset, int count) {
+      this.pixels.put(index, src, offset, count);
+    }
+
+    @Override
+    void copyTo(int index, Raster dest, int destIndex, int count) {
+      if (dest instanceof DirectRaster) {
+        ((DirectRaster) dest).pixels.put(destIndex, this.pixels, index, count);
+      } else if (dest instanceof HeapRaster) {
+        this.get(index, ((HeapRaster) dest).pixels, destIndex, count);
+      } else {
+        int[] run = new int[count];
+        this.get(index, run, 0, count);
+        dest.set(destIndex, run, 0, count);
+      }
+    }
+  }
+}
@@ -0,0 +1,53 @@
+package model;
+
+/**
+ * Chooses a compact storage for newly loaded pixels. An image with at most
+ * {@value PaletteRaster#COLORS} colors is stored with a palette; otherwise an image where at
+ * least a quarter of the tiles have a single color is stored tiled, with those tiles kept as
+ * just their color. Any other image is left as it is.
+ *
+ * <p>Both storages behave like the original raster, so the choice is invisible to operations
+ * apart from making them cheaper. Pixels stored outside of the heap are left alone, since they
+ * were put there on purpose.
+ */
+final class RasterCompression {
+  /**
+   * Does not allow instances.
+   */
+  private RasterCompression() {
+  }
+
+  /**
+   * Stores the given pixels as compactly as possible.
+   *
+   * @param pixels the pixels of the image, row-major
+   * @param width  the width of the image in pixels
+   * @param height the height of the image in pixels
+   * @param pool   the pool to give the original raster back to if it is replaced, or null
+   * @return the compressed pixels, or the given raster if it can't be stored more compactly
+   */
+  static Raster compress(Raster pixels, int width, int height, RasterPool pool) {
+    if (pixels.isOffHeap() || pixels.isPalette() || pixels.length() == 0) {
+      return pixels;
+    }
+    if (pixels.isTiled()) {
+      ((TiledRaster) pixels).compactUniform();
+      return pixels;
+    }
+
+    Raster compressed = PaletteRaster.of(pixels);
+    if (compressed == null) {
+      int[] tiles = TiledRaster.countUniform(pixels, width, height);
+      if (tiles[1] == 0 || 4 * tiles[1] < tiles[0]) {
+        return pixels;
+      }
+      TiledRaster tiled = TiledRaster.fromLinear(pixels, width, height);
+      tiled.compactUniform();
+      compressed = tiled;
+    }
+    if (pool != null) {
+      pool.give(pixels);
+    }
+    return compressed;
+  }
+}
@@ -0,0 +1,158 @@
+package model;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps the rasters of images that are no longer stored under any reference, so operations can
+ * reuse them for their results instead of allocating new ones. Rasters are kept in size classes
+ * by their exact length and kind of storage, since a record's raster always holds exactly its
+ * pixels; a batch of images of the same size therefore reuses the same few rasters. The pool
+ * holds at most a fixed number of bytes and counts how often a request was served from it.
+ *
+ * <p>The pool also decides where new rasters live: rasters of at least the off-heap threshold
+ * are stored outside of the heap. Off-heap rasters given back to a full pool are left to the
+ * garbage collector, which frees their memory once they are unreachable.
+ *
+ * <p>Only plain arrays and buffers are pooled; tiled and palette rasters may still share their
+ * storage with a copy.
+ *
+ * <p>Rasters taken from the pool keep whatever they held before, so callers must overwrite every
+ * pixel.
+ */
+final class RasterPool {
+  private final long capacity;
+  private final Map<Long, Deque<Raster>> classes;
+  private volatile long offHeapThreshold;
+  private long held;
+  private long hits;
+  private long misses;
+
+  /**
+   * Creates an empty pool.
+   *
+   * @param capacity the most bytes of arrays to keep
+   */
+  RasterPool(long capacity) {
+    this.capacity = capacity;
+    this.classes = new HashMap<>();
+    this.offHeapThreshold = Long.MAX_VALUE;
+  }
+
+  /**
+   * Sets how big a raster has to be to be stored outside of the heap. Rasters that already
+   * exist keep their storage.
+   *
+   * @param bytes the smallest size in bytes of an off-heap raster, or {@code Long.MAX_VALUE} to
+   *              keep every raster on the heap
+   */
+  void setOffHeapThreshold(long bytes) {
+    this.offHeapThreshold = bytes;
+  }
+
+  /**
+   * Gets how big a raster has to be to be stored outside of the heap.
+   *
+   * @return the smallest size in bytes of an off-heap raster
+   */
+  long getOffHeapThreshold() {
+    return this.offHeapThreshold;
+  }
+
+  /**
+   * Takes a raster of the given length from the pool, or allocates one if the pool has none.
+   *
+   * @param length the number of pixels
+   * @return a raster of exactly that length, with unspecified contents
+   */
+  Raster take(int length) {
+    return this.take(length, this.isOffHeap(length));
+  }
+
+  /**
+   * Checks whether a new raster of the given length would be stored outside of the heap.
+   *
+   * @param length the number of pixels
+   * @return true if the raster is at least as big as the off-heap threshold
+   */
+  boolean isOffHeap(int length) {
+    return 4L * length >= this.offHeapThreshold;
+  }
+
+  /**
+   * Takes a raster of the given length and storage from the pool, or allocates one if the pool
+   * has none.
+   *
+   * @param length  the number of pixels
+   * @param offHeap whether the raster should be stored outside of the heap
+   * @return a raster of exactly that length, with unspecified contents
+   */
+  Raster take(int length, boolean offHeap) {
+    synchronized (this) {
+      Deque<Raster> free = this.classes.get(sizeClass(length, offHeap));
+      if (free != null && !free.isEmpty()) {
+        this.hits += 1;
+        this.held -= 4L * length;
+        return free.pop();
+      }
+      this.misses += 1;
+    }
+    return Raster.allocate(length, offHeap);
+  }
+
+  /**
+   * Gives a raster back to the pool. It is kept if there is room for it and dropped otherwise.
+   * The caller must not use the raster anymore.
+   *
+   * @param raster the raster to give back
+   */
+  synchronized void give(Raster raster) {
+    long bytes = 4L * raster.length();
+    if (raster.length() == 0 || !raster.isPoolable() || this.held + bytes > this.capacity) {
+      return;
+    }
+    this.classes.computeIfAbsent(sizeClass(raster.length(), raster.isOffHeap()),
+        key -> new ArrayDeque<>()).push(raster);
+    this.held += bytes;
+  }
+
+  /**
+   * Gets the key of the size class of rasters with the given length and storage.
+   *
+   * @param length  the number of pixels
+   * @param offHeap whether the storage is off the heap
+   * @return the key of the size class
+   */
+  private static long sizeClass(int length, boolean offHeap) {
+    return 2L * length + (offHeap ? 1 : 0);
+  }
+
+  /**
+   * Gets how many requests were served from the pool.
+   *
+   * @return the number of hits
+   */
+  synchronized long getHits() {
+    return this.hits;
+  }
+
+  /**
+   * Gets how many requests had to allocate a new raster.
+   *
+   * @return the number of misses
+   */
+  synchronized long getMisses() {
+    return this.misses;
+  }
+
+  /**
+   * Gets the bytes of rasters the pool holds right now.
+   *
+   * @return the bytes held
+   */
+  synchronized long getHeld() {
+    return this.held;
+  }
+}
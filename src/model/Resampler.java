@@ -0,0 +1,339 @@
+package model;
+
+import java.util.Arrays;
+
+import model.ImageUtilModel.ResizeFilter;
+
+/**
+ * Resizes images with a separable filter: a pass along the rows to the new width, followed by a
+ * pass down the columns to the new height. The weights of every output column and every output
+ * row are worked out once before either pass, as fixed point numbers summing to
+ * {@code 1 << 14}, so the passes themselves only multiply and add. The row pass keeps 8 bits of
+ * fraction for the column pass so rounding only happens once. Where a filter reaches past an
+ * edge of the image, the weights that are left are scaled back up to sum to one.
+ *
+ * <p>When shrinking, a filter is stretched to cover every source pixel that falls under an
+ * output pixel, so its cost grows with how much the image shrinks. To keep that in check, an
+ * image that shrinks by {@value #REDUCING_GAP} times or more along a side is first shrunk by a
+ * whole factor with a plain average of each block of pixels, leaving the filter less than
+ * {@code 2 * REDUCING_GAP} source pixels per output pixel to cover.
+ *
+ * <p>Both passes and the block average run on bands of rows in parallel. Every band gets its
+ * scratch rows before it starts, so nothing is allocated per pixel or per row.
+ */
+final class Resampler {
+  static final int REDUCING_GAP = 3;
+  private static final int BITS = 14;
+  private static final int FRACTION = 8;
+  private static final int MIN_ROWS = 16;
+
+  private Resampler() {
+  }
+
+  /**
+   * Resizes an image.
+   *
+   * @param source    the pixels of the image, packed as {@code 0xRRGGBB}
+   * @param width     the width of the image
+   * @param height    the height of the image
+   * @param into      the raster to write the resized image to, as long as the new size
+   * @param newWidth  the width to resize to, at least 1
+   * @param newHeight the height to resize to, at least 1
+   * @param filter    the filter to resize with
+   */
+  static void resize(Raster source, int width, int height, Raster into, int newWidth,
+                     int newHeight, ResizeFilter filter) {
+    int factorX = reduction(width, newWidth);
+    int factorY = reduction(height, newHeight);
+    Raster pixels = source;
+    int reducedWidth = width;
+    int reducedHeight = height;
+    if (factorX > 1 || factorY > 1) {
+      reducedWidth = (width + factorX - 1) / factorX;
+      reducedHeight = (height + factorY - 1) / factorY;
+      pixels = Raster.wrap(new int[reducedWidth * reducedHeight]);
+      reduce(source, width, height, pixels, factorX, factorY);
+    }
+
+    Weights columns = new Weights(filter, reducedWidth, newWidth,
+        (double) width / ((long) newWidth * factorX));
+    Weights rows = new Weights(filter, reducedHeight, newHeight,
+        (double) height / ((long) newHeight * factorY));
+    int[] between = new int[3 * newWidth * reducedHeight];
+    rowPass(pixels, reducedWidth, reducedHeight, columns, between);
+    columnPass(between, newWidth, rows, into);
+  }
+
+  /**
+   * Gets the whole factor to shrink a side by with a block average before filtering.
+   *
+   * @param length    the length of the side
+   * @param newLength the length to resize the side to
+   * @return the factor, 1 if the side isn't shrunk first
+   */
+  static int reduction(int length, int newLength) {
+    return (int) Math.max(1, length / ((long) newLength * REDUCING_GAP));
+  }
+
+  /**
+   * Shrinks an image by whole factors, replacing every block of pixels with its mean. The
+   * blocks along the right and bottom edges may be cut off by the edge, and are averaged over
+   * the pixels they have.
+   *
+   * @param source  the pixels of the image
+   * @param width   the width of the image
+   * @param height  the height of the image
+   * @param into    the raster to write the shrunk image to
+   * @param factorX the width of a block
+   * @param factorY the height of a block
+   */
+  static void reduce(Raster source, int width, int height, Raster into, int factorX,
+                     int factorY) {
+    int reducedWidth = (width + factorX - 1) / factorX;
+    int reducedHeight = (height + factorY - 1) / factorY;
+    ParallelBands.run(reducedHeight, MIN_ROWS, (from, to) -> {
+      int[] row = new int[width];
+      long[] sums = new long[3 * reducedWidth];
+      int[] out = new int[reducedWidth];
+      for (int y = from; y < to; y += 1) {
+        int top = y * factorY;
+        int bottom = Math.min(height, top + factorY);
+        Arrays.fill(sums, 0);
+        for (int sy = top; sy < bottom; sy += 1) {
+          source.get(sy * width, row, 0, width);
+          for (int x = 0, block = 0; x < width; block += 3) {
+            int end = Math.min(width, x + factorX);
+            int r = 0;
+            int g = 0;
+            int b = 0;
+            for (; x < end; x += 1) {
+              int rgb = row[x];
+              r += PPMUtilModel.red(rgb);
+              g += PPMUtilModel.green(rgb);
+              b += PPMUtilModel.blue(rgb);
+            }
+            sums[block] += r;
+            sums[block + 1] += g;
+            sums[block + 2] += b;
+          }
+        }
+        int rows = bottom - top;
+        for (int x = 0; x < reducedWidth; x += 1) {
+          long count = (long) rows * (Math.min(width, (x + 1) * factorX) - x * factorX);
+          out[x] = PPMUtilModel.pack(mean(sums[3 * x], count), mean(sums[3 * x + 1], count),
+              mean(sums[3 * x + 2], count));
+        }
+        into.set(y * reducedWidth, out, 0, reducedWidth);
+      }
+    });
+  }
+
+  /**
+   * Filters every row of an image to the new width, keeping 8 bits of fraction.
+   *
+   * @param source  the pixels of the image
+   * @param width   the width of the image
+   * @param height  the height of the image
+   * @param columns the weights of every output column
+   * @param into    gets the red, green and blue of every output pixel of every row, in order
+   */
+  private static void rowPass(Raster source, int width, int height, Weights columns,
+                              int[] into) {
+    int newWidth = columns.start.length;
+    int taps = columns.taps;
+    int[] start = columns.start;
+    int[] count = columns.count;
+    int[] weights = columns.values;
+    int half = 1 << (BITS - FRACTION - 1);
+    ParallelBands.run(height, MIN_ROWS, (from, to) -> {
+      int[] row = new int[width];
+      for (int y = from; y < to; y += 1) {
+        source.get(y * width, row, 0, width);
+        int base = 3 * newWidth * y;
+        for (int x = 0; x < newWidth; x += 1) {
+          int first = start[x];
+          int w = x * taps;
+          int r = half;
+          int g = half;
+          int b = half;
+          for (int t = 0; t < count[x]; t += 1) {
+            int rgb = row[first + t];
+            int weight = weights[w + t];
+            r += weight * PPMUtilModel.red(rgb);
+            g += weight * PPMUtilModel.green(rgb);
+            b += weight * PPMUtilModel.blue(rgb);
+          }
+          into[base + 3 * x] = r >> (BITS - FRACTION);
+          into[base + 3 * x + 1] = g >> (BITS - FRACTION);
+          into[base + 3 * x + 2] = b >> (BITS - FRACTION);
+        }
+      }
+    });
+  }
+
+  /**
+   * Filters every column of the output of the row pass to the new height. Each output row is
+   * summed a whole source row at a time, so the rows of the row pass are read in order.
+   *
+   * @param source   the output of the row pass
+   * @param newWidth the width of the resized image
+   * @param rows     the weights of every output row
+   * @param into     the raster to write the resized image to
+   */
+  private static void columnPass(int[] source, int newWidth, Weights rows, Raster into) {
+    int newHeight = rows.start.length;
+    int stride = 3 * newWidth;
+    long half = 1L << (BITS + FRACTION - 1);
+    ParallelBands.run(newHeight, MIN_ROWS, (from, to) -> {
+      long[] sums = new long[stride];
+      int[] out = new int[newWidth];
+      for (int y = from; y < to; y += 1) {
+        Arrays.fill(sums, half);
+        int w = y * rows.taps;
+        for (int t = 0; t < rows.count[y]; t += 1) {
+          long weight = rows.values[w + t];
+          int base = (rows.start[y] + t) * stride;
+          for (int i = 0; i < stride; i += 1) {
+            sums[i] += weight * source[base + i];
+          }
+        }
+        for (int x = 0; x < newWidth; x += 1) {
+          out[x] = PPMUtilModel.pack(clamp(sums[3 * x]), clamp(sums[3 * x + 1]),
+              clamp(sums[3 * x + 2]));
+        }
+        into.set(y * newWidth, out, 0, newWidth);
+      }
+    });
+  }
+
+  /**
+   * Takes a channel out of fixed point and clamps it to a valid value.
+   *
+   * @param sum the channel, with 22 bits of fraction and a half already added
+   * @return the channel, from 0 to 255
+   */
+  private static int clamp(long sum) {
+    return (int) Math.max(0, Math.min(255, sum >> (BITS + FRACTION)));
+  }
+
+  /**
+   * Divides a sum by a count, rounding to nearest.
+   *
+   * @param sum   the sum of a channel
+   * @param count the number of pixels summed, at least 1
+   * @return the mean of the channel
+   */
+  private static int mean(long sum, long count) {
+    return (int) ((2 * sum + count) / (2 * count));
+  }
+
+  /**
+   * Gets how much a filter weighs a source pixel at the given distance from the center of an
+   * output pixel.
+   *
+   * @param filter   the filter
+   * @param distance the distance, in source pixels scaled to the filter
+   * @return the weight, not yet normalized
+   */
+  static double kernel(ResizeFilter filter, double distance) {
+    switch (filter) {
+      case Box:
+        return distance >= -0.5 && distance < 0.5 ? 1 : 0;
+      case Bilinear:
+        return Math.max(0, 1 - Math.abs(distance));
+      case Lanczos:
+        if (distance == 0) {
+          return 1;
+        }
+        if (Math.abs(distance) >= 3) {
+          return 0;
+        }
+        double x = Math.PI * distance;
+        return 3 * Math.sin(x) * Math.sin(x / 3) / (x * x);
+      default:
+        throw new IllegalArgumentException("Unknown filter.");
+    }
+  }
+
+  /**
+   * Gets how far a filter reaches on either side of its center, in source pixels when the
+   * image isn't shrunk.
+   *
+   * @param filter the filter
+   * @return the reach of the filter
+   */
+  static double support(ResizeFilter filter) {
+    switch (filter) {
+      case Box:
+        return 0.5;
+      case Bilinear:
+        return 1;
+      case Lanczos:
+        return 3;
+      default:
+        throw new IllegalArgumentException("Unknown filter.");
+    }
+  }
+
+  /**
+   * The weights of the source pixels under every output pixel along one side of an image. The
+   * weights of output pixel {@code i} are {@code values[i * taps]} onward, {@code count[i]} of
+   * them, for the source pixels from {@code start[i]}.
+   */
+  static final class Weights {
+    final int[] start;
+    final int[] count;
+    final int[] values;
+    final int taps;
+
+    /**
+     * Works out the weights of a side.
+     *
+     * @param filter    the filter to resize with
+     * @param length    the length of the side in the source
+     * @param newLength the length of the side in the output
+     * @param scale     how many source pixels an output pixel covers
+     */
+    Weights(ResizeFilter filter, int length, int newLength, double scale) {
+      double stretch = Math.max(1, scale);
+      double reach = support(filter) * stretch;
+      this.taps = Math.min(length, (int) Math.ceil(reach) * 2 + 1);
+      this.start = new int[newLength];
+      this.count = new int[newLength];
+      this.values = new int[newLength * this.taps];
+      double[] exact = new double[this.taps];
+      for (int i = 0; i < newLength; i += 1) {
+        double center = (i + 0.5) * scale;
+        int first = Math.max(0, (int) Math.floor(center - reach));
+        int last = Math.min(length, (int) Math.ceil(center + reach));
+        int n = Math.min(this.taps, last - first);
+        double total = 0;
+        for (int t = 0; t < n; t += 1) {
+          exact[t] = kernel(filter, (first + t + 0.5 - center) / stretch);
+          total += exact[t];
+        }
+        if (total == 0) {
+          // the filter missed every pixel, so take the nearest one
+          first = Math.max(0, Math.min(length - 1, (int) center));
+          n = 1;
+          exact[0] = 1;
+          total = 1;
+        }
+        int sum = 0;
+        int largest = 0;
+        for (int t = 0; t < n; t += 1) {
+          int weight = (int) Math.round(exact[t] / total * (1 << BITS));
+          this.values[i * this.taps + t] = weight;
+          sum += weight;
+          if (weight > this.values[i * this.taps + largest]) {
+            largest = t;
+          }
+        }
+        // whatever rounding lost or gained goes to the heaviest pixel
+        this.values[i * this.taps + largest] += (1 << BITS) - sum;
+        this.start[i] = first;
+        this.count[i] = n;
+      }
+    }
+  }
+}
@@ -0,0 +1,71 @@
+package model;
+
+import model.ImageUtilModel.Grayscale;
+
+/**
+ * Finds edges with the Sobel operator on the luma of an image, in a single read of the image.
+ * Luma is computed as rows are read, into a rolling window of three rows, and the gradient
+ * magnitude of the middle row goes straight into one byte per pixel. No gray copy of the image
+ * is made. Rows past an edge of the image are copies of the edge row, and so are columns.
+ *
+ * <p>Rows are split into bands that run in parallel, each with its own window.
+ */
+final class Sobel {
+  private static final int MIN_ROWS = 32;
+
+  private Sobel() {
+  }
+
+  /**
+   * Computes the gradient magnitude of the luma of every pixel, capped at 255.
+   *
+   * @param source the pixels of the image, packed as {@code 0xRRGGBB}
+   * @param width  the width of the image
+   * @param height the height of the image
+   * @return the magnitude of every pixel, row-major
+   */
+  static byte[] magnitudes(Raster source, int width, int height) {
+    byte[] levels = new byte[width * height];
+    ParallelBands.run(height, MIN_ROWS, (from, to) -> {
+      int[] pixels = new int[width];
+      int[][] window = new int[3][width];
+      lumaRow(source, Math.max(0, from - 1), pixels, window[0], width);
+      lumaRow(source, from, pixels, window[1], width);
+      for (int y = from; y < to; y += 1) {
+        int[] above = window[(y - from) % 3];
+        int[] middle = window[(y - from + 1) % 3];
+        int[] below = window[(y - from + 2) % 3];
+        lumaRow(source, Math.min(height - 1, y + 1), pixels, below, width);
+
+        int base = y * width;
+        for (int x = 0; x < width; x += 1) {
+          int left = Math.max(0, x - 1);
+          int right = Math.min(width - 1, x + 1);
+          int gx = (above[right] + 2 * middle[right] + below[right])
+              - (above[left] + 2 * middle[left] + below[left]);
+          int gy = (below[left] + 2 * below[x] + below[right])
+              - (above[left] + 2 * above[x] + above[right]);
+          int magnitude = (int) Math.round(Math.sqrt(gx * gx + gy * gy));
+          levels[base + x] = (byte) Math.min(255, magnitude);
+        }
+      }
+    });
+    return levels;
+  }
+
+  /**
+   * Reads a row of the image and computes its luma.
+   *
+   * @param source the pixels of the image
+   * @param y      the row to read
+   * @param pixels scratch for the pixels of the row
+   * @param luma   gets the luma of every pixel of the row
+   * @param width  the width of the image
+   */
+  private static void lumaRow(Raster source, int y, int[] pixels, int[] luma, int width) {
+    source.get(y * width, pixels, 0, width);
+    for (int x = 0; x < width; x += 1) {
+      luma[x] = PPMUtilModel.grayValue(Grayscale.Luma, pixels[x]);
+    }
+  }
+}
@@ -0,0 +1,124 @@
+package model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads and writes the pixels of images that are moved out of memory. The format is as compact
+ * as the pixels allow: three bytes per pixel, red, green, then blue, row-major, with no header,
+ * since the record that owns the file already knows the dimensions. Files are read back through
+ * memory mapping, one chunk at a time.
+ *
+ * <p>The time spent reading and writing is measured, so the cost of spilling an image can be
+ * compared with the cost of computing it again.
+ */
+final class SpillFile {
+  private static final int CHUNK_PIXELS = 1 << 20;
+  private static volatile double writeNanosPerByte = 5;
+  private static volatile double readNanosPerByte = 2;
+
+  /**
+   * This class only has static methods.
+   */
+  private SpillFile() {
+  }
+
+  /**
+   * Writes the pixels to the given file, replacing its contents.
+   *
+   * @param file   the file to write
+   * @param pixels the pixels, each packed as {@code 0xRRGGBB}
+   * @throws IOException if the file can't be written
+   */
+  static void write(Path file, Raster pixels) throws IOException {
+    long begin = System.nanoTime();
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE,
+            StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      ByteBuffer buffer = ByteBuffer.allocate(3 * Math.min(CHUNK_PIXELS, pixels.length()));
+      int[] run = new int[Math.min(CHUNK_PIXELS, pixels.length())];
+      for (int start = 0; start < pixels.length(); start += CHUNK_PIXELS) {
+        int end = Math.min(pixels.length(), start + CHUNK_PIXELS);
+        pixels.get(start, run, 0, end - start);
+        buffer.clear();
+        for (int i = 0; i < end - start; i += 1) {
+          int rgb = run[i];
+          buffer.put((byte) (rgb >> 16)).put((byte) (rgb >> 8)).put((byte) rgb);
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+          channel.write(buffer);
+        }
+      }
+    }
+    writeNanosPerByte = average(writeNanosPerByte, System.nanoTime() - begin,
+        3L * pixels.length());
+  }
+
+  /**
+   * Reads pixels back from a file written by {@link #write(Path, Raster)}.
+   *
+   * @param file   the file to read
+   * @param pixels the raster to read into, as long as the number of pixels in the file
+   * @throws IOException if the file can't be read or is too short
+   */
+  static void read(Path file, Raster pixels) throws IOException {
+    long begin = System.nanoTime();
+    int count = pixels.length();
+    int[] run = new int[Math.min(CHUNK_PIXELS, count)];
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      if (channel.size() < 3L * count) {
+        throw new IOException("spill file " + file + " is truncated");
+      }
+      for (int start = 0; start < count; start += CHUNK_PIXELS) {
+        int end = Math.min(count, start + CHUNK_PIXELS);
+        MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, 3L * start,
+            3L * (end - start));
+        for (int i = 0; i < end - start; i += 1) {
+          run[i] = ((chunk.get() & 0xFF) << 16) | ((chunk.get() & 0xFF) << 8)
+                  | (chunk.get() & 0xFF);
+        }
+        pixels.set(start, run, 0, end - start);
+      }
+    }
+    readNanosPerByte = average(readNanosPerByte, System.nanoTime() - begin, 3L * count);
+  }
+
+  /**
+   * Estimates how long writing an image of the given size would take.
+   *
+   * @param pixels the number of pixels of the image
+   * @return the estimated time in nanoseconds
+   */
+  static long estimateWrite(long pixels) {
+    return (long) (writeNanosPerByte * 3 * pixels);
+  }
+
+  /**
+   * Estimates how long reading an image of the given size would take.
+   *
+   * @param pixels the number of pixels of the image
+   * @return the estimated time in nanoseconds
+   */
+  static long estimateRead(long pixels) {
+    return (long) (readNanosPerByte * 3 * pixels);
+  }
+
+  /**
+   * Folds a new measurement into a running average of the time per byte.
+   *
+   * @param average the running average
+   * @param nanos   the time measured
+   * @param bytes   the bytes transferred in that time
+   * @return the new average
+   */
+  private static double average(double average, long nanos, long bytes) {
+    if (bytes == 0) {
+      return average;
+    }
+    return 0.75 * average + 0.25 * ((double) nanos / bytes);
+  }
+}
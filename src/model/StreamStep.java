@@ -0,0 +1,102 @@
+package model;
+
+import model.ImageUtilModel.Grayscale;
+
+/**
+ * One step of a chain of operations that is streamed from one PPM file to another by
+ * {@link ImageUtilModel#streamImage(String, java.util.List, String)}. Only operations that
+ * compute a row of the result from a single row of the source can be streamed: grayscale
+ * images, brightening, and flips.
+ */
+public final class StreamStep {
+  /**
+   * The operations a step can do.
+   */
+  enum Kind { Grayscale, Brighten, FlipHorizontal, FlipVertical }
+
+  private final Kind kind;
+  private final Grayscale component;
+  private final int increment;
+
+  /**
+   * Creates a step.
+   *
+   * @param kind      the operation of the step
+   * @param component the component of a grayscale step, null otherwise
+   * @param increment the increment of a brighten step, 0 otherwise
+   */
+  private StreamStep(Kind kind, Grayscale component, int increment) {
+    this.kind = kind;
+    this.component = component;
+    this.increment = increment;
+  }
+
+  /**
+   * Creates a step that makes a grayscale image out of one component.
+   *
+   * @param g the component to use
+   * @return the step
+   * @throws IllegalArgumentException if the component is null
+   */
+  public static StreamStep grayscale(Grayscale g) throws IllegalArgumentException {
+    if (g == null) {
+      throw new IllegalArgumentException("Invalid component");
+    }
+    return new StreamStep(Kind.Grayscale, g, 0);
+  }
+
+  /**
+   * Creates a step that brightens every pixel.
+   *
+   * @param increment the amount to add to every channel, negative to darken
+   * @return the step
+   */
+  public static StreamStep brighten(int increment) {
+    return new StreamStep(Kind.Brighten, null, increment);
+  }
+
+  /**
+   * Creates a step that flips the image horizontally.
+   *
+   * @return the step
+   */
+  public static StreamStep flipHorizontal() {
+    return new StreamStep(Kind.FlipHorizontal, null, 0);
+  }
+
+  /**
+   * Creates a step that flips the image vertically.
+   *
+   * @return the step
+   */
+  public static StreamStep flipVertical() {
+    return new StreamStep(Kind.FlipVertical, null, 0);
+  }
+
+  /**
+   * Gets the operation of this step.
+   *
+   * @return the kind of step
+   */
+  Kind getKind() {
+    return this.kind;
+  }
+
+  /**
+   * Gets the component a grayscale step uses.
+   *
+   * @return the component, or null if this is not a grayscale step
+   */
+  Grayscale getComponent() {
+    return this.component;
+  }
+
+  /**
+   * Gets the increment of a brighten step.
+   *
+   * @return the increment, or 0 if this is not a brighten step
+   */
+  int getIncrement() {
+    return this.increment;
+  }
+}
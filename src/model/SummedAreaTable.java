@@ -0,0 +1,160 @@
+package model;
+
+import java.util.function.IntUnaryOperator;
+
+/**
+ * A summed-area table, or integral image, of one or more channels of an image. Entry
+ * {@code (x, y)} holds the sum of the channel over every pixel above and to the left of it, so
+ * the sum over any rectangle is found from its four corners in constant time, whatever its
+ * size. The table can also hold the sums of the squares of the channel, which give the variance
+ * of any rectangle the same way.
+ *
+ * <p>The table is built in one pass per channel, split in two halves that each run in parallel:
+ * a prefix sum along every row, on bands of rows, and then a prefix sum down every column, on
+ * bands of columns walked a row at a time. Sums are longs, which don't overflow for any image
+ * that fits in memory.
+ */
+final class SummedAreaTable {
+  private static final int MIN_ROWS = 16;
+  private static final int MIN_COLUMNS = 256;
+
+  private final int width;
+  private final int height;
+  private final long[][] sums;
+  private final long[][] squares;
+
+  /**
+   * Builds the table of the given channels of an image.
+   *
+   * @param pixels      the pixels of the image, each packed as {@code 0xRRGGBB}
+   * @param width       the width of the image
+   * @param height      the height of the image
+   * @param withSquares true to also sum the squares of the channels
+   * @param channels    computes the value of each channel from a pixel
+   */
+  SummedAreaTable(Raster pixels, int width, int height, boolean withSquares,
+                  IntUnaryOperator... channels) {
+    this.width = width;
+    this.height = height;
+    int stride = width + 1;
+    int length = stride * (height + 1);
+    this.sums = new long[channels.length][length];
+    this.squares = withSquares ? new long[channels.length][length] : null;
+
+    ParallelBands.run(height, MIN_ROWS, (from, to) -> {
+      int[] row = new int[width];
+      for (int y = from; y < to; y += 1) {
+        pixels.get(y * width, row, 0, width);
+        int base = (y + 1) * stride + 1;
+        for (int c = 0; c < channels.length; c += 1) {
+          IntUnaryOperator channel = channels[c];
+          long[] sum = this.sums[c];
+          long running = 0;
+          long runningSquares = 0;
+          for (int x = 0; x < width; x += 1) {
+            long value = channel.applyAsInt(row[x]);
+            running += value;
+            sum[base + x] = running;
+            if (withSquares) {
+              runningSquares += value * value;
+              this.squares[c][base + x] = runningSquares;
+            }
+          }
+        }
+      }
+    });
+
+    ParallelBands.run(width, MIN_COLUMNS, (from, to) -> {
+      for (int y = 2; y <= height; y += 1) {
+        int base = y * stride + 1;
+        for (int c = 0; c < channels.length; c += 1) {
+          accumulate(this.sums[c], base, stride, from, to);
+          if (withSquares) {
+            accumulate(this.squares[c], base, stride, from, to);
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * Adds the row above to a band of a row, continuing the prefix sums down the columns.
+   *
+   * @param table  the table
+   * @param base   the index of the first column of the row
+   * @param stride the number of entries in a row of the table
+   * @param from   the first column of the band
+   * @param to     one past the last column of the band
+   */
+  private static void accumulate(long[] table, int base, int stride, int from, int to) {
+    for (int x = from; x < to; x += 1) {
+      table[base + x] += table[base - stride + x];
+    }
+  }
+
+  /**
+   * Gets the width of the image.
+   *
+   * @return the width of the image
+   */
+  int width() {
+    return this.width;
+  }
+
+  /**
+   * Gets the height of the image.
+   *
+   * @return the height of the image
+   */
+  int height() {
+    return this.height;
+  }
+
+  /**
+   * Sums a channel over a rectangle of pixels.
+   *
+   * @param channel the position of the channel among those the table was built from
+   * @param x0      the first column of the rectangle
+   * @param y0      the first row of the rectangle
+   * @param x1      one past the last column of the rectangle
+   * @param y1      one past the last row of the rectangle
+   * @return the sum of the channel over the rectangle
+   */
+  long sum(int channel, int x0, int y0, int x1, int y1) {
+    return corners(this.sums[channel], x0, y0, x1, y1);
+  }
+
+  /**
+   * Sums the squares of a channel over a rectangle of pixels.
+   *
+   * @param channel the position of the channel among those the table was built from
+   * @param x0      the first column of the rectangle
+   * @param y0      the first row of the rectangle
+   * @param x1      one past the last column of the rectangle
+   * @param y1      one past the last row of the rectangle
+   * @return the sum of the squares of the channel over the rectangle
+   * @throws IllegalStateException if the table was built without squares
+   */
+  long sumOfSquares(int channel, int x0, int y0, int x1, int y1) throws IllegalStateException {
+    if (this.squares == null) {
+      throw new IllegalStateException("The table has no squares.");
+    }
+    return corners(this.squares[channel], x0, y0, x1, y1);
+  }
+
+  /**
+   * Finds the sum over a rectangle from the entries at its corners.
+   *
+   * @param table the table of a channel
+   * @param x0    the first column of the rectangle
+   * @param y0    the first row of the rectangle
+   * @param x1    one past the last column of the rectangle
+   * @param y1    one past the last row of the rectangle
+   * @return the sum over the rectangle
+   */
+  private long corners(long[] table, int x0, int y0, int x1, int y1) {
+    int stride = this.width + 1;
+    return table[y1 * stride + x1] - table[y0 * stride + x1] - table[y1 * stride + x0]
+        + table[y0 * stride + x0];
+  }
+}
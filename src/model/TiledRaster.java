@@ -0,0 +1,437 @@
+package model;
+
+import java.util.Arrays;
+
+/**
+ * A raster stored as square tiles of {@value #TILE} by {@value #TILE} pixels instead of one row
+ * after another. Each tile is its own row-major array; tiles on the right and bottom edges are
+ * only as big as the part of the image they cover. Pixels that are close in either direction
+ * are close in memory, so operations that read along columns or neighborhoods stay in cache,
+ * and operations can walk the image one tile at a time.
+ *
+ * <p>Tiles are also the unit of copying: a copy shares every tile with the original, and either
+ * raster copies a tile the first time it sets a pixel in it.
+ *
+ * <p>A tile whose pixels all have the same color can be stored as just that color, which makes
+ * big constant regions such as white margins nearly free. Such a uniform tile gets its own
+ * array again the first time a pixel in it is set.
+ *
+ * <p>The linear methods of {@link Raster} still address pixels in row-major order, so a tiled
+ * raster can be used anywhere a linear one can. Converting between the two layouts copies whole
+ * runs of a row at a time.
+ */
+final class TiledRaster extends Raster {
+  static final int TILE = 64;
+  private static final int SHIFT = 6;
+  private static final int MASK = TILE - 1;
+
+  private final int width;
+  private final int height;
+  private final int tilesAcross;
+  private final int[][] tiles;
+  private final int[] uniform;
+  private final boolean[] shared;
+
+  /**
+   * Creates a black tiled raster.
+   *
+   * @param width  the width of the image in pixels
+   * @param height the height of the image in pixels
+   */
+  TiledRaster(int width, int height) {
+    this(width, height, new int[tileCount(width, height)][], new int[tileCount(width, height)]);
+    for (int t = 0; t < this.tiles.length; t += 1) {
+      this.tiles[t] = new int[this.tileWidth(t) * this.tileHeight(t)];
+    }
+  }
+
+  /**
+   * Creates a tiled raster over the given tiles.
+   *
+   * @param width  the width of the image in pixels
+   * @param height the height of the image in pixels
+   * @param tiles   the tiles, row by row, null for uniform tiles
+   * @param uniform the colors of the uniform tiles
+   */
+  private TiledRaster(int width, int height, int[][] tiles, int[] uniform) {
+    this.width = width;
+    this.height = height;
+    this.tilesAcross = (width + MASK) >> SHIFT;
+    this.tiles = tiles;
+    this.uniform = uniform;
+    this.shared = new boolean[tiles.length];
+  }
+
+  /**
+   * Gets the number of tiles an image of the given size is split into.
+   *
+   * @param width  the width of the image in pixels
+   * @param height the height of the image in pixels
+   * @return the number of tiles
+   */
+  private static int tileCount(int width, int height) {
+    return ((width + MASK) >> SHIFT) * ((height + MASK) >> SHIFT);
+  }
+
+  /**
+   * Converts a linear raster to the tiled layout.
+   *
+   * @param linear the raster to convert, row-major
+   * @param width  the width of the image in pixels
+   * @param height the height of the image in pixels
+   * @return a tiled raster with the same pixels
+   */
+  static TiledRaster fromLinear(Raster linear, int width, int height) {
+    TiledRaster tiled = new TiledRaster(width, height);
+    for (int t = 0; t < tiled.tiles.length; t += 1) {
+      int x0 = tiled.tileX(t);
+      int y0 = tiled.tileY(t);
+      int w = tiled.tileWidth(t);
+      int[] tile = tiled.tiles[t];
+      for (int row = 0; row < tiled.tileHeight(t); row += 1) {
+        linear.get((y0 + row) * width + x0, tile, row * w, w);
+      }
+    }
+    return tiled;
+  }
+
+  /**
+   * Counts the tiles of a linear raster whose pixels all have the same color, without
+   * converting it. Each tile is abandoned at its first pixel that differs.
+   *
+   * @param linear the raster to look at, row-major
+   * @param width  the width of the image in pixels
+   * @param height the height of the image in pixels
+   * @return the number of tiles the raster would have, and the number of them that are uniform
+   */
+  static int[] countUniform(Raster linear, int width, int height) {
+    int across = (width + MASK) >> SHIFT;
+    int count = tileCount(width, height);
+    int uniform = 0;
+    int[] row = new int[TILE];
+    for (int t = 0; t < count; t += 1) {
+      int x0 = (t % across) << SHIFT;
+      int y0 = (t / across) << SHIFT;
+      int w = Math.min(TILE, width - x0);
+      int h = Math.min(TILE, height - y0);
+      int first = linear.get(y0 * width + x0);
+      boolean same = true;
+      for (int y = y0; same && y < y0 + h; y += 1) {
+        linear.get(y * width + x0, row, 0, w);
+        for (int x = 0; same && x < w; x += 1) {
+          same = row[x] == first;
+        }
+      }
+      if (same) {
+        uniform += 1;
+      }
+    }
+    return new int[] {count, uniform};
+  }
+
+  /**
+   * Converts this raster to the linear layout.
+   *
+   * @param into the raster to copy the pixels into, row-major, with as many pixels as this one
+   * @return the given raster
+   */
+  Raster toLinear(Raster into) {
+    for (int t = 0; t < this.tiles.length; t += 1) {
+      int x0 = this.tileX(t);
+      int y0 = this.tileY(t);
+      int w = this.tileWidth(t);
+      int[] tile = this.tiles[t];
+      int step = w;
+      if (tile == null) {
+        tile = new int[w];
+        Arrays.fill(tile, this.uniform[t]);
+        step = 0;
+      }
+      for (int row = 0; row < this.tileHeight(t); row += 1) {
+        into.set((y0 + row) * this.width + x0, tile, row * step, w);
+      }
+    }
+    return into;
+  }
+
+  /**
+   * Stores every tile whose pixels all have the same color as just that color.
+   *
+   * @return the number of uniform tiles afterwards
+   */
+  int compactUniform() {
+    int count = 0;
+    for (int t = 0; t < this.tiles.length; t += 1) {
+      int[] tile = this.tiles[t];
+      if (tile != null && tile.length > 0) {
+        int first = tile[0];
+        int i = 1;
+        while (i < tile.length && tile[i] == first) {
+          i += 1;
+        }
+        if (i == tile.length) {
+          this.tiles[t] = null;
+          this.uniform[t] = first;
+          this.shared[t] = false;
+        }
+      }
+      if (this.tiles[t] == null) {
+        count += 1;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Checks whether a tile is stored as a single color.
+   *
+   * @param t the index of the tile
+   * @return true if every pixel of the tile has the color {@link #uniformColor(int)}
+   */
+  boolean isUniform(int t) {
+    return this.tiles[t] == null;
+  }
+
+  /**
+   * Gets the color of a uniform tile.
+   *
+   * @param t the index of a uniform tile
+   * @return the color of every pixel of the tile, packed as {@code 0xRRGGBB}
+   */
+  int uniformColor(int t) {
+    return this.uniform[t];
+  }
+
+  /**
+   * Makes a tile uniform, setting every pixel of it to the given color.
+   *
+   * @param t   the index of the tile
+   * @param rgb the color packed as {@code 0xRRGGBB}
+   */
+  void setUniform(int t, int rgb) {
+    this.tiles[t] = null;
+    this.uniform[t] = rgb;
+    this.shared[t] = false;
+  }
+
+  /**
+   * Gets the width of the image.
+   *
+   * @return the width in pixels
+   */
+  int width() {
+    return this.width;
+  }
+
+  /**
+   * Gets the height of the image.
+   *
+   * @return the height in pixels
+   */
+  int height() {
+    return this.height;
+  }
+
+  /**
+   * Gets the number of tiles.
+   *
+   * @return the number of tiles, counted row by row
+   */
+  int tileCount() {
+    return this.tiles.length;
+  }
+
+  /**
+   * Gets the column of the top left pixel of a tile.
+   *
+   * @param t the index of the tile
+   * @return the x coordinate where the tile starts
+   */
+  int tileX(int t) {
+    return (t % this.tilesAcross) << SHIFT;
+  }
+
+  /**
+   * Gets the row of the top left pixel of a tile.
+   *
+   * @param t the index of the tile
+   * @return the y coordinate where the tile starts
+   */
+  int tileY(int t) {
+    return (t / this.tilesAcross) << SHIFT;
+  }
+
+  /**
+   * Gets the width of a tile, which is less than {@value #TILE} on the right edge.
+   *
+   * @param t the index of the tile
+   * @return the width of the tile in pixels
+   */
+  int tileWidth(int t) {
+    return Math.min(TILE, this.width - this.tileX(t));
+  }
+
+  /**
+   * Gets the height of a tile, which is less than {@value #TILE} on the bottom edge.
+   *
+   * @param t the index of the tile
+   * @return the height of the tile in pixels
+   */
+  int tileHeight(int t) {
+    return Math.min(TILE, this.height - this.tileY(t));
+  }
+
+  /**
+   * Gets the pixels of a tile for reading. The array must not be modified.
+   *
+   * @param t the index of the tile, which must not be uniform
+   * @return the pixels of the tile, row-major
+   */
+  int[] tile(int t) {
+    return this.tiles[t];
+  }
+
+  /**
+   * Gets the pixels of a tile for writing, copying the tile first if it is shared with a copy
+   * and giving it its own array if it is uniform.
+   *
+   * @param t the index of the tile
+   * @return the pixels of the tile, row-major
+   */
+  int[] writableTile(int t) {
+    if (this.tiles[t] == null) {
+      int[] tile = new int[this.tileWidth(t) * this.tileHeight(t)];
+      Arrays.fill(tile, this.uniform[t]);
+      this.tiles[t] = tile;
+      this.shared[t] = false;
+    } else if (this.shared[t]) {
+      this.tiles[t] = this.tiles[t].clone();
+      this.shared[t] = false;
+    }
+    return this.tiles[t];
+  }
+
+  /**
+   * Gets one pixel by its coordinates.
+   *
+   * @param x the column of the pixel
+   * @param y the row of the pixel
+   * @return the pixel packed as {@code 0xRRGGBB}
+   */
+  int get(int x, int y) {
+    int t = (y >> SHIFT) * this.tilesAcross + (x >> SHIFT);
+    int[] tile = this.tiles[t];
+    if (tile == null) {
+      return this.uniform[t];
+    }
+    return tile[(y & MASK) * this.tileWidth(t) + (x & MASK)];
+  }
+
+  /**
+   * Sets one pixel by its coordinates.
+   *
+   * @param x   the column of the pixel
+   * @param y   the row of the pixel
+   * @param rgb the pixel packed as {@code 0xRRGGBB}
+   */
+  void set(int x, int y, int rgb) {
+    int t = (y >> SHIFT) * this.tilesAcross + (x >> SHIFT);
+    this.writableTile(t)[(y & MASK) * this.tileWidth(t) + (x & MASK)] = rgb;
+  }
+
+  @Override
+  int length() {
+    return this.width * this.height;
+  }
+
+  @Override
+  boolean isOffHeap() {
+    return false;
+  }
+
+  @Override
+  boolean isTiled() {
+    return true;
+  }
+
+  @Override
+  long bytes() {
+    long total = 0;
+    for (int[] tile : this.tiles) {
+      total += tile == null ? 4 : 4L * tile.length;
+    }
+    return total;
+  }
+
+  @Override
+  int get(int index) {
+    return this.get(index % this.width, index / this.width);
+  }
+
+  @Override
+  void set(int index, int rgb) {
+    this.set(index % this.width, index / this.width, rgb);
+  }
+
+  @Override
+  void get(int index, int[] dest, int offset, int count) {
+    while (count > 0) {
+      int x = index % this.width;
+      int y = index / this.width;
+      int t = (y >> SHIFT) * this.tilesAcross + (x >> SHIFT);
+      int run = Math.min(count, Math.min(TILE - (x & MASK), this.width - x));
+      if (this.tiles[t] == null) {
+        Arrays.fill(dest, offset, offset + run, this.uniform[t]);
+      } else {
+        System.arraycopy(this.tiles[t], (y & MASK) * this.tileWidth(t) + (x & MASK), dest,
+            offset, run);
+      }
+      index += run;
+      offset += run;
+      count -= run;
+    }
+  }
+
+  @Override
+  void set(int index, int[] src, int offset, int count) {
+    while (count > 0) {
+      int x = index % this.width;
+      int y = index / this.width;
+      int t = (y >> SHIFT) * this.tilesAcross + (x >> SHIFT);
+      int run = Math.min(count, Math.min(TILE - (x & MASK), this.width - x));
+      System.arraycopy(src, offset, this.writableTile(t),
+          (y & MASK) * this.tileWidth(t) + (x & MASK), run);
+      index += run;
+      offset += run;
+      count -= run;
+    }
+  }
+
+  @Override
+  void copyTo(int index, Raster dest, int destIndex, int count) {
+    int[] run = new int[Math.min(count, TILE)];
+    while (count > 0) {
+      int length = Math.min(count, run.length);
+      this.get(index, run, 0, length);
+      dest.set(destIndex, run, 0, length);
+      index += length;
+      destIndex += length;
+      count -= length;
+    }
+  }
+
+  /**
+   * Creates a copy that shares every tile with this raster until one of them sets a pixel in
+   * it.
+   *
+   * @return the copy
+   */
+  @Override
+  Raster copy() {
+    TiledRaster copy = new TiledRaster(this.width, this.height,
+        Arrays.copyOf(this.tiles, this.tiles.length), this.uniform.clone());
+    Arrays.fill(this.shared, true);
+    Arrays.fill(copy.shared, true);
+    return copy;
+  }
+}
@@ -0,0 +1,417 @@
+package model;
+
+import java.util.Arrays;
+
+import model.ImageUtilModel.Sampling;
+
+/**
+ * Warps images by affine maps, such as turns by any angle, shears and scales. Every pixel of
+ * the result is sampled from the source at the point the inverse of the map takes its center
+ * to, by bilinear or bicubic interpolation. Parts of the result that come from outside the
+ * source are black, and pixels near the edge of the source blend into black.
+ *
+ * <p>The result is made a tile of {@value #TILE} by {@value #TILE} pixels at a time. The part
+ * of the source a tile needs, its footprint, is found once from the corners of the tile and
+ * copied into scratch with a border of black around the source, so sampling never checks
+ * whether it has left the source. Within a row of a tile, the point in the source moves by the
+ * same step from pixel to pixel, so it is found once at the start of the row and then stepped
+ * in 16.16 fixed point, with no matrix multiply per pixel. A tile whose footprint would be too
+ * large, which happens when the map shrinks the image a lot, is split into smaller tiles, and a
+ * tile that misses the source entirely is filled with black without sampling.
+ *
+ * <p>The rows of tiles are split into bands that run in parallel, each with scratch of its own.
+ */
+final class Warp {
+  static final int TILE = 64;
+  private static final int BITS = 16;
+  private static final int PHASES = 8;
+  private static final int CUBIC_BITS = 10;
+  private static final int MAX_FOOTPRINT = 1 << 20;
+  private static final int MIN_TILE_ROWS = 1;
+  private static final int BACKGROUND = 0;
+  private static final int[] CUBIC = cubicWeights();
+
+  private Warp() {
+  }
+
+  /**
+   * Gets the inverse of an affine map.
+   *
+   * @param matrix the map {@code (x, y) -> (a x + b y + c, d x + e y + f)} as
+   *               {@code {a, b, c, d, e, f}}
+   * @return the inverse map, in the same form
+   * @throws IllegalArgumentException if the map can't be inverted
+   */
+  static double[] invert(double[] matrix) throws IllegalArgumentException {
+    double a = matrix[0];
+    double b = matrix[1];
+    double c = matrix[2];
+    double d = matrix[3];
+    double e = matrix[4];
+    double f = matrix[5];
+    double determinant = a * e - b * d;
+    if (determinant == 0 || !Double.isFinite(1 / determinant)) {
+      throw new IllegalArgumentException("The matrix can't be inverted.");
+    }
+    double ia = e / determinant;
+    double ib = -b / determinant;
+    double id = -d / determinant;
+    double ie = a / determinant;
+    return new double[]{ia, ib, -(ia * c + ib * f), id, ie, -(id * c + ie * f)};
+  }
+
+  /**
+   * The size of the result of a warp and the map from its points to the points of the source.
+   */
+  static final class Plan {
+    final int width;
+    final int height;
+    final double[] inverse;
+
+    /**
+     * Creates a plan.
+     *
+     * @param width   the width of the result
+     * @param height  the height of the result
+     * @param inverse the map from points of the result to points of the source, as
+     *                {@code {a, b, c, d, e, f}}
+     */
+    Plan(int width, int height, double[] inverse) {
+      this.width = width;
+      this.height = height;
+      this.inverse = inverse;
+    }
+
+    /**
+     * Plans a clockwise turn of an image about its center, into the smallest image that holds
+     * all of it, with the center of the image at the center of the result.
+     *
+     * @param degrees the angle to turn by, clockwise
+     * @param width   the width of the image
+     * @param height  the height of the image
+     * @return the plan
+     * @throws IllegalArgumentException if the result would be too large
+     */
+    static Plan turn(double degrees, int width, int height) throws IllegalArgumentException {
+      double radians = Math.toRadians(degrees);
+      double cos = Math.cos(radians);
+      double sin = Math.sin(radians);
+      long newWidth = side(Math.abs(width * cos) + Math.abs(height * sin));
+      long newHeight = side(Math.abs(height * cos) + Math.abs(width * sin));
+      if (newWidth * newHeight > Integer.MAX_VALUE) {
+        throw new IllegalArgumentException("The size is too large.");
+      }
+      double centerX = width / 2.0;
+      double centerY = height / 2.0;
+      double newCenterX = newWidth / 2.0;
+      double newCenterY = newHeight / 2.0;
+      return new Plan((int) newWidth, (int) newHeight, new double[]{
+          cos, sin, centerX - cos * newCenterX - sin * newCenterY,
+          -sin, cos, centerY + sin * newCenterX - cos * newCenterY});
+    }
+
+    /**
+     * Rounds the length of a side of a turned image up to whole pixels.
+     *
+     * @param length the exact length
+     * @return the number of pixels, leaving out the last one if only rounding error reaches
+     *         into it
+     */
+    private static long side(double length) {
+      return Math.max(1, (long) Math.ceil(length - 1e-6));
+    }
+  }
+
+  /**
+   * Warps an image.
+   *
+   * @param source   the pixels of the image
+   * @param width    the width of the image
+   * @param height   the height of the image
+   * @param into     the raster to write the result to, as long as its size
+   * @param plan     the size of the result and the map from its points to the source
+   * @param sampling how to sample the source between pixels
+   */
+  static void warp(Raster source, int width, int height, Raster into, Plan plan,
+                   Sampling sampling) {
+    int tileRows = (plan.height + TILE - 1) / TILE;
+    ParallelBands.run(tileRows, MIN_TILE_ROWS, (from, to) -> {
+      Tiler tiler = new Tiler(source, width, height, into, plan.width, plan.inverse, sampling);
+      for (int ty = from; ty < to; ty += 1) {
+        int top = ty * TILE;
+        int rows = Math.min(TILE, plan.height - top);
+        for (int left = 0; left < plan.width; left += TILE) {
+          tiler.render(left, top, Math.min(TILE, plan.width - left), rows);
+        }
+      }
+    });
+  }
+
+  /**
+   * Makes the weights of a Catmull-Rom cubic at every phase between two pixels.
+   *
+   * @return four weights per phase, in fixed point summing to {@code 1 << 10}
+   */
+  private static int[] cubicWeights() {
+    int phases = 1 << PHASES;
+    int[] weights = new int[4 * phases];
+    for (int p = 0; p < phases; p += 1) {
+      double t = p / (double) phases;
+      double[] exact = {
+          ((-0.5 * t + 1) * t - 0.5) * t,
+          (1.5 * t - 2.5) * t * t + 1,
+          ((-1.5 * t + 2) * t + 0.5) * t,
+          (0.5 * t - 0.5) * t * t};
+      int sum = 0;
+      for (int k = 0; k < 4; k += 1) {
+        weights[4 * p + k] = (int) Math.round(exact[k] * (1 << CUBIC_BITS));
+        sum += weights[4 * p + k];
+      }
+      // whatever rounding lost or gained goes to the nearer middle pixel
+      weights[4 * p + (t < 0.5 ? 1 : 2)] += (1 << CUBIC_BITS) - sum;
+    }
+    return weights;
+  }
+
+  /**
+   * Renders tiles of the result, with scratch for one band of tiles.
+   */
+  private static final class Tiler {
+    private final Raster source;
+    private final int width;
+    private final int height;
+    private final Raster into;
+    private final int newWidth;
+    private final double[] inverse;
+    private final boolean cubic;
+    private final int before;
+    private final int after;
+    private final int[] out;
+    private int[] footprint;
+
+    /**
+     * Creates scratch for rendering tiles.
+     *
+     * @param source   the pixels of the image
+     * @param width    the width of the image
+     * @param height   the height of the image
+     * @param into     the raster to write the result to
+     * @param newWidth the width of the result
+     * @param inverse  the map from points of the result to points of the source
+     * @param sampling how to sample the source between pixels
+     */
+    Tiler(Raster source, int width, int height, Raster into, int newWidth, double[] inverse,
+          Sampling sampling) {
+      this.source = source;
+      this.width = width;
+      this.height = height;
+      this.into = into;
+      this.newWidth = newWidth;
+      this.inverse = inverse;
+      this.cubic = sampling == Sampling.Bicubic;
+      // the pixels read around the one at or before a point, plus one for rounding drift
+      this.before = this.cubic ? 2 : 1;
+      this.after = this.cubic ? 3 : 2;
+      this.out = new int[TILE];
+      this.footprint = new int[0];
+    }
+
+    /**
+     * Renders a tile of the result.
+     *
+     * @param left    the first column of the tile
+     * @param top     the first row of the tile
+     * @param columns the width of the tile
+     * @param rows    the height of the tile
+     */
+    void render(int left, int top, int columns, int rows) {
+      double[] m = this.inverse;
+      double minU = Double.POSITIVE_INFINITY;
+      double maxU = Double.NEGATIVE_INFINITY;
+      double minV = Double.POSITIVE_INFINITY;
+      double maxV = Double.NEGATIVE_INFINITY;
+      for (int corner = 0; corner < 4; corner += 1) {
+        double x = left + (corner % 2 == 0 ? 0 : columns - 1) + 0.5;
+        double y = top + (corner < 2 ? 0 : rows - 1) + 0.5;
+        double u = m[0] * x + m[1] * y + m[2] - 0.5;
+        double v = m[3] * x + m[4] * y + m[5] - 0.5;
+        minU = Math.min(minU, u);
+        maxU = Math.max(maxU, u);
+        minV = Math.min(minV, v);
+        maxV = Math.max(maxV, v);
+      }
+
+      if (maxU < -this.after || minU > this.width + this.before
+          || maxV < -this.after || minV > this.height + this.before) {
+        Arrays.fill(this.out, BACKGROUND);
+        for (int j = 0; j < rows; j += 1) {
+          this.into.set((top + j) * this.newWidth + left, this.out, 0, columns);
+        }
+        return;
+      }
+      double area = (maxU - minU + this.before + this.after + 1)
+          * (maxV - minV + this.before + this.after + 1);
+      if (area > MAX_FOOTPRINT && (columns > 1 || rows > 1)) {
+        if (columns >= rows) {
+          this.render(left, top, columns / 2, rows);
+          this.render(left + columns / 2, top, columns - columns / 2, rows);
+        } else {
+          this.render(left, top, columns, rows / 2);
+          this.render(left, top + rows / 2, columns, rows - rows / 2);
+        }
+        return;
+      }
+
+      int footLeft = (int) Math.floor(minU) - this.before;
+      int footTop = (int) Math.floor(minV) - this.before;
+      int footWidth = (int) Math.floor(maxU) + this.after + 1 - footLeft;
+      int footHeight = (int) Math.floor(maxV) + this.after + 1 - footTop;
+      this.copyFootprint(footLeft, footTop, footWidth, footHeight);
+
+      long du = Math.round(m[0] * (1 << BITS));
+      long dv = Math.round(m[3] * (1 << BITS));
+      for (int j = 0; j < rows; j += 1) {
+        double x = left + 0.5;
+        double y = top + j + 0.5;
+        long u = Math.round((m[0] * x + m[1] * y + m[2] - 0.5 - footLeft) * (1 << BITS));
+        long v = Math.round((m[3] * x + m[4] * y + m[5] - 0.5 - footTop) * (1 << BITS));
+        if (this.cubic) {
+          this.bicubicRow(u, v, du, dv, footWidth, columns);
+        } else {
+          this.bilinearRow(u, v, du, dv, footWidth, columns);
+        }
+        this.into.set((top + j) * this.newWidth + left, this.out, 0, columns);
+      }
+    }
+
+    /**
+     * Copies the part of the source a tile needs into scratch, with black wherever it is
+     * outside the source.
+     *
+     * @param footLeft   the first column of the footprint, which may be outside the source
+     * @param footTop    the first row of the footprint, which may be outside the source
+     * @param footWidth  the width of the footprint
+     * @param footHeight the height of the footprint
+     */
+    private void copyFootprint(int footLeft, int footTop, int footWidth, int footHeight) {
+      int length = footWidth * footHeight;
+      if (this.footprint.length < length) {
+        this.footprint = new int[length];
+      }
+      int first = Math.max(0, footLeft);
+      int last = Math.min(this.width, footLeft + footWidth);
+      for (int r = 0; r < footHeight; r += 1) {
+        int y = footTop + r;
+        int base = r * footWidth;
+        if (y < 0 || y >= this.height || first >= last) {
+          Arrays.fill(this.footprint, base, base + footWidth, BACKGROUND);
+          continue;
+        }
+        Arrays.fill(this.footprint, base, base + first - footLeft, BACKGROUND);
+        this.source.get(y * this.width + first, this.footprint, base + first - footLeft,
+            last - first);
+        Arrays.fill(this.footprint, base + last - footLeft, base + footWidth, BACKGROUND);
+      }
+    }
+
+    /**
+     * Samples a row of a tile bilinearly.
+     *
+     * @param u         the column in the footprint of the first pixel, in 16.16 fixed point
+     * @param v         the row in the footprint of the first pixel, in 16.16 fixed point
+     * @param du        how far the column moves from pixel to pixel
+     * @param dv        how far the row moves from pixel to pixel
+     * @param footWidth the width of the footprint
+     * @param columns   the number of pixels in the row
+     */
+    private void bilinearRow(long u, long v, long du, long dv, int footWidth, int columns) {
+      int[] pixels = this.footprint;
+      int shift = BITS - PHASES;
+      int mask = (1 << PHASES) - 1;
+      int one = 1 << PHASES;
+      int half = 1 << (2 * PHASES - 1);
+      for (int i = 0; i < columns; i += 1) {
+        int fx = (int) (u >> shift) & mask;
+        int fy = (int) (v >> shift) & mask;
+        int p = (int) (v >> BITS) * footWidth + (int) (u >> BITS);
+        int topLeft = pixels[p];
+        int topRight = pixels[p + 1];
+        int bottomLeft = pixels[p + footWidth];
+        int bottomRight = pixels[p + footWidth + 1];
+        int w00 = (one - fx) * (one - fy);
+        int w01 = fx * (one - fy);
+        int w10 = (one - fx) * fy;
+        int w11 = fx * fy;
+        int r = (w00 * PPMUtilModel.red(topLeft) + w01 * PPMUtilModel.red(topRight)
+            + w10 * PPMUtilModel.red(bottomLeft) + w11 * PPMUtilModel.red(bottomRight) + half)
+            >> (2 * PHASES);
+        int g = (w00 * PPMUtilModel.green(topLeft) + w01 * PPMUtilModel.green(topRight)
+            + w10 * PPMUtilModel.green(bottomLeft) + w11 * PPMUtilModel.green(bottomRight)
+            + half) >> (2 * PHASES);
+        int b = (w00 * PPMUtilModel.blue(topLeft) + w01 * PPMUtilModel.blue(topRight)
+            + w10 * PPMUtilModel.blue(bottomLeft) + w11 * PPMUtilModel.blue(bottomRight)
+            + half) >> (2 * PHASES);
+        this.out[i] = PPMUtilModel.pack(r, g, b);
+        u += du;
+        v += dv;
+      }
+    }
+
+    /**
+     * Samples a row of a tile with a Catmull-Rom cubic over the 4 by 4 pixels around each
+     * point.
+     *
+     * @param u         the column in the footprint of the first pixel, in 16.16 fixed point
+     * @param v         the row in the footprint of the first pixel, in 16.16 fixed point
+     * @param du        how far the column moves from pixel to pixel
+     * @param dv        how far the row moves from pixel to pixel
+     * @param footWidth the width of the footprint
+     * @param columns   the number of pixels in the row
+     */
+    private void bicubicRow(long u, long v, long du, long dv, int footWidth, int columns) {
+      int[] pixels = this.footprint;
+      int shift = BITS - PHASES;
+      int mask = (1 << PHASES) - 1;
+      int half = 1 << (2 * CUBIC_BITS - 1);
+      for (int i = 0; i < columns; i += 1) {
+        int wx = 4 * ((int) (u >> shift) & mask);
+        int wy = 4 * ((int) (v >> shift) & mask);
+        int p = ((int) (v >> BITS) - 1) * footWidth + (int) (u >> BITS) - 1;
+        int r = half;
+        int g = half;
+        int b = half;
+        for (int k = 0; k < 4; k += 1) {
+          int rowRed = 0;
+          int rowGreen = 0;
+          int rowBlue = 0;
+          for (int l = 0; l < 4; l += 1) {
+            int rgb = pixels[p + l];
+            int weight = CUBIC[wx + l];
+            rowRed += weight * PPMUtilModel.red(rgb);
+            rowGreen += weight * PPMUtilModel.green(rgb);
+            rowBlue += weight * PPMUtilModel.blue(rgb);
+          }
+          int weight = CUBIC[wy + k];
+          r += weight * rowRed;
+          g += weight * rowGreen;
+          b += weight * rowBlue;
+          p += footWidth;
+        }
+        this.out[i] = PPMUtilModel.pack(clamp(r >> (2 * CUBIC_BITS)),
+            clamp(g >> (2 * CUBIC_BITS)), clamp(b >> (2 * CUBIC_BITS)));
+        u += du;
+        v += dv;
+      }
+    }
+
+    /**
+     * Clamps a channel to a valid value.
+     *
+     * @param value the channel
+     * @return the channel, from 0 to 255
+     */
+    private static int clamp(int value) {
+      return Math.max(0, Math.min(255, value));
+    }
+  }
+}
@@ -1,16 +1,27 @@
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
 
 import controller.ImageUtilController;
 import controller.ImageUtilControllerImpl;
 import model.ImageUtilModel;
+import model.ImageUtilModel.ColorPreset;
+import model.ImageUtilModel.ResizeFilter;
+import model.ImageUtilModel.Sampling;
 import model.PPMUtilModel;
 import view.ImageUtilView;
 import view.PPMUtilView;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 
 /**
@@ -62,55 +73,7 @@ public class ImageUtilControllerTest {
   @Test
   public void testRunningOutOfInput() {
     Interaction[] interactions = new Interaction[]{
-        new PrintInteraction("ImageUtil commands: " + System.lineSeparator()),
-        new PrintInteraction("\"load filepath-on-disk reference-name\": " +
-                "Loads an image into the editor. It will be referred to as " +
-                "\"reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"save-ppm filepath-on-disk reference-name\": " +
-                "Saves the image with the name \"reference-name\" to your disk at " +
-                "the location \"filepath-on-disk\" as a PPM file." + System.lineSeparator()),
-        new PrintInteraction("\"save-png filepath-on-disk reference-name\": " +
-                "Saves the image with the name \"reference-name\" to your disk at " +
-                "the location \"filepath-on-disk\" as a PNG file." + System.lineSeparator()),
-        new PrintInteraction("\"red-component reference-name new-reference-name\": " +
-                "Creates a grayscale image with the red component of the image " +
-                "with the name \"reference name\" and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"green-component reference-name new-reference-name\": " +
-                "Creates a grayscale image with the green component of the image " +
-                "with the name \"reference name\" and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"blue-component reference-name new-reference-name\": " +
-                "Creates a grayscale image with the blue component of the image " +
-                "with the name \"reference name\" and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"value-component reference-name new-reference-name\": " +
-                "Creates a grayscale image with the value component of the image " +
-                "with the name \"reference name\" and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"intensity-component reference-name " +
-                "new-reference-name\": Creates a grayscale image with the intensity " +
-                "component of the image with the name \"reference name\" and stores it" +
-                " with the name \"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"luma-component reference-name new-reference-name\": " +
-                "Creates a grayscale image with the luma component of the image " +
-                "with the name \"reference name\" and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"horizontal-flip reference-name " +
-                "new-reference-name\": Flips the image with the name \"reference-name\" " +
-                "horizontally and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"vertical-flip reference-name " +
-                "new-reference-name\": Flips the image with the name \"reference-name\" " +
-                "vertically and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"brighten increment reference-name " +
-                "new-reference-name\": Brightens the image with the name " +
-                "\"reference-name\" by \"increment\" and stores it with the name " +
-                "\"new-reference-name\". " +
-                "Negative increments will darken the image." + System.lineSeparator()),
-        new PrintInteraction("\"read-script path-to-script\": Reads the txt " +
-                "file provided and runs the commands inside of it." + System.lineSeparator()),
+        this.welcomeMessage(),
         new PrintInteraction(System.lineSeparator() + "Enter command or " +
                 "\"q\" to quit: "),
         new InputInteraction("load res/b.ppm b"),
@@ -126,55 +89,7 @@ public class ImageUtilControllerTest {
   @Test
   public void testStartEditorQuit() {
     Interaction[] interactions = new Interaction[]{
-        new PrintInteraction("ImageUtil commands: " + System.lineSeparator()),
-        new PrintInteraction("\"load filepath-on-disk reference-name\": " +
-                "Loads an image into the editor. It will be referred to as " +
-                "\"reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"save-ppm filepath-on-disk reference-name\": " +
-                "Saves the image with the name \"reference-name\" to your disk at " +
-                "the location \"filepath-on-disk\" as a PPM file." + System.lineSeparator()),
-        new PrintInteraction("\"save-png filepath-on-disk reference-name\": " +
-                "Saves the image with the name \"reference-name\" to your disk at " +
-                "the location \"filepath-on-disk\" as a PNG file." + System.lineSeparator()),
-        new PrintInteraction("\"red-component reference-name new-reference-name\": " +
-                "Creates a grayscale image with the red component of the image " +
-                "with the name \"reference name\" and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"green-component reference-name new-reference-name\": " +
-                "Creates a grayscale image with the green component of the image " +
-                "with the name \"reference name\" and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"blue-component reference-name new-reference-name\": " +
-                "Creates a grayscale image with the blue component of the image " +
-                "with the name \"reference name\" and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"value-component reference-name new-reference-name\": " +
-                "Creates a grayscale image with the value component of the image " +
-                "with the name \"reference name\" and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"intensity-component reference-name " +
-                "new-reference-name\": Creates a grayscale image with the intensity " +
-                "component of the image with the name \"reference name\" and stores it" +
-                " with the name \"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"luma-component reference-name new-reference-name\": " +
-                "Creates a grayscale image with the luma component of the image " +
-                "with the name \"reference name\" and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"horizontal-flip reference-name " +
-                "new-reference-name\": Flips the image with the name \"reference-name\" " +
-                "horizontally and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"vertical-flip reference-name " +
-                "new-reference-name\": Flips the image with the name \"reference-name\" " +
-                "vertically and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"brighten increment reference-name " +
-                "new-reference-name\": Brightens the image with the name " +
-                "\"reference-name\" by \"increment\" and stores it with the name " +
-                "\"new-reference-name\". " +
-                "Negative increments will darken the image." + System.lineSeparator()),
-        new PrintInteraction("\"read-script path-to-script\": Reads the txt " +
-                "file provided and runs the commands inside of it." + System.lineSeparator()),
+        this.welcomeMessage(),
         new PrintInteraction(System.lineSeparator() + "Enter command or " +
                 "\"q\" to quit: "),
         new InputInteraction("q\n"),
@@ -188,55 +103,7 @@ public class ImageUtilControllerTest {
   @Test
   public void testLoadCommand() {
     Interaction[] interactions = new Interaction[]{
-        new PrintInteraction("ImageUtil commands: " + System.lineSeparator()),
-        new PrintInteraction("\"load filepath-on-disk reference-name\": " +
-                "Loads an image into the editor. It will be referred to as " +
-                "\"reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"save-ppm filepath-on-disk reference-name\": " +
-                "Saves the image with the name \"reference-name\" to your disk at " +
-                "the location \"filepath-on-disk\" as a PPM file." + System.lineSeparator()),
-        new PrintInteraction("\"save-png filepath-on-disk reference-name\": " +
-                "Saves the image with the name \"reference-name\" to your disk at " +
-                "the location \"filepath-on-disk\" as a PNG file." + System.lineSeparator()),
-        new PrintInteraction("\"red-component reference-name new-reference-name\": " +
-                "Creates a grayscale image with the red component of the image " +
-                "with the name \"reference name\" and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"green-component reference-name new-reference-name\": " +
-                "Creates a grayscale image with the green component of the image " +
-                "with the name \"reference name\" and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"blue-component reference-name new-reference-name\": " +
-                "Creates a grayscale image with the blue component of the image " +
-                "with the name \"reference name\" and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"value-component reference-name new-reference-name\": " +
-                "Creates a grayscale image with the value component of the image " +
-                "with the name \"reference name\" and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"intensity-component reference-name " +
-                "new-reference-name\": Creates a grayscale image with the intensity " +
-                "component of the image with the name \"reference name\" and stores it" +
-                " with the name \"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"luma-component reference-name new-reference-name\": " +
-                "Creates a grayscale image with the luma component of the image " +
-                "with the name \"reference name\" and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"horizontal-flip reference-name " +
-                "new-reference-name\": Flips the image with the name \"reference-name\" " +
-                "horizontally and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"vertical-flip reference-name " +
-                "new-reference-name\": Flips the image with the name \"reference-name\" " +
-                "vertically and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"brighten increment reference-name " +
-                "new-reference-name\": Brightens the image with the name " +
-                "\"reference-name\" by \"increment\" and stores it with the name " +
-                "\"new-reference-name\". " +
-                "Negative increments will darken the image." + System.lineSeparator()),
-        new PrintInteraction("\"read-script path-to-script\": Reads the txt " +
-                "file provided and runs the commands inside of it." + System.lineSeparator()),
+        this.welcomeMessage(),
         new PrintInteraction(System.lineSeparator() + "Enter command or " +
                 "\"q\" to quit: "),
         new InputInteraction("load res/b.ppm b\n"),
@@ -253,55 +120,7 @@ public class ImageUtilControllerTest {
   @Test
   public void testStartEditorSavePPM() {
     Interaction[] interactions = new Interaction[]{
-        new PrintInteraction("ImageUtil commands: " + System.lineSeparator()),
-        new PrintInteraction("\"load filepath-on-disk reference-name\": " +
-                "Loads an image into the editor. It will be referred to as " +
-                "\"reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"save-ppm filepath-on-disk reference-name\": " +
-                "Saves the image with the name \"reference-name\" to your disk at " +
-                "the location \"filepath-on-disk\" as a PPM file." + System.lineSeparator()),
-        new PrintInteraction("\"save-png filepath-on-disk reference-name\": " +
-                "Saves the image with the name \"reference-name\" to your disk at " +
-                "the location \"filepath-on-disk\" as a PNG file." + System.lineSeparator()),
-        new PrintInteraction("\"red-component reference-name new-reference-name\": " +
-                "Creates a grayscale image with the red component of the image " +
-                "with the name \"reference name\" and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"green-component reference-name new-reference-name\": " +
-                "Creates a grayscale image with the green component of the image " +
-                "with the name \"reference name\" and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"blue-component reference-name new-reference-name\": " +
-                "Creates a grayscale image with the blue component of the image " +
-                "with the name \"reference name\" and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"value-component reference-name new-reference-name\": " +
-                "Creates a grayscale image with the value component of the image " +
-                "with the name \"reference name\" and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"intensity-component reference-name " +
-                "new-reference-name\": Creates a grayscale image with the intensity " +
-                "component of the image with the name \"reference name\" and stores it" +
-                " with the name \"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"luma-component reference-name new-reference-name\": " +
-                "Creates a grayscale image with the luma component of the image " +
-                "with the name \"reference name\" and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"horizontal-flip reference-name " +
-                "new-reference-name\": Flips the image with the name \"reference-name\" " +
-                "horizontally and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"vertical-flip reference-name " +
-                "new-reference-name\": Flips the image with the name \"reference-name\" " +
-                "vertically and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"brighten increment reference-name " +
-                "new-reference-name\": Brightens the image with the name " +
-                "\"reference-name\" by \"increment\" and stores it with the name " +
-                "\"new-reference-name\". " +
-                "Negative increments will darken the image." + System.lineSeparator()),
-        new PrintInteraction("\"read-script path-to-script\": Reads the txt " +
-                "file provided and runs the commands inside of it." + System.lineSeparator()),
+        this.welcomeMessage(),
         new PrintInteraction(System.lineSeparator() + "Enter command or " +
                 "\"q\" to quit: "),
         new InputInteraction("load res/b.ppm b\n"),
@@ -322,55 +141,7 @@ public class ImageUtilControllerTest {
   @Test
   public void testStartEditorSavePNG() {
     Interaction[] interactions = new Interaction[]{
-        new PrintInteraction("ImageUtil commands: " + System.lineSeparator()),
-        new PrintInteraction("\"load filepath-on-disk reference-name\": " +
-                "Loads an image into the editor. It will be referred to as " +
-                "\"reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"save-ppm filepath-on-disk reference-name\": " +
-                "Saves the image with the name \"reference-name\" to your disk at " +
-                "the location \"filepath-on-disk\" as a PPM file." + System.lineSeparator()),
-        new PrintInteraction("\"save-png filepath-on-disk reference-name\": " +
-                "Saves the image with the name \"reference-name\" to your disk at " +
-                "the location \"filepath-on-disk\" as a PNG file." + System.lineSeparator()),
-        new PrintInteraction("\"red-component reference-name new-reference-name\": " +
-                "Creates a grayscale image with the red component of the image " +
-                "with the name \"reference name\" and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"green-component reference-name new-reference-name\": " +
-                "Creates a grayscale image with the green component of the image " +
-                "with the name \"reference name\" and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"blue-component reference-name new-reference-name\": " +
-                "Creates a grayscale image with the blue component of the image " +
-                "with the name \"reference name\" and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"value-component reference-name new-reference-name\": " +
-                "Creates a grayscale image with the value component of the image " +
-                "with the name \"reference name\" and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"intensity-component reference-name " +
-                "new-reference-name\": Creates a grayscale image with the intensity " +
-                "component of the image with the name \"reference name\" and stores it" +
-                " with the name \"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"luma-component reference-name new-reference-name\": " +
-                "Creates a grayscale image with the luma component of the image " +
-                "with the name \"reference name\" and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"horizontal-flip reference-name " +
-                "new-reference-name\": Flips the image with the name \"reference-name\" " +
-                "horizontally and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"vertical-flip reference-name " +
-                "new-reference-name\": Flips the image with the name \"reference-name\" " +
-                "vertically and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"brighten increment reference-name " +
-                "new-reference-name\": Brightens the image with the name " +
-                "\"reference-name\" by \"increment\" and stores it with the name " +
-                "\"new-reference-name\". " +
-                "Negative increments will darken the image." + System.lineSeparator()),
-        new PrintInteraction("\"read-script path-to-script\": Reads the txt " +
-                "file provided and runs the commands inside of it." + System.lineSeparator()),
+        this.welcomeMessage(),
         new PrintInteraction(System.lineSeparator() + "Enter command or " +
                 "\"q\" to quit: "),
         new InputInteraction("load res/b.ppm b\n"),
@@ -388,58 +159,98 @@ public class ImageUtilControllerTest {
     assertEquals(expectedOutput.toString(), actualOutput.toString());
   }
 
+  @Test
+  public void testAsyncSaves() {
+    Interaction[] interactions = new Interaction[]{
+        this.welcomeMessage(),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("load res/b.ppm b\n"),
+        new PrintInteraction("Loaded res/b.ppm as \"b\""),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("async-saves on\n"),
+        new PrintInteraction("Background saves turned on"),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("save-ppm bSave b\n"),
+        new PrintInteraction("Save queued"),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("save-ppm no-such-directory/bSave b\n"),
+        new PrintInteraction("Save queued"),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("sync\n"),
+        new PrintInteraction("Unable to save " + Paths.get("no-such-directory/bSave.ppm")
+                .toAbsolutePath() + ": the directory doesn't exist" + System.lineSeparator()),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("load bSave.ppm saved\n"),
+        new PrintInteraction("Loaded bSave.ppm as \"saved\""),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("sync\n"),
+        new PrintInteraction("All saves finished"),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("q\n"),
+        new PrintInteraction("Quitting.")
+    };
+    this.runController(interactions, model, view);
+    assertEquals(expectedOutput.toString(), actualOutput.toString());
+    assertEquals(this.model.getImage("b"), this.model.getImage("saved"));
+  }
+
+  @Test
+  public void testMemCommand() {
+    Interaction[] interactions = new Interaction[]{
+        this.welcomeMessage(),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("mem-budget 0\n"),
+        new PrintInteraction("Memory budget set to 0 MB"),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("load res/b.ppm b\n"),
+        new PrintInteraction("Loaded res/b.ppm as \"b\""),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("mem\n"),
+        new PrintInteraction("b: 38x36, 0 bytes, Unloaded, loaded from res/b.ppm"
+                        + System.lineSeparator(),
+                "Total: 0 of 0 bytes" + System.lineSeparator(),
+                "Buffer pool: 0 hits, 0 misses, 0 bytes held"),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("brighten 10 b b-brighter\n"),
+        new PrintInteraction("Image brightened by 10"),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("mem\n"),
+        new PrintInteraction("b: 38x36, 0 bytes, Spilled, loaded from res/b.ppm"
+                        + System.lineSeparator(),
+                "b-brighter: 38x36, 5472 bytes, Resident, brighten by 10 of b"
+                        + System.lineSeparator(),
+                "Total: 5472 of 0 bytes" + System.lineSeparator(),
+                "Buffer pool: 0 hits, 2 misses, 0 bytes held"),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("mem-budget lots\n"),
+        new PrintInteraction("Budget is not a number."),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("q\n"),
+        new PrintInteraction("Quitting.")
+    };
+    this.runController(interactions, model, view);
+    assertEquals(expectedOutput.toString(), actualOutput.toString());
+  }
+
   @Test
   public void testRedGrayscaleController() {
     Interaction[] interactions = new Interaction[]{
-        new PrintInteraction("ImageUtil commands: " + System.lineSeparator()),
-        new PrintInteraction("\"load filepath-on-disk reference-name\": " +
-                "Loads an image into the editor. It will be referred to as " +
-                "\"reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"save-ppm filepath-on-disk reference-name\": " +
-                "Saves the image with the name \"reference-name\" to your disk at " +
-                "the location \"filepath-on-disk\" as a PPM file." + System.lineSeparator()),
-        new PrintInteraction("\"save-png filepath-on-disk reference-name\": " +
-                "Saves the image with the name \"reference-name\" to your disk at " +
-                "the location \"filepath-on-disk\" as a PNG file." + System.lineSeparator()),
-        new PrintInteraction("\"red-component reference-name new-reference-name\": " +
-                "Creates a grayscale image with the red component of the image " +
-                "with the name \"reference name\" and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"green-component reference-name new-reference-name\": " +
-                "Creates a grayscale image with the green component of the image " +
-                "with the name \"reference name\" and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"blue-component reference-name new-reference-name\": " +
-                "Creates a grayscale image with the blue component of the image " +
-                "with the name \"reference name\" and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"value-component reference-name new-reference-name\": " +
-                "Creates a grayscale image with the value component of the image " +
-                "with the name \"reference name\" and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"intensity-component reference-name " +
-                "new-reference-name\": Creates a grayscale image with the intensity " +
-                "component of the image with the name \"reference name\" and stores it" +
-                " with the name \"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"luma-component reference-name new-reference-name\": " +
-                "Creates a grayscale image with the luma component of the image " +
-                "with the name \"reference name\" and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"horizontal-flip reference-name " +
-                "new-reference-name\": Flips the image with the name \"reference-name\" " +
-                "horizontally and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"vertical-flip reference-name " +
-                "new-reference-name\": Flips the image with the name \"reference-name\" " +
-                "vertically and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"brighten increment reference-name " +
-                "new-reference-name\": Brightens the image with the name " +
-                "\"reference-name\" by \"increment\" and stores it with the name " +
-                "\"new-reference-name\". " +
-                "Negative increments will darken the image." + System.lineSeparator()),
-        new PrintInteraction("\"read-script path-to-script\": Reads the txt " +
-                "file provided and runs the commands inside of it." + System.lineSeparator()),
+        this.welcomeMessage(),
         new PrintInteraction(System.lineSeparator() + "Enter command or " +
                 "\"q\" to quit: "),
         new InputInteraction("load res/b.ppm b\n"),
@@ -460,55 +271,7 @@ public class ImageUtilControllerTest {
   @Test
   public void testGreenGrayscaleController() {
     Interaction[] interactions = new Interaction[]{
-        new PrintInteraction("ImageUtil commands: " + System.lineSeparator()),
-        new PrintInteraction("\"load filepath-on-disk reference-name\": " +
-                "Loads an image into the editor. It will be referred to as " +
-                "\"reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"save-ppm filepath-on-disk reference-name\": " +
-                "Saves the image with the name \"reference-name\" to your disk at " +
-                "the location \"filepath-on-disk\" as a PPM file." + System.lineSeparator()),
-        new PrintInteraction("\"save-png filepath-on-disk reference-name\": " +
-                "Saves the image with the name \"reference-name\" to your disk at " +
-                "the location \"filepath-on-disk\" as a PNG file." + System.lineSeparator()),
-        new PrintInteraction("\"red-component reference-name new-reference-name\": " +
-                "Creates a grayscale image with the red component of the image " +
-                "with the name \"reference name\" and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"green-component reference-name new-reference-name\": " +
-                "Creates a grayscale image with the green component of the image " +
-                "with the name \"reference name\" and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"blue-component reference-name new-reference-name\": " +
-                "Creates a grayscale image with the blue component of the image " +
-                "with the name \"reference name\" and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"value-component reference-name new-reference-name\": " +
-                "Creates a grayscale image with the value component of the image " +
-                "with the name \"reference name\" and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"intensity-component reference-name " +
-                "new-reference-name\": Creates a grayscale image with the intensity " +
-                "component of the image with the name \"reference name\" and stores it" +
-                " with the name \"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"luma-component reference-name new-reference-name\": " +
-                "Creates a grayscale image with the luma component of the image " +
-                "with the name \"reference name\" and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"horizontal-flip reference-name " +
-                "new-reference-name\": Flips the image with the name \"reference-name\" " +
-                "horizontally and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"vertical-flip reference-name " +
-                "new-reference-name\": Flips the image with the name \"reference-name\" " +
-                "vertically and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"brighten increment reference-name " +
-                "new-reference-name\": Brightens the image with the name " +
-                "\"reference-name\" by \"increment\" and stores it with the name " +
-                "\"new-reference-name\". " +
-                "Negative increments will darken the image." + System.lineSeparator()),
-        new PrintInteraction("\"read-script path-to-script\": Reads the txt " +
-                "file provided and runs the commands inside of it." + System.lineSeparator()),
+        this.welcomeMessage(),
         new PrintInteraction(System.lineSeparator() + "Enter command or " +
                 "\"q\" to quit: "),
         new InputInteraction("load res/b.ppm b\n"),
@@ -529,55 +292,7 @@ public class ImageUtilControllerTest {
   @Test
   public void testBlueGrayscaleController() {
     Interaction[] interactions = new Interaction[]{
-        new PrintInteraction("ImageUtil commands: " + System.lineSeparator()),
-        new PrintInteraction("\"load filepath-on-disk reference-name\": " +
-                "Loads an image into the editor. It will be referred to as " +
-                "\"reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"save-ppm filepath-on-disk reference-name\": " +
-                "Saves the image with the name \"reference-name\" to your disk at " +
-                "the location \"filepath-on-disk\" as a PPM file." + System.lineSeparator()),
-        new PrintInteraction("\"save-png filepath-on-disk reference-name\": " +
-                "Saves the image with the name \"reference-name\" to your disk at " +
-                "the location \"filepath-on-disk\" as a PNG file." + System.lineSeparator()),
-        new PrintInteraction("\"red-component reference-name new-reference-name\": " +
-                "Creates a grayscale image with the red component of the image " +
-                "with the name \"reference name\" and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"green-component reference-name new-reference-name\": " +
-                "Creates a grayscale image with the green component of the image " +
-                "with the name \"reference name\" and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"blue-component reference-name new-reference-name\": " +
-                "Creates a grayscale image with the blue component of the image " +
-                "with the name \"reference name\" and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"value-component reference-name new-reference-name\": " +
-                "Creates a grayscale image with the value component of the image " +
-                "with the name \"reference name\" and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"intensity-component reference-name " +
-                "new-reference-name\": Creates a grayscale image with the intensity " +
-                "component of the image with the name \"reference name\" and stores it" +
-                " with the name \"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"luma-component reference-name new-reference-name\": " +
-                "Creates a grayscale image with the luma component of the image " +
-                "with the name \"reference name\" and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"horizontal-flip reference-name " +
-                "new-reference-name\": Flips the image with the name \"reference-name\" " +
-                "horizontally and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"vertical-flip reference-name " +
-                "new-reference-name\": Flips the image with the name \"reference-name\" " +
-                "vertically and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"brighten increment reference-name " +
-                "new-reference-name\": Brightens the image with the name " +
-                "\"reference-name\" by \"increment\" and stores it with the name " +
-                "\"new-reference-name\". " +
-                "Negative increments will darken the image." + System.lineSeparator()),
-        new PrintInteraction("\"read-script path-to-script\": Reads the txt " +
-                "file provided and runs the commands inside of it." + System.lineSeparator()),
+        this.welcomeMessage(),
         new PrintInteraction(System.lineSeparator() + "Enter command or " +
                 "\"q\" to quit: "),
         new InputInteraction("load res/b.ppm b\n"),
@@ -598,55 +313,7 @@ public class ImageUtilControllerTest {
   @Test
   public void testValueGrayscaleController() {
     Interaction[] interactions = new Interaction[]{
-        new PrintInteraction("ImageUtil commands: " + System.lineSeparator()),
-        new PrintInteraction("\"load filepath-on-disk reference-name\": " +
-                "Loads an image into the editor. It will be referred to as " +
-                "\"reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"save-ppm filepath-on-disk reference-name\": " +
-                "Saves the image with the name \"reference-name\" to your disk at " +
-                "the location \"filepath-on-disk\" as a PPM file." + System.lineSeparator()),
-        new PrintInteraction("\"save-png filepath-on-disk reference-name\": " +
-                "Saves the image with the name \"reference-name\" to your disk at " +
-                "the location \"filepath-on-disk\" as a PNG file." + System.lineSeparator()),
-        new PrintInteraction("\"red-component reference-name new-reference-name\": " +
-                "Creates a grayscale image with the red component of the image " +
-                "with the name \"reference name\" and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"green-component reference-name new-reference-name\": " +
-                "Creates a grayscale image with the green component of the image " +
-                "with the name \"reference name\" and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"blue-component reference-name new-reference-name\": " +
-                "Creates a grayscale image with the blue component of the image " +
-                "with the name \"reference name\" and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"value-component reference-name new-reference-name\": " +
-                "Creates a grayscale image with the value component of the image " +
-                "with the name \"reference name\" and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"intensity-component reference-name " +
-                "new-reference-name\": Creates a grayscale image with the intensity " +
-                "component of the image with the name \"reference name\" and stores it" +
-                " with the name \"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"luma-component reference-name new-reference-name\": " +
-                "Creates a grayscale image with the luma component of the image " +
-                "with the name \"reference name\" and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"horizontal-flip reference-name " +
-                "new-reference-name\": Flips the image with the name \"reference-name\" " +
-                "horizontally and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"vertical-flip reference-name " +
-                "new-reference-name\": Flips the image with the name \"reference-name\" " +
-                "vertically and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"brighten increment reference-name " +
-                "new-reference-name\": Brightens the image with the name " +
-                "\"reference-name\" by \"increment\" and stores it with the name " +
-                "\"new-reference-name\". " +
-                "Negative increments will darken the image." + System.lineSeparator()),
-        new PrintInteraction("\"read-script path-to-script\": Reads the txt " +
-                "file provided and runs the commands inside of it." + System.lineSeparator()),
+        this.welcomeMessage(),
         new PrintInteraction(System.lineSeparator() + "Enter command or " +
                 "\"q\" to quit: "),
         new InputInteraction("load res/b.ppm b\n"),
@@ -667,55 +334,7 @@ public class ImageUtilControllerTest {
   @Test
   public void testIntensityGrayscaleController() {
     Interaction[] interactions = new Interaction[]{
-        new PrintInteraction("ImageUtil commands: " + System.lineSeparator()),
-        new PrintInteraction("\"load filepath-on-disk reference-name\": " +
-                "Loads an image into the editor. It will be referred to as " +
-                "\"reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"save-ppm filepath-on-disk reference-name\": " +
-                "Saves the image with the name \"reference-name\" to your disk at " +
-                "the location \"filepath-on-disk\" as a PPM file." + System.lineSeparator()),
-        new PrintInteraction("\"save-png filepath-on-disk reference-name\": " +
-                "Saves the image with the name \"reference-name\" to your disk at " +
-                "the location \"filepath-on-disk\" as a PNG file." + System.lineSeparator()),
-        new PrintInteraction("\"red-component reference-name new-reference-name\": " +
-                "Creates a grayscale image with the red component of the image " +
-                "with the name \"reference name\" and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"green-component reference-name new-reference-name\": " +
-                "Creates a grayscale image with the green component of the image " +
-                "with the name \"reference name\" and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"blue-component reference-name new-reference-name\": " +
-                "Creates a grayscale image with the blue component of the image " +
-                "with the name \"reference name\" and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"value-component reference-name new-reference-name\": " +
-                "Creates a grayscale image with the value component of the image " +
-                "with the name \"reference name\" and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"intensity-component reference-name " +
-                "new-reference-name\": Creates a grayscale image with the intensity " +
-                "component of the image with the name \"reference name\" and stores it" +
-                " with the name \"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"luma-component reference-name new-reference-name\": " +
-                "Creates a grayscale image with the luma component of the image " +
-                "with the name \"reference name\" and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"horizontal-flip reference-name " +
-                "new-reference-name\": Flips the image with the name \"reference-name\" " +
-                "horizontally and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"vertical-flip reference-name " +
-                "new-reference-name\": Flips the image with the name \"reference-name\" " +
-                "vertically and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"brighten increment reference-name " +
-                "new-reference-name\": Brightens the image with the name " +
-                "\"reference-name\" by \"increment\" and stores it with the name " +
-                "\"new-reference-name\". " +
-                "Negative increments will darken the image." + System.lineSeparator()),
-        new PrintInteraction("\"read-script path-to-script\": Reads the txt " +
-                "file provided and runs the commands inside of it." + System.lineSeparator()),
+        this.welcomeMessage(),
         new PrintInteraction(System.lineSeparator() + "Enter command or " +
                 "\"q\" to quit: "),
         new InputInteraction("load res/b.ppm b\n"),
@@ -736,55 +355,7 @@ public class ImageUtilControllerTest {
   @Test
   public void testLumaGrayscaleController() {
     Interaction[] interactions = new Interaction[]{
-        new PrintInteraction("ImageUtil commands: " + System.lineSeparator()),
-        new PrintInteraction("\"load filepath-on-disk reference-name\": " +
-                "Loads an image into the editor. It will be referred to as " +
-                "\"reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"save-ppm filepath-on-disk reference-name\": " +
-                "Saves the image with the name \"reference-name\" to your disk at " +
-                "the location \"filepath-on-disk\" as a PPM file." + System.lineSeparator()),
-        new PrintInteraction("\"save-png filepath-on-disk reference-name\": " +
-                "Saves the image with the name \"reference-name\" to your disk at " +
-                "the location \"filepath-on-disk\" as a PNG file." + System.lineSeparator()),
-        new PrintInteraction("\"red-component reference-name new-reference-name\": " +
-                "Creates a grayscale image with the red component of the image " +
-                "with the name \"reference name\" and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"green-component reference-name new-reference-name\": " +
-                "Creates a grayscale image with the green component of the image " +
-                "with the name \"reference name\" and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"blue-component reference-name new-reference-name\": " +
-                "Creates a grayscale image with the blue component of the image " +
-                "with the name \"reference name\" and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"value-component reference-name new-reference-name\": " +
-                "Creates a grayscale image with the value component of the image " +
-                "with the name \"reference name\" and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"intensity-component reference-name " +
-                "new-reference-name\": Creates a grayscale image with the intensity " +
-                "component of the image with the name \"reference name\" and stores it" +
-                " with the name \"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"luma-component reference-name new-reference-name\": " +
-                "Creates a grayscale image with the luma component of the image " +
-                "with the name \"reference name\" and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"horizontal-flip reference-name " +
-                "new-reference-name\": Flips the image with the name \"reference-name\" " +
-                "horizontally and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"vertical-flip reference-name " +
-                "new-reference-name\": Flips the image with the name \"reference-name\" " +
-                "vertically and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"brighten increment reference-name " +
-                "new-reference-name\": Brightens the image with the name " +
-                "\"reference-name\" by \"increment\" and stores it with the name " +
-                "\"new-reference-name\". " +
-                "Negative increments will darken the image." + System.lineSeparator()),
-        new PrintInteraction("\"read-script path-to-script\": Reads the txt " +
-                "file provided and runs the commands inside of it." + System.lineSeparator()),
+        this.welcomeMessage(),
         new PrintInteraction(System.lineSeparator() + "Enter command or " +
                 "\"q\" to quit: "),
         new InputInteraction("load res/b.ppm b\n"),
@@ -805,55 +376,7 @@ public class ImageUtilControllerTest {
   @Test
   public void testFlipHorizontalController() {
     Interaction[] interactions = new Interaction[]{
-        new PrintInteraction("ImageUtil commands: " + System.lineSeparator()),
-        new PrintInteraction("\"load filepath-on-disk reference-name\": " +
-                "Loads an image into the editor. It will be referred to as " +
-                "\"reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"save-ppm filepath-on-disk reference-name\": " +
-                "Saves the image with the name \"reference-name\" to your disk at " +
-                "the location \"filepath-on-disk\" as a PPM file." + System.lineSeparator()),
-        new PrintInteraction("\"save-png filepath-on-disk reference-name\": " +
-                "Saves the image with the name \"reference-name\" to your disk at " +
-                "the location \"filepath-on-disk\" as a PNG file." + System.lineSeparator()),
-        new PrintInteraction("\"red-component reference-name new-reference-name\": " +
-                "Creates a grayscale image with the red component of the image " +
-                "with the name \"reference name\" and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"green-component reference-name new-reference-name\": " +
-                "Creates a grayscale image with the green component of the image " +
-                "with the name \"reference name\" and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"blue-component reference-name new-reference-name\": " +
-                "Creates a grayscale image with the blue component of the image " +
-                "with the name \"reference name\" and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"value-component reference-name new-reference-name\": " +
-                "Creates a grayscale image with the value component of the image " +
-                "with the name \"reference name\" and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"intensity-component reference-name " +
-                "new-reference-name\": Creates a grayscale image with the intensity " +
-                "component of the image with the name \"reference name\" and stores it" +
-                " with the name \"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"luma-component reference-name new-reference-name\": " +
-                "Creates a grayscale image with the luma component of the image " +
-                "with the name \"reference name\" and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"horizontal-flip reference-name " +
-                "new-reference-name\": Flips the image with the name \"reference-name\" " +
-                "horizontally and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"vertical-flip reference-name " +
-                "new-reference-name\": Flips the image with the name \"reference-name\" " +
-                "vertically and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"brighten increment reference-name " +
-                "new-reference-name\": Brightens the image with the name " +
-                "\"reference-name\" by \"increment\" and stores it with the name " +
-                "\"new-reference-name\". " +
-                "Negative increments will darken the image." + System.lineSeparator()),
-        new PrintInteraction("\"read-script path-to-script\": Reads the txt " +
-                "file provided and runs the commands inside of it." + System.lineSeparator()),
+        this.welcomeMessage(),
         new PrintInteraction(System.lineSeparator() + "Enter command or " +
                 "\"q\" to quit: "),
         new InputInteraction("load res/b.ppm b\n"),
@@ -874,55 +397,7 @@ public class ImageUtilControllerTest {
   @Test
   public void testFlipVerticalController() {
     Interaction[] interactions = new Interaction[]{
-        new PrintInteraction("ImageUtil commands: " + System.lineSeparator()),
-        new PrintInteraction("\"load filepath-on-disk reference-name\": " +
-                "Loads an image into the editor. It will be referred to as " +
-                "\"reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"save-ppm filepath-on-disk reference-name\": " +
-                "Saves the image with the name \"reference-name\" to your disk at " +
-                "the location \"filepath-on-disk\" as a PPM file." + System.lineSeparator()),
-        new PrintInteraction("\"save-png filepath-on-disk reference-name\": " +
-                "Saves the image with the name \"reference-name\" to your disk at " +
-                "the location \"filepath-on-disk\" as a PNG file." + System.lineSeparator()),
-        new PrintInteraction("\"red-component reference-name new-reference-name\": " +
-                "Creates a grayscale image with the red component of the image " +
-                "with the name \"reference name\" and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"green-component reference-name new-reference-name\": " +
-                "Creates a grayscale image with the green component of the image " +
-                "with the name \"reference name\" and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"blue-component reference-name new-reference-name\": " +
-                "Creates a grayscale image with the blue component of the image " +
-                "with the name \"reference name\" and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"value-component reference-name new-reference-name\": " +
-                "Creates a grayscale image with the value component of the image " +
-                "with the name \"reference name\" and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"intensity-component reference-name " +
-                "new-reference-name\": Creates a grayscale image with the intensity " +
-                "component of the image with the name \"reference name\" and stores it" +
-                " with the name \"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"luma-component reference-name new-reference-name\": " +
-                "Creates a grayscale image with the luma component of the image " +
-                "with the name \"reference name\" and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"horizontal-flip reference-name " +
-                "new-reference-name\": Flips the image with the name \"reference-name\" " +
-                "horizontally and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"vertical-flip reference-name " +
-                "new-reference-name\": Flips the image with the name \"reference-name\" " +
-                "vertically and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"brighten increment reference-name " +
-                "new-reference-name\": Brightens the image with the name " +
-                "\"reference-name\" by \"increment\" and stores it with the name " +
-                "\"new-reference-name\". " +
-                "Negative increments will darken the image." + System.lineSeparator()),
-        new PrintInteraction("\"read-script path-to-script\": Reads the txt " +
-                "file provided and runs the commands inside of it." + System.lineSeparator()),
+        this.welcomeMessage(),
         new PrintInteraction(System.lineSeparator() + "Enter command or " +
                 "\"q\" to quit: "),
         new InputInteraction("load res/b.ppm b\n"),
@@ -943,55 +418,7 @@ public class ImageUtilControllerTest {
   @Test
   public void testBrightenController() {
     Interaction[] interactions = new Interaction[]{
-        new PrintInteraction("ImageUtil commands: " + System.lineSeparator()),
-        new PrintInteraction("\"load filepath-on-disk reference-name\": " +
-                "Loads an image into the editor. It will be referred to as " +
-                "\"reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"save-ppm filepath-on-disk reference-name\": " +
-                "Saves the image with the name \"reference-name\" to your disk at " +
-                "the location \"filepath-on-disk\" as a PPM file." + System.lineSeparator()),
-        new PrintInteraction("\"save-png filepath-on-disk reference-name\": " +
-                "Saves the image with the name \"reference-name\" to your disk at " +
-                "the location \"filepath-on-disk\" as a PNG file." + System.lineSeparator()),
-        new PrintInteraction("\"red-component reference-name new-reference-name\": " +
-                "Creates a grayscale image with the red component of the image " +
-                "with the name \"reference name\" and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"green-component reference-name new-reference-name\": " +
-                "Creates a grayscale image with the green component of the image " +
-                "with the name \"reference name\" and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"blue-component reference-name new-reference-name\": " +
-                "Creates a grayscale image with the blue component of the image " +
-                "with the name \"reference name\" and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"value-component reference-name new-reference-name\": " +
-                "Creates a grayscale image with the value component of the image " +
-                "with the name \"reference name\" and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"intensity-component reference-name " +
-                "new-reference-name\": Creates a grayscale image with the intensity " +
-                "component of the image with the name \"reference name\" and stores it" +
-                " with the name \"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"luma-component reference-name new-reference-name\": " +
-                "Creates a grayscale image with the luma component of the image " +
-                "with the name \"reference name\" and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"horizontal-flip reference-name " +
-                "new-reference-name\": Flips the image with the name \"reference-name\" " +
-                "horizontally and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"vertical-flip reference-name " +
-                "new-reference-name\": Flips the image with the name \"reference-name\" " +
-                "vertically and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"brighten increment reference-name " +
-                "new-reference-name\": Brightens the image with the name " +
-                "\"reference-name\" by \"increment\" and stores it with the name " +
-                "\"new-reference-name\". " +
-                "Negative increments will darken the image." + System.lineSeparator()),
-        new PrintInteraction("\"read-script path-to-script\": Reads the txt " +
-                "file provided and runs the commands inside of it." + System.lineSeparator()),
+        this.welcomeMessage(),
         new PrintInteraction(System.lineSeparator() + "Enter command or " +
                 "\"q\" to quit: "),
         new InputInteraction("load res/b.ppm b\n"),
@@ -1012,55 +439,7 @@ public class ImageUtilControllerTest {
   @Test
   public void testDarkenController() {
     Interaction[] interactions = new Interaction[]{
-        new PrintInteraction("ImageUtil commands: " + System.lineSeparator()),
-        new PrintInteraction("\"load filepath-on-disk reference-name\": " +
-                "Loads an image into the editor. It will be referred to as " +
-                "\"reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"save-ppm filepath-on-disk reference-name\": " +
-                "Saves the image with the name \"reference-name\" to your disk at " +
-                "the location \"filepath-on-disk\" as a PPM file." + System.lineSeparator()),
-        new PrintInteraction("\"save-png filepath-on-disk reference-name\": " +
-                "Saves the image with the name \"reference-name\" to your disk at " +
-                "the location \"filepath-on-disk\" as a PNG file." + System.lineSeparator()),
-        new PrintInteraction("\"red-component reference-name new-reference-name\": " +
-                "Creates a grayscale image with the red component of the image " +
-                "with the name \"reference name\" and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"green-component reference-name new-reference-name\": " +
-                "Creates a grayscale image with the green component of the image " +
-                "with the name \"reference name\" and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"blue-component reference-name new-reference-name\": " +
-                "Creates a grayscale image with the blue component of the image " +
-                "with the name \"reference name\" and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"value-component reference-name new-reference-name\": " +
-                "Creates a grayscale image with the value component of the image " +
-                "with the name \"reference name\" and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"intensity-component reference-name " +
-                "new-reference-name\": Creates a grayscale image with the intensity " +
-                "component of the image with the name \"reference name\" and stores it" +
-                " with the name \"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"luma-component reference-name new-reference-name\": " +
-                "Creates a grayscale image with the luma component of the image " +
-                "with the name \"reference name\" and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"horizontal-flip reference-name " +
-                "new-reference-name\": Flips the image with the name \"reference-name\" " +
-                "horizontally and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"vertical-flip reference-name " +
-                "new-reference-name\": Flips the image with the name \"reference-name\" " +
-                "vertically and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"brighten increment reference-name " +
-                "new-reference-name\": Brightens the image with the name " +
-                "\"reference-name\" by \"increment\" and stores it with the name " +
-                "\"new-reference-name\". " +
-                "Negative increments will darken the image." + System.lineSeparator()),
-        new PrintInteraction("\"read-script path-to-script\": Reads the txt " +
-                "file provided and runs the commands inside of it." + System.lineSeparator()),
+        this.welcomeMessage(),
         new PrintInteraction(System.lineSeparator() + "Enter command or " +
                 "\"q\" to quit: "),
         new InputInteraction("load res/b.ppm b\n"),
@@ -1078,58 +457,788 @@ public class ImageUtilControllerTest {
     assertEquals(expectedOutput.toString(), actualOutput.toString());
   }
 
+  @Test
+  public void testStorageCommands() {
+    Interaction[] interactions = new Interaction[]{
+        this.welcomeMessage(),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("off-heap 0\n"),
+        new PrintInteraction("New images of at least 0 MB are stored off the heap"),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("load res/b.ppm b\n"),
+        new PrintInteraction("Loaded res/b.ppm as \"b\""),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("off-heap off\n"),
+        new PrintInteraction("New images are stored on the heap"),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("horizontal-flip b b-horizontal\n"),
+        new PrintInteraction("Horizontal flip completed"),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("mem\n"),
+        new PrintInteraction("b: 38x36, 5472 bytes, Resident, off-heap, loaded from res/b.ppm"
+                        + System.lineSeparator(),
+                "b-horizontal: 38x36, 5472 bytes, Resident, horizontal flip of b"
+                        + System.lineSeparator(),
+                "Total: 10944 of " + this.model.getMemoryBudget() + " bytes"
+                        + System.lineSeparator(),
+                "Buffer pool: 0 hits, 2 misses, 0 bytes held"),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("off-heap some\n"),
+        new PrintInteraction("Size is not a number."),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("layout tiled b-horizontal\n"),
+        new PrintInteraction("Layout of \"b-horizontal\" set to tiled"),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("layout square b\n"),
+        new PrintInteraction("Expected \"tiled\" or \"linear\"."),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("layout tiled nothing\n"),
+        new PrintInteraction("That image hasn't been loaded yet."),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("mem\n"),
+        new PrintInteraction("b: 38x36, 5472 bytes, Resident, off-heap, loaded from res/b.ppm"
+                        + System.lineSeparator(),
+                "b-horizontal: 38x36, 5472 bytes, Resident, tiled, horizontal flip of b"
+                        + System.lineSeparator(),
+                "Total: 10944 of " + this.model.getMemoryBudget() + " bytes"
+                        + System.lineSeparator(),
+                "Buffer pool: 0 hits, 2 misses, 5472 bytes held"),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("q\n"),
+        new PrintInteraction("Quitting.")
+    };
+    this.runController(interactions, model, view);
+    assertEquals(expectedOutput.toString(), actualOutput.toString());
+  }
+
+  @Test
+  public void testStreamCommand() {
+    Interaction[] interactions = new Interaction[]{
+        this.welcomeMessage(),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("stream load res/b.ppm | horizontal-flip | save-ppm bSave\n"),
+        new PrintInteraction("Streamed to bSave.ppm"),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("load bSave.ppm streamed\n"),
+        new PrintInteraction("Loaded bSave.ppm as \"streamed\""),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("stream load res/b.ppm | blur | save-ppm bSave\n"),
+        new PrintInteraction("\"blur\" can't be streamed."),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("stream load res/b.ppm | brighten much | save-ppm bSave\n"),
+        new PrintInteraction("Increment is not a number."),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("stream load res/b.ppm | brighten | save-ppm bSave\n"),
+        new PrintInteraction("Not enough inputs."),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("stream res/b.ppm bSave\n"),
+        new PrintInteraction("A stream has to start with \"load\" and end with \"save-ppm\"."),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("stream load src/b.ppm | save-ppm bSave\n"),
+        new PrintInteraction("File src/b.ppm not found!"),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("q\n"),
+        new PrintInteraction("Quitting.")
+    };
+    this.runController(interactions, model, view);
+    assertEquals(expectedOutput.toString(), actualOutput.toString());
+    try {
+      this.model.loadImage("res/b.ppm", "b");
+    } catch (FileNotFoundException e) {
+      fail(e.getMessage());
+    }
+    this.model.flipHorizontal("b", "expected");
+    assertEquals(this.model.getImage("expected"), this.model.getImage("streamed"));
+    new File("bSave.ppm").delete();
+  }
+
+  @Test
+  public void testSequenceCommands() {
+    File dir = new File("sequenceTest");
+    dir.mkdir();
+    try {
+      this.model.loadImage("res/b.ppm", "b");
+      this.model.savePPMImage("sequenceTest/f_1", "b");
+      this.model.savePPMImage("sequenceTest/f_2", "b");
+    } catch (IOException e) {
+      fail(e.getMessage());
+    }
+    Interaction[] interactions = new Interaction[]{
+        this.welcomeMessage(),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("load-sequence sequenceTest/f_#.ppm seq\n"),
+        new PrintInteraction("Loaded 2 frames as \"seq\""),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("vertical-flip seq seq-vertical\n"),
+        new PrintInteraction("Vertical flip completed"),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("save-sequence sequenceTest/out_#.ppm seq-vertical\n"),
+        new PrintInteraction("Saved 2 frames"),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("save-sequence sequenceTest/out.ppm seq-vertical\n"),
+        new PrintInteraction("The pattern needs a run of # where the frame number goes."),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("load-sequence sequenceTest/g_#.ppm seq\n"),
+        new PrintInteraction("No frames match sequenceTest/g_#.ppm!"),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("save-sequence sequenceTest/out_#.ppm\n"),
+        new PrintInteraction("Not enough inputs."),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("q\n"),
+        new PrintInteraction("Quitting.")
+    };
+    this.runController(interactions, model, view);
+    assertEquals(expectedOutput.toString(), actualOutput.toString());
+    try {
+      this.model.flipVertical("b", "expected");
+      this.model.loadImage("sequenceTest/out_2.ppm", "saved");
+      assertEquals(this.model.getImage("expected"), this.model.getImage("saved"));
+    } catch (FileNotFoundException e) {
+      fail(e.getMessage());
+    } finally {
+      for (File f : dir.listFiles()) {
+        f.delete();
+      }
+      dir.delete();
+    }
+  }
+
+  @Test
+  public void testBlurAndSharpenCommands() {
+    Interaction[] interactions = new Interaction[]{
+        this.welcomeMessage(),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("load res/b.ppm b\n"),
+        new PrintInteraction("Loaded res/b.ppm as \"b\""),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("blur 3 b b-blur\n"),
+        new PrintInteraction("Image blurred with radius 3"),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("sharpen 1 b b-sharp\n"),
+        new PrintInteraction("Image sharpened with radius 1"),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("blur 0 b b-blur\n"),
+        new PrintInteraction("Radius must be at least 1."),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("sharpen a lot b b-sharp\n"),
+        new PrintInteraction("Radius is not a number."),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("blur 3 c c-blur\n"),
+        new PrintInteraction("That image hasn't been loaded yet."),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("sharpen 3 b\n"),
+        new PrintInteraction("Not enough inputs."),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("q\n"),
+        new PrintInteraction("Quitting.")
+    };
+    this.runController(interactions, model, view);
+    assertEquals(expectedOutput.toString(), actualOutput.toString());
+    this.model.blur(3, "b", "expected");
+    assertEquals(this.model.getImage("expected"), this.model.getImage("b-blur"));
+  }
+
+  @Test
+  public void testSummedAreaCommands() {
+    Interaction[] interactions = new Interaction[]{
+        this.welcomeMessage(),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("load res/b.ppm b\n"),
+        new PrintInteraction("Loaded res/b.ppm as \"b\""),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("box-blur 4 b b-box\n"),
+        new PrintInteraction("Image box blurred with radius 4"),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("adaptive-threshold 5 3 b b-threshold\n"),
+        new PrintInteraction("Adaptive threshold completed"),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("adaptive-threshold 5 b b-threshold\n"),
+        new PrintInteraction("Radius and offset have to be numbers."),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("box-blur 0 b b-box\n"),
+        new PrintInteraction("Radius must be at least 1."),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("region-stats b 0 0 1 1 0 0 38 36\n"),
+        new PrintInteraction("0 0 1 1: mean " + this.formatStats(0, 0, 1, 1) +
+                System.lineSeparator()),
+        new PrintInteraction("0 0 38 36: mean " + this.formatStats(0, 0, 38, 36)),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("region-stats b 30 30 10 10\n"),
+        new PrintInteraction("The region is not inside the image."),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("region-stats b 0 0 10\n"),
+        new PrintInteraction("Not enough inputs."),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("region-stats c 0 0 1 1\n"),
+        new PrintInteraction("That image hasn't been loaded yet."),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("q\n"),
+        new PrintInteraction("Quitting.")
+    };
+    this.runController(interactions, model, view);
+    assertEquals(expectedOutput.toString(), actualOutput.toString());
+    this.model.boxBlur(4, "b", "expected");
+    assertEquals(this.model.getImage("expected"), this.model.getImage("b-box"));
+  }
+
+  /**
+   * Formats the statistics of a region of res/b.ppm the way region-stats shows them.
+   *
+   * @param x      the first column of the region
+   * @param y      the first row of the region
+   * @param width  the width of the region
+   * @param height the height of the region
+   * @return the means and deviations of the region
+   */
+  private String formatStats(int x, int y, int width, int height) {
+    ImageUtilModel other = new PPMUtilModel();
+    try {
+      other.loadImage("res/b.ppm", "b");
+    } catch (FileNotFoundException e) {
+      fail(e.getMessage());
+    }
+    double[] stats = other.regionStats("b", new int[][]{{x, y, width, height}})[0];
+    return String.format("%.1f %.1f %.1f, deviation %.1f %.1f %.1f", stats[0], stats[1],
+        stats[2], stats[3], stats[4], stats[5]);
+  }
+
+  @Test
+  public void testRankCommands() {
+    Interaction[] interactions = new Interaction[]{
+        this.welcomeMessage(),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("load res/b.ppm b\n"),
+        new PrintInteraction("Loaded res/b.ppm as \"b\""),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("median 2 b b-median\n"),
+        new PrintInteraction("Median filter completed with radius 2"),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("erode 1 b b-eroded\n"),
+        new PrintInteraction("Image eroded with radius 1"),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("dilate 30 b b-dilated\n"),
+        new PrintInteraction("Image dilated with radius 30"),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("median -1 b b-median\n"),
+        new PrintInteraction("Radius must be at least 1."),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("erode b b-eroded\n"),
+        new PrintInteraction("Radius is not a number."),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("dilate 2 c c-dilated\n"),
+        new PrintInteraction("That image hasn't been loaded yet."),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("q\n"),
+        new PrintInteraction("Quitting.")
+    };
+    this.runController(interactions, model, view);
+    assertEquals(expectedOutput.toString(), actualOutput.toString());
+    this.model.median(2, "b", "expected");
+    assertEquals(this.model.getImage("expected"), this.model.getImage("b-median"));
+  }
+
+  @Test
+  public void testEdgesCommand() {
+    Interaction[] interactions = new Interaction[]{
+        this.welcomeMessage(),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("load res/b.ppm b\n"),
+        new PrintInteraction("Loaded res/b.ppm as \"b\""),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("edges b b-edges\n"),
+        new PrintInteraction("Edge detection completed"),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("edges c c-edges\n"),
+        new PrintInteraction("That image hasn't been loaded yet."),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("edges b\n"),
+        new PrintInteraction("Not enough inputs."),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("q\n"),
+        new PrintInteraction("Quitting.")
+    };
+    this.runController(interactions, model, view);
+    assertEquals(expectedOutput.toString(), actualOutput.toString());
+    this.model.edges("b", "expected");
+    assertEquals(this.model.getImage("expected"), this.model.getImage("b-edges"));
+  }
+
+  @Test
+  public void testResizeCommand() {
+    Interaction[] interactions = new Interaction[]{
+        this.welcomeMessage(),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("load res/b.ppm b\n"),
+        new PrintInteraction("Loaded res/b.ppm as \"b\""),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("resize lanczos 19 18 b small\n"),
+        new PrintInteraction("Image resized to 19x18"),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("resize gaussian 19 18 b small\n"),
+        new PrintInteraction("Filter has to be box, bilinear or lanczos."),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("resize box 0 18 b small\n"),
+        new PrintInteraction("Width and height have to be at least 1."),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("resize box 100000 100000 b small\n"),
+        new PrintInteraction("The size is too large."),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("resize box wide 18 b small\n"),
+        new PrintInteraction("Width and height have to be numbers."),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("resize box 19 18 c small\n"),
+        new PrintInteraction("That image hasn't been loaded yet."),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("resize box 19 18 b\n"),
+        new PrintInteraction("Not enough inputs."),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("q\n"),
+        new PrintInteraction("Quitting.")
+    };
+    this.runController(interactions, model, view);
+    assertEquals(expectedOutput.toString(), actualOutput.toString());
+    this.model.resize(ResizeFilter.Lanczos, 19, 18, "b", "expected");
+    assertEquals(this.model.getImage("expected"), this.model.getImage("small"));
+  }
+
+  @Test
+  public void testExportPyramidCommand() {
+    Interaction[] interactions = new Interaction[]{
+        this.welcomeMessage(),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("load res/b.ppm b\n"),
+        new PrintInteraction("Loaded res/b.ppm as \"b\""),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("export-pyramid 3 pyramidCommand b\n"),
+        new PrintInteraction("Exported 3 levels"),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("export-pyramid 0 pyramidCommand b\n"),
+        new PrintInteraction("Levels must be at least 1."),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("export-pyramid three pyramidCommand b\n"),
+        new PrintInteraction("Levels is not a number."),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("export-pyramid 3 pyramidCommand c\n"),
+        new PrintInteraction("That image hasn't been loaded yet."),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("export-pyramid 3 pyramidCommand\n"),
+        new PrintInteraction("Not enough inputs."),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("q\n"),
+        new PrintInteraction("Quitting.")
+    };
+    try {
+      this.runController(interactions, model, view);
+      assertEquals(expectedOutput.toString(), actualOutput.toString());
+      for (int divisor = 1; divisor <= 4; divisor *= 2) {
+        assertTrue(new File("pyramidCommand-" + divisor + ".ppm").exists());
+        assertTrue(new File("pyramidCommand-" + divisor + ".png").exists());
+      }
+    } finally {
+      for (int divisor = 1; divisor <= 4; divisor *= 2) {
+        new File("pyramidCommand-" + divisor + ".ppm").delete();
+        new File("pyramidCommand-" + divisor + ".png").delete();
+      }
+    }
+  }
+
+  @Test
+  public void testRotateCommands() {
+    Interaction[] interactions = new Interaction[]{
+        this.welcomeMessage(),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("load res/b.ppm b\n"),
+        new PrintInteraction("Loaded res/b.ppm as \"b\""),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("rotate-90 b b-90\n"),
+        new PrintInteraction("Image rotated 90 degrees"),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("rotate-180 b b-180\n"),
+        new PrintInteraction("Image rotated 180 degrees"),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("rotate-270 b b-270\n"),
+        new PrintInteraction("Image rotated 270 degrees"),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("transpose b b-transposed\n"),
+        new PrintInteraction("Transpose completed"),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("rotate-90 c c-90\n"),
+        new PrintInteraction("That image hasn't been loaded yet."),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("transpose b\n"),
+        new PrintInteraction("Not enough inputs."),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("q\n"),
+        new PrintInteraction("Quitting.")
+    };
+    this.runController(interactions, model, view);
+    assertEquals(expectedOutput.toString(), actualOutput.toString());
+    this.model.rotate90("b", "expected");
+    assertEquals(this.model.getImage("expected"), this.model.getImage("b-90"));
+    this.model.transpose("b", "expectedTransposed");
+    assertEquals(this.model.getImage("expectedTransposed"),
+        this.model.getImage("b-transposed"));
+  }
+
+  @Test
+  public void testWarpCommands() {
+    Interaction[] interactions = new Interaction[]{
+        this.welcomeMessage(),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("load res/b.ppm b\n"),
+        new PrintInteraction("Loaded res/b.ppm as \"b\""),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("rotate bicubic 12.5 b b-turned\n"),
+        new PrintInteraction("Image rotated 12.5 degrees"),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("affine bilinear 1 0.2 0 0 1 0 b b-sheared\n"),
+        new PrintInteraction("Affine warp completed"),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("rotate nearest 12.5 b b-turned\n"),
+        new PrintInteraction("Sampling has to be bilinear or bicubic."),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("rotate bilinear steep b b-turned\n"),
+        new PrintInteraction("Degrees is not a number."),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("rotate bilinear NaN b b-turned\n"),
+        new PrintInteraction("Degrees is not a number."),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("affine bilinear 1 2 0 2 4 0 b b-flat\n"),
+        new PrintInteraction("The matrix can't be inverted."),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("affine bilinear 1 0 x 0 1 0 b b-moved\n"),
+        new PrintInteraction("Matrix entries have to be numbers."),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("rotate bilinear 10 c c-turned\n"),
+        new PrintInteraction("That image hasn't been loaded yet."),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("affine bilinear 1 0 0 0 1 0 b\n"),
+        new PrintInteraction("Not enough inputs."),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("q\n"),
+        new PrintInteraction("Quitting.")
+    };
+    this.runController(interactions, model, view);
+    assertEquals(expectedOutput.toString(), actualOutput.toString());
+    this.model.rotate(Sampling.Bicubic, 12.5, "b", "expectedTurned");
+    assertEquals(this.model.getImage("expectedTurned"), this.model.getImage("b-turned"));
+    this.model.affine(Sampling.Bilinear, new double[]{1, 0.2, 0, 0, 1, 0}, "b",
+        "expectedSheared");
+    assertEquals(this.model.getImage("expectedSheared"), this.model.getImage("b-sheared"));
+  }
+
+  @Test
+  public void testColorMatrixCommand() {
+    Interaction[] interactions = new Interaction[]{
+        this.welcomeMessage(),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("load res/b.ppm b\n"),
+        new PrintInteraction("Loaded res/b.ppm as \"b\""),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("color-matrix sepia b b-sepia\n"),
+        new PrintInteraction("Color matrix applied"),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("color-matrix 0 1 0 1 0 0 0 0 1 b b-swapped\n"),
+        new PrintInteraction("Color matrix applied"),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("color-matrix 1 0 0 10 0 1 0 10 0 0 1 10 b b-lifted\n"),
+        new PrintInteraction("Color matrix applied"),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("color-matrix warm b b-warm\n"),
+        new PrintInteraction("Preset has to be sepia, red, green, blue, intensity, luma, " +
+                "ycbcr or from-ycbcr."),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("color-matrix 1 0 0 0 1 0 0 0 b b-short\n"),
+        new PrintInteraction("A color matrix has 9 or 12 entries."),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("color-matrix 5000 0 0 0 1 0 0 0 1 b b-large\n"),
+        new PrintInteraction("Matrix entries have to be between -4096 and 4096."),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("color-matrix 1 0 0 0 x 0 0 0 1 b b-x\n"),
+        new PrintInteraction("Matrix entries have to be numbers."),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("color-matrix sepia c c-sepia\n"),
+        new PrintInteraction("That image hasn't been loaded yet."),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("color-matrix sepia b\n"),
+        new PrintInteraction("Not enough inputs."),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("q\n"),
+        new PrintInteraction("Quitting.")
+    };
+    this.runController(interactions, model, view);
+    assertEquals(expectedOutput.toString(), actualOutput.toString());
+    this.model.colorMatrix(ColorPreset.Sepia, "b", "expectedSepia");
+    assertEquals(this.model.getImage("expectedSepia"), this.model.getImage("b-sepia"));
+    this.model.colorMatrix(new double[]{0, 1, 0, 1, 0, 0, 0, 0, 1}, "b", "expectedSwapped");
+    assertEquals(this.model.getImage("expectedSwapped"), this.model.getImage("b-swapped"));
+  }
+
+  @Test
+  public void testHistogramCommands() {
+    String[] expectedStats = this.formatChannels(false);
+    String[] expectedCounts = this.formatChannels(true);
+    Interaction[] interactions = new Interaction[]{
+        this.welcomeMessage(),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("load res/b.ppm b\n"),
+        new PrintInteraction("Loaded res/b.ppm as \"b\""),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("stats b\n"),
+        new PrintInteraction(expectedStats[0] + System.lineSeparator()),
+        new PrintInteraction(expectedStats[1] + System.lineSeparator()),
+        new PrintInteraction(expectedStats[2] + System.lineSeparator()),
+        new PrintInteraction(expectedStats[3]),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("histogram b\n"),
+        new PrintInteraction(expectedCounts[0] + System.lineSeparator()),
+        new PrintInteraction(expectedCounts[1] + System.lineSeparator()),
+        new PrintInteraction(expectedCounts[2] + System.lineSeparator()),
+        new PrintInteraction(expectedCounts[3]),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("auto-levels b b-stretched\n"),
+        new PrintInteraction("Auto levels completed"),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("equalize b b-equalized\n"),
+        new PrintInteraction("Equalization completed"),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("threshold b b-binary\n"),
+        new PrintInteraction("Threshold completed"),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("stats c\n"),
+        new PrintInteraction("That image hasn't been loaded yet."),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("threshold b\n"),
+        new PrintInteraction("Not enough inputs."),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("q\n"),
+        new PrintInteraction("Quitting.")
+    };
+    this.runController(interactions, model, view);
+    assertEquals(expectedOutput.toString(), actualOutput.toString());
+    this.model.autoLevels("b", "expectedStretched");
+    assertEquals(this.model.getImage("expectedStretched"), this.model.getImage("b-stretched"));
+    this.model.equalize("b", "expectedEqualized");
+    assertEquals(this.model.getImage("expectedEqualized"), this.model.getImage("b-equalized"));
+    this.model.threshold("b", "expectedBinary");
+    assertEquals(this.model.getImage("expectedBinary"), this.model.getImage("b-binary"));
+  }
+
+  /**
+   * Formats the histograms or statistics of res/b.ppm the way histogram and stats show them.
+   *
+   * @param counts true for the histograms, false for the statistics
+   * @return the line of red, green, blue and luma, in that order
+   */
+  private String[] formatChannels(boolean counts) {
+    ImageUtilModel other = new PPMUtilModel();
+    try {
+      other.loadImage("res/b.ppm", "b");
+    } catch (FileNotFoundException e) {
+      fail(e.getMessage());
+    }
+    int[][] histograms = other.histogram("b");
+    double[][] stats = other.stats("b");
+    String[] names = {"red", "green", "blue", "luma"};
+    String[] lines = new String[names.length];
+    for (int c = 0; c < names.length; c += 1) {
+      StringBuilder line = new StringBuilder(names[c] + ":");
+      if (counts) {
+        for (int count : histograms[c]) {
+          line.append(" ").append(count);
+        }
+      } else {
+        line.append(String.format(" min %.0f, max %.0f, mean %.1f, deviation %.1f",
+            stats[c][0], stats[c][1], stats[c][2], stats[c][3]));
+      }
+      lines[c] = line.toString();
+    }
+    return lines;
+  }
+
+  @Test
+  public void testDropAndPin() {
+    Interaction[] interactions = new Interaction[]{
+        this.welcomeMessage(),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("load res/b.ppm b\n"),
+        new PrintInteraction("Loaded res/b.ppm as \"b\""),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("vertical-flip b b-vertical\n"),
+        new PrintInteraction("Vertical flip completed"),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("drop b-vertical\n"),
+        new PrintInteraction("Dropped \"b-vertical\""),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("drop b-vertical\n"),
+        new PrintInteraction("That image hasn't been loaded yet."),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("pin b\n"),
+        new PrintInteraction("Pinned \"b\""),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("mem\n"),
+        new PrintInteraction("b: 38x36, 5472 bytes, Resident, pinned, loaded from res/b.ppm"
+                        + System.lineSeparator(),
+                "Total: 5472 of " + this.model.getMemoryBudget() + " bytes"
+                        + System.lineSeparator(),
+                "Buffer pool: 0 hits, 2 misses, 5472 bytes held"),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("auto-drop on\n"),
+        new PrintInteraction("Automatic drops turned on"),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new InputInteraction("read-script script.txt\n"),
+        new PrintInteraction("Script file loaded"),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new PrintInteraction("Loaded res/b.ppm as \"b\""),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new PrintInteraction("Image brightened by 10"),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new PrintInteraction("Vertical flip completed"),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new PrintInteraction("Horizontal flip completed"),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new PrintInteraction("Value component saved as b-value-greyscale"),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new PrintInteraction("Save successful"),
+        new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                "\"q\" to quit: "),
+        new PrintInteraction("No more inputs in file."),
+    };
+    this.runController(interactions, model, view);
+    assertEquals(expectedOutput.toString(), actualOutput.toString());
+    assertEquals(Arrays.asList("b"), this.model.getReferenceNames());
+  }
+
   @Test
   public void testScriptReaderController() {
     Interaction[] interactions = new Interaction[]{
-        new PrintInteraction("ImageUtil commands: " + System.lineSeparator()),
-        new PrintInteraction("\"load filepath-on-disk reference-name\": " +
-                "Loads an image into the editor. It will be referred to as " +
-                "\"reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"save-ppm filepath-on-disk reference-name\": " +
-                "Saves the image with the name \"reference-name\" to your disk at " +
-                "the location \"filepath-on-disk\" as a PPM file." + System.lineSeparator()),
-        new PrintInteraction("\"save-png filepath-on-disk reference-name\": " +
-                "Saves the image with the name \"reference-name\" to your disk at " +
-                "the location \"filepath-on-disk\" as a PNG file." + System.lineSeparator()),
-        new PrintInteraction("\"red-component reference-name new-reference-name\": " +
-                "Creates a grayscale image with the red component of the image " +
-                "with the name \"reference name\" and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"green-component reference-name new-reference-name\": " +
-                "Creates a grayscale image with the green component of the image " +
-                "with the name \"reference name\" and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"blue-component reference-name new-reference-name\": " +
-                "Creates a grayscale image with the blue component of the image " +
-                "with the name \"reference name\" and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"value-component reference-name new-reference-name\": " +
-                "Creates a grayscale image with the value component of the image " +
-                "with the name \"reference name\" and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"intensity-component reference-name " +
-                "new-reference-name\": Creates a grayscale image with the intensity " +
-                "component of the image with the name \"reference name\" and stores it" +
-                " with the name \"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"luma-component reference-name new-reference-name\": " +
-                "Creates a grayscale image with the luma component of the image " +
-                "with the name \"reference name\" and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"horizontal-flip reference-name " +
-                "new-reference-name\": Flips the image with the name \"reference-name\" " +
-                "horizontally and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"vertical-flip reference-name " +
-                "new-reference-name\": Flips the image with the name \"reference-name\" " +
-                "vertically and stores it with the name " +
-                "\"new-reference-name\"." + System.lineSeparator()),
-        new PrintInteraction("\"brighten increment reference-name " +
-                "new-reference-name\": Brightens the image with the name " +
-                "\"reference-name\" by \"increment\" and stores it with the name " +
-                "\"new-reference-name\". " +
-                "Negative increments will darken the image." + System.lineSeparator()),
-        new PrintInteraction("\"read-script path-to-script\": Reads the txt " +
-                "file provided and runs the commands inside of it." + System.lineSeparator()),
+        this.welcomeMessage(),
         new PrintInteraction(System.lineSeparator() + "Enter command or " +
                 "\"q\" to quit: "),
         new InputInteraction("read-script script.txt\n"),
@@ -1159,7 +1268,215 @@ public class ImageUtilControllerTest {
     this.runController(interactions, model, view);
     assertEquals(expectedOutput.toString(), actualOutput.toString());
   }
-  
+
+  @Test
+  public void testUnusedPrefetchesReleased() throws IOException {
+    File script = new File("prefetchScript.txt");
+    Files.write(script.toPath(), Arrays.asList("q", "load res/b.ppm b"));
+    try {
+      Interaction[] interactions = new Interaction[]{
+          this.welcomeMessage(),
+          new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                  "\"q\" to quit: "),
+          new InputInteraction("read-script prefetchScript.txt\n"),
+          new PrintInteraction("Script file loaded"),
+          new PrintInteraction(System.lineSeparator() + "Enter command or " +
+                  "\"q\" to quit: "),
+          new PrintInteraction("Quitting."),
+      };
+      this.runController(interactions, model, view);
+      assertEquals(expectedOutput.toString(), actualOutput.toString());
+      assertEquals(0, this.model.getPrefetchReserved());
+      assertEquals(Arrays.asList(), this.model.getReferenceNames());
+    } finally {
+      script.delete();
+    }
+  }
+
+  /**
+   * Creates the output of the welcome message that lists every command the controller supports.
+   *
+   * @return the interaction printing the welcome message
+   */
+  private Interaction welcomeMessage() {
+    return new PrintInteraction(
+            "ImageUtil commands: " + System.lineSeparator(),
+            "\"load filepath-on-disk reference-name\": " +
+                    "Loads an image into the editor. It will be referred to as " +
+                    "\"reference-name\"." + System.lineSeparator(),
+            "\"save-ppm filepath-on-disk reference-name\": " +
+                    "Saves the image with the name \"reference-name\" to your disk at " +
+                    "the location \"filepath-on-disk\" as a PPM file." + System.lineSeparator(),
+            "\"save-png filepath-on-disk reference-name\": " +
+                    "Saves the image with the name \"reference-name\" to your disk at " +
+                    "the location \"filepath-on-disk\" as a PNG file." + System.lineSeparator(),
+            "\"export-pyramid levels filepath-on-disk reference-name\": Saves the image " +
+                    "with the name \"reference-name\" at \"levels\" sizes, each half the " +
+                    "size of the one before, as both PPM and PNG files named " +
+                    "\"filepath-on-disk\" followed by -1, -2, -4 and so on." +
+                    System.lineSeparator(),
+            "\"red-component reference-name new-reference-name\": " +
+                    "Creates a grayscale image with the red component of the image " +
+                    "with the name \"reference name\" and stores it with the name " +
+                    "\"new-reference-name\"." + System.lineSeparator(),
+            "\"green-component reference-name new-reference-name\": " +
+                    "Creates a grayscale image with the green component of the image " +
+                    "with the name \"reference name\" and stores it with the name " +
+                    "\"new-reference-name\"." + System.lineSeparator(),
+            "\"blue-component reference-name new-reference-name\": " +
+                    "Creates a grayscale image with the blue component of the image " +
+                    "with the name \"reference name\" and stores it with the name " +
+                    "\"new-reference-name\"." + System.lineSeparator(),
+            "\"value-component reference-name new-reference-name\": " +
+                    "Creates a grayscale image with the value component of the image " +
+                    "with the name \"reference name\" and stores it with the name " +
+                    "\"new-reference-name\"." + System.lineSeparator(),
+            "\"intensity-component reference-name " +
+                    "new-reference-name\": Creates a grayscale image with the intensity " +
+                    "component of the image with the name \"reference name\" and stores it" +
+                    " with the name \"new-reference-name\"." + System.lineSeparator(),
+            "\"luma-component reference-name new-reference-name\": " +
+                    "Creates a grayscale image with the luma component of the image " +
+                    "with the name \"reference name\" and stores it with the name " +
+                    "\"new-reference-name\"." + System.lineSeparator(),
+            "\"horizontal-flip reference-name " +
+                    "new-reference-name\": Flips the image with the name \"reference-name\" " +
+                    "horizontally and stores it with the name " +
+                    "\"new-reference-name\"." + System.lineSeparator(),
+            "\"vertical-flip reference-name " +
+                    "new-reference-name\": Flips the image with the name \"reference-name\" " +
+                    "vertically and stores it with the name " +
+                    "\"new-reference-name\"." + System.lineSeparator(),
+            "\"rotate-90 reference-name new-reference-name\", \"rotate-180 ...\", " +
+                    "\"rotate-270 ...\": Turns the image with the name \"reference-name\" " +
+                    "clockwise by that many degrees and stores it with the name " +
+                    "\"new-reference-name\"." + System.lineSeparator(),
+            "\"transpose reference-name new-reference-name\": Swaps the rows and columns " +
+                    "of the image with the name \"reference-name\" and stores it with the " +
+                    "name \"new-reference-name\"." + System.lineSeparator(),
+            "\"rotate sampling degrees reference-name new-reference-name\": Turns the " +
+                    "image with the name \"reference-name\" clockwise by any number of " +
+                    "degrees, sampling it with \"bilinear\" or \"bicubic\", into an image " +
+                    "just large enough to hold it, and stores it with the name " +
+                    "\"new-reference-name\"." + System.lineSeparator(),
+            "\"affine sampling a b c d e f reference-name new-reference-name\": Moves " +
+                    "every point (x, y) of the image with the name \"reference-name\" to " +
+                    "(a x + b y + c, d x + e y + f), sampling it with \"bilinear\" or " +
+                    "\"bicubic\", and stores it with the name \"new-reference-name\"." +
+                    System.lineSeparator(),
+            "\"color-matrix preset reference-name new-reference-name\", " +
+                    "\"color-matrix r1 r2 r3 g1 g2 g3 b1 b2 b3 ...\": Makes every channel " +
+                    "of the image with the name \"reference-name\" a weighted sum of its " +
+                    "red, green and blue, given as nine weights, or twelve with an offset " +
+                    "ending each row, or as the preset \"sepia\", \"red\", \"green\", " +
+                    "\"blue\", \"intensity\", \"luma\", \"ycbcr\" or \"from-ycbcr\", " +
+                    "and stores it with the name \"new-reference-name\"." +
+                    System.lineSeparator(),
+            "\"brighten increment reference-name " +
+                    "new-reference-name\": Brightens the image with the name " +
+                    "\"reference-name\" by \"increment\" and stores it with the name " +
+                    "\"new-reference-name\". " +
+                    "Negative increments will darken the image." + System.lineSeparator(),
+            "\"blur radius reference-name new-reference-name\": Blurs the image with the " +
+                    "name \"reference-name\" with a Gaussian whose standard deviation is " +
+                    "half of \"radius\" and stores it with the name " +
+                    "\"new-reference-name\"." + System.lineSeparator(),
+            "\"sharpen radius reference-name new-reference-name\": Sharpens the image with " +
+                    "the name \"reference-name\" against a blur of \"radius\" pixels and " +
+                    "stores it with the name \"new-reference-name\"." + System.lineSeparator(),
+            "\"edges reference-name new-reference-name\": Finds the edges in the luma of " +
+                    "the image with the name \"reference-name\" and stores how strong they " +
+                    "are as a gray image with the name \"new-reference-name\"." +
+                    System.lineSeparator(),
+            "\"resize filter width height reference-name new-reference-name\": Resizes the " +
+                    "image with the name \"reference-name\" to the given width and height " +
+                    "with the filter \"box\", \"bilinear\" or \"lanczos\" and stores it " +
+                    "with the name \"new-reference-name\"." + System.lineSeparator(),
+            "\"median radius reference-name new-reference-name\": Replaces every channel " +
+                    "of every pixel of the image with the name \"reference-name\" with its " +
+                    "median over the square reaching \"radius\" pixels around it, which " +
+                    "removes specks, and stores it with the name \"new-reference-name\"." +
+                    System.lineSeparator(),
+            "\"erode radius reference-name new-reference-name\": Takes the minimum of " +
+                    "every channel over the square reaching \"radius\" pixels around every " +
+                    "pixel of the image with the name \"reference-name\" and stores it with " +
+                    "the name \"new-reference-name\"." + System.lineSeparator(),
+            "\"dilate radius reference-name new-reference-name\": Takes the maximum of " +
+                    "every channel over the square reaching \"radius\" pixels around every " +
+                    "pixel of the image with the name \"reference-name\" and stores it with " +
+                    "the name \"new-reference-name\"." + System.lineSeparator(),
+            "\"box-blur radius reference-name new-reference-name\": Replaces every pixel " +
+                    "of the image with the name \"reference-name\" with the mean of the " +
+                    "square reaching \"radius\" pixels around it and stores it with the name " +
+                    "\"new-reference-name\"." + System.lineSeparator(),
+            "\"adaptive-threshold radius offset reference-name new-reference-name\": Makes " +
+                    "every pixel of the image with the name \"reference-name\" white if its " +
+                    "luma is above the mean of the square reaching \"radius\" pixels around " +
+                    "it less \"offset\", and black otherwise, and stores it with the name " +
+                    "\"new-reference-name\"." + System.lineSeparator(),
+            "\"region-stats reference-name x y width height ...\": Shows the mean and " +
+                    "standard deviation of the red, green and blue of each region of the image " +
+                    "with the name \"reference-name\"." + System.lineSeparator(),
+            "\"histogram reference-name\": Shows how many pixels of the image with the " +
+                    "name \"reference-name\" have each value of red, green, blue and luma, " +
+                    "from 0 to 255." + System.lineSeparator(),
+            "\"stats reference-name\": Shows the minimum, maximum, mean and standard " +
+                    "deviation of the red, green, blue and luma of the image with the name " +
+                    "\"reference-name\"." + System.lineSeparator(),
+            "\"auto-levels reference-name new-reference-name\", \"equalize ...\": " +
+                    "Stretches the red, green and blue of the image with the name " +
+                    "\"reference-name\" to run from 0 to 255, or spreads them to be used " +
+                    "about equally often, and stores it with the name " +
+                    "\"new-reference-name\"." + System.lineSeparator(),
+            "\"threshold reference-name new-reference-name\": Makes every pixel of the " +
+                    "image with the name \"reference-name\" white if its luma is above the " +
+                    "level that best splits the image into dark and light, and black " +
+                    "otherwise, and stores it with the name \"new-reference-name\"." +
+                    System.lineSeparator(),
+            "\"read-script path-to-script\": Reads the txt " +
+                    "file provided and runs the commands inside of it." + System.lineSeparator(),
+            "\"async-saves on|off\": Turns saving in the background on or off. While it is " +
+                    "on, saves return right away and the image is written while other " +
+                    "commands run." + System.lineSeparator(),
+            "\"sync\": Waits for every save running in the background to finish and " +
+                    "reports the ones that failed." + System.lineSeparator(),
+            "\"mem\": Shows how much memory every image uses, whether its pixels are in " +
+                    "memory, spilled to disk, dropped until they are recomputed, or not read " +
+                    "yet, and where it came from, along with how often pixel buffers were " +
+                    "reused." + System.lineSeparator(),
+            "\"mem-budget megabytes\": Sets how much memory the images may use before the " +
+                    "least recently used ones are spilled to disk or dropped." +
+                    System.lineSeparator(),
+            "\"off-heap megabytes|off\": Stores the pixels of new images of at least this " +
+                    "many megabytes outside of the Java heap, or turns that off." +
+                    System.lineSeparator(),
+            "\"layout tiled|linear reference-name\": Stores the image with the name " +
+                    "\"reference-name\" as 64 by 64 tiles, which keeps operations that read " +
+                    "along columns fast on wide images, or row after row again." +
+                    System.lineSeparator(),
+            "\"drop reference-name\": Removes the image with the name \"reference-name\" " +
+                    "and frees its memory." + System.lineSeparator(),
+            "\"pin reference-name\": Keeps the image with the name \"reference-name\" in " +
+                    "memory and out of automatic drops." + System.lineSeparator(),
+            "\"unpin reference-name\": Undoes \"pin\"." + System.lineSeparator(),
+            "\"auto-drop on|off\": Turns automatic drops on or off. While it is on, scripts " +
+                    "that are read drop every image they create right after its last use, " +
+                    "unless it is pinned." + System.lineSeparator(),
+            "\"stream load filepath-on-disk | step | ... | save-ppm filepath-on-disk\": " +
+                    "Applies the steps to the image on disk and saves the result, a band of " +
+                    "rows at a time, without loading the whole image. Steps are the component " +
+                    "commands, \"brighten increment\", \"horizontal-flip\" and " +
+                    "\"vertical-flip\", without reference names." + System.lineSeparator(),
+            "\"load-sequence pattern sequence-name\": Loads every numbered frame that " +
+                    "matches the pattern, such as frames/frame_#####.ppm, as one sequence. " +
+                    "Every command that makes a new image from an image works on a sequence " +
+                    "and gives a new sequence." + System.lineSeparator(),
+            "\"save-sequence pattern sequence-name\": Runs the commands on every frame of " +
+                    "the sequence, several frames at a time, and saves each frame under its " +
+                    "number in the pattern, as PNG if it ends in .png and PPM otherwise." +
+                    System.lineSeparator());
+  }
+
   private void runController(Interaction[] interactions, ImageUtilModel model,
                             ImageUtilView view) {
     for (Interaction interaction : interactions) {
@@ -0,0 +1,106 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import controller.ImageUtilPipeController;
+import model.ImageUtilModel;
+import model.PPMUtilModel;
+import view.ImageUtilView;
+import view.PPMUtilView;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A JUnit test class for the {@code ImageUtilPipeController} class. Tests that images are read
+ * from and written to streams, including several images in one stream, and that errors are
+ * reported through the view.
+ */
+public class ImageUtilPipeControllerTest {
+  ImageUtilModel model;
+  StringBuilder errors;
+  ImageUtilView view;
+
+  @Before
+  public void init() {
+    this.model = new PPMUtilModel();
+    this.errors = new StringBuilder();
+    this.view = new PPMUtilView(this.errors);
+  }
+
+  private byte[] run(byte[] input, String... chain) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ImageUtilPipeController controller = new ImageUtilPipeController(this.model, this.view,
+        new ByteArrayInputStream(input), out, chain);
+    controller.startEditor();
+    assertEquals(this.errors.length() > 0, controller.hasFailed());
+    return out.toByteArray();
+  }
+
+  private static byte[] ascii(String text) {
+    return text.getBytes(StandardCharsets.US_ASCII);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testIllegalConstructor() {
+    new ImageUtilPipeController(this.model, this.view, null, new ByteArrayOutputStream(),
+        new String[0]);
+  }
+
+  @Test
+  public void testPlainImage() {
+    byte[] out = this.run(ascii("P3\n# two by two\n2 2\n255\n1 2 3 4 5 6\n7 8 9 250 251 252\n"),
+        "horizontal-flip", "|", "brighten 10");
+    assertEquals("P3\n2 2 255\n14 15 16 11 12 13 \n255 255 255 17 18 19 \n",
+        new String(out, StandardCharsets.US_ASCII));
+    assertEquals("", this.errors.toString());
+  }
+
+  @Test
+  public void testSeveralFrames() {
+    byte[] raw = {'P', '6', '\n', '2', ' ', '1', ' ', '2', '5', '5', '\n', 10, 20, 30, 40, 50,
+        60};
+    byte[] plain = ascii("P3 1 2 255 1 1 1 2 2 2\n\n");
+    byte[] input = new byte[plain.length + raw.length];
+    System.arraycopy(plain, 0, input, 0, plain.length);
+    System.arraycopy(raw, 0, input, plain.length, raw.length);
+
+    // a vertical flip holds each image whole, since a stream can't be read backwards
+    byte[] out = this.run(input, "vertical-flip | red-component");
+    byte[] header = ascii("P3\n1 2 255\n2 2 2 \n1 1 1 \nP6\n2 1 255\n");
+    byte[] expected = new byte[header.length + 6];
+    System.arraycopy(header, 0, expected, 0, header.length);
+    System.arraycopy(new byte[] {10, 10, 10, 40, 40, 40}, 0, expected, header.length, 6);
+    assertArrayEquals(expected, out);
+  }
+
+  @Test
+  public void testErrors() {
+    byte[] image = ascii("P3 1 1 255 1 2 3");
+    this.run(image, "blur");
+    assertEquals("\"blur\" can't be streamed." + System.lineSeparator(),
+        this.errors.toString());
+
+    this.errors.setLength(0);
+    this.run(image, "brighten");
+    assertEquals("Not enough inputs." + System.lineSeparator(), this.errors.toString());
+
+    this.errors.setLength(0);
+    this.run(ascii("P3 1 1 255 1 2"), "luma-component");
+    assertTrue(this.errors.toString().startsWith("Unable to read standard input"));
+
+    this.errors.setLength(0);
+    this.run(ascii("P5 1 1 255 1"));
+    assertEquals("Invalid PPM file: plain RAW file should begin with P3"
+        + System.lineSeparator(), this.errors.toString());
+
+    this.errors.setLength(0);
+    assertEquals(0, this.run(new byte[0]).length);
+    assertFalse(this.errors.length() > 0);
+  }
+}
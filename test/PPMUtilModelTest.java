@@ -2,16 +2,39 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.awt.Color;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import model.ImageUtilModel;
+import model.ImageUtilModel.ColorPreset;
 import model.ImageUtilModel.Grayscale;
+import model.ImageUtilModel.Residency;
+import model.ImageUtilModel.ResizeFilter;
+import model.ImageUtilModel.Sampling;
 import model.PPMUtilModel;
+import model.StreamStep;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 
@@ -60,6 +83,27 @@ public class PPMUtilModelTest {
     assertEquals(255, this.ppm.getMaxValue("b"));
   }
 
+  @Test(expected = IllegalArgumentException.class)
+  public void testGetHeightNotLoaded() {
+    this.ppm.getHeight("b");
+  }
+
+  @Test
+  public void testGetImageIsLiveView() {
+    try {
+      this.ppm.loadImage("res/b.ppm", "b");
+    } catch (FileNotFoundException e) {
+      fail("Unable to load b, got message " + e.getMessage());
+    }
+
+    List<List<Color>> image = this.ppm.getImage("b");
+    image.get(35).set(37, new Color(1, 2, 3));
+
+    assertEquals(new Color(1, 2, 3), this.ppm.getImage("b").get(35).get(37));
+    assertEquals(36, image.size());
+    assertEquals(38, image.get(0).size());
+  }
+
   @Test
   public void testGetImage() {
     try {
@@ -141,7 +185,7 @@ public class PPMUtilModelTest {
     // darkens the original colors
     this.ppm.brighten(-100, "b", "bDarker");
     imagePixels = this.ppm.getImage("bDarker");
-    expectedColors = new int[]{145, 115, 155};
+    expectedColors = new int[]{95, 65, 130};
 
     red = (imagePixels.get(0).get(0)).getRed();
     green = (imagePixels.get(0).get(0)).getGreen();
@@ -284,6 +328,7 @@ public class PPMUtilModelTest {
     assertArrayEquals(expectedColors, actualColors);
 
     // when green is the highest value
+    imagePixels = this.ppm.getImage("b");
     (imagePixels.get(0)).set(0, new Color(193, 240, 204));
     expectedColors = new int[]{193, 240, 204};
     red = (imagePixels.get(0).get(0)).getRed();
@@ -303,6 +348,7 @@ public class PPMUtilModelTest {
     assertArrayEquals(expectedColors, actualColors);
 
     // when red is the highest value
+    imagePixels = this.ppm.getImage("b");
     (imagePixels.get(0)).set(0, new Color(222, 135, 145));
     expectedColors = new int[]{222, 135, 145};
     red = (imagePixels.get(0).get(0)).getRed();
@@ -351,6 +397,30 @@ public class PPMUtilModelTest {
     }
   }
 
+  @Test
+  public void testSavePermissions() throws IOException {
+    this.ppm.loadImage("res/b.ppm", "b");
+    Path plain = Paths.get("permissionTest.txt");
+    Path saved = Paths.get("permissionTest.ppm");
+    try {
+      // a new file gets whatever the umask allows, like any other new file
+      Files.newOutputStream(plain).close();
+      this.ppm.savePPMImage("permissionTest", "b");
+      assertEquals(Files.getPosixFilePermissions(plain), Files.getPosixFilePermissions(saved));
+
+      // a file that is saved over keeps its permissions
+      Files.setPosixFilePermissions(saved, PosixFilePermissions.fromString("rw-r-----"));
+      this.ppm.savePPMImage("permissionTest", "b");
+      assertEquals(PosixFilePermissions.fromString("rw-r-----"),
+          Files.getPosixFilePermissions(saved));
+    } catch (UnsupportedOperationException e) {
+      // no POSIX permissions here
+    } finally {
+      Files.deleteIfExists(plain);
+      Files.deleteIfExists(saved);
+    }
+  }
+
   @Test(expected = IllegalArgumentException.class)
   public void testHorizontalFlipException() {
     this.ppm.flipHorizontal("b",
@@ -459,4 +529,1407 @@ public class PPMUtilModelTest {
 
   }
 
-}
\ No newline at end of file
+  @Test
+  public void testOperationsLeaveSourceUnchanged() {
+    try {
+      this.ppm.loadImage("res/b.ppm", "b");
+    } catch (FileNotFoundException e) {
+      fail(e.getMessage());
+    }
+    Color original = this.ppm.getImage("b").get(0).get(0);
+
+    this.ppm.brighten(50, "b", "bBrighter");
+    this.ppm.grayscale(Grayscale.Blue, "b", "Blueb");
+    this.ppm.flipHorizontal("b", "Horizontalb");
+
+    assertEquals(original, this.ppm.getImage("b").get(0).get(0));
+  }
+
+  @Test
+  public void testConcurrentReferences() throws Exception {
+    try {
+      this.ppm.loadImage("res/b.ppm", "b");
+    } catch (FileNotFoundException e) {
+      fail(e.getMessage());
+    }
+
+    ExecutorService pool = Executors.newFixedThreadPool(8);
+    List<Future<?>> results = new ArrayList<Future<?>>();
+    for (int i = 0; i < 64; i += 1) {
+      String name = "b" + i;
+      results.add(pool.submit(() -> {
+        this.ppm.brighten(10, "b", name);
+        this.ppm.flipVertical(name, name);
+        assertEquals(36, this.ppm.getHeight(name));
+        assertEquals(38, this.ppm.getWidth(name));
+        assertEquals(255, this.ppm.getMaxValue("b"));
+        return null;
+      }));
+    }
+    for (Future<?> result : results) {
+      result.get();
+    }
+    pool.shutdown();
+
+    for (int i = 0; i < 64; i += 1) {
+      assertEquals(this.ppm.getImage("b0"), this.ppm.getImage("b" + i));
+    }
+  }
+
+  @Test
+  public void testConcurrentReferencesUnderBudget() throws Exception {
+    // room for about four images, so every thread keeps spilling and dropping the others
+    ImageUtilModel small = new PPMUtilModel(4 * 38 * 36 * 4);
+    try {
+      small.loadImage("res/b.ppm", "b");
+    } catch (FileNotFoundException e) {
+      fail(e.getMessage());
+    }
+    small.brighten(10, "b", "expected");
+    small.flipVertical("expected", "expected");
+    List<List<Color>> expected = small.getImage("expected");
+
+    ExecutorService pool = Executors.newFixedThreadPool(8);
+    List<Future<?>> results = new ArrayList<Future<?>>();
+    for (int i = 0; i < 64; i += 1) {
+      String name = "b" + i;
+      results.add(pool.submit(() -> {
+        small.brighten(10, "b", name);
+        small.flipVertical(name, name);
+        assertEquals(expected, small.getImage(name));
+        return null;
+      }));
+    }
+    for (Future<?> result : results) {
+      result.get();
+    }
+    pool.shutdown();
+
+    for (int i = 0; i < 64; i += 1) {
+      assertEquals(expected, small.getImage("b" + i));
+    }
+  }
+
+  @Test
+  public void testLoadReadsOnlyHeader() throws IOException {
+    File file = File.createTempFile("header-only", ".ppm");
+    file.deleteOnExit();
+    FileWriter writer = new FileWriter(file);
+    writer.write("P3\n# a comment\n4 2\n255\n1 2 3 not-a-pixel\n");
+    writer.close();
+
+    this.ppm.loadImage(file.getPath(), "broken");
+    assertEquals(4, this.ppm.getWidth("broken"));
+    assertEquals(2, this.ppm.getHeight("broken"));
+    assertEquals(255, this.ppm.getMaxValue("broken"));
+
+    try {
+      this.ppm.brighten(10, "broken", "broken-brighter");
+      fail("Decoded pixels that aren't valid");
+    } catch (IllegalStateException e) {
+      assertEquals("Invalid PPM file: expected a number.", e.getMessage());
+    }
+  }
+
+  @Test
+  public void testPrefetchImage() {
+    assertTrue(this.ppm.prefetchImage("res/b.ppm"));
+    assertTrue(this.ppm.prefetchImage("res/b.ppm"));
+    assertTrue(this.ppm.prefetchImage("res/missing.ppm"));
+    try {
+      this.ppm.loadImage("res/b.ppm", "prefetched");
+      this.ppm.loadImage("res/b.ppm", "b");
+    } catch (FileNotFoundException e) {
+      fail(e.getMessage());
+    }
+
+    assertEquals(this.ppm.getImage("b"), this.ppm.getImage("prefetched"));
+  }
+
+  @Test
+  public void testSpillToDisk() {
+    this.ppm = new PPMUtilModel(0);
+    try {
+      this.ppm.loadImage("res/b.ppm", "b");
+    } catch (FileNotFoundException e) {
+      fail(e.getMessage());
+    }
+    assertEquals(Residency.Unloaded, this.ppm.getResidency("b"));
+
+    this.ppm.flipHorizontal("b", "Horizontalb");
+    assertEquals(Residency.Spilled, this.ppm.getResidency("b"));
+    assertEquals(0, this.ppm.getFootprint("b"));
+    assertEquals(Residency.Resident, this.ppm.getResidency("Horizontalb"));
+
+    this.ppm.flipHorizontal("Horizontalb", "b2");
+    assertNotEquals(Residency.Resident, this.ppm.getResidency("Horizontalb"));
+    assertEquals(0, this.ppm.getFootprint("Horizontalb"));
+    assertEquals(this.ppm.getImage("b2"), this.ppm.getImage("b"));
+    assertEquals(Arrays.asList("Horizontalb", "b", "b2"), this.ppm.getReferenceNames());
+  }
+
+  @Test
+  public void testLineage() {
+    this.ppm = new PPMUtilModel(0);
+    try {
+      this.ppm.loadImage("res/b.ppm", "b");
+    } catch (FileNotFoundException e) {
+      fail(e.getMessage());
+    }
+    this.ppm.brighten(10, "b", "bright");
+    List<List<Color>> expected = new ArrayList<>();
+    for (List<Color> row : this.ppm.getImage("bright")) {
+      expected.add(new ArrayList<>(row));
+    }
+    this.ppm.flipVertical("bright", "flipped");
+    assertEquals("loaded from res/b.ppm", this.ppm.getOrigin("b"));
+    assertEquals("brighten by 10 of b", this.ppm.getOrigin("bright"));
+    assertEquals("vertical flip of bright", this.ppm.getOrigin("flipped"));
+
+    // either spilled or dropped to be recomputed from b, but gives the same pixels
+    assertNotEquals(Residency.Resident, this.ppm.getResidency("bright"));
+    assertEquals(expected, this.ppm.getImage("bright"));
+
+    // replacing b cuts bright loose from it without changing its pixels
+    this.ppm.flipHorizontal("flipped", "other");
+    try {
+      this.ppm.loadImage("res/b-horizontal.ppm", "b");
+    } catch (FileNotFoundException e) {
+      fail(e.getMessage());
+    }
+    assertEquals(expected, this.ppm.getImage("bright"));
+
+    // editing a source copies it, so images computed from it don't change
+    this.ppm.flipVertical("bright", "again");
+    this.ppm.getImage("bright").get(0).set(0, new Color(1, 2, 3));
+    this.ppm.flipVertical("again", "back");
+    assertEquals(expected.get(1), this.ppm.getImage("back").get(1));
+    assertEquals(expected.get(0).get(1), this.ppm.getImage("back").get(0).get(1));
+    assertNotEquals(expected.get(0).get(0), this.ppm.getImage("bright").get(0).get(0));
+    assertEquals("brighten by 10 of b, edited", this.ppm.getOrigin("bright"));
+  }
+
+  @Test
+  public void testDropAndPin() {
+    this.ppm = new PPMUtilModel(0);
+    try {
+      this.ppm.loadImage("res/b.ppm", "b");
+    } catch (FileNotFoundException e) {
+      fail(e.getMessage());
+    }
+    this.ppm.setPinned("b", true);
+    assertTrue(this.ppm.isPinned("b"));
+    this.ppm.brighten(10, "b", "bright");
+    this.ppm.flipVertical("bright", "flipped");
+    assertEquals(Residency.Resident, this.ppm.getResidency("b"));
+    assertNotEquals(Residency.Resident, this.ppm.getResidency("bright"));
+
+    // the pin belongs to the name, so it carries over to a new image stored under it
+    this.ppm.flipHorizontal("flipped", "b");
+    assertTrue(this.ppm.isPinned("b"));
+    this.ppm.setPinned("b", false);
+    assertFalse(this.ppm.isPinned("b"));
+
+    this.ppm.dropImage("bright");
+    assertEquals(Arrays.asList("b", "flipped"), this.ppm.getReferenceNames());
+    try {
+      this.ppm.dropImage("bright");
+      fail("Dropped an image twice");
+    } catch (IllegalArgumentException e) {
+      assertEquals("That image hasn't been loaded yet.", e.getMessage());
+    }
+    try {
+      this.ppm.setPinned("bright", true);
+      fail("Pinned a dropped image");
+    } catch (IllegalArgumentException e) {
+      assertEquals("That image hasn't been loaded yet.", e.getMessage());
+    }
+  }
+
+  @Test
+  public void testBufferPool() {
+    try {
+      this.ppm.loadImage("res/b.ppm", "b");
+    } catch (FileNotFoundException e) {
+      fail(e.getMessage());
+    }
+    this.ppm.brighten(10, "b", "out");
+    List<List<Color>> expected = new ArrayList<>();
+    for (List<Color> row : this.ppm.getImage("out")) {
+      expected.add(new ArrayList<>(row));
+    }
+    assertEquals(0, this.ppm.getPoolHits());
+    assertEquals(2, this.ppm.getPoolMisses());
+
+    // overwriting a reference nobody views anymore hands its buffer to the next operation
+    this.ppm.flipVertical("b", "temp");
+    this.ppm.flipHorizontal("b", "temp");
+    assertEquals(4, this.ppm.getPoolMisses());
+    assertEquals(4L * 38 * 36, this.ppm.getPooledBytes());
+    this.ppm.flipHorizontal("b", "other");
+    assertEquals(1, this.ppm.getPoolHits());
+    assertEquals(0, this.ppm.getPooledBytes());
+
+    // dropping also fills the pool; a reused buffer is fully overwritten
+    this.ppm.dropImage("temp");
+    this.ppm.brighten(10, "b", "again");
+    assertEquals(2, this.ppm.getPoolHits());
+    assertEquals(expected, this.ppm.getImage("again"));
+
+    // images seen through getImage keep their buffers
+    this.ppm.dropImage("out");
+    assertEquals(0, this.ppm.getPooledBytes());
+    assertEquals(expected.get(0), this.ppm.getImage("again").get(0));
+  }
+
+  @Test
+  public void testOffHeapImages() {
+    try {
+      this.ppm.loadImage("res/b.ppm", "heap");
+      this.ppm.setOffHeapThreshold(0);
+      this.ppm.loadImage("res/b.ppm", "b");
+    } catch (FileNotFoundException e) {
+      fail(e.getMessage());
+    }
+    assertEquals(0, this.ppm.getOffHeapThreshold());
+    this.ppm.brighten(10, "b", "bright");
+    this.ppm.brighten(10, "heap", "heap-bright");
+    this.ppm.flipVertical("bright", "flipped");
+    this.ppm.flipVertical("flipped", "back");
+    assertTrue(this.ppm.isOffHeap("b"));
+    assertTrue(this.ppm.isOffHeap("back"));
+    assertEquals(this.ppm.getImage("heap-bright"), this.ppm.getImage("back"));
+
+    // off-heap images spill and come back like any other
+    this.ppm.setMemoryBudget(0);
+    assertEquals(0, this.ppm.getFootprint("bright"));
+    assertEquals(this.ppm.getImage("heap-bright"), this.ppm.getImage("bright"));
+    assertTrue(this.ppm.isOffHeap("bright"));
+
+    try {
+      this.ppm.savePPMImage("bSave", "bright");
+      this.ppm.setOffHeapThreshold(Long.MAX_VALUE);
+      this.ppm.loadImage("bSave.ppm", "saved");
+    } catch (IOException e) {
+      fail(e.getMessage());
+    }
+    assertEquals(this.ppm.getImage("heap-bright"), this.ppm.getImage("saved"));
+    assertFalse(this.ppm.isOffHeap("saved"));
+    try {
+      this.ppm.setOffHeapThreshold(-1);
+      fail("Accepted a negative threshold");
+    } catch (IllegalArgumentException e) {
+      assertEquals("The off-heap threshold can't be negative.", e.getMessage());
+    }
+  }
+
+  @Test
+  public void testTiledLayout() {
+    // 150x70 covers full tiles, ragged edge tiles and a ragged corner
+    File file = new File("tiledTest.ppm");
+    try (FileWriter writer = new FileWriter(file)) {
+      writer.write("P3\n150 70\n255\n");
+      for (int i = 0; i < 150 * 70; i += 1) {
+        writer.write((i % 256) + " " + (i / 150 % 256) + " " + (i * 7 % 256) + "\n");
+      }
+    } catch (IOException e) {
+      fail(e.getMessage());
+    }
+    try {
+      this.ppm.loadImage("tiledTest.ppm", "linear");
+      this.ppm.loadImage("tiledTest.ppm", "tiled");
+      this.ppm.setTiled("tiled", true);
+      this.ppm.getImage("linear").get(0).get(0);
+    } catch (FileNotFoundException e) {
+      fail(e.getMessage());
+    } finally {
+      file.delete();
+    }
+    assertTrue(this.ppm.isTiled("tiled"));
+    assertFalse(this.ppm.isTiled("linear"));
+    assertEquals(this.ppm.getImage("linear"), this.ppm.getImage("tiled"));
+
+    this.ppm.flipHorizontal("linear", "linear-h");
+    this.ppm.flipHorizontal("tiled", "tiled-h");
+    this.ppm.flipVertical("linear-h", "linear-hv");
+    this.ppm.flipVertical("tiled-h", "tiled-hv");
+    this.ppm.brighten(20, "linear-hv", "linear-out");
+    this.ppm.brighten(20, "tiled-hv", "tiled-out");
+    this.ppm.grayscale(Grayscale.Luma, "linear-out", "linear-out");
+    this.ppm.grayscale(Grayscale.Luma, "tiled-out", "tiled-out");
+    assertTrue(this.ppm.isTiled("tiled-out"));
+    assertEquals(this.ppm.getImage("linear-out"), this.ppm.getImage("tiled-out"));
+
+    // setting a pixel through the view only touches the tiled image
+    this.ppm.getImage("tiled-hv").get(69).set(149, new Color(1, 2, 3));
+    assertEquals(new Color(1, 2, 3), this.ppm.getImage("tiled-hv").get(69).get(149));
+    assertEquals(this.ppm.getImage("linear-h").get(0).get(149),
+        this.ppm.getImage("tiled-h").get(0).get(149));
+
+    // tiled images stay tiled when spilled and read back, and convert back losslessly
+    this.ppm.setMemoryBudget(0);
+    this.ppm.flipVertical("linear", "spill");
+    assertEquals(0, this.ppm.getFootprint("tiled-out"));
+    assertEquals(this.ppm.getImage("linear-out"), this.ppm.getImage("tiled-out"));
+    assertTrue(this.ppm.isTiled("tiled-out"));
+    this.ppm.setTiled("tiled-out", false);
+    assertFalse(this.ppm.isTiled("tiled-out"));
+    assertEquals(this.ppm.getImage("linear-out"), this.ppm.getImage("tiled-out"));
+  }
+
+  @Test
+  public void testCompressedStorage() {
+    // three colors in stripes, and a white page with one noisy corner tile
+    File stripes = new File("paletteTest.ppm");
+    File page = new File("marginTest.ppm");
+    Color[] colors = {new Color(200, 10, 10), new Color(10, 200, 10), new Color(250, 250, 250)};
+    try (FileWriter writer = new FileWriter(stripes)) {
+      writer.write("P3\n100 80\n255\n");
+      for (int i = 0; i < 100 * 80; i += 1) {
+        Color c = colors[i % 100 / 10 % 3];
+        writer.write(c.getRed() + " " + c.getGreen() + " " + c.getBlue() + "\n");
+      }
+    } catch (IOException e) {
+      fail(e.getMessage());
+    }
+    try (FileWriter writer = new FileWriter(page)) {
+      writer.write("P3\n200 130\n255\n");
+      for (int i = 0; i < 200 * 130; i += 1) {
+        if (i % 200 < 64 && i / 200 < 64) {
+          writer.write((i % 256) + " " + (i / 200) + " " + (i * 7 % 256) + "\n");
+        } else {
+          writer.write("255 255 255\n");
+        }
+      }
+    } catch (IOException e) {
+      fail(e.getMessage());
+    }
+    try {
+      this.ppm.loadImage("paletteTest.ppm", "stripes");
+      this.ppm.loadImage("marginTest.ppm", "page");
+      this.ppm.getImage("stripes").get(0).get(0);
+      this.ppm.getImage("page").get(0).get(0);
+    } catch (FileNotFoundException e) {
+      fail(e.getMessage());
+    } finally {
+      stripes.delete();
+      page.delete();
+    }
+
+    // one byte per pixel plus the palette
+    assertTrue(this.ppm.isPalette("stripes"));
+    assertFalse(this.ppm.isTiled("stripes"));
+    assertEquals(8000 + 1024, this.ppm.getFootprint("stripes"));
+    this.ppm.brighten(30, "stripes", "bright");
+    this.ppm.flipHorizontal("bright", "bright");
+    assertTrue(this.ppm.isPalette("bright"));
+    assertEquals(8000 + 1024, this.ppm.getFootprint("bright"));
+    for (int y = 0; y < 80; y += 1) {
+      for (int x = 0; x < 100; x += 1) {
+        Color c = colors[(99 - x) / 10 % 3];
+        assertEquals(new Color(Math.min(255, c.getRed() + 30),
+            Math.min(255, c.getGreen() + 30), Math.min(255, c.getBlue() + 30)),
+            this.ppm.getImage("bright").get(y).get(x));
+      }
+    }
+    this.ppm.getImage("bright").get(5).set(5, new Color(1, 2, 3));
+    assertEquals(new Color(1, 2, 3), this.ppm.getImage("bright").get(5).get(5));
+    assertEquals(new Color(230, 40, 40), this.ppm.getImage("bright").get(5).get(95));
+
+    // only the noisy tile of the page takes a full tile; the other eleven take one color each
+    assertFalse(this.ppm.isPalette("page"));
+    assertTrue(this.ppm.isTiled("page"));
+    assertEquals(4 * 64 * 64 + 11 * 4, this.ppm.getFootprint("page"));
+    this.ppm.grayscale(Grayscale.Red, "page", "gray");
+    this.ppm.flipVertical("gray", "gray");
+    // the flipped corner straddles two rows of tiles, 64 and 2 pixels high
+    assertEquals(4 * 64 * 66 + 10 * 4, this.ppm.getFootprint("gray"));
+    assertEquals(new Color(255, 255, 255), this.ppm.getImage("gray").get(0).get(199));
+    assertEquals(new Color(10, 10, 10), this.ppm.getImage("gray").get(129).get(10));
+
+    // both storages survive a spill
+    this.ppm.setMemoryBudget(0);
+    this.ppm.flipVertical("stripes", "spill");
+    assertEquals(0, this.ppm.getFootprint("bright"));
+    assertEquals(new Color(1, 2, 3), this.ppm.getImage("bright").get(5).get(5));
+    assertTrue(this.ppm.isPalette("bright"));
+    assertEquals(new Color(10, 10, 10), this.ppm.getImage("gray").get(129).get(10));
+    assertEquals(4 * 64 * 66 + 10 * 4, this.ppm.getFootprint("gray"));
+  }
+
+  @Test
+  public void testStreamImage() {
+    try {
+      this.ppm.loadImage("res/b.ppm", "b");
+    } catch (FileNotFoundException e) {
+      fail(e.getMessage());
+    }
+    this.ppm.grayscale(Grayscale.Luma, "b", "expected");
+    this.ppm.brighten(-10, "expected", "expected");
+    this.ppm.flipVertical("expected", "expected");
+    this.ppm.flipHorizontal("expected", "expected");
+
+    // a raw copy of b, to stream from the bottom up by seeking
+    File raw = new File("rawTest.ppm");
+    List<List<Color>> b = this.ppm.getImage("b");
+    try (FileOutputStream out = new FileOutputStream(raw)) {
+      out.write("P6\n# raw copy of b\n38 36\n255\n".getBytes(StandardCharsets.US_ASCII));
+      for (List<Color> row : b) {
+        for (Color c : row) {
+          out.write(c.getRed());
+          out.write(c.getGreen());
+          out.write(c.getBlue());
+        }
+      }
+    } catch (IOException e) {
+      fail(e.getMessage());
+    }
+
+    try {
+      this.ppm.streamImage("res/b.ppm", Arrays.asList(StreamStep.grayscale(Grayscale.Luma),
+          StreamStep.flipVertical(), StreamStep.brighten(-10), StreamStep.flipHorizontal()),
+          "bSave");
+      this.ppm.loadImage("bSave.ppm", "plain");
+      this.ppm.streamImage("rawTest.ppm", Arrays.asList(StreamStep.flipVertical(),
+          StreamStep.grayscale(Grayscale.Luma), StreamStep.brighten(-10),
+          StreamStep.flipHorizontal()), "bSaveTemp");
+      this.ppm.loadImage("bSaveTemp.ppm", "raw");
+      this.ppm.loadImage("rawTest.ppm", "loaded");
+      assertEquals(this.ppm.getImage("expected"), this.ppm.getImage("plain"));
+      assertEquals(this.ppm.getImage("expected"), this.ppm.getImage("raw"));
+      assertEquals(b, this.ppm.getImage("loaded"));
+    } catch (IOException e) {
+      fail(e.getMessage());
+    } finally {
+      raw.delete();
+    }
+
+    try {
+      this.ppm.streamImage("nothing.ppm", new ArrayList<>(), "bSave");
+      fail("Streamed a file that doesn't exist");
+    } catch (IOException e) {
+      assertEquals("File nothing.ppm not found!", e.getMessage());
+    }
+  }
+
+  @Test
+  public void testSequences() {
+    File dir = new File("sequenceTest");
+    dir.mkdir();
+    try {
+      this.ppm.loadImage("res/b.ppm", "b");
+      // frames 1, 2 and 10 are b brightened by 0, 10 and 90; the odd file is not a frame
+      for (int n : new int[]{1, 2, 10}) {
+        this.ppm.brighten(10 * (n - 1), "b", "frame");
+        this.ppm.savePPMImage(String.format("sequenceTest/f_%03d", n), "frame");
+      }
+      this.ppm.savePPMImage("sequenceTest/f_x", "b");
+
+      assertEquals(3, this.ppm.loadSequence("sequenceTest/f_###.ppm", "seq"));
+      this.ppm.grayscale(Grayscale.Luma, "seq", "gray");
+      this.ppm.flipHorizontal("gray", "gray");
+      this.ppm.brighten(-5, "gray", "out");
+      assertEquals(3, this.ppm.saveSequence("sequenceTest/out_#.ppm", "out"));
+      assertEquals(3, this.ppm.saveSequence("sequenceTest/seq_##.png", "seq"));
+
+      for (int n : new int[]{1, 2, 10}) {
+        this.ppm.brighten(10 * (n - 1), "b", "expected");
+        this.ppm.grayscale(Grayscale.Luma, "expected", "expected");
+        this.ppm.flipHorizontal("expected", "expected");
+        this.ppm.brighten(-5, "expected", "expected");
+        this.ppm.loadImage("sequenceTest/out_" + n + ".ppm", "saved");
+        assertEquals(this.ppm.getImage("expected"), this.ppm.getImage("saved"));
+        assertTrue(new File(String.format("sequenceTest/seq_%02d.png", n)).exists());
+      }
+    } catch (IOException e) {
+      fail(e.getMessage());
+    } finally {
+      for (File f : dir.listFiles()) {
+        f.delete();
+      }
+      dir.delete();
+    }
+
+    try {
+      this.ppm.saveSequence("sequenceTest/out_#.ppm", "nothing");
+      fail("Saved a sequence that was never loaded");
+    } catch (IllegalArgumentException e) {
+      assertEquals("That image hasn't been loaded yet.", e.getMessage());
+    } catch (IOException e) {
+      fail(e.getMessage());
+    }
+    try {
+      this.ppm.loadSequence("res/none_#.ppm", "seq");
+      fail("Loaded a sequence with no frames");
+    } catch (FileNotFoundException e) {
+      assertEquals("No frames match res/none_#.ppm!", e.getMessage());
+    }
+    try {
+      this.ppm.loadSequence("res/b.ppm", "seq");
+      fail("Loaded a sequence without a frame number");
+    } catch (IllegalArgumentException | FileNotFoundException e) {
+      assertEquals("The pattern needs a run of # where the frame number goes.", e.getMessage());
+    }
+  }
+
+  /**
+   * Blurs an image the slow way, with a Gaussian in floating point and edge pixels repeated.
+   *
+   * @param image  the image to blur
+   * @param sigma  the standard deviation of the Gaussian
+   * @param radius how far the kernel reaches
+   * @return the red channel of every pixel of the blurred image, unrounded
+   */
+  private static double[][] gaussianRed(List<List<Color>> image, double sigma, int radius) {
+    int height = image.size();
+    int width = image.get(0).size();
+    double[][] result = new double[height][width];
+    double[] weights = new double[2 * radius + 1];
+    for (int d = -radius; d <= radius; d += 1) {
+      weights[d + radius] = Math.exp(-(d * d) / (2 * sigma * sigma));
+    }
+    for (int y = 0; y < height; y += 1) {
+      for (int x = 0; x < width; x += 1) {
+        double sum = 0;
+        double total = 0;
+        for (int dy = -radius; dy <= radius; dy += 1) {
+          for (int dx = -radius; dx <= radius; dx += 1) {
+            double weight = weights[dx + radius] * weights[dy + radius];
+            int sy = Math.max(0, Math.min(height - 1, y + dy));
+            int sx = Math.max(0, Math.min(width - 1, x + dx));
+            sum += weight * image.get(sy).get(sx).getRed();
+            total += weight;
+          }
+        }
+        result[y][x] = sum / total;
+      }
+    }
+    return result;
+  }
+
+  @Test
+  public void testBlurAndSharpen() {
+    try {
+      this.ppm.loadImage("res/b.ppm", "b");
+    } catch (FileNotFoundException e) {
+      fail(e.getMessage());
+    }
+    List<List<Color>> b = this.ppm.getImage("b");
+
+    // small radii use the exact kernel, off by at most one from rounding
+    this.ppm.blur(2, "b", "small");
+    double[][] exact = gaussianRed(b, 1.0, 3);
+    List<List<Color>> small = this.ppm.getImage("small");
+    for (int y = 0; y < 36; y += 1) {
+      for (int x = 0; x < 38; x += 1) {
+        assertEquals(exact[y][x], small.get(y).get(x).getRed(), 1.0);
+      }
+    }
+
+    // large radii use boxes, which stay close to the Gaussian away from the edges
+    File checks = new File("blurTest.ppm");
+    try (FileWriter writer = new FileWriter(checks)) {
+      writer.write("P3\n120 120\n255\n");
+      for (int i = 0; i < 120 * 120; i += 1) {
+        int v = (i % 120 / 15 + i / 120 / 20) % 2 == 0 ? 40 : 210;
+        writer.write(v + " " + v + " " + v + "\n");
+      }
+    } catch (IOException e) {
+      fail(e.getMessage());
+    }
+    try {
+      this.ppm.loadImage("blurTest.ppm", "checks");
+      this.ppm.blur(20, "checks", "large");
+    } catch (FileNotFoundException e) {
+      fail(e.getMessage());
+    } finally {
+      checks.delete();
+    }
+    exact = gaussianRed(this.ppm.getImage("checks"), 10.0, 30);
+    List<List<Color>> large = this.ppm.getImage("large");
+    double error = 0;
+    for (int y = 40; y < 80; y += 1) {
+      for (int x = 40; x < 80; x += 1) {
+        error += Math.abs(exact[y][x] - large.get(y).get(x).getRed());
+      }
+    }
+    assertTrue(error / (40 * 40) < 1.0);
+
+    // tiled images blur the same and stay tiled
+    this.ppm.setTiled("b", true);
+    this.ppm.setTiled("checks", true);
+    this.ppm.blur(2, "b", "tiled");
+    this.ppm.blur(20, "checks", "tiledLarge");
+    assertTrue(this.ppm.isTiled("tiled"));
+    assertEquals(small, this.ppm.getImage("tiled"));
+    assertEquals(large, this.ppm.getImage("tiledLarge"));
+
+    // sharpening pushes a pixel away from its blur
+    this.ppm.sharpen(2, "b", "sharp");
+    List<List<Color>> sharp = this.ppm.getImage("sharp");
+    for (int y = 0; y < 36; y += 1) {
+      for (int x = 0; x < 38; x += 1) {
+        int expected = Math.max(0, Math.min(255,
+            2 * b.get(y).get(x).getRed() - small.get(y).get(x).getRed()));
+        assertEquals(expected, sharp.get(y).get(x).getRed());
+      }
+    }
+
+    try {
+      this.ppm.blur(0, "b", "none");
+      fail("Blurred with a radius of 0");
+    } catch (IllegalArgumentException e) {
+      assertEquals("Radius must be at least 1.", e.getMessage());
+    }
+    try {
+      this.ppm.sharpen(1, "nothing", "none");
+      fail("Sharpened an image that was never loaded");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testSummedAreaFilters() {
+    try {
+      this.ppm.loadImage("res/b.ppm", "b");
+    } catch (FileNotFoundException e) {
+      fail(e.getMessage());
+    }
+    List<List<Color>> b = this.ppm.getImage("b");
+    this.ppm.boxBlur(2, "b", "box");
+    this.ppm.adaptiveThreshold(3, 5, "b", "threshold");
+    List<List<Color>> box = this.ppm.getImage("box");
+    List<List<Color>> threshold = this.ppm.getImage("threshold");
+
+    // the mean of the square cut off at the edges, and luma against its local mean
+    for (int y = 0; y < 36; y += 1) {
+      for (int x = 0; x < 38; x += 1) {
+        long red = 0;
+        long count = 0;
+        for (int sy = Math.max(0, y - 2); sy <= Math.min(35, y + 2); sy += 1) {
+          for (int sx = Math.max(0, x - 2); sx <= Math.min(37, x + 2); sx += 1) {
+            red += b.get(sy).get(sx).getRed();
+            count += 1;
+          }
+        }
+        assertEquals((2 * red + count) / (2 * count), box.get(y).get(x).getRed());
+
+        long luma = 0;
+        count = 0;
+        for (int sy = Math.max(0, y - 3); sy <= Math.min(35, y + 3); sy += 1) {
+          for (int sx = Math.max(0, x - 3); sx <= Math.min(37, x + 3); sx += 1) {
+            Color c = b.get(sy).get(sx);
+            luma += (int) (c.getRed() * 0.2126 + c.getGreen() * 0.7152 + c.getBlue() * 0.0722);
+            count += 1;
+          }
+        }
+        Color c = b.get(y).get(x);
+        int own = (int) (c.getRed() * 0.2126 + c.getGreen() * 0.7152 + c.getBlue() * 0.0722);
+        Color expected = own * count > luma - 5 * count ? Color.WHITE : Color.BLACK;
+        assertEquals(expected, threshold.get(y).get(x));
+      }
+    }
+
+    // a square bigger than the image is the mean of the whole image everywhere
+    this.ppm.boxBlur(100, "b", "flat");
+    List<List<Color>> flat = this.ppm.getImage("flat");
+    assertEquals(flat.get(0).get(0), flat.get(35).get(37));
+    assertEquals(flat.get(0).get(0), flat.get(17).get(5));
+
+    double[][] stats = this.ppm.regionStats("b", new int[][]{{3, 4, 10, 7}, {0, 0, 38, 36}});
+    int[][] regions = {{3, 4, 10, 7}, {0, 0, 38, 36}};
+    for (int i = 0; i < 2; i += 1) {
+      double sum = 0;
+      double squares = 0;
+      int count = regions[i][2] * regions[i][3];
+      for (int y = regions[i][1]; y < regions[i][1] + regions[i][3]; y += 1) {
+        for (int x = regions[i][0]; x < regions[i][0] + regions[i][2]; x += 1) {
+          int green = b.get(y).get(x).getGreen();
+          sum += green;
+          squares += green * green;
+        }
+      }
+      double mean = sum / count;
+      assertEquals(mean, stats[i][1], 1e-9);
+      assertEquals(Math.sqrt(squares / count - mean * mean), stats[i][4], 1e-9);
+    }
+    assertEquals(Math.round(stats[1][0]), flat.get(0).get(0).getRed());
+
+    try {
+      this.ppm.regionStats("b", new int[][]{{30, 0, 10, 10}});
+      fail("Measured a region outside the image");
+    } catch (IllegalArgumentException e) {
+      assertEquals("The region is not inside the image.", e.getMessage());
+    }
+    try {
+      this.ppm.boxBlur(0, "b", "none");
+      fail("Box blurred with a radius of 0");
+    } catch (IllegalArgumentException e) {
+      assertEquals("Radius must be at least 1.", e.getMessage());
+    }
+  }
+
+  /**
+   * Filters the green channel of an image the slow way, sorting the square around every pixel
+   * with edge pixels repeated.
+   *
+   * @param image  the image to filter
+   * @param radius how far the square reaches
+   * @param rank   0 for the minimum, 1 for the median, 2 for the maximum
+   * @return the filtered green channel
+   */
+  private static int[][] rankGreen(List<List<Color>> image, int radius, int rank) {
+    int height = image.size();
+    int width = image.get(0).size();
+    int[][] result = new int[height][width];
+    int[] window = new int[(2 * radius + 1) * (2 * radius + 1)];
+    for (int y = 0; y < height; y += 1) {
+      for (int x = 0; x < width; x += 1) {
+        int n = 0;
+        for (int dy = -radius; dy <= radius; dy += 1) {
+          for (int dx = -radius; dx <= radius; dx += 1) {
+            int sy = Math.max(0, Math.min(height - 1, y + dy));
+            int sx = Math.max(0, Math.min(width - 1, x + dx));
+            window[n] = image.get(sy).get(sx).getGreen();
+            n += 1;
+          }
+        }
+        Arrays.sort(window);
+        result[y][x] = window[rank * (window.length - 1) / 2];
+      }
+    }
+    return result;
+  }
+
+  @Test
+  public void testRankFilters() {
+    try {
+      this.ppm.loadImage("res/b.ppm", "b");
+    } catch (FileNotFoundException e) {
+      fail(e.getMessage());
+    }
+    List<List<Color>> b = this.ppm.getImage("b");
+    int[][] radii = {{1, 1}, {4, 1}, {1, 0}, {3, 0}, {50, 0}, {2, 2}, {7, 2}};
+    for (int[] test : radii) {
+      int radius = test[0];
+      int rank = test[1];
+      if (rank == 0) {
+        this.ppm.erode(radius, "b", "result");
+      } else if (rank == 1) {
+        this.ppm.median(radius, "b", "result");
+      } else {
+        this.ppm.dilate(radius, "b", "result");
+      }
+      int[][] expected = rankGreen(b, radius, rank);
+      List<List<Color>> result = this.ppm.getImage("result");
+      for (int y = 0; y < 36; y += 1) {
+        for (int x = 0; x < 38; x += 1) {
+          assertEquals(expected[y][x], result.get(y).get(x).getGreen());
+        }
+      }
+    }
+
+    // every channel is filtered, and tiled images give the same result
+    this.ppm.median(3, "b", "median");
+    this.ppm.dilate(3, "b", "dilated");
+    this.ppm.setTiled("b", true);
+    this.ppm.median(3, "b", "tiledMedian");
+    this.ppm.dilate(3, "b", "tiledDilated");
+    assertEquals(this.ppm.getImage("median"), this.ppm.getImage("tiledMedian"));
+    assertEquals(this.ppm.getImage("dilated"), this.ppm.getImage("tiledDilated"));
+    this.ppm.grayscale(Grayscale.Red, "median", "medianRed");
+    this.ppm.grayscale(Grayscale.Red, "b", "bRed");
+    this.ppm.median(3, "bRed", "redMedian");
+    assertEquals(this.ppm.getImage("redMedian"), this.ppm.getImage("medianRed"));
+
+    try {
+      this.ppm.erode(0, "b", "none");
+      fail("Eroded with a radius of 0");
+    } catch (IllegalArgumentException e) {
+      assertEquals("Radius must be at least 1.", e.getMessage());
+    }
+  }
+
+  @Test
+  public void testEdges() {
+    try {
+      this.ppm.loadImage("res/b.ppm", "b");
+    } catch (FileNotFoundException e) {
+      fail(e.getMessage());
+    }
+    this.ppm.edges("b", "edges");
+    this.ppm.grayscale(Grayscale.Luma, "b", "luma");
+    List<List<Color>> luma = this.ppm.getImage("luma");
+    List<List<Color>> edges = this.ppm.getImage("edges");
+
+    // Sobel on the luma image, with edge pixels repeated
+    int[][] kx = {{-1, 0, 1}, {-2, 0, 2}, {-1, 0, 1}};
+    for (int y = 0; y < 36; y += 1) {
+      for (int x = 0; x < 38; x += 1) {
+        int gx = 0;
+        int gy = 0;
+        for (int dy = -1; dy <= 1; dy += 1) {
+          for (int dx = -1; dx <= 1; dx += 1) {
+            int sy = Math.max(0, Math.min(35, y + dy));
+            int sx = Math.max(0, Math.min(37, x + dx));
+            int value = luma.get(sy).get(sx).getRed();
+            gx += kx[dy + 1][dx + 1] * value;
+            gy += kx[dx + 1][dy + 1] * value;
+          }
+        }
+        int expected = Math.min(255, (int) Math.round(Math.sqrt(gx * gx + gy * gy)));
+        assertEquals(new Color(expected, expected, expected), edges.get(y).get(x));
+      }
+    }
+
+    // one byte per pixel and a palette of gray levels
+    assertTrue(this.ppm.isPalette("edges"));
+    assertEquals(38 * 36 + 4 * 256, this.ppm.getFootprint("edges"));
+
+    this.ppm.setTiled("b", true);
+    this.ppm.edges("b", "tiledEdges");
+    assertEquals(edges, this.ppm.getImage("tiledEdges"));
+  }
+
+  @Test
+  public void testResize() {
+    try {
+      this.ppm.loadImage("res/b.ppm", "b");
+    } catch (FileNotFoundException e) {
+      fail(e.getMessage());
+    }
+    List<List<Color>> original = this.ppm.getImage("b");
+
+    // the same size gives back the same image, whatever the filter
+    for (ResizeFilter filter : ResizeFilter.values()) {
+      this.ppm.resize(filter, 38, 36, "b", "same");
+      assertEquals(original, this.ppm.getImage("same"));
+    }
+
+    // halving with the box filter averages every 2 by 2 block
+    this.ppm.resize(ResizeFilter.Box, 19, 18, "b", "half");
+    List<List<Color>> half = this.ppm.getImage("half");
+    assertEquals(18, half.size());
+    assertEquals(19, half.get(0).size());
+    for (int y = 0; y < 18; y += 1) {
+      for (int x = 0; x < 19; x += 1) {
+        int[] sums = new int[3];
+        for (int dy = 0; dy < 2; dy += 1) {
+          for (int dx = 0; dx < 2; dx += 1) {
+            Color color = original.get(2 * y + dy).get(2 * x + dx);
+            sums[0] += color.getRed();
+            sums[1] += color.getGreen();
+            sums[2] += color.getBlue();
+          }
+        }
+        assertEquals(new Color((sums[0] + 2) / 4, (sums[1] + 2) / 4, (sums[2] + 2) / 4),
+            half.get(y).get(x));
+      }
+    }
+
+    // shrinking to a single pixel averages blocks first and lands near the mean
+    long[] means = new long[3];
+    for (List<Color> row : original) {
+      for (Color color : row) {
+        means[0] += color.getRed();
+        means[1] += color.getGreen();
+        means[2] += color.getBlue();
+      }
+    }
+    this.ppm.resize(ResizeFilter.Bilinear, 1, 1, "b", "pixel");
+    Color pixel = this.ppm.getImage("pixel").get(0).get(0);
+    assertEquals(means[0] / (38.0 * 36), pixel.getRed(), 12);
+    assertEquals(means[1] / (38.0 * 36), pixel.getGreen(), 12);
+    assertEquals(means[2] / (38.0 * 36), pixel.getBlue(), 12);
+
+    // doubling with the bilinear filter puts every new pixel a quarter of the way to the
+    // next old pixel along each side, with edge pixels repeated
+    this.ppm.resize(ResizeFilter.Bilinear, 76, 72, "b", "double");
+    List<List<Color>> doubled = this.ppm.getImage("double");
+    for (int y = 0; y < 72; y += 1) {
+      for (int x = 0; x < 76; x += 1) {
+        int nearY = y / 2;
+        int farY = Math.max(0, Math.min(35, y % 2 == 0 ? nearY - 1 : nearY + 1));
+        int nearX = x / 2;
+        int farX = Math.max(0, Math.min(37, x % 2 == 0 ? nearX - 1 : nearX + 1));
+        double expected = 0.5625 * original.get(nearY).get(nearX).getGreen()
+            + 0.1875 * original.get(nearY).get(farX).getGreen()
+            + 0.1875 * original.get(farY).get(nearX).getGreen()
+            + 0.0625 * original.get(farY).get(farX).getGreen();
+        assertEquals(expected, doubled.get(y).get(x).getGreen(), 1);
+      }
+    }
+
+    this.ppm.setTiled("b", true);
+    this.ppm.resize(ResizeFilter.Bilinear, 76, 72, "b", "tiledDouble");
+    assertEquals(this.ppm.getImage("double"), this.ppm.getImage("tiledDouble"));
+
+    try {
+      this.ppm.resize(ResizeFilter.Box, 0, 10, "b", "nothing");
+      fail("Resized to no width");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    try {
+      this.ppm.resize(ResizeFilter.Box, 10, 10, "nothing", "something");
+      fail("Resized an image that isn't loaded");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testExportPyramid() {
+    try {
+      this.ppm.loadImage("res/b.ppm", "b");
+    } catch (FileNotFoundException e) {
+      fail(e.getMessage());
+    }
+    try {
+      assertEquals(4, this.ppm.exportPyramid(4, "pyramidTest", "b"));
+      for (int divisor = 1; divisor <= 8; divisor *= 2) {
+        assertTrue(new File("pyramidTest-" + divisor + ".ppm").exists());
+        assertTrue(new File("pyramidTest-" + divisor + ".png").exists());
+      }
+      assertFalse(new File("pyramidTest-16.ppm").exists());
+
+      // each level averages the 2 by 2 blocks of the one before
+      this.ppm.loadImage("pyramidTest-1.ppm", "level1");
+      assertEquals(this.ppm.getImage("b"), this.ppm.getImage("level1"));
+      this.ppm.loadImage("pyramidTest-2.ppm", "level2");
+      this.ppm.resize(ResizeFilter.Box, 19, 18, "b", "half");
+      assertEquals(this.ppm.getImage("half"), this.ppm.getImage("level2"));
+      this.ppm.loadImage("pyramidTest-8.ppm", "level8");
+      assertEquals(5, this.ppm.getImage("level8").size());
+      assertEquals(5, this.ppm.getImage("level8").get(0).size());
+
+      // no more levels than it takes to get down to one pixel
+      assertEquals(7, this.ppm.exportPyramid(20, "pyramidTest", "b"));
+      this.ppm.loadImage("pyramidTest-64.ppm", "level64");
+      assertEquals(1, this.ppm.getImage("level64").size());
+      assertEquals(1, this.ppm.getImage("level64").get(0).size());
+    } catch (IOException e) {
+      fail(e.getMessage());
+    } finally {
+      for (int divisor = 1; divisor <= 64; divisor *= 2) {
+        new File("pyramidTest-" + divisor + ".ppm").delete();
+        new File("pyramidTest-" + divisor + ".png").delete();
+      }
+    }
+
+    try {
+      this.ppm.exportPyramid(0, "pyramidTest", "b");
+      fail("Exported no levels");
+    } catch (IllegalArgumentException | IOException e) {
+      // expected
+    }
+    try {
+      this.ppm.exportPyramid(2, "pyramidTest", "nothing");
+      fail("Exported an image that isn't loaded");
+    } catch (IllegalArgumentException | IOException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testRotations() {
+    try {
+      this.ppm.loadImage("res/b.ppm", "b");
+    } catch (FileNotFoundException e) {
+      fail(e.getMessage());
+    }
+    List<List<Color>> original = this.ppm.getImage("b");
+    this.ppm.rotate90("b", "90");
+    this.ppm.rotate180("b", "180");
+    this.ppm.rotate270("b", "270");
+    this.ppm.transpose("b", "transposed");
+    List<List<Color>> quarter = this.ppm.getImage("90");
+    List<List<Color>> half = this.ppm.getImage("180");
+    List<List<Color>> threeQuarters = this.ppm.getImage("270");
+    List<List<Color>> transposed = this.ppm.getImage("transposed");
+    assertEquals(38, quarter.size());
+    assertEquals(36, quarter.get(0).size());
+    assertEquals(36, half.size());
+    assertEquals(38, half.get(0).size());
+    for (int y = 0; y < 36; y += 1) {
+      for (int x = 0; x < 38; x += 1) {
+        Color color = original.get(y).get(x);
+        assertEquals(color, quarter.get(x).get(35 - y));
+        assertEquals(color, half.get(35 - y).get(37 - x));
+        assertEquals(color, threeQuarters.get(37 - x).get(y));
+        assertEquals(color, transposed.get(x).get(y));
+      }
+    }
+
+    // four quarter turns come back around
+    this.ppm.rotate90("90", "twice");
+    this.ppm.rotate90("twice", "three times");
+    this.ppm.rotate90("three times", "four times");
+    assertEquals(half, this.ppm.getImage("twice"));
+    assertEquals(threeQuarters, this.ppm.getImage("three times"));
+    assertEquals(original, this.ppm.getImage("four times"));
+
+    // palette images stay palette images
+    this.ppm.edges("b", "edges");
+    this.ppm.transpose("edges", "edgesTransposed");
+    this.ppm.transpose("edgesTransposed", "edgesBack");
+    assertTrue(this.ppm.isPalette("edgesTransposed"));
+    assertEquals(this.ppm.getImage("edges"), this.ppm.getImage("edgesBack"));
+
+    this.ppm.setTiled("b", true);
+    this.ppm.rotate270("b", "tiled270");
+    assertEquals(threeQuarters, this.ppm.getImage("tiled270"));
+
+    try {
+      this.ppm.rotate90("nothing", "something");
+      fail("Rotated an image that isn't loaded");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testWarps() {
+    try {
+      this.ppm.loadImage("res/b.ppm", "b");
+    } catch (FileNotFoundException e) {
+      fail(e.getMessage());
+    }
+    List<List<Color>> original = this.ppm.getImage("b");
+
+    // whole turns and quarter turns land exactly on pixels
+    this.ppm.rotate90("b", "quarter");
+    for (Sampling sampling : Sampling.values()) {
+      this.ppm.rotate(sampling, 0, "b", "none");
+      assertEquals(original, this.ppm.getImage("none"));
+      this.ppm.rotate(sampling, 90, "b", "ninety");
+      assertEquals(this.ppm.getImage("quarter"), this.ppm.getImage("ninety"));
+      this.ppm.affine(sampling, new double[]{1, 0, 0, 0, 1, 0}, "b", "identity");
+      assertEquals(original, this.ppm.getImage("identity"));
+    }
+
+    // the result of a turn holds all of the image, with black corners
+    this.ppm.rotate(Sampling.Bilinear, 45, "b", "diagonal");
+    List<List<Color>> diagonal = this.ppm.getImage("diagonal");
+    assertEquals(53, diagonal.size());
+    assertEquals(53, diagonal.get(0).size());
+    assertEquals(Color.BLACK, diagonal.get(0).get(0));
+    assertEquals(Color.BLACK, diagonal.get(52).get(52));
+
+    // moving by whole pixels copies the image over and leaves black behind
+    this.ppm.affine(Sampling.Bicubic, new double[]{1, 0, 2, 0, 1, 1}, "b", "moved");
+    List<List<Color>> moved = this.ppm.getImage("moved");
+    for (int y = 0; y < 36; y += 1) {
+      for (int x = 0; x < 38; x += 1) {
+        Color expected = x < 2 || y < 1 ? Color.BLACK : original.get(y - 1).get(x - 2);
+        assertEquals(expected, moved.get(y).get(x));
+      }
+    }
+
+    this.ppm.setTiled("b", true);
+    this.ppm.rotate(Sampling.Bilinear, 45, "b", "tiledDiagonal");
+    assertEquals(diagonal, this.ppm.getImage("tiledDiagonal"));
+
+    try {
+      this.ppm.affine(Sampling.Bilinear, new double[]{1, 2, 0, 2, 4, 0}, "b", "flat");
+      fail("Warped with a matrix that can't be inverted");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    try {
+      this.ppm.rotate(Sampling.Bilinear, Double.NaN, "b", "nothing");
+      fail("Rotated by an angle that isn't a number");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    try {
+      this.ppm.rotate(Sampling.Bilinear, 10, "nothing", "something");
+      fail("Rotated an image that isn't loaded");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testColorMatrix() {
+    try {
+      this.ppm.loadImage("res/b.ppm", "b");
+    } catch (FileNotFoundException e) {
+      fail(e.getMessage());
+    }
+    List<List<Color>> original = this.ppm.getImage("b");
+
+    // the presets of the components give exactly the images of the grayscale commands
+    ColorPreset[] presets = {ColorPreset.Red, ColorPreset.Green, ColorPreset.Blue,
+        ColorPreset.Intensity, ColorPreset.Luma};
+    Grayscale[] components = {Grayscale.Red, Grayscale.Green, Grayscale.Blue,
+        Grayscale.Intensity, Grayscale.Luma};
+    for (int i = 0; i < presets.length; i += 1) {
+      this.ppm.colorMatrix(presets[i], "b", "preset");
+      this.ppm.grayscale(components[i], "b", "component");
+      assertEquals(this.ppm.getImage("component"), this.ppm.getImage("preset"));
+    }
+
+    // sepia, checked against the formula in floating point
+    this.ppm.colorMatrix(ColorPreset.Sepia, "b", "sepia");
+    List<List<Color>> sepia = this.ppm.getImage("sepia");
+    for (int y = 0; y < original.size(); y += 1) {
+      for (int x = 0; x < original.get(y).size(); x += 1) {
+        Color c = original.get(y).get(x);
+        long red = Math.min(255, Math.round(
+            0.393 * c.getRed() + 0.769 * c.getGreen() + 0.189 * c.getBlue()));
+        long blue = Math.min(255, Math.round(
+            0.272 * c.getRed() + 0.534 * c.getGreen() + 0.131 * c.getBlue()));
+        assertTrue(Math.abs(red - sepia.get(y).get(x).getRed()) <= 1);
+        assertTrue(Math.abs(blue - sepia.get(y).get(x).getBlue()) <= 1);
+      }
+    }
+
+    // to YCbCr and back folds into about the identity
+    this.ppm.colorMatrix(ColorPreset.YCbCr, "b", "ycbcr");
+    this.ppm.colorMatrix(ColorPreset.FromYCbCr, "ycbcr", "rgb");
+    assertEquals(original, this.ppm.getImage("rgb"));
+
+    // doubling would clamp bright channels, but folded with halving nothing is lost
+    double[] twice = {2, 0, 0, 0, 2, 0, 0, 0, 2};
+    double[] half = {0.5, 0, 0, 0, 0, 0.5, 0, 0, 0, 0, 0.5, 0};
+    this.ppm.colorMatrix(twice, "b", "double");
+    this.ppm.colorMatrix(half, "double", "back");
+    assertEquals(original, this.ppm.getImage("back"));
+    assertEquals("color matrix " + Arrays.toString(half) + " of double",
+        this.ppm.getOrigin("back"));
+
+    // folding never reads the image in between, so pixels moved out of memory stay out
+    long budget = this.ppm.getMemoryBudget();
+    this.ppm.setMemoryBudget(0);
+    this.ppm.setMemoryBudget(budget);
+    assertNotEquals(Residency.Resident, this.ppm.getResidency("double"));
+    this.ppm.colorMatrix(half, "double", "backAgain");
+    assertNotEquals(Residency.Resident, this.ppm.getResidency("double"));
+    assertEquals(original, this.ppm.getImage("backAgain"));
+
+    // an edited image isn't skipped
+    this.ppm.getImage("double").get(0).set(0, new Color(200, 100, 50));
+    this.ppm.colorMatrix(half, "double", "edited");
+    assertEquals(new Color(100, 50, 25), this.ppm.getImage("edited").get(0).get(0));
+    Color next = original.get(0).get(1);
+    assertEquals(new Color((Math.min(255, 2 * next.getRed()) + 1) / 2,
+            (Math.min(255, 2 * next.getGreen()) + 1) / 2,
+            (Math.min(255, 2 * next.getBlue()) + 1) / 2),
+        this.ppm.getImage("edited").get(0).get(1));
+
+    this.ppm.setTiled("b", true);
+    this.ppm.colorMatrix(ColorPreset.Sepia, "b", "tiledSepia");
+    assertTrue(this.ppm.isTiled("tiledSepia"));
+    assertEquals(sepia, this.ppm.getImage("tiledSepia"));
+
+    // the last operation of a sequence folds too
+    File dir = new File("colorMatrixTest");
+    dir.mkdir();
+    try {
+      this.ppm.savePPMImage("colorMatrixTest/f_1", "b");
+      this.ppm.loadSequence("colorMatrixTest/f_#.ppm", "seq");
+      this.ppm.colorMatrix(twice, "seq", "seqDouble");
+      this.ppm.colorMatrix(half, "seqDouble", "seqBack");
+      this.ppm.saveSequence("colorMatrixTest/out_#.ppm", "seqBack");
+      this.ppm.loadImage("colorMatrixTest/out_1.ppm", "saved");
+      assertEquals(original, this.ppm.getImage("saved"));
+    } catch (IOException e) {
+      fail(e.getMessage());
+    } finally {
+      for (File f : dir.listFiles()) {
+        f.delete();
+      }
+      dir.delete();
+    }
+
+    try {
+      this.ppm.colorMatrix(new double[]{1, 0, 0, 0, 1, 0, 0, 0}, "b", "short");
+      fail("Mapped colors with a matrix of eight entries");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    try {
+      this.ppm.colorMatrix(new double[]{5000, 0, 0, 0, 1, 0, 0, 0, 1}, "b", "large");
+      fail("Mapped colors with an entry out of range");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    try {
+      this.ppm.colorMatrix(ColorPreset.Sepia, "nothing", "something");
+      fail("Mapped the colors of an image that isn't loaded");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testColorMatrixInPlace() {
+    try {
+      this.ppm.loadImage("res/b.ppm", "b");
+    } catch (FileNotFoundException e) {
+      fail(e.getMessage());
+    }
+    this.ppm.brighten(10, "b", "brighter");
+    this.ppm.brighten(10, "b", "d");
+    List<List<Color>> brighter = this.ppm.getImage("brighter");
+
+    // the image replaced in place is gone, so the next matrix can't fold into the one before
+    double[] twice = {2, 0, 0, 0, 2, 0, 0, 0, 2};
+    double[] half = {0.5, 0, 0, 0, 0, 0.5, 0, 0, 0, 0, 0.5, 0};
+    this.ppm.colorMatrix(twice, "d", "d");
+    this.ppm.colorMatrix(half, "d", "back");
+    this.ppm.colorMatrix(ColorPreset.Sepia, "b", "b");
+    this.ppm.colorMatrix(ColorPreset.Sepia, "b", "c");
+    List<List<Color>> back = this.ppm.getImage("back");
+    for (int y = 0; y < brighter.size(); y += 1) {
+      for (int x = 0; x < brighter.get(y).size(); x += 1) {
+        Color c = brighter.get(y).get(x);
+        assertEquals(new Color((Math.min(255, 2 * c.getRed()) + 1) / 2,
+                (Math.min(255, 2 * c.getGreen()) + 1) / 2,
+                (Math.min(255, 2 * c.getBlue()) + 1) / 2),
+            back.get(y).get(x));
+      }
+    }
+  }
+
+  @Test
+  public void testHistogramAndStats() {
+    try {
+      this.ppm.loadImage("res/b.ppm", "b");
+    } catch (FileNotFoundException e) {
+      fail(e.getMessage());
+    }
+    List<List<Color>> original = this.ppm.getImage("b");
+    this.ppm.grayscale(Grayscale.Luma, "b", "luma");
+    List<List<Color>> luma = this.ppm.getImage("luma");
+
+    // counted the slow way, along with the sums for the mean and deviation
+    int[][] expected = new int[4][256];
+    double[][] sums = new double[4][2];
+    for (int y = 0; y < original.size(); y += 1) {
+      for (int x = 0; x < original.get(y).size(); x += 1) {
+        Color c = original.get(y).get(x);
+        int[] values = {c.getRed(), c.getGreen(), c.getBlue(), luma.get(y).get(x).getRed()};
+        for (int channel = 0; channel < 4; channel += 1) {
+          expected[channel][values[channel]] += 1;
+          sums[channel][0] += values[channel];
+          sums[channel][1] += values[channel] * values[channel];
+        }
+      }
+    }
+    assertArrayEquals(expected, this.ppm.histogram("b"));
+    double[][] stats = this.ppm.stats("b");
+    for (int channel = 0; channel < 4; channel += 1) {
+      int low = 0;
+      while (expected[channel][low] == 0) {
+        low += 1;
+      }
+      int high = 255;
+      while (expected[channel][high] == 0) {
+        high -= 1;
+      }
+      double mean = sums[channel][0] / (38 * 36);
+      assertEquals(low, stats[channel][0], 0);
+      assertEquals(high, stats[channel][1], 0);
+      assertEquals(mean, stats[channel][2], 1e-9);
+      assertEquals(Math.sqrt(sums[channel][1] / (38 * 36) - mean * mean), stats[channel][3],
+          1e-9);
+    }
+
+    // the same counts come from tiles and from a palette
+    this.ppm.setTiled("b", true);
+    assertArrayEquals(expected, this.ppm.histogram("b"));
+    this.ppm.setTiled("b", false);
+    this.ppm.edges("b", "edges");
+    assertTrue(this.ppm.isPalette("edges"));
+    int[] edgeCounts = new int[256];
+    for (List<Color> row : this.ppm.getImage("edges")) {
+      for (Color c : row) {
+        edgeCounts[c.getGreen()] += 1;
+      }
+    }
+    assertArrayEquals(edgeCounts, this.ppm.histogram("edges")[1]);
+
+    // auto levels stretches every channel to the full range
+    this.ppm.autoLevels("b", "stretched");
+    double[][] stretched = this.ppm.stats("stretched");
+    for (int channel = 0; channel < 3; channel += 1) {
+      assertEquals(0, stretched[channel][0], 0);
+      assertEquals(255, stretched[channel][1], 0);
+    }
+    Color first = original.get(0).get(0);
+    assertEquals(Math.round((first.getRed() - stats[0][0]) * 255.0
+            / (stats[0][1] - stats[0][0])),
+        this.ppm.getImage("stretched").get(0).get(0).getRed());
+
+    // equalizing maps each value to its share of the pixels at or below it
+    this.ppm.equalize("b", "equalized");
+    int below = expected[2][(int) stats[2][0]];
+    int atOrBelow = 0;
+    for (int value = 0; value <= first.getBlue(); value += 1) {
+      atOrBelow += expected[2][value];
+    }
+    assertEquals(Math.round((atOrBelow - below) * 255.0 / (38 * 36 - below)),
+        this.ppm.getImage("equalized").get(0).get(0).getBlue());
+    assertEquals(255, this.ppm.stats("equalized")[2][1], 0);
+
+    // thresholding splits the pixels by luma into black and white
+    this.ppm.threshold("b", "binary");
+    int darkest = 255;
+    int lightest = 0;
+    List<List<Color>> binary = this.ppm.getImage("binary");
+    for (int y = 0; y < binary.size(); y += 1) {
+      for (int x = 0; x < binary.get(y).size(); x += 1) {
+        Color c = binary.get(y).get(x);
+        int level = luma.get(y).get(x).getRed();
+        if (c.equals(Color.WHITE)) {
+          darkest = Math.min(darkest, level);
+        } else {
+          assertEquals(Color.BLACK, c);
+          lightest = Math.max(lightest, level);
+        }
+      }
+    }
+    assertTrue(lightest < darkest);
+    assertEquals(38 * 36, this.ppm.histogram("binary")[0][0]
+        + this.ppm.histogram("binary")[0][255]);
+
+    // the counts are thrown away when the image changes
+    Color old = original.get(0).get(0);
+    this.ppm.getImage("b").get(0).set(0, new Color(255, 255, 255));
+    expected[0][old.getRed()] -= 1;
+    expected[0][255] += 1;
+    assertArrayEquals(expected[0], this.ppm.histogram("b")[0]);
+
+    try {
+      this.ppm.histogram("nothing");
+      fail("Counted an image that isn't loaded");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    try {
+      this.ppm.equalize("nothing", "something");
+      fail("Equalized an image that isn't loaded");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testPipeImages() {
+    byte[] input = ("P3 2 1 255 10 20 30 40 50 60\nP3 1 1 255 0 0 0\n")
+        .getBytes(StandardCharsets.US_ASCII);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try {
+      assertEquals(2, this.ppm.pipeImages(new ByteArrayInputStream(input),
+          Arrays.asList(StreamStep.brighten(-20), StreamStep.flipHorizontal()), out));
+    } catch (IOException e) {
+      fail(e.getMessage());
+    }
+    assertEquals("P3\n2 1 255\n20 30 40 0 0 10 \nP3\n1 1 255\n0 0 0 \n",
+        new String(out.toByteArray(), StandardCharsets.US_ASCII));
+  }
+
+}